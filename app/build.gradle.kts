@@ -52,6 +52,17 @@ android {
     composeOptions {
         kotlinCompilerExtensionVersion = "1.5.1"
     }
+    testOptions {
+        // Robolectric tests (WorkManager test driver) need the merged manifest and resources.
+        unitTests {
+            isIncludeAndroidResources = true
+        }
+    }
+    sourceSets {
+        // JVM benchmarks build with the unit tests but only run with -Pbenchmark:
+        // ./gradlew :app:testDebugUnitTest -Pbenchmark
+        getByName("test").java.srcDir("src/benchmark/java")
+    }
     packaging {
         resources {
             excludes += "/META-INF/{AL2.0,LGPL2.1}"
@@ -66,6 +77,14 @@ android {
     }
 }
 
+tasks.withType<Test>().configureEach {
+    if (project.hasProperty("benchmark")) {
+        testLogging.showStandardStreams = true
+    } else {
+        exclude("**/*Benchmark*")
+    }
+}
+
 // Suppress the Java version warnings
 tasks.withType<org.jetbrains.kotlin.gradle.tasks.KotlinCompile>().configureEach {
     kotlinOptions {
@@ -120,6 +139,9 @@ dependencies {
     implementation("org.apache.poi:poi:5.2.5")
     implementation("org.apache.poi:poi-ooxml:5.2.5")
 
+    // WorkManager (outbox sync scheduling)
+    implementation("androidx.work:work-runtime-ktx:2.9.0")
+
     // DataStore (Shop Settings persistence)
     implementation("androidx.datastore:datastore-preferences:1.1.1")
 
@@ -171,6 +193,12 @@ dependencies {
     implementation("org.jetbrains.kotlinx:kotlinx-serialization-json:1.6.0")
 
     testImplementation("junit:junit:4.13.2")
+    // android.jar only stubs org.json; JVM unit tests need the real implementation.
+    testImplementation("org.json:json:20231013")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
+    testImplementation("org.robolectric:robolectric:4.11.1")
+    testImplementation("androidx.test:core:1.5.0")
+    testImplementation("androidx.work:work-testing:2.9.0")
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.5.1")
     androidTestImplementation(platform("androidx.compose:compose-bom:2023.08.00"))
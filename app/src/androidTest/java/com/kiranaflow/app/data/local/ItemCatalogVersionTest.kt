@@ -0,0 +1,75 @@
+package com.kiranaflow.app.data.local
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * BarcodeIndex rebuilds on `item_catalog_version` invalidations, so the triggers must bump it for every
+ * write that can change a barcode lookup and leave it alone for stock-only updates.
+ */
+@RunWith(AndroidJUnit4::class)
+class ItemCatalogVersionTest {
+    private lateinit var db: KiranaDatabase
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), KiranaDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        // Room does not manage custom triggers; getDatabase installs them from its onOpen callback.
+        KiranaDatabase.installTriggers(db.openHelper.writableDatabase)
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun bumpsOnCatalogWritesOnly() = runBlocking {
+        val items = db.itemDao()
+        val id = items.insertItem(item()).toInt()
+        val afterInsert = version()
+
+        items.decreaseStock(id, 2)
+        items.increaseStockKg(id, 0.5)
+        assertEquals(afterInsert, version())
+
+        // @Update rewrites every column; unchanged name/price/barcode must not count.
+        val current = items.getItemById(id)!!
+        items.updateItem(current.copy(stock = current.stock + 5))
+        assertEquals(afterInsert, version())
+
+        items.updateItem(current.copy(barcode = "8902002"))
+        assertEquals(afterInsert + 1, version())
+
+        items.softDelete(id)
+        assertEquals(afterInsert + 2, version())
+    }
+
+    private fun version(): Long =
+        db.openHelper.readableDatabase.query("SELECT version FROM item_catalog_version WHERE id = 0").use { c ->
+            if (c.moveToFirst()) c.getLong(0) else 0L
+        }
+
+    private fun item() = ItemEntity(
+        name = "Toor Dal",
+        price = 100.0,
+        stock = 10,
+        category = "Grocery",
+        rackLocation = null,
+        marginPercentage = 0.0,
+        barcode = "8901001",
+        costPrice = 80.0,
+        gstPercentage = null,
+        reorderPoint = 0,
+        vendorId = null
+    )
+}
@@ -0,0 +1,286 @@
+package com.kiranaflow.app.data.local
+
+import android.content.Context
+import androidx.room.Room
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Upgrades a hand-built v18 database (the last release before daily_rollups) through every migration.
+ * Room validates the migrated schema against the entities when it opens, so a migration that reads a
+ * column from a later version, or leaves a table out of shape, fails here.
+ */
+@RunWith(AndroidJUnit4::class)
+class KiranaDatabaseMigrationTest {
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(DB_NAME)
+    }
+
+    @After
+    fun tearDown() {
+        context.deleteDatabase(DB_NAME)
+    }
+
+    @Test
+    fun upgradesFromV18AndBackfillsRollups() = runBlocking {
+        createV18 { db ->
+            db.execSQL(
+                "INSERT INTO items (id, name, price, isLoose, pricePerKg, stockKg, stock, category, rackLocation, " +
+                    "marginPercentage, barcode, costPrice, gstPercentage, reorderPoint, vendorId, isDeleted) " +
+                    "VALUES (1, 'Toor Dal', 120.0, 0, 0.0, 0.0, 10, 'Grocery', NULL, 20.0, '8901001', 100.0, NULL, 2, NULL, 0)"
+            )
+            db.execSQL(
+                "INSERT INTO transactions (id, title, type, amount, date, time, customerId, vendorId, paymentMode, status, updatedAt) " +
+                    "VALUES (1, 'Sale', 'SALE', 240.0, $SALE_AT, '10:00', NULL, NULL, 'CASH', 'POSTED', 0)"
+            )
+            db.execSQL(
+                "INSERT INTO transaction_items (transactionId, itemId, itemNameSnapshot, qty, unit, price) " +
+                    "VALUES (1, 1, 'Toor Dal', 2.0, 'PCS', 120.0)"
+            )
+            db.execSQL(
+                "INSERT INTO outbox (opId, entityType, entityId, op, payloadJson, createdAtMillis, status) " +
+                    "VALUES ('op-1', 'ITEM', '1', 'UPSERT', '{\"id\":1,\"name\":\"Toor Dal\"}', 0, 'PENDING')"
+            )
+        }
+
+        val db = Room.databaseBuilder(context, KiranaDatabase::class.java, DB_NAME)
+            .addMigrations(*KiranaDatabase.MIGRATIONS)
+            .allowMainThreadQueries()
+            .build()
+        try {
+            val totals = db.dailyRollupDao().observeTotals().first()
+            assertEquals(240.0, totals.revenue, 0.0001)
+            // No sale-time snapshot on v18 lines: the backfill costs them at items.costPrice.
+            assertEquals(200.0, totals.cogs, 0.0001)
+
+            db.openHelper.readableDatabase.query("SELECT unitCostSnapshot FROM transaction_items").use { c ->
+                c.moveToFirst()
+                assertEquals(true, c.isNull(0))
+            }
+            db.openHelper.readableDatabase.query("SELECT COUNT(*) FROM outbox WHERE payload IS NOT NULL").use { c ->
+                c.moveToFirst()
+                assertEquals(1, c.getInt(0))
+            }
+        } finally {
+            db.close()
+        }
+    }
+
+    private fun createV18(seed: (SupportSQLiteDatabase) -> Unit) {
+        val config = SupportSQLiteOpenHelper.Configuration.builder(context)
+            .name(DB_NAME)
+            .callback(object : SupportSQLiteOpenHelper.Callback(18) {
+                override fun onCreate(db: SupportSQLiteDatabase) {
+                    V18_SCHEMA.forEach { db.execSQL(it) }
+                }
+
+                override fun onUpgrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) = Unit
+            })
+            .build()
+        FrameworkSQLiteOpenHelperFactory().create(config).use { helper ->
+            seed(helper.writableDatabase)
+        }
+    }
+
+    private companion object {
+        const val DB_NAME = "migration-test.db"
+
+        // 2025-01-15 12:00 UTC: mid-day in every zone, so it lands on one local day.
+        const val SALE_AT = 1736942400000L
+
+        /** Tables as the v18 entities declared them (see the baseline KiranaDatabase, version = 18). */
+        val V18_SCHEMA = listOf(
+            """
+            CREATE TABLE items (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                name TEXT NOT NULL,
+                price REAL NOT NULL,
+                isLoose INTEGER NOT NULL,
+                pricePerKg REAL NOT NULL,
+                stockKg REAL NOT NULL,
+                stock INTEGER NOT NULL,
+                category TEXT NOT NULL,
+                rackLocation TEXT,
+                marginPercentage REAL NOT NULL,
+                barcode TEXT,
+                costPrice REAL NOT NULL,
+                gstPercentage REAL,
+                hsnCode TEXT,
+                reorderPoint INTEGER NOT NULL,
+                vendorId INTEGER,
+                imageUri TEXT,
+                expiryDateMillis INTEGER,
+                batchSize INTEGER,
+                isDeleted INTEGER NOT NULL
+            )
+            """,
+            """
+            CREATE TABLE parties (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                name TEXT NOT NULL,
+                phone TEXT NOT NULL,
+                type TEXT NOT NULL,
+                gstNumber TEXT,
+                upiId TEXT,
+                stateCode INTEGER,
+                balance REAL NOT NULL,
+                openingDue REAL NOT NULL
+            )
+            """,
+            """
+            CREATE TABLE transactions (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                title TEXT NOT NULL,
+                type TEXT NOT NULL,
+                amount REAL NOT NULL,
+                date INTEGER NOT NULL,
+                time TEXT NOT NULL,
+                customerId INTEGER,
+                vendorId INTEGER,
+                paymentMode TEXT NOT NULL,
+                status TEXT NOT NULL,
+                gstFiledPeriod TEXT,
+                updatedAt INTEGER NOT NULL,
+                receiptImageUri TEXT
+            )
+            """,
+            """
+            CREATE TABLE transaction_items (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                transactionId INTEGER NOT NULL,
+                itemId INTEGER,
+                itemNameSnapshot TEXT NOT NULL,
+                qty REAL NOT NULL,
+                unit TEXT NOT NULL DEFAULT 'PCS',
+                price REAL NOT NULL,
+                hsnCodeSnapshot TEXT,
+                gstRate REAL NOT NULL DEFAULT 0.0,
+                taxableValue REAL NOT NULL DEFAULT 0.0,
+                cgstAmount REAL NOT NULL DEFAULT 0.0,
+                sgstAmount REAL NOT NULL DEFAULT 0.0,
+                igstAmount REAL NOT NULL DEFAULT 0.0,
+                FOREIGN KEY(transactionId) REFERENCES transactions(id) ON DELETE CASCADE,
+                FOREIGN KEY(itemId) REFERENCES items(id) ON DELETE SET NULL
+            )
+            """,
+            "CREATE INDEX index_transaction_items_transactionId ON transaction_items(transactionId)",
+            "CREATE INDEX index_transaction_items_itemId ON transaction_items(itemId)",
+            """
+            CREATE TABLE users (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                name TEXT NOT NULL,
+                role TEXT NOT NULL,
+                pin TEXT,
+                isActive INTEGER NOT NULL
+            )
+            """,
+            """
+            CREATE TABLE transaction_adjustments (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                originalTransactionId INTEGER NOT NULL,
+                adjustmentType TEXT NOT NULL,
+                reason TEXT NOT NULL,
+                userId INTEGER,
+                createdAt INTEGER NOT NULL,
+                netAmountChange REAL NOT NULL,
+                gstType TEXT,
+                FOREIGN KEY(originalTransactionId) REFERENCES transactions(id) ON DELETE CASCADE
+            )
+            """,
+            "CREATE INDEX index_transaction_adjustments_originalTransactionId ON transaction_adjustments(originalTransactionId)",
+            """
+            CREATE TABLE transaction_adjustment_items (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                adjustmentId INTEGER NOT NULL,
+                itemId INTEGER,
+                itemNameSnapshot TEXT NOT NULL,
+                quantityDelta REAL NOT NULL,
+                priceDelta REAL NOT NULL,
+                taxDelta REAL NOT NULL,
+                FOREIGN KEY(adjustmentId) REFERENCES transaction_adjustments(id) ON DELETE CASCADE
+            )
+            """,
+            "CREATE INDEX index_transaction_adjustment_items_adjustmentId ON transaction_adjustment_items(adjustmentId)",
+            "CREATE INDEX index_transaction_adjustment_items_itemId ON transaction_adjustment_items(itemId)",
+            """
+            CREATE TABLE stock_movements (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                itemId INTEGER NOT NULL,
+                delta REAL NOT NULL,
+                source TEXT NOT NULL,
+                transactionId INTEGER,
+                adjustmentId INTEGER,
+                userId INTEGER,
+                reason TEXT,
+                createdAt INTEGER NOT NULL
+            )
+            """,
+            "CREATE INDEX index_stock_movements_itemId ON stock_movements(itemId)",
+            "CREATE INDEX index_stock_movements_transactionId ON stock_movements(transactionId)",
+            "CREATE INDEX index_stock_movements_adjustmentId ON stock_movements(adjustmentId)",
+            """
+            CREATE TABLE transaction_edit_history (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                transactionId INTEGER NOT NULL,
+                fieldChanged TEXT NOT NULL,
+                oldValue TEXT,
+                newValue TEXT,
+                userId INTEGER,
+                reason TEXT NOT NULL,
+                createdAt INTEGER NOT NULL
+            )
+            """,
+            "CREATE INDEX index_transaction_edit_history_transactionId ON transaction_edit_history(transactionId)",
+            """
+            CREATE TABLE reminders (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                title TEXT NOT NULL,
+                type TEXT NOT NULL,
+                refId INTEGER,
+                dueAt INTEGER NOT NULL,
+                note TEXT,
+                isDone INTEGER NOT NULL,
+                completedAtMillis INTEGER
+            )
+            """,
+            """
+            CREATE TABLE outbox (
+                id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                opId TEXT NOT NULL,
+                entityType TEXT NOT NULL,
+                entityId TEXT,
+                op TEXT NOT NULL,
+                payloadJson TEXT,
+                createdAtMillis INTEGER NOT NULL,
+                lastAttemptAtMillis INTEGER,
+                status TEXT NOT NULL,
+                error TEXT
+            )
+            """,
+            """
+            CREATE TABLE billing_sessions (
+                sessionId TEXT NOT NULL,
+                createdAt INTEGER NOT NULL,
+                customerId INTEGER,
+                customerName TEXT,
+                itemsJson TEXT NOT NULL,
+                status TEXT NOT NULL,
+                PRIMARY KEY(sessionId)
+            )
+            """
+        ).map { it.trimIndent() }
+    }
+}
@@ -0,0 +1,96 @@
+package com.kiranaflow.app.data.local
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * The "N newest per party" reads of [PartyKpiDao] must drive from `parties` and fetch transactions by
+ * rowid. The device has no ANALYZE stats, so an unpinned join order lets SQLite scan `transactions`
+ * in the outer loop (one correlated subquery per transaction).
+ */
+@RunWith(AndroidJUnit4::class)
+class PartyKpiQueryPlanTest {
+    private lateinit var db: KiranaDatabase
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), KiranaDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun recentVendorTransactionsDriveFromParties() {
+        assertPartiesOuterLoop(RECENT_VENDOR_TRANSACTIONS_SQL)
+    }
+
+    @Test
+    fun recentCustomerTransactionsDriveFromParties() {
+        assertPartiesOuterLoop(RECENT_CUSTOMER_TRANSACTIONS_SQL)
+    }
+
+    @Test
+    fun returnsTheNewestPerParty() = runBlocking {
+        val parties = db.partyDao()
+        val txs = db.transactionDao()
+        val vendor = parties.insertParty(PartyEntity(name = "Vendor", phone = "1", type = "VENDOR")).toInt()
+        val customer = parties.insertParty(PartyEntity(name = "Customer", phone = "2", type = "CUSTOMER")).toInt()
+        for (day in 1..5L) {
+            txs.insertTransaction(tx(type = "EXPENSE", date = day, customerId = null, vendorId = vendor))
+            txs.insertTransaction(tx(type = "SALE", date = day, customerId = customer, vendorId = null))
+        }
+
+        val recentVendor = db.partyKpiDao().recentVendorTransactions(perVendor = 2).first()
+        assertEquals(listOf(5L, 4L), recentVendor.map { it.date })
+        assertTrue(recentVendor.all { it.vendorId == vendor })
+
+        val recentCustomer = db.partyKpiDao().recentCustomerTransactions(perCustomer = 3).first()
+        assertEquals(listOf(5L, 4L, 3L), recentCustomer.map { it.date })
+        assertTrue(recentCustomer.all { it.customerId == customer })
+    }
+
+    private fun assertPartiesOuterLoop(sql: String) {
+        val details = mutableListOf<String>()
+        db.openHelper.readableDatabase.query("EXPLAIN QUERY PLAN $sql", arrayOf<Any>(20)).use { c ->
+            val column = c.getColumnIndexOrThrow("detail")
+            while (c.moveToNext()) details += c.getString(column)
+        }
+        val plan = details.joinToString("\n")
+
+        // "SCAN p" on current SQLite, "SCAN TABLE parties AS p" on older releases; r is the subquery.
+        val loops = details.mapNotNull { LOOP.find(it)?.groupValues?.get(2) }.filter { it != "r" }
+        assertEquals(plan, listOf("p", "t"), loops)
+        assertTrue(plan, details.any { it.contains("INTEGER PRIMARY KEY") })
+        assertFalse(plan, plan.contains("AUTOMATIC"))
+    }
+
+    private fun tx(type: String, date: Long, customerId: Int?, vendorId: Int?) = TransactionEntity(
+        title = type,
+        type = type,
+        amount = 100.0,
+        date = date,
+        time = "",
+        customerId = customerId,
+        vendorId = vendorId,
+        paymentMode = "CASH"
+    )
+
+    private companion object {
+        val LOOP = Regex("""^(SCAN|SEARCH) (?:TABLE \w+ AS )?(\w+)""")
+    }
+}
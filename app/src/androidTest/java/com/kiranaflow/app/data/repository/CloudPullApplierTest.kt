@@ -0,0 +1,152 @@
+package com.kiranaflow.app.data.repository
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.data.local.PulledItem
+import com.kiranaflow.app.data.local.PulledLine
+import com.kiranaflow.app.data.local.PulledParty
+import com.kiranaflow.app.data.local.PulledStockMovement
+import com.kiranaflow.app.data.local.PulledTransaction
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Changes made on the shop's other phone, as [CloudPullApplier] sees them: restocks arrive as stock
+ * movements, voids and edits as a changed copy of a transaction already pulled. Pages are applied
+ * twice where the realtime manager would re-read them (rows newer than its settle window).
+ */
+@RunWith(AndroidJUnit4::class)
+class CloudPullApplierTest {
+    private lateinit var db: KiranaDatabase
+    private lateinit var applier: CloudPullApplier
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), KiranaDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        applier = CloudPullApplier(db)
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun restockFromTheOtherPhoneIsAddedOnce() = runBlocking {
+        applier.applyItems(ME, listOf(item()), null)
+        val id = db.itemDao().getAllItemsSync().single().id
+        assertEquals(0, stockOf(id))
+
+        val restock = listOf(PulledStockMovement(OTHER, "op-1", ITEM_ID, 24.0))
+        assertEquals(1, applier.applyStockMovements(ME, restock, null))
+        assertEquals(24, stockOf(id))
+
+        // Re-read next poll: nothing more.
+        assertEquals(0, applier.applyStockMovements(ME, restock, null))
+        assertEquals(24, stockOf(id))
+
+        // A correction and a movement of an item this phone never pulled.
+        applier.applyStockMovements(
+            ME,
+            listOf(PulledStockMovement(OTHER, "op-2", ITEM_ID, -4.0), PulledStockMovement(OTHER, "op-3", "99", 5.0)),
+            null
+        )
+        assertEquals(20, stockOf(id))
+    }
+
+    @Test
+    fun voidFromTheOtherPhoneRestoresStockAndKhata() = runBlocking {
+        val id = pullStockedItemAndCustomer()
+        applier.applyTransactions(ME, listOf(creditSale(qty = 3.0, status = "POSTED")), null)
+        assertEquals(7, stockOf(id))
+        assertEquals(150.0, customerBalance(), 0.001)
+
+        // The void sends status only; amount comes back null.
+        val voided = creditSale(qty = 3.0, status = "VOIDED").copy(amount = null, paymentMode = null)
+        assertEquals(1, applier.applyTransactions(ME, listOf(voided), null))
+        assertEquals(10, stockOf(id))
+        assertEquals(0.0, customerBalance(), 0.001)
+        assertEquals("VOIDED", db.cloudPullDao().transactionsByIds(listOf(pulledSaleId())).single().status)
+
+        assertEquals(0, applier.applyTransactions(ME, listOf(voided), null))
+        assertEquals(10, stockOf(id))
+        assertEquals(0.0, customerBalance(), 0.001)
+    }
+
+    @Test
+    fun editFromTheOtherPhoneMovesStockAndKhataByTheDifference() = runBlocking {
+        val id = pullStockedItemAndCustomer()
+        applier.applyTransactions(ME, listOf(creditSale(qty = 3.0, status = "POSTED")), null)
+
+        val edited = creditSale(qty = 2.0, status = "POSTED")
+        assertEquals(1, applier.applyTransactions(ME, listOf(edited), null))
+        assertEquals(8, stockOf(id))
+        assertEquals(100.0, customerBalance(), 0.001)
+        val txId = pulledSaleId()
+        assertEquals(100.0, db.cloudPullDao().transactionsByIds(listOf(txId)).single().amount, 0.001)
+        assertEquals(2.0, db.cloudPullDao().linesOfTransactions(listOf(txId)).single().qty, 0.0)
+
+        assertEquals(0, applier.applyTransactions(ME, listOf(edited), null))
+        assertEquals(8, stockOf(id))
+    }
+
+    // The other phone's item with 10 in stock, and its customer.
+    private suspend fun pullStockedItemAndCustomer(): Int {
+        applier.applyParties(ME, listOf(PulledParty(OTHER, CUSTOMER_ID, "CUSTOMER", "Sharma Ji", "9876543210", null)), null)
+        applier.applyItems(ME, listOf(item()), null)
+        applier.applyStockMovements(ME, listOf(PulledStockMovement(OTHER, "op-open", ITEM_ID, 10.0)), null)
+        return db.itemDao().getAllItemsSync().single().id
+    }
+
+    private suspend fun stockOf(itemId: Int): Int = db.itemDao().getItemById(itemId)!!.stock
+
+    private suspend fun customerBalance(): Double = db.partyDao().getAllPartiesSync().single().balance
+
+    private suspend fun pulledSaleId(): Int =
+        db.cloudPullDao().remoteIds("TRANSACTION", OTHER, listOf(SALE_ID)).single().localId
+
+    private fun item() = PulledItem(
+        deviceId = OTHER,
+        localId = ITEM_ID,
+        name = "Toor Dal",
+        category = "Staples",
+        price = 50.0,
+        costPrice = 40.0,
+        gstPercentage = null,
+        reorderPoint = 5,
+        vendorId = null,
+        rackLocation = null,
+        barcode = null,
+        expiryDateMillis = null
+    )
+
+    private fun creditSale(qty: Double, status: String) = PulledTransaction(
+        deviceId = OTHER,
+        localId = SALE_ID,
+        type = "SALE",
+        paymentMode = "CREDIT",
+        customerId = CUSTOMER_ID,
+        vendorId = null,
+        amount = qty * 50.0,
+        note = null,
+        status = status,
+        lines = listOf(PulledLine(itemId = ITEM_ID, name = "Toor Dal", qty = qty, unit = "PCS", price = 50.0)),
+        occurredAtMillis = 1_700_000_000_000L
+    )
+
+    private companion object {
+        const val ME = "phone-a"
+        const val OTHER = "phone-b"
+        const val ITEM_ID = "7"
+        const val CUSTOMER_ID = "3"
+        const val SALE_ID = "41"
+    }
+}
@@ -0,0 +1,84 @@
+package com.kiranaflow.app.data.repository
+
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.kiranaflow.app.data.local.ItemEntity
+import com.kiranaflow.app.data.local.KiranaDatabase
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * items_fts must follow edits made through [KiranaRepository.updateItem]: a REPLACE-style write
+ * would leave the old name/barcode tokens indexed.
+ */
+@RunWith(AndroidJUnit4::class)
+class ItemSearchRenameTest {
+    private lateinit var db: KiranaDatabase
+    private lateinit var repo: KiranaRepository
+
+    @Before
+    fun setUp() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), KiranaDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        repo = KiranaRepository(db)
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun renamedItemNoLongerMatchesOldNameOrBarcode() = runBlocking {
+        val id = db.itemDao().insertItem(item(name = "Toor Dal", barcode = "8901001")).toInt()
+        assertEquals(listOf(id), repo.searchItemsRanked("toor").first().map { it.id })
+
+        val current = db.itemDao().getItemById(id)!!
+        assertEquals(id, repo.updateItem(current.copy(name = "Moong Dal", barcode = "8902002")))
+
+        assertTrue(repo.searchItemsRanked("toor").first().isEmpty())
+        assertTrue(repo.searchItemsRanked("8901001").first().isEmpty())
+        assertEquals(listOf(id), repo.searchItemsRanked("moong").first().map { it.id })
+        assertEquals(listOf(id), repo.searchItemsRanked("8902002").first().map { it.id })
+        // Unchanged tokens still match exactly once (no duplicate docid).
+        assertEquals(listOf(id), repo.searchItemsRanked("dal").first().map { it.id })
+    }
+
+    @Test
+    fun updateOfMissingRowInserts() = runBlocking {
+        val id = repo.updateItem(item(name = "Sugar", barcode = null))
+        assertTrue(id > 0)
+        assertEquals(listOf(id), repo.searchItemsRanked("sugar").first().map { it.id })
+    }
+
+    @Test
+    fun midWordQueryFallsBackToSubstring() = runBlocking {
+        val id = db.itemDao().insertItem(item(name = "Toordal Loose", barcode = "8901001")).toInt()
+        // No word starts with "dal" or "01001"; the prefix search finds nothing, the fallback does.
+        assertEquals(listOf(id), repo.searchItemsRanked("dal").first().map { it.id })
+        assertEquals(listOf(id), repo.searchItemsRanked("01001").first().map { it.id })
+        assertTrue(repo.searchItemsRanked("moong").first().isEmpty())
+    }
+
+    private fun item(name: String, barcode: String?) = ItemEntity(
+        name = name,
+        price = 100.0,
+        stock = 10,
+        category = "Grocery",
+        rackLocation = null,
+        marginPercentage = 0.0,
+        barcode = barcode,
+        costPrice = 80.0,
+        gstPercentage = null,
+        reorderPoint = 0,
+        vendorId = null
+    )
+}
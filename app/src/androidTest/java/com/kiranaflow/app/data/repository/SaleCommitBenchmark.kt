@@ -0,0 +1,161 @@
+package com.kiranaflow.app.data.repository
+
+import android.content.Context
+import android.util.Log
+import androidx.room.Room
+import androidx.room.withTransaction
+import com.kiranaflow.app.data.local.ItemEntity
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.data.local.TransactionEntity
+import com.kiranaflow.app.data.local.TransactionItemEntity
+
+/**
+ * On-device benchmark: per-line sale commit (the old processSale loop) vs [SaleBatchWriter].
+ *
+ * Runs against a throwaway in-memory database so it never touches shop data. Both paths run inside
+ * one `withTransaction` per bill; the batched path additionally writes SALE stock movements.
+ */
+object SaleCommitBenchmark {
+
+    private const val TAG = "SaleCommitBench"
+
+    data class Row(
+        val lines: Int,
+        val bills: Int,
+        val loopMedianMs: Double,
+        val batchedMedianMs: Double
+    ) {
+        val speedup: Double get() = if (batchedMedianMs <= 0.0) 0.0 else loopMedianMs / batchedMedianMs
+    }
+
+    data class Report(val rows: List<Row>) {
+        fun printReport() {
+            Log.d(TAG, "=== SALE COMMIT BENCHMARK ===")
+            rows.forEach {
+                Log.d(
+                    TAG,
+                    "lines=${it.lines} bills=${it.bills} loop=%.2fms batched=%.2fms speedup=%.1fx"
+                        .format(it.loopMedianMs, it.batchedMedianMs, it.speedup)
+                )
+            }
+            Log.d(TAG, "=== END REPORT ===")
+        }
+    }
+
+    suspend fun run(
+        context: Context,
+        lineCounts: List<Int> = listOf(1, 10, 100, 500),
+        billsPerSize: Int = 20
+    ): Report {
+        val db = Room.inMemoryDatabaseBuilder(context.applicationContext, KiranaDatabase::class.java).build()
+        try {
+            val maxLines = lineCounts.maxOrNull() ?: 0
+            val items = seedItems(db, maxLines)
+            val writer = SaleBatchWriter(db)
+
+            // Warm-up so statement compilation/JIT doesn't land on the first measured size.
+            commitLoop(db, items.take(10))
+            commitBatched(db, writer, items.take(10))
+
+            val rows = lineCounts.map { n ->
+                val bill = items.take(n)
+                val loop = List(billsPerSize) { timeMs { commitLoop(db, bill) } }
+                val batched = List(billsPerSize) { timeMs { commitBatched(db, writer, bill) } }
+                Row(
+                    lines = n,
+                    bills = billsPerSize,
+                    loopMedianMs = median(loop),
+                    batchedMedianMs = median(batched)
+                )
+            }
+            return Report(rows)
+        } finally {
+            db.close()
+        }
+    }
+
+    private suspend fun seedItems(db: KiranaDatabase, count: Int): List<ItemEntity> {
+        val dao = db.itemDao()
+        return (1..count).map { i ->
+            val loose = i % 5 == 0
+            val item = ItemEntity(
+                name = "Bench item $i",
+                price = 10.0 + i,
+                isLoose = loose,
+                pricePerKg = if (loose) 40.0 else 0.0,
+                stockKg = if (loose) 1_000_000.0 else 0.0,
+                stock = if (loose) 0 else 1_000_000,
+                category = "Bench",
+                rackLocation = null,
+                marginPercentage = 0.0,
+                barcode = null,
+                costPrice = 5.0 + i,
+                gstPercentage = null,
+                reorderPoint = 0,
+                vendorId = null
+            )
+            item.copy(id = dao.insertItem(item).toInt())
+        }
+    }
+
+    // Mirrors processSale before SaleBatchWriter: one UPDATE per line, then insertSale.
+    private suspend fun commitLoop(db: KiranaDatabase, bill: List<ItemEntity>) {
+        val itemDao = db.itemDao()
+        db.withTransaction {
+            bill.forEach { item ->
+                val ok = if (item.isLoose) itemDao.decreaseStockKgSafe(item.id, 0.25) > 0
+                else itemDao.decreaseStockSafe(item.id, 1) > 0
+                check(ok) { "bench stock exhausted" }
+            }
+            db.transactionDao().insertSale(header(bill), lines(bill))
+        }
+    }
+
+    private suspend fun commitBatched(db: KiranaDatabase, writer: SaleBatchWriter, bill: List<ItemEntity>) {
+        db.withTransaction {
+            val offending = writer.deductStock(
+                bill.map { SaleBatchWriter.StockLine(it.id, if (it.isLoose) 0.25 else 1.0, it.isLoose) }
+            )
+            check(offending.isEmpty()) { "bench stock exhausted" }
+            val header = header(bill)
+            val id = db.transactionDao().insertTransaction(header).toInt()
+            writer.insertLines(id, lines(bill))
+            db.stockMovementDao().insertOutflowsForTransaction(id, "SALE", header.date)
+        }
+    }
+
+    private fun header(bill: List<ItemEntity>): TransactionEntity = TransactionEntity(
+        title = "Bench sale - ${bill.size} items",
+        type = "SALE",
+        amount = bill.sumOf { if (it.isLoose) it.pricePerKg * 0.25 else it.price },
+        date = System.currentTimeMillis(),
+        time = "",
+        customerId = null,
+        vendorId = null,
+        paymentMode = "CASH"
+    )
+
+    private fun lines(bill: List<ItemEntity>): List<TransactionItemEntity> = bill.map {
+        TransactionItemEntity(
+            transactionId = 0,
+            itemId = it.id,
+            itemNameSnapshot = it.name,
+            qty = if (it.isLoose) 0.25 else 1.0,
+            unit = if (it.isLoose) "KG" else "PCS",
+            price = it.price
+        )
+    }
+
+    private inline fun timeMs(block: () -> Unit): Double {
+        val t0 = System.nanoTime()
+        block()
+        return (System.nanoTime() - t0) / 1_000_000.0
+    }
+
+    private fun median(values: List<Double>): Double {
+        if (values.isEmpty()) return 0.0
+        val sorted = values.sorted()
+        val mid = sorted.size / 2
+        return if (sorted.size % 2 == 1) sorted[mid] else (sorted[mid - 1] + sorted[mid]) / 2.0
+    }
+}
@@ -0,0 +1,38 @@
+package com.kiranaflow.app.data.repository
+
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Runs [SaleCommitBenchmark] and logs its report (tag `SaleCommitBench`). Skipped unless asked for:
+ * `./gradlew connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.benchmark=true`
+ */
+@RunWith(AndroidJUnit4::class)
+class SaleCommitBenchmarkTest {
+
+    @Test
+    fun batchedCommitVsPerLineLoop() = runBlocking {
+        assumeTrue(InstrumentationRegistry.getArguments().getString("benchmark") == "true")
+
+        val lineCounts = listOf(1, 10, 100, 500)
+        val report = SaleCommitBenchmark.run(ApplicationProvider.getApplicationContext(), lineCounts)
+        report.printReport()
+        assertEquals(lineCounts, report.rows.map { it.lines })
+
+        // Small bills are a handful of statements either way; the batched path has to win where the
+        // loop pays one UPDATE per line, even though it also writes the SALE movements.
+        report.rows.filter { it.lines >= 100 }.forEach {
+            assertTrue(
+                "lines=${it.lines}: batched ${it.batchedMedianMs}ms vs loop ${it.loopMedianMs}ms",
+                it.batchedMedianMs < it.loopMedianMs
+            )
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.kiranaflow.app.util
+
+import android.content.Context
+import android.content.res.AssetManager
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import org.json.JSONObject
+import java.io.File
+import kotlin.math.abs
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * On-device benchmark: bill OCR latency and field-extraction accuracy per [BillImagePreprocessor]
+ * configuration, over a corpus of real bill photos.
+ *
+ * ML Kit only runs on a device, so the corpus is read there: `src/androidTest/assets/bill_corpus/`
+ * (packed into the test APK only) and `<filesDir>/bill_corpus/` of the app (adb push). Each image
+ * `<name>.jpg` (or .png) sits next to `<name>.json` holding the expected fields, all optional:
+ * `{"vendorName": "...", "gstNumber": "...", "invoiceNumber": "...", "grandTotal": 1234.5,
+ *   "items": ["Tata Salt 1kg", ...]}`.
+ * The bundled assets are photos of three of the recorded layouts in `src/test/resources/bill_corpus/`
+ * (rotated on a table, uneven light), stored small and scaled up to camera size when loaded; push
+ * real shop bills to filesDir to widen the run.
+ * Extraction is [BillOcrParser] on the normalized text, so FunctionGemma does not blur the numbers.
+ */
+object BillOcrBenchmark {
+
+    private const val TAG = "BillOcrBench"
+    private const val CORPUS_DIR = "bill_corpus"
+
+    // Short edge of a 12 MP phone photo, what OcrUtils gets from the camera.
+    private const val CAMERA_SHORT_EDGE_PX = 3024
+
+    val DEFAULT_CONFIGS: List<Pair<String, BillImagePreprocessor.Config>> = listOf(
+        "original" to BillImagePreprocessor.Config.OFF,
+        "downscale" to BillImagePreprocessor.Config.OFF.copy(downscale = true),
+        "downscale+gray" to BillImagePreprocessor.Config.OFF.copy(downscale = true, grayscale = true),
+        "+contrast" to BillImagePreprocessor.Config.OFF.copy(downscale = true, grayscale = true, normalizeContrast = true),
+        "+crop" to BillImagePreprocessor.Config.OFF.copy(
+            downscale = true, grayscale = true, normalizeContrast = true, cropToDocument = true
+        ),
+        "all" to BillImagePreprocessor.Config()
+    )
+
+    data class Row(
+        val config: String,
+        val bills: Int,
+        val medianPreprocessMs: Double,
+        val medianOcrMs: Double,
+        val medianTotalMs: Double,
+        // Matched expected fields / expected fields, over the corpus.
+        val fieldAccuracy: Double,
+        // Expected item names found among the parsed items.
+        val itemRecall: Double
+    )
+
+    data class Report(val rows: List<Row>) {
+        fun printReport() {
+            Log.d(TAG, "=== BILL OCR BENCHMARK ===")
+            if (rows.isEmpty()) Log.d(TAG, "no corpus found (androidTest assets/$CORPUS_DIR or filesDir/$CORPUS_DIR)")
+            rows.forEach {
+                Log.d(
+                    TAG,
+                    "${it.config}: bills=${it.bills} preprocess=%.0fms ocr=%.0fms total=%.0fms fields=%.1f%% items=%.1f%%"
+                        .format(
+                            it.medianPreprocessMs, it.medianOcrMs, it.medianTotalMs,
+                            it.fieldAccuracy * 100, it.itemRecall * 100
+                        )
+                )
+            }
+            Log.d(TAG, "=== END REPORT ===")
+        }
+    }
+
+    private data class Sample(val name: String, val load: () -> Bitmap?, val expected: JSONObject)
+
+    suspend fun run(
+        context: Context,
+        corpusAssets: AssetManager = context.assets,
+        configs: List<Pair<String, BillImagePreprocessor.Config>> = DEFAULT_CONFIGS,
+        repetitions: Int = 3
+    ): Report = withContext(Dispatchers.Default) {
+        val samples = corpus(context, corpusAssets)
+        if (samples.isEmpty()) return@withContext Report(emptyList())
+
+        // Warm-up: model load and JIT stay out of the first configuration's numbers.
+        samples.first().load()?.let { OcrUtils.recognizeBitmap(context, it, configs.first().second) }
+
+        val rows = configs.map { (label, config) ->
+            val preprocess = ArrayList<Long>()
+            val ocr = ArrayList<Long>()
+            val total = ArrayList<Long>()
+            var matched = 0
+            var expectedFields = 0
+            var itemsFound = 0
+            var itemsExpected = 0
+            var bills = 0
+
+            for (sample in samples) {
+                val bitmap = sample.load() ?: continue
+                var text = ""
+                repeat(repetitions) {
+                    val result = OcrUtils.recognizeBitmap(context, bitmap, config)
+                    preprocess += result.timings.preprocessMs
+                    ocr += result.timings.totalMs - result.timings.preprocessMs
+                    total += result.timings.totalMs
+                    text = result.text
+                }
+                bills++
+                val parsed = BillOcrParser.parse(BillTextNormalizer.normalize(text))
+                val score = score(sample.expected, parsed)
+                matched += score.matched
+                expectedFields += score.expected
+                itemsFound += score.itemsFound
+                itemsExpected += score.itemsExpected
+                Log.d(TAG, "$label ${sample.name}: fields ${score.matched}/${score.expected} items ${score.itemsFound}/${score.itemsExpected}")
+            }
+
+            Row(
+                config = label,
+                bills = bills,
+                medianPreprocessMs = median(preprocess),
+                medianOcrMs = median(ocr),
+                medianTotalMs = median(total),
+                fieldAccuracy = if (expectedFields == 0) 0.0 else matched.toDouble() / expectedFields,
+                itemRecall = if (itemsExpected == 0) 0.0 else itemsFound.toDouble() / itemsExpected
+            )
+        }
+        Report(rows)
+    }
+
+    private data class Score(val matched: Int, val expected: Int, val itemsFound: Int, val itemsExpected: Int)
+
+    private fun score(expected: JSONObject, parsed: BillOcrParser.ParsedBill): Score {
+        var matched = 0
+        var fields = 0
+        fun check(key: String, ok: (String) -> Boolean) {
+            val want = expected.optString(key).takeIf { expected.has(key) && it.isNotBlank() } ?: return
+            fields++
+            if (ok(want)) matched++
+        }
+        check("vendorName") { want ->
+            val got = parsed.vendor.name?.let(::normalize).orEmpty()
+            got.isNotEmpty() && (got.contains(normalize(want)) || normalize(want).contains(got))
+        }
+        check("gstNumber") { it.equals(parsed.vendor.gstNumber, ignoreCase = true) }
+        check("invoiceNumber") { normalize(it) == parsed.vendor.invoiceNumber?.let(::normalize) }
+        check("grandTotal") { want ->
+            val got = parsed.grandTotalAmount
+            got != null && want.toDoubleOrNull()?.let { abs(it - got) < 1.0 } == true
+        }
+
+        val items = expected.optJSONArray("items")
+        var found = 0
+        val total = items?.length() ?: 0
+        if (items != null) {
+            val names = parsed.items.map { normalize(it.name) }
+            for (i in 0 until items.length()) {
+                val want = normalize(items.optString(i))
+                if (want.isNotEmpty() && names.any { it.contains(want) || (it.length >= 3 && want.contains(it)) }) found++
+            }
+        }
+        return Score(matched, fields, found, total)
+    }
+
+    private fun corpus(context: Context, assets: AssetManager): List<Sample> {
+        val out = ArrayList<Sample>()
+        val assetNames = runCatching { assets.list(CORPUS_DIR)?.toList() }.getOrNull().orEmpty()
+        for (image in assetNames.filter(::isImage)) {
+            val json = image.substringBeforeLast('.') + ".json"
+            if (json !in assetNames) continue
+            val expected = runCatching {
+                JSONObject(assets.open("$CORPUS_DIR/$json").bufferedReader().use { it.readText() })
+            }.getOrNull() ?: continue
+            val load = { assets.open("$CORPUS_DIR/$image").use(BitmapFactory::decodeStream)?.let(::atCameraSize) }
+            out += Sample(image, load, expected)
+        }
+        val dir = File(context.filesDir, CORPUS_DIR)
+        dir.listFiles()?.filter { isImage(it.name) }?.sortedBy { it.name }?.forEach { image ->
+            val json = File(dir, image.nameWithoutExtension + ".json")
+            if (!json.isFile) return@forEach
+            val expected = runCatching { JSONObject(json.readText()) }.getOrNull() ?: return@forEach
+            out += Sample(image.name, { BitmapFactory.decodeFile(image.path) }, expected)
+        }
+        return out
+    }
+
+    /** Bundled photos are kept small in the APK; without this the downscale step would have nothing to do. */
+    private fun atCameraSize(bitmap: Bitmap): Bitmap {
+        val shortEdge = min(bitmap.width, bitmap.height)
+        if (shortEdge >= CAMERA_SHORT_EDGE_PX) return bitmap
+        val scale = CAMERA_SHORT_EDGE_PX.toFloat() / shortEdge
+        val width = (bitmap.width * scale).roundToInt()
+        val height = (bitmap.height * scale).roundToInt()
+        return Bitmap.createScaledBitmap(bitmap, width, height, true).also { if (it !== bitmap) bitmap.recycle() }
+    }
+
+    private fun isImage(name: String): Boolean {
+        val lower = name.lowercase()
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png")
+    }
+
+    private fun normalize(s: String): String =
+        s.lowercase().replace(Regex("[^a-z0-9\\u0900-\\u097f]+"), " ").trim()
+
+    private fun median(values: List<Long>): Double {
+        if (values.isEmpty()) return 0.0
+        val sorted = values.sorted()
+        val mid = sorted.size / 2
+        return if (sorted.size % 2 == 1) sorted[mid].toDouble() else (sorted[mid - 1] + sorted[mid]) / 2.0
+    }
+}
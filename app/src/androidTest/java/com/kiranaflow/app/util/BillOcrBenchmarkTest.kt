@@ -0,0 +1,62 @@
+package com.kiranaflow.app.util
+
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Runs [BillOcrBenchmark] and logs its report (tag `BillOcrBench`). Skipped unless asked for:
+ * `./gradlew connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.benchmark=true`
+ */
+@RunWith(AndroidJUnit4::class)
+class BillOcrBenchmarkTest {
+
+    @Test
+    fun preprocessingConfigurations() = runBlocking {
+        assumeTrue(InstrumentationRegistry.getArguments().getString("benchmark") == "true")
+
+        val report = BillOcrBenchmark.run(
+            ApplicationProvider.getApplicationContext(),
+            corpusAssets = InstrumentationRegistry.getInstrumentation().context.assets
+        )
+        report.printReport()
+
+        assertEquals(BillOcrBenchmark.DEFAULT_CONFIGS.map { it.first }, report.rows.map { it.config })
+        for (row in report.rows) {
+            assertTrue("${row.config}: ${row.bills} bills decoded", row.bills >= BUNDLED_BILLS)
+            val floor = FLOORS.getValue(row.config)
+            assertTrue("${row.config}: field accuracy ${row.fieldAccuracy}", row.fieldAccuracy >= floor.first)
+            assertTrue("${row.config}: item recall ${row.itemRecall}", row.itemRecall >= floor.second)
+        }
+
+        // The point of the stage: a camera-size photo must go through OCR faster with it than without it.
+        val original = report.rows.first { it.config == "original" }
+        val all = report.rows.first { it.config == "all" }
+        assertTrue(
+            "all ${all.medianTotalMs}ms vs original ${original.medianTotalMs}ms",
+            all.medianTotalMs < original.medianTotalMs
+        )
+    }
+
+    private companion object {
+        // Images committed under src/androidTest/assets/bill_corpus/.
+        const val BUNDLED_BILLS = 3
+
+        // (field accuracy, item recall) each configuration must keep. The full-size photo carries the table
+        // around the bill, so it gets some slack; preprocessing exists to keep or raise these, not trade them.
+        val FLOORS = mapOf(
+            "original" to (0.6 to 0.5),
+            "downscale" to (0.75 to 0.6),
+            "downscale+gray" to (0.75 to 0.6),
+            "+contrast" to (0.75 to 0.6),
+            "+crop" to (0.75 to 0.6),
+            "all" to (0.75 to 0.6)
+        )
+    }
+}
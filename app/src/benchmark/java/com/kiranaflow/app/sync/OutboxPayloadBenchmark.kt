@@ -0,0 +1,135 @@
+package com.kiranaflow.app.sync
+
+import com.kiranaflow.app.data.local.OutboxEntity
+import org.json.JSONArray
+import org.json.JSONObject
+import java.util.UUID
+
+/**
+ * JVM benchmark: the old `payloadJson` text path vs [OutboxPayloadFormat] + [OutboxCodec] caching.
+ *
+ * Per sale size it reports the stored payload size and the cost of preparing one row for sending:
+ * - json: what sendPage did per attempt before v25 (parse for the op, parse again for the envelope,
+ *   canonicalize the preview)
+ * - binary cold: first attempt (decode once, canonicalize once)
+ * - binary retry: a later attempt of the same row (cache hit)
+ *
+ * Pure in-memory; nothing touches the database or the network.
+ */
+object OutboxPayloadBenchmark {
+
+    data class Row(
+        val lines: Int,
+        val jsonBytes: Int,
+        val binaryBytes: Int,
+        val jsonMedianUs: Double,
+        val binaryColdMedianUs: Double,
+        val binaryRetryMedianUs: Double
+    ) {
+        val sizeRatio: Double get() = if (binaryBytes == 0) 0.0 else jsonBytes.toDouble() / binaryBytes
+        val coldSpeedup: Double get() = if (binaryColdMedianUs <= 0.0) 0.0 else jsonMedianUs / binaryColdMedianUs
+    }
+
+    data class Report(val rows: List<Row>) {
+        fun printReport() {
+            println("=== OUTBOX PAYLOAD BENCHMARK ===")
+            rows.forEach {
+                println(
+                    ("lines=${it.lines} bytes json=${it.jsonBytes} binary=${it.binaryBytes} (%.1fx) " +
+                        "prepare json=%.1fus binaryCold=%.1fus (%.1fx) binaryRetry=%.1fus")
+                        .format(it.sizeRatio, it.jsonMedianUs, it.binaryColdMedianUs, it.coldSpeedup, it.binaryRetryMedianUs)
+                )
+            }
+            println("=== END REPORT ===")
+        }
+    }
+
+    fun run(
+        lineCounts: List<Int> = listOf(1, 10, 100, 500),
+        iterations: Int = 50
+    ): Report {
+        // Warm-up so class loading/JIT doesn't land on the first measured size.
+        repeat(20) {
+            val payload = salePayload(10)
+            prepareJson(payload.toString())
+            prepareBinary(entry(OutboxPayloadFormat.encode(payload)))
+        }
+
+        val rows = lineCounts.map { n ->
+            val payload = salePayload(n)
+            val text = payload.toString()
+            val binary = OutboxPayloadFormat.encode(payload)
+
+            val json = List(iterations) { timeUs { prepareJson(text) } }
+            // Fresh opId per iteration: every call is a cache miss.
+            val cold = List(iterations) { val e = entry(binary); timeUs { prepareBinary(e) } }
+            val cached = entry(binary).also { prepareBinary(it) }
+            val retry = List(iterations) { timeUs { prepareBinary(cached) } }
+
+            Row(
+                lines = n,
+                jsonBytes = text.toByteArray(Charsets.UTF_8).size,
+                binaryBytes = binary.size,
+                jsonMedianUs = median(json),
+                binaryColdMedianUs = median(cold),
+                binaryRetryMedianUs = median(retry)
+            )
+        }
+        return Report(rows)
+    }
+
+    // Mirrors sendPage before v25: OutboxCodec.decode + OutboxCodec.toEnvelope each parsed the text.
+    private fun prepareJson(text: String) {
+        val op = PendingSyncOp(SyncEntityType.TRANSACTION, "1", SyncOpType.CREATE_SALE, JSONObject(text))
+        val envelopeBody = JSONObject(text)
+        check(OutboxDispatcher.preview(op).body != null && envelopeBody.length() > 0)
+    }
+
+    private fun prepareBinary(entry: OutboxEntity) {
+        val preview = OutboxCodec.decoded(entry).preview
+        val envelope = OutboxCodec.toEnvelope(entry, deviceId = "bench")
+        check(preview.body != null && envelope.body != null)
+    }
+
+    private fun entry(payload: ByteArray) = OutboxEntity(
+        opId = UUID.randomUUID().toString(),
+        entityType = SyncEntityType.TRANSACTION.name,
+        entityId = "1",
+        op = SyncOpType.CREATE_SALE.name,
+        payload = payload
+    )
+
+    // Same shape as the CREATE_SALE payload built by KiranaRepository.processSale.
+    private fun salePayload(lines: Int): JSONObject {
+        val items = JSONArray()
+        for (i in 1..lines) {
+            items.put(
+                JSONObject()
+                    .put("itemId", i)
+                    .put("name", "Bench item $i")
+                    .put("qty", if (i % 5 == 0) 0.25 else 2.0)
+                    .put("unit", if (i % 5 == 0) "KG" else "PCS")
+                    .put("price", 10.0 + i)
+            )
+        }
+        return JSONObject()
+            .put("type", "SALE")
+            .put("paymentMode", "CASH")
+            .put("customerId", 42)
+            .put("amount", (1..lines).sumOf { 10.0 + it })
+            .put("items", items)
+    }
+
+    private inline fun timeUs(block: () -> Unit): Double {
+        val t0 = System.nanoTime()
+        block()
+        return (System.nanoTime() - t0) / 1_000.0
+    }
+
+    private fun median(values: List<Double>): Double {
+        if (values.isEmpty()) return 0.0
+        val sorted = values.sorted()
+        val mid = sorted.size / 2
+        return if (sorted.size % 2 == 1) sorted[mid] else (sorted[mid - 1] + sorted[mid]) / 2.0
+    }
+}
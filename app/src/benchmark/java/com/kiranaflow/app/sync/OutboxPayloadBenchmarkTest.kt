@@ -0,0 +1,32 @@
+package com.kiranaflow.app.sync
+
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/** Runs [OutboxPayloadBenchmark]; only with `./gradlew :app:testDebugUnitTest -Pbenchmark`. */
+class OutboxPayloadBenchmarkTest {
+
+    @Test
+    fun binaryPayloadVsJsonText() {
+        val report = OutboxPayloadBenchmark.run()
+        report.printReport()
+        assertTrue(report.rows.isNotEmpty())
+
+        for (row in report.rows) {
+            assertTrue("lines=${row.lines}: ${row.binaryBytes}B vs ${row.jsonBytes}B", row.binaryBytes < row.jsonBytes)
+            // A retry must reuse the cached decode, not parse again.
+            assertTrue(
+                "lines=${row.lines}: retry ${row.binaryRetryMedianUs}us vs json ${row.jsonMedianUs}us",
+                row.binaryRetryMedianUs < row.jsonMedianUs
+            )
+        }
+        // Once keys repeat per line, the key table and varints have to pay off on disk, and one binary
+        // decode has to beat the two text parses it replaced.
+        report.rows.filter { it.lines >= 10 }.forEach {
+            assertTrue("lines=${it.lines}: size ratio ${it.sizeRatio}", it.sizeRatio >= 1.5)
+        }
+        report.rows.filter { it.lines >= 100 }.forEach {
+            assertTrue("lines=${it.lines}: cold speedup ${it.coldSpeedup}", it.coldSpeedup > 1.0)
+        }
+    }
+}
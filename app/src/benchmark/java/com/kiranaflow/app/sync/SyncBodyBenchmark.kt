@@ -0,0 +1,264 @@
+package com.kiranaflow.app.sync
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.InputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+
+/**
+ * JVM benchmark: the batch body as built before [SyncBatchBody] (JSONObject per op, joined
+ * into one String, `toRequestBody`) vs the streamed gzip NDJSON body.
+ *
+ * Each batch is POSTed to a loopback HTTP server started here, which counts the request bytes it
+ * reads (head + body, chunk framing included). Peak heap is sampled while the body is built and
+ * sent, above a post-GC baseline; it is a coarse figure (sampling misses short spikes), good for
+ * comparing the two paths, not as an absolute.
+ */
+object SyncBodyBenchmark {
+
+    data class Row(
+        val ops: Int,
+        val linesPerSale: Int,
+        val legacyWireBytes: Long,
+        val streamedWireBytes: Long,
+        val legacyPeakHeapKb: Long,
+        val streamedPeakHeapKb: Long
+    ) {
+        val wireRatio: Double get() = if (streamedWireBytes == 0L) 0.0 else legacyWireBytes.toDouble() / streamedWireBytes
+    }
+
+    data class Report(val rows: List<Row>) {
+        fun printReport() {
+            println("=== SYNC BODY BENCHMARK ===")
+            rows.forEach {
+                println(
+                    "ops=${it.ops} lines=${it.linesPerSale} wire legacy=${it.legacyWireBytes}B streamed=${it.streamedWireBytes}B " +
+                        "(%.1fx) peakHeap legacy=${it.legacyPeakHeapKb}KB streamed=${it.streamedPeakHeapKb}KB".format(it.wireRatio)
+                )
+            }
+            println("=== END REPORT ===")
+        }
+    }
+
+    suspend fun run(
+        batchSizes: List<Int> = listOf(20, 100, 200),
+        linesPerSale: Int = 20,
+        repetitions: Int = 5
+    ): Report = withContext(Dispatchers.IO) {
+        LoopbackServer().use { server ->
+            val client = OkHttpClient.Builder()
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build()
+            val url = "http://127.0.0.1:${server.port}/sync-apply-batch"
+
+            // Warm-up (connection setup, class loading, JIT).
+            repeat(3) {
+                val ops = batch(10, linesPerSale)
+                post(client, url, legacyBody(ops), gzip = false)
+                post(client, url, SyncBatchBody(ops, SyncBatchBody.Format.NDJSON_GZIP), gzip = true)
+            }
+
+            val rows = batchSizes.map { n ->
+                val ops = batch(n, linesPerSale)
+                var legacyBytes = 0L
+                var streamedBytes = 0L
+                var legacyPeak = 0L
+                var streamedPeak = 0L
+                repeat(repetitions) {
+                    legacyPeak = maxOf(legacyPeak, peakHeapDuring { post(client, url, legacyBody(ops), gzip = false) })
+                    legacyBytes = server.lastRequestBytes.get()
+                    streamedPeak = maxOf(streamedPeak, peakHeapDuring {
+                        post(client, url, SyncBatchBody(ops, SyncBatchBody.Format.NDJSON_GZIP), gzip = true)
+                    })
+                    streamedBytes = server.lastRequestBytes.get()
+                }
+                Row(
+                    ops = n,
+                    linesPerSale = linesPerSale,
+                    legacyWireBytes = legacyBytes,
+                    streamedWireBytes = streamedBytes,
+                    legacyPeakHeapKb = legacyPeak / 1024,
+                    streamedPeakHeapKb = streamedPeak / 1024
+                )
+            }
+            Report(rows)
+        }
+    }
+
+    // HttpRemoteApi.sendBatch before SyncBatchBody.
+    private fun legacyBody(ops: List<Pair<SyncEnvelope, RemoteRequestPreview>>): RequestBody {
+        val encoded = ops.map { (envelope, preview) ->
+            JSONObject().apply {
+                put("envelope", envelope.toJson())
+                put("preview", JSONObject().apply {
+                    put("method", preview.method)
+                    put("path", preview.path)
+                })
+            }.toString()
+        }
+        return encoded.joinToString(separator = ",", prefix = "{\"ops\":[", postfix = "]}")
+            .toRequestBody("application/json; charset=utf-8".toMediaType())
+    }
+
+    private fun post(client: OkHttpClient, url: String, body: RequestBody, gzip: Boolean) {
+        val req = Request.Builder()
+            .url(url)
+            .post(body)
+            .apply { if (gzip) header("Content-Encoding", "gzip") }
+            .build()
+        client.newCall(req).execute().use { check(it.isSuccessful) { "bench server answered ${it.code}" } }
+    }
+
+    private inline fun peakHeapDuring(block: () -> Unit): Long {
+        val runtime = Runtime.getRuntime()
+        System.gc()
+        val baseline = runtime.totalMemory() - runtime.freeMemory()
+        val peak = AtomicLong(baseline)
+        val sampling = AtomicBoolean(true)
+        val sampler = thread(name = "heap-sampler") {
+            while (sampling.get()) {
+                peak.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory()) { a, b -> maxOf(a, b) }
+                Thread.sleep(1)
+            }
+        }
+        try {
+            block()
+        } finally {
+            peak.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory()) { a, b -> maxOf(a, b) }
+            sampling.set(false)
+            sampler.join()
+        }
+        return (peak.get() - baseline).coerceAtLeast(0L)
+    }
+
+    private fun batch(ops: Int, lines: Int): List<Pair<SyncEnvelope, RemoteRequestPreview>> =
+        (1..ops).map { n ->
+            val items = JSONArray()
+            for (i in 1..lines) {
+                items.put(
+                    JSONObject()
+                        .put("itemId", i)
+                        .put("name", "Bench item $i")
+                        .put("qty", 2.0)
+                        .put("unit", "PCS")
+                        .put("price", 10.0 + i)
+                )
+            }
+            val body = JSONObject()
+                .put("type", "SALE")
+                .put("paymentMode", "CASH")
+                .put("customerId", n % 50)
+                .put("amount", (1..lines).sumOf { 2 * (10.0 + it) })
+                .put("items", items)
+            SyncEnvelope(
+                deviceId = "bench-device",
+                opId = "00000000-0000-0000-0000-%012d".format(n),
+                sentAtMillis = System.currentTimeMillis(),
+                entityType = SyncEntityType.TRANSACTION.name,
+                entityId = n.toString(),
+                op = SyncOpType.CREATE_SALE.name,
+                body = body
+            ) to RemoteRequestPreview("POST", "/v1/transactions/sale", null)
+        }
+
+    /**
+     * Minimal HTTP/1.1 sink on 127.0.0.1: reads one request per connection (Content-Length or
+     * chunked), records how many bytes it read, answers 200 and closes.
+     */
+    private class LoopbackServer : AutoCloseable {
+        private val socket = ServerSocket(0, 16, InetAddress.getLoopbackAddress())
+        val port: Int get() = socket.localPort
+        val lastRequestBytes = AtomicLong()
+
+        private val acceptor = thread(name = "bench-http", isDaemon = true) {
+            while (!socket.isClosed) {
+                val conn = runCatching { socket.accept() }.getOrNull() ?: break
+                conn.use {
+                    val input = CountingInput(it.getInputStream().buffered())
+                    readRequest(input)
+                    lastRequestBytes.set(input.count)
+                    val reply = "{\"results\":[]}".toByteArray()
+                    it.getOutputStream().apply {
+                        write(
+                            ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n" +
+                                "Content-Length: ${reply.size}\r\nConnection: close\r\n\r\n").toByteArray()
+                        )
+                        write(reply)
+                        flush()
+                    }
+                }
+            }
+        }
+
+        private fun readRequest(input: CountingInput) {
+            var contentLength = 0L
+            var chunked = false
+            input.readLine() // request line
+            while (true) {
+                val line = input.readLine()
+                if (line.isEmpty()) break
+                val name = line.substringBefore(':').trim().lowercase()
+                val value = line.substringAfter(':').trim()
+                if (name == "content-length") contentLength = value.toLong()
+                if (name == "transfer-encoding" && value.equals("chunked", ignoreCase = true)) chunked = true
+            }
+            if (!chunked) {
+                input.skipExactly(contentLength)
+                return
+            }
+            while (true) {
+                val size = input.readLine().substringBefore(';').trim().toLong(16)
+                if (size == 0L) {
+                    while (input.readLine().isNotEmpty()) Unit // trailers
+                    return
+                }
+                input.skipExactly(size)
+                input.readLine() // CRLF after the chunk
+            }
+        }
+
+        override fun close() {
+            socket.close()
+            acceptor.join(1_000)
+        }
+    }
+
+    private class CountingInput(private val input: InputStream) {
+        var count = 0L
+            private set
+
+        fun readLine(): String {
+            val sb = StringBuilder()
+            while (true) {
+                val b = input.read()
+                check(b >= 0) { "bench request truncated" }
+                count++
+                if (b == '\n'.code) return sb.toString().removeSuffix("\r")
+                sb.append(b.toChar())
+            }
+        }
+
+        fun skipExactly(n: Long) {
+            var left = n
+            val buf = ByteArray(8 * 1024)
+            while (left > 0) {
+                val read = input.read(buf, 0, minOf(buf.size.toLong(), left).toInt())
+                check(read >= 0) { "bench request truncated" }
+                left -= read
+                count += read
+            }
+        }
+    }
+}
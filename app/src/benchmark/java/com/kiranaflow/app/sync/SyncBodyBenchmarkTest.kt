@@ -0,0 +1,25 @@
+package com.kiranaflow.app.sync
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/** Runs [SyncBodyBenchmark]; only with `./gradlew :app:testDebugUnitTest -Pbenchmark`. */
+class SyncBodyBenchmarkTest {
+
+    @Test
+    fun streamedGzipBodyVsJoinedJson() = runBlocking {
+        val report = SyncBodyBenchmark.run()
+        report.printReport()
+        assertTrue(report.rows.isNotEmpty())
+
+        // Sale envelopes repeat the same keys and shapes, so gzip has to cut the wire bytes by well
+        // over half even at 20 ops. Peak heap is sampled too coarsely to assert on; it is only reported.
+        for (row in report.rows) {
+            assertTrue(
+                "ops=${row.ops}: streamed ${row.streamedWireBytes}B vs legacy ${row.legacyWireBytes}B",
+                row.streamedWireBytes > 0 && row.wireRatio >= 3.0
+            )
+        }
+    }
+}
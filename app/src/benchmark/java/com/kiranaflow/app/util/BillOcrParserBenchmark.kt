@@ -0,0 +1,95 @@
+package com.kiranaflow.app.util
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import kotlin.random.Random
+
+/**
+ * JVM benchmark: [BillOcrParser] vs the regex-per-pass parser it replaced
+ * ([BillOcrParserLegacy]), on parse time and on output.
+ *
+ * Inputs are synthetic wholesale bills ([BillCorpus.synthetic]: letterhead, 20 to 300 item lines
+ * in the shapes the parser knows, tax and total lines, some OCR noise) plus the fixed layouts of
+ * [BillCorpus.recorded]. Every input is parsed by both; any difference in the parsed bill is a
+ * mismatch and is printed.
+ */
+object BillOcrParserBenchmark {
+
+    data class Row(
+        val input: String,
+        val bills: Int,
+        val lines: Int,
+        val legacyMedianUs: Double,
+        val lexerMedianUs: Double,
+        val mismatches: Int
+    ) {
+        val speedup: Double get() = if (lexerMedianUs == 0.0) 0.0 else legacyMedianUs / lexerMedianUs
+    }
+
+    data class Report(val rows: List<Row>) {
+        fun printReport() {
+            println("=== BILL OCR PARSER BENCHMARK ===")
+            rows.forEach {
+                println(
+                    "${it.input}: bills=${it.bills} lines=${it.lines} legacy=%.0fus lexer=%.0fus (%.1fx) mismatches=${it.mismatches}"
+                        .format(it.legacyMedianUs, it.lexerMedianUs, it.speedup)
+                )
+            }
+            println("=== END REPORT ===")
+        }
+    }
+
+    suspend fun run(
+        itemCounts: List<Int> = listOf(20, 100, 300),
+        billsPerSize: Int = 20,
+        repetitions: Int = 5
+    ): Report = withContext(Dispatchers.Default) {
+        val random = Random(42)
+        val inputs = itemCounts.map { n -> "synthetic-$n" to List(billsPerSize) { BillCorpus.synthetic(random, n) } } +
+            listOf("recorded" to BillCorpus.recorded().map { it.second })
+
+        // Warm-up (JIT, regex compilation).
+        inputs.first().second.take(3).forEach {
+            BillOcrParserLegacy.parse(it)
+            BillOcrParser.parse(it)
+        }
+
+        val rows = inputs.map { (label, bills) ->
+            val legacy = ArrayList<Long>()
+            val lexer = ArrayList<Long>()
+            var mismatches = 0
+            bills.forEachIndexed { index, text ->
+                var expected: BillOcrParser.ParsedBill? = null
+                var actual: BillOcrParser.ParsedBill? = null
+                repeat(repetitions) {
+                    var t0 = System.nanoTime()
+                    expected = BillOcrParserLegacy.parse(text)
+                    legacy += System.nanoTime() - t0
+                    t0 = System.nanoTime()
+                    actual = BillOcrParser.parse(text)
+                    lexer += System.nanoTime() - t0
+                }
+                if (expected != actual) {
+                    mismatches++
+                    println("$label #$index differs:\n  legacy=$expected\n  lexer=$actual")
+                }
+            }
+            Row(
+                input = label,
+                bills = bills.size,
+                lines = bills.sumOf { it.lines().size },
+                legacyMedianUs = median(legacy) / 1_000.0,
+                lexerMedianUs = median(lexer) / 1_000.0,
+                mismatches = mismatches
+            )
+        }
+        Report(rows)
+    }
+
+    private fun median(values: List<Long>): Double {
+        if (values.isEmpty()) return 0.0
+        val sorted = values.sorted()
+        val mid = sorted.size / 2
+        return if (sorted.size % 2 == 1) sorted[mid].toDouble() else (sorted[mid - 1] + sorted[mid]) / 2.0
+    }
+}
@@ -0,0 +1,26 @@
+package com.kiranaflow.app.util
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/** Runs [BillOcrParserBenchmark]; only with `./gradlew :app:testDebugUnitTest -Pbenchmark`. */
+class BillOcrParserBenchmarkTest {
+
+    @Test
+    fun lexerParserVsRegexPerPass() = runBlocking {
+        val report = BillOcrParserBenchmark.run(itemCounts = listOf(20, 100, 300))
+        report.printReport()
+        assertEquals(listOf("synthetic-20", "synthetic-100", "synthetic-300", "recorded"), report.rows.map { it.input })
+        assertEquals(0, report.rows.sumOf { it.mismatches })
+
+        // Long wholesale bills are where the regex passes added up; the single pass has to be faster there.
+        report.rows.filter { it.input == "synthetic-100" || it.input == "synthetic-300" }.forEach {
+            assertTrue(
+                "${it.input}: lexer ${it.lexerMedianUs}us vs legacy ${it.legacyMedianUs}us",
+                it.lexerMedianUs < it.legacyMedianUs
+            )
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package com.kiranaflow.app
 
 import android.app.Application
+import com.kiranaflow.app.data.local.AppPrefsStore
 import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.data.remote.SimpleRealtimeManager
 import com.kiranaflow.app.data.remote.SupabaseClient
+import com.kiranaflow.app.data.repository.BarcodeIndex
+import com.kiranaflow.app.data.repository.CloudPullApplier
 import com.kiranaflow.app.util.ConnectivityMonitor
 import com.kiranaflow.app.util.DeviceIdProvider
+import com.kiranaflow.app.util.FunctionGemmaRuntimeManager
+import com.kiranaflow.app.util.OcrEngine
 import com.kiranaflow.app.SupabaseTest
 
 /**
@@ -16,6 +21,7 @@ import com.kiranaflow.app.SupabaseTest
  * - Network connectivity monitoring
  * - Real-time subscriptions
  * - Device ID management
+ * - Warm barcode -> item index for scanning
  * - Other singletons and global configurations
  */
 class KiranaApplication : Application() {
@@ -55,6 +61,9 @@ class KiranaApplication : Application() {
         
         // Initialize connectivity monitor for offline-first support
         ConnectivityMonitor.initialize(this)
+
+        // Warm the in-memory barcode index so scan-to-cart doesn't hit SQLite
+        BarcodeIndex.initialize(database)
     }
     
     /**
@@ -63,10 +72,11 @@ class KiranaApplication : Application() {
     private fun initializeRealtimeManager() {
         try {
             realtimeManager = SimpleRealtimeManager(
-                itemDao = database.itemDao(),
-                partyDao = database.partyDao(),
-                transactionDao = database.transactionDao(),
-                deviceId = deviceId
+                cloudPullDao = database.cloudPullDao(),
+                applier = CloudPullApplier(database),
+                // The outbox's device id, not the Android ID: it is the namespace pushes write under.
+                deviceId = { AppPrefsStore(this).getOrCreateDeviceId() },
+                shopId = { AppPrefsStore(this).getOrCreateShopId() }
             )
             realtimeManager?.initialize()
             println("Real-time manager initialized")
@@ -80,6 +90,15 @@ class KiranaApplication : Application() {
      */
     fun getRealtimeManager(): SimpleRealtimeManager? = realtimeManager
     
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        // The OCR and bill-extraction models hold a lot of native memory; reload them on the next scan instead.
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            OcrEngine.releaseIfCreated()
+            FunctionGemmaRuntimeManager.releaseIfCreated()
+        }
+    }
+
     override fun onTerminate() {
         super.onTerminate()
         // Clean up real-time subscriptions
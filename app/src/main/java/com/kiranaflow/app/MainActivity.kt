@@ -67,7 +67,6 @@ import com.kiranaflow.app.ui.theme.KiranaTheme
 import com.kiranaflow.app.util.DebugLogger
 import com.kiranaflow.app.util.ConnectivityMonitor
 import com.kiranaflow.app.util.ImmediateSyncManager
-import com.kiranaflow.app.util.StubSyncEngine
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.combine
@@ -228,8 +227,7 @@ fun KiranaApp() {
     val db = remember(ctx) { KiranaDatabase.getDatabase(ctx) }
     val repo = remember(ctx) { KiranaRepository(db) }
     val appPrefsStore = remember(ctx) { AppPrefsStore(ctx) }
-    val syncEngine = remember(ctx) { StubSyncEngine(db, appPrefsStore, ctx) }
-    
+
     // Auto-sync when connectivity is restored
     val isOnline by monitor.isOnline.collectAsState(initial = true)
     val pendingCount by repo.pendingOutboxCount.collectAsState(initial = 0)
@@ -237,7 +235,7 @@ fun KiranaApp() {
     LaunchedEffect(isOnline, pendingCount) {
         // When we come online and have pending items, sync immediately
         if (isOnline && pendingCount > 0) {
-            runCatching { syncEngine.syncAllPending() }
+            ImmediateSyncManager.triggerSync()
         }
     }
 
@@ -14,6 +14,8 @@ data class AppPrefs(
     val demoModeEnabled: Boolean = false,
     val demoResetRequested: Boolean = false,
     val deviceId: String? = null,
+    // Shop whose devices share data through the cloud pull; null = this device's own (see getOrCreateShopId).
+    val shopId: String? = null,
     val lastSyncAttemptAtMillis: Long? = null,
     val lastSyncMessage: String? = null,
     val lastBackupAtMillis: Long? = null,
@@ -34,6 +36,7 @@ class AppPrefsStore(private val context: Context) {
         val demoModeEnabled = booleanPreferencesKey("demo_mode_enabled")
         val demoResetRequested = booleanPreferencesKey("demo_reset_requested")
         val deviceId = stringPreferencesKey("device_id")
+        val shopId = stringPreferencesKey("shop_id")
         val lastSyncAttemptAtMillis = longPreferencesKey("last_sync_attempt_at_millis")
         val lastSyncMessage = stringPreferencesKey("last_sync_message")
         val lastBackupAtMillis = longPreferencesKey("last_backup_at_millis")
@@ -47,6 +50,7 @@ class AppPrefsStore(private val context: Context) {
             demoModeEnabled = p[Keys.demoModeEnabled] ?: false,
             demoResetRequested = p[Keys.demoResetRequested] ?: false,
             deviceId = p[Keys.deviceId],
+            shopId = p[Keys.shopId],
             lastSyncAttemptAtMillis = p[Keys.lastSyncAttemptAtMillis],
             lastSyncMessage = p[Keys.lastSyncMessage],
             lastBackupAtMillis = p[Keys.lastBackupAtMillis],
@@ -79,6 +83,33 @@ class AppPrefsStore(private val context: Context) {
         return id!!
     }
 
+    /**
+     * Shop code other devices enter to share this shop's data. Until one is joined it is the
+     * first device's own id, so a single phone needs no setup.
+     */
+    suspend fun getOrCreateShopId(): String {
+        val deviceId = getOrCreateDeviceId()
+        var id: String? = null
+        context.appPrefsDataStore.edit { prefs ->
+            id = prefs[Keys.shopId]
+            if (id.isNullOrBlank()) {
+                id = deviceId
+                prefs[Keys.shopId] = deviceId
+            }
+        }
+        return id!!
+    }
+
+    /**
+     * Join the shop with code [shopId] (another device's [getOrCreateShopId]). The cloud pull
+     * registers the device there on its next poll.
+     */
+    suspend fun setShopId(shopId: String) {
+        val code = shopId.trim()
+        if (code.isBlank()) return
+        context.appPrefsDataStore.edit { it[Keys.shopId] = code }
+    }
+
     suspend fun setLastSyncAttempt(atMillis: Long, message: String?) {
         context.appPrefsDataStore.edit {
             it[Keys.lastSyncAttemptAtMillis] = atMillis
@@ -46,6 +46,19 @@ interface StockMovementDao {
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun insertMovement(movement: StockMovementEntity): Long
+
+    /**
+     * One ledger row per line of [txId] (delta = -qty), written in a single statement.
+     */
+    @Query(
+        """
+        INSERT INTO stock_movements (itemId, delta, source, transactionId, adjustmentId, userId, reason, createdAt)
+        SELECT itemId, -qty, :source, transactionId, NULL, NULL, NULL, :createdAt
+        FROM transaction_items
+        WHERE transactionId = :txId AND itemId IS NOT NULL
+        """
+    )
+    suspend fun insertOutflowsForTransaction(txId: Int, source: String, createdAt: Long)
 }
 
 @Dao
@@ -0,0 +1,169 @@
+package com.kiranaflow.app.data.local
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Update
+
+/**
+ * Rows pulled from the kf_* cloud tables (see SimpleRealtimeManager) and the queries
+ * CloudPullApplier needs to apply them.
+ *
+ * Every pulled row comes from another device of the shop and carries that device's ids
+ * ([PulledItem.deviceId] + [PulledItem.localId], and references in the same id space). Ids are
+ * per-device autoincrements, so they are never used as local ids directly: remote_ids maps a row's
+ * origin to its local copy, and remote_links says which rows of other devices are copies of which.
+ *
+ * What is taken from the cloud:
+ * - items: catalogue fields only; local-only fields (loose pricing, HSN, image) stay. The stock level
+ *   is never taken (each phone's count already includes the sales it pulled); the other devices'
+ *   stock changes arrive as [PulledStockMovement]s and are added to it
+ * - parties: name, phone, GST number; balances stay local (they follow the party ledger)
+ * - transactions: inserted when missing, through the party ledger and daily rollups, with their
+ *   line items and, for sales, the stock outflows. Later voids and edits (status, amount, line
+ *   qty/price) are applied to the stored copy the same way
+ */
+
+data class PulledItem(
+    val deviceId: String,
+    val localId: String,
+    val name: String,
+    val category: String?,
+    val price: Double?,
+    val costPrice: Double?,
+    val gstPercentage: Double?,
+    val reorderPoint: Int?,
+    val vendorId: String?,
+    val rackLocation: String?,
+    val barcode: String?,
+    val expiryDateMillis: Long?
+)
+
+data class PulledParty(
+    val deviceId: String,
+    val localId: String,
+    val type: String,
+    val name: String,
+    val phone: String?,
+    val gstNumber: String?
+)
+
+data class PulledLine(
+    val itemId: String?,
+    val name: String?,
+    val qty: Double,
+    val unit: String?,
+    val price: Double
+)
+
+data class PulledTransaction(
+    val deviceId: String,
+    val localId: String,
+    val type: String,
+    val paymentMode: String?,
+    val customerId: String?,
+    val vendorId: String?,
+    val amount: Double?,
+    val note: String?,
+    val status: String?,
+    val lines: List<PulledLine>,
+    // When it happened on the recording device (kf_transactions.occurred_at).
+    val occurredAtMillis: Long
+)
+
+/**
+ * A kf_stock_movements row: [delta] added to [itemId] by a restock or stock correction on that
+ * device, in the item's unit (KG for loose items).
+ */
+data class PulledStockMovement(
+    val deviceId: String,
+    val localId: String,
+    val itemId: String,
+    val delta: Double
+)
+
+/**
+ * A kf_id_links row: ([deviceId], [localId]) is that device's copy of ([originDeviceId], [originId]).
+ */
+data class PulledLink(
+    val deviceId: String,
+    val localId: String,
+    val entityType: String,
+    val originDeviceId: String,
+    val originId: String
+)
+
+@Dao
+interface CloudPullDao {
+    @Query("SELECT * FROM sync_watermarks WHERE tableName = :tableName LIMIT 1")
+    suspend fun watermark(tableName: String): SyncWatermarkEntity?
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun putWatermark(watermark: SyncWatermarkEntity)
+
+    @Query("DELETE FROM sync_watermarks")
+    suspend fun clearWatermarks()
+
+    @Query(
+        "SELECT DISTINCT entityId FROM outbox " +
+            "WHERE status != 'DONE' AND entityType = :entityType AND entityId IN (:ids)"
+    )
+    suspend fun unsyncedEntityIds(entityType: String, ids: List<String>): List<String>
+
+    @Query("SELECT * FROM remote_ids WHERE entityType = :entityType AND originDeviceId = :originDeviceId AND originId IN (:originIds)")
+    suspend fun remoteIds(entityType: String, originDeviceId: String, originIds: List<String>): List<RemoteIdEntity>
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertRemoteIds(rows: List<RemoteIdEntity>)
+
+    @Query("SELECT * FROM remote_ids WHERE linkUploaded = 0 LIMIT :limit")
+    suspend fun unuploadedRemoteIds(limit: Int): List<RemoteIdEntity>
+
+    @Query("UPDATE remote_ids SET linkUploaded = 1 WHERE entityType = :entityType AND localId IN (:localIds)")
+    suspend fun markLinksUploaded(entityType: String, localIds: List<Int>)
+
+    @Query("SELECT * FROM remote_links WHERE entityType = :entityType AND deviceId = :deviceId AND remoteId IN (:remoteIds)")
+    suspend fun remoteLinks(entityType: String, deviceId: String, remoteIds: List<String>): List<RemoteLinkEntity>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertRemoteLinks(rows: List<RemoteLinkEntity>)
+
+    @Query("SELECT * FROM items WHERE id IN (:ids)")
+    suspend fun itemsByIds(ids: List<Int>): List<ItemEntity>
+
+    // @Update, not REPLACE: a REPLACE deletes first, which would null transaction_items.itemId.
+    @Update
+    suspend fun updateItems(items: List<ItemEntity>)
+
+    @Insert
+    suspend fun insertItems(items: List<ItemEntity>): List<Long>
+
+    @Query("SELECT * FROM parties WHERE id IN (:ids)")
+    suspend fun partiesByIds(ids: List<Int>): List<PartyEntity>
+
+    @Update
+    suspend fun updateParties(parties: List<PartyEntity>)
+
+    @Insert
+    suspend fun insertParties(parties: List<PartyEntity>): List<Long>
+
+    @Query("SELECT id FROM transactions WHERE id IN (:ids)")
+    suspend fun existingTransactionIds(ids: List<Int>): List<Int>
+
+    @Insert
+    suspend fun insertTransaction(transaction: TransactionEntity): Long
+
+    @Query("SELECT * FROM transactions WHERE id IN (:ids)")
+    suspend fun transactionsByIds(ids: List<Int>): List<TransactionEntity>
+
+    // In insert order, which is the order of the pulled lines.
+    @Query("SELECT * FROM transaction_items WHERE transactionId IN (:txIds) ORDER BY transactionId, id")
+    suspend fun linesOfTransactions(txIds: List<Int>): List<TransactionItemEntity>
+
+    @Update
+    suspend fun updateTransaction(transaction: TransactionEntity)
+
+    @Update
+    suspend fun updateLines(lines: List<TransactionItemEntity>)
+}
@@ -14,18 +14,44 @@ interface ItemDao {
     @Query("SELECT * FROM items WHERE barcode = :barcode AND isDeleted = 0 LIMIT 1")
     suspend fun getItemByBarcode(barcode: String): ItemEntity?
 
+    /** Narrow rows for the in-memory barcode index (BarcodeIndex). */
+    @Query(
+        """
+        SELECT id, name, price, barcode FROM items
+        WHERE isDeleted = 0 AND barcode IS NOT NULL AND TRIM(barcode) != ''
+        ORDER BY id ASC
+        """
+    )
+    suspend fun getBarcodeEntries(): List<ItemBarcodeRow>
+
     @Query("SELECT * FROM items WHERE id = :id LIMIT 1")
     suspend fun getItemById(id: Int): ItemEntity?
 
+    @Query("SELECT * FROM items WHERE id IN (:ids)")
+    suspend fun getItemsByIdsSync(ids: List<Int>): List<ItemEntity>
+
     @Query("SELECT * FROM items WHERE id = :id AND isDeleted = 0 LIMIT 1")
     fun getItemByIdFlow(id: Int): Flow<ItemEntity?>
 
     @Query("SELECT * FROM items WHERE LOWER(name) = LOWER(:name) AND isDeleted = 0 LIMIT 1")
     suspend fun getItemByName(name: String): ItemEntity?
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    // ABORT, not REPLACE: a REPLACE on an existing id deletes without firing delete triggers (recursive_triggers
+    // is off), so items_fts would keep the old name/barcode tokens under the same docid. Existing rows go
+    // through @Update (see upsertItem).
+    @Insert(onConflict = OnConflictStrategy.ABORT)
     suspend fun insertItem(item: ItemEntity): Long
 
+    @Update
+    suspend fun updateItem(item: ItemEntity): Int
+
+    /**
+     * Update [item] in place when its row exists, else insert it. Returns the item's id.
+     */
+    @Transaction
+    suspend fun upsertItem(item: ItemEntity): Int =
+        if (item.id != 0 && updateItem(item) > 0) item.id else insertItem(item).toInt()
+
     @Query("UPDATE items SET hsnCode = :hsnCode WHERE id = :itemId")
     suspend fun updateHsnCode(itemId: Int, hsnCode: String?)
 
@@ -52,6 +78,56 @@ interface ItemDao {
     @Query("SELECT * FROM items WHERE LOWER(name) LIKE '%' || :query || '%' AND isDeleted = 0 ORDER BY name ASC")
     fun searchItems(query: String): Flow<List<ItemEntity>>
 
+    /**
+     * Ranked item search over items_fts (name, category, barcode, rackLocation).
+     *
+     * [match] is an FTS4 expression with prefix tokens (e.g. `toor* dal*`, implicit AND).
+     * Ranking: name starts with the query, then a name word starts with it, then other-column hits;
+     * ties broken by how often the item appears on sale lines.
+     */
+    @Query(
+        """
+        SELECT i.* FROM items_fts
+        INNER JOIN items i ON i.id = items_fts.rowid
+        LEFT JOIN item_sales_stats s ON s.itemId = i.id
+        WHERE items_fts MATCH :match AND i.isDeleted = 0
+        ORDER BY
+            CASE
+                WHEN i.name LIKE :namePrefix ESCAPE '\' THEN 0
+                WHEN i.name LIKE :nameWord ESCAPE '\' THEN 1
+                ELSE 2
+            END ASC,
+            COALESCE(s.saleLines, 0) DESC,
+            i.name ASC
+        LIMIT :limit
+        """
+    )
+    fun searchItemsRanked(match: String, namePrefix: String, nameWord: String, limit: Int): Flow<List<ItemEntity>>
+
+    /**
+     * Substring match on name/barcode (a scan of items): the fallback when [searchItemsRanked] finds nothing,
+     * e.g. a query in the middle of a word ("dal" in "toordal").
+     */
+    @Query(
+        """
+        SELECT * FROM items
+        WHERE isDeleted = 0 AND (name LIKE :pattern ESCAPE '\' OR barcode LIKE :pattern ESCAPE '\')
+        ORDER BY name ASC
+        LIMIT :limit
+        """
+    )
+    fun searchItemsSubstring(pattern: String, limit: Int): Flow<List<ItemEntity>>
+
+    @Query(
+        """
+        SELECT * FROM items
+        WHERE isDeleted = 0 AND expiryDateMillis BETWEEN :fromMillis AND :toMillis
+        ORDER BY expiryDateMillis ASC
+        LIMIT :limit
+        """
+    )
+    fun getItemsExpiringBetween(fromMillis: Long, toMillis: Long, limit: Int): Flow<List<ItemEntity>>
+
     @Query("SELECT * FROM items WHERE stock <= reorderPoint AND isDeleted = 0 ORDER BY name ASC")
     fun getLowStockItems(): Flow<List<ItemEntity>>
 
@@ -109,8 +185,40 @@ interface PartyDao {
 
     @Query("SELECT * FROM parties WHERE id = :id LIMIT 1")
     fun getPartyById(id: Int): Flow<PartyEntity?>
+
+    @Query("SELECT * FROM parties WHERE id IN (:ids)")
+    suspend fun getPartiesByIdsSync(ids: List<Int>): List<PartyEntity>
 }
 
+/**
+ * Shared FROM/WHERE for the transactions explorer. Patterns are pre-escaped `%...%` (or '' for "no filter").
+ */
+internal const val TX_EXPLORER_FROM_WHERE = """
+    FROM transactions t
+    LEFT JOIN parties p ON p.id = COALESCE(t.customerId, t.vendorId)
+    WHERE t.date BETWEEN :fromMillis AND :toMillis
+      AND (:paymentMode = 'ALL' OR t.paymentMode = :paymentMode)
+      AND (:partyType = 'ALL' OR p.type = :partyType)
+      AND (
+        :queryPattern = ''
+        OR t.title LIKE :queryPattern ESCAPE '\'
+        OR t.type LIKE :queryPattern ESCAPE '\'
+        OR t.paymentMode LIKE :queryPattern ESCAPE '\'
+        OR p.name LIKE :queryPattern ESCAPE '\'
+        OR EXISTS (
+            SELECT 1 FROM transaction_items ti
+            WHERE ti.transactionId = t.id AND ti.itemNameSnapshot LIKE :queryPattern ESCAPE '\'
+        )
+      )
+      AND (
+        :productPattern = ''
+        OR EXISTS (
+            SELECT 1 FROM transaction_items ti
+            WHERE ti.transactionId = t.id AND ti.itemNameSnapshot LIKE :productPattern ESCAPE '\'
+        )
+      )
+"""
+
 @Dao
 interface TransactionDao {
     @Query("SELECT * FROM transactions ORDER BY date DESC")
@@ -119,6 +227,52 @@ interface TransactionDao {
     @Query("SELECT * FROM transactions ORDER BY date DESC")
     suspend fun getAllTransactionsSync(): List<TransactionEntity>
 
+    @Query("SELECT * FROM transactions ORDER BY date DESC LIMIT :limit")
+    fun getRecentTransactions(limit: Int): Flow<List<TransactionEntity>>
+
+    /**
+     * SALE total between two instants (inclusive), for windows that do not fall on day boundaries
+     * (daily_rollups only resolves whole days). Same amounts as the rollup's SALE rows.
+     */
+    @Query("SELECT COALESCE(SUM(amount), 0.0) FROM transactions WHERE type = 'SALE' AND status != 'VOIDED' AND date BETWEEN :fromMillis AND :toMillis")
+    suspend fun salesTotalBetween(fromMillis: Long, toMillis: Long): Double
+
+    /**
+     * One keyset page of the transactions explorer, newest first.
+     * Pass afterDate/afterId = the last row of the previous page (null => first page).
+     */
+    @Query(
+        "SELECT t.* " + TX_EXPLORER_FROM_WHERE + """
+          AND (:afterDate IS NULL OR t.date < :afterDate OR (t.date = :afterDate AND t.id < :afterId))
+        ORDER BY t.date DESC, t.id DESC
+        LIMIT :limit
+        """
+    )
+    suspend fun getExplorerPage(
+        queryPattern: String,
+        productPattern: String,
+        partyType: String,
+        paymentMode: String,
+        fromMillis: Long,
+        toMillis: Long,
+        afterDate: Long?,
+        afterId: Int,
+        limit: Int
+    ): List<TransactionEntity>
+
+    @Query("SELECT COUNT(*) " + TX_EXPLORER_FROM_WHERE)
+    suspend fun countExplorerRows(
+        queryPattern: String,
+        productPattern: String,
+        partyType: String,
+        paymentMode: String,
+        fromMillis: Long,
+        toMillis: Long
+    ): Int
+
+    @Query("SELECT * FROM transaction_items WHERE transactionId IN (:transactionIds)")
+    suspend fun getTransactionItemsForTransactionsSync(transactionIds: List<Int>): List<TransactionItemEntity>
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun upsertTransaction(transaction: TransactionEntity): Long
 
@@ -207,6 +361,9 @@ interface TransactionDao {
     @Query("SELECT * FROM transactions WHERE customerId = :customerId OR vendorId = :customerId ORDER BY date DESC")
     fun getTransactionsForParty(customerId: Int): Flow<List<TransactionEntity>>
 
+    @Query("SELECT * FROM transactions WHERE customerId = :partyId OR vendorId = :partyId ORDER BY date DESC, id DESC LIMIT :limit")
+    fun getRecentTransactionsForParty(partyId: Int, limit: Int): Flow<List<TransactionEntity>>
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun insertTransaction(transaction: TransactionEntity): Long
 
@@ -336,6 +493,15 @@ interface OutboxDao {
     @Query("SELECT * FROM outbox WHERE status = 'FAILED' ORDER BY createdAtMillis ASC LIMIT :limit")
     suspend fun getFailed(limit: Int = 50): List<OutboxEntity>
 
+    /**
+     * Id-cursor page for the pipelined drain; pass 0 for the first page.
+     */
+    @Query("SELECT * FROM outbox WHERE id > :afterId AND status IN (:statuses) ORDER BY id ASC LIMIT :limit")
+    suspend fun getUnsyncedPage(statuses: List<String>, afterId: Int, limit: Int): List<OutboxEntity>
+
+    @Query("SELECT COUNT(*) FROM outbox WHERE status IN (:statuses)")
+    suspend fun countWithStatus(statuses: List<String>): Int
+
     @Query("SELECT * FROM outbox WHERE id = :id LIMIT 1")
     suspend fun getById(id: Int): OutboxEntity?
 
@@ -357,9 +523,47 @@ interface OutboxDao {
     @Query("UPDATE outbox SET lastAttemptAtMillis = :atMillis, error = :error WHERE id = :id")
     suspend fun markAttempt(id: Int, atMillis: Long, error: String?)
 
+    @Query("UPDATE outbox SET lastAttemptAtMillis = :atMillis, error = NULL WHERE id IN (:ids)")
+    suspend fun markAttemptedAll(ids: List<Int>, atMillis: Long)
+
+    @Query("UPDATE outbox SET status = 'DONE', lastAttemptAtMillis = :atMillis, error = NULL WHERE id IN (:ids)")
+    suspend fun markDoneAll(ids: List<Int>, atMillis: Long)
+
+    /**
+     * Commit one drained page's outcomes in a single transaction (one fsync instead of one per row).
+     */
+    @Transaction
+    suspend fun commitResults(doneIds: List<Int>, failed: Map<Int, String>, atMillis: Long) {
+        doneIds.chunked(900).forEach { markDoneAll(it, atMillis) }
+        failed.forEach { (id, error) -> markFailed(id, atMillis, error) }
+    }
+
     @Query("UPDATE outbox SET status = 'DONE', lastAttemptAtMillis = :atMillis, error = NULL WHERE status != 'DONE'")
     suspend fun markAllUnsyncedDone(atMillis: Long)
 
+    @Query(
+        "UPDATE outbox SET opId = :opId, payload = :payload " +
+            "WHERE id = :id AND status = 'PENDING' AND lastAttemptAtMillis IS NULL"
+    )
+    suspend fun rewriteUnsent(id: Int, opId: String, payload: ByteArray?): Int
+
+    @Query("DELETE FROM outbox WHERE id IN (:ids) AND status = 'PENDING' AND lastAttemptAtMillis IS NULL")
+    suspend fun deleteUnsent(ids: List<Int>): Int
+
+    /**
+     * Persist an [com.kiranaflow.app.sync.OutboxCompactor] plan all-or-nothing. Throws (and rolls back)
+     * if any row was attempted meanwhile, so a compacted op can never go out under a stale opId.
+     */
+    @Transaction
+    suspend fun applyCompaction(rewritten: List<OutboxEntity>, retiredIds: List<Int>) {
+        rewritten.forEach { e ->
+            check(rewriteUnsent(e.id, e.opId, e.payload) == 1) { "Outbox entry ${e.id} changed during compaction" }
+        }
+        retiredIds.chunked(900).forEach { chunk ->
+            check(deleteUnsent(chunk) == chunk.size) { "Outbox entries changed during compaction" }
+        }
+    }
+
     @Query("DELETE FROM outbox WHERE status = 'DONE'")
     suspend fun clearDone()
 
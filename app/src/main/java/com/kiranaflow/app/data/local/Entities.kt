@@ -4,13 +4,16 @@ import androidx.room.Embedded
 import androidx.room.Entity
 import androidx.room.PrimaryKey
 import androidx.room.ForeignKey
+import androidx.room.ColumnInfo
+import androidx.room.Fts4
+import androidx.room.FtsOptions
 import androidx.room.Index
 import androidx.room.Relation
 import java.util.UUID
 
 // Using Int for all IDs for consistency and proper Room relations.
 
-@Entity(tableName = "items")
+@Entity(tableName = "items", indices = [Index("barcode")])
 data class ItemEntity(
     @PrimaryKey(autoGenerate = true) val id: Int = 0,
     val name: String,
@@ -40,6 +43,51 @@ data class ItemEntity(
     var isDeleted: Boolean = false // For soft delete
 )
 
+/**
+ * FTS4 mirror of searchable item columns. External-content table over `items`:
+ * Room installs the sync triggers, so every insert/update/delete on items is reflected here.
+ */
+@Fts4(contentEntity = ItemEntity::class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "items_fts")
+data class ItemFtsEntity(
+    @PrimaryKey @ColumnInfo(name = "rowid") val rowId: Int,
+    val name: String,
+    val category: String,
+    val barcode: String?,
+    val rackLocation: String?
+)
+
+/**
+ * Per-item count of SALE line-items, used as a search ranking boost.
+ * Maintained by SQL triggers on transaction_items (see KiranaDatabase.SALES_STATS_TRIGGERS).
+ */
+@Entity(tableName = "item_sales_stats")
+data class ItemSalesStatsEntity(
+    @PrimaryKey val itemId: Int,
+    val saleLines: Int = 0
+)
+
+/**
+ * Single-row counter bumped by SQL triggers when an item is inserted or deleted, or its name, price,
+ * barcode or isDeleted changes (see KiranaDatabase.ITEM_CATALOG_TRIGGERS). Stock-only updates leave it
+ * alone, so observers of this table (BarcodeIndex) are not woken by every sale.
+ */
+@Entity(tableName = "item_catalog_version")
+data class ItemCatalogVersionEntity(
+    @PrimaryKey val id: Int = 0,
+    val version: Long = 0
+)
+
+/**
+ * The columns a barcode lookup needs (ItemDao.getBarcodeEntries); not an entity.
+ */
+data class ItemBarcodeRow(
+    val id: Int,
+    val name: String,
+    val price: Double,
+    val barcode: String
+)
+
 @Entity(tableName = "parties")
 data class PartyEntity(
     @PrimaryKey(autoGenerate = true) val id: Int = 0, // Changed to Int
@@ -55,7 +103,16 @@ data class PartyEntity(
     val openingDue: Double = 0.0
 )
 
-@Entity(tableName = "transactions")
+@Entity(
+    tableName = "transactions",
+    // Keyset paging in the transactions explorer orders by (date DESC, id DESC); rowid rides along in the index.
+    // (vendorId, date) / (customerId, date) serve the per-party reads in PartyKpiDao.
+    indices = [
+        Index("date"),
+        Index(value = ["vendorId", "date"]),
+        Index(value = ["customerId", "date"])
+    ]
+)
 data class TransactionEntity(
     @PrimaryKey(autoGenerate = true) val id: Int = 0,
     val title: String,
@@ -108,7 +165,9 @@ data class TransactionItemEntity(
     val taxableValue: Double = 0.0, // price * qty before tax
     val cgstAmount: Double = 0.0,
     val sgstAmount: Double = 0.0,
-    val igstAmount: Double = 0.0
+    val igstAmount: Double = 0.0,
+    // Item costPrice when the line was first counted into daily_rollups (COGS); null on lines from before v27.
+    val unitCostSnapshot: Double? = null
 )
 
 data class TransactionWithItems(
@@ -143,7 +202,7 @@ data class OutboxEntity(
     val entityType: String, // e.g. ITEM | PARTY | TRANSACTION | TRANSACTION_ITEM | REMINDER
     val entityId: String?,  // string to support both int IDs + future server IDs
     val op: String,         // e.g. UPSERT | DELETE
-    val payloadJson: String?,
+    val payload: ByteArray?, // OutboxPayloadFormat (v25+; was payloadJson text)
     val createdAtMillis: Long = System.currentTimeMillis(),
     val lastAttemptAtMillis: Long? = null,
     val status: String = "PENDING", // PENDING | DONE | FAILED
@@ -234,3 +293,98 @@ data class TransactionEditHistoryEntity(
     val reason: String,
     val createdAt: Long
 )
+
+/**
+ * Pre-aggregated per-day totals, keyed by (day × type × paymentMode).
+ *
+ * Maintained incrementally by the repository inside the same DB transaction as every
+ * transaction write, so dashboards read O(days) rows instead of rescanning all history.
+ * VOIDED transactions are not counted.
+ */
+@Entity(
+    tableName = "daily_rollups",
+    primaryKeys = ["day", "type", "paymentMode"]
+)
+data class DailyRollupEntity(
+    val day: Long, // LocalDate.toEpochDay() in the device time zone
+    val type: String, // SALE | EXPENSE | INCOME
+    val paymentMode: String,
+    val amount: Double = 0.0,  // Gross amount (includes settlement payments; used for cash + sales trend)
+    val revenue: Double = 0.0, // SALE/INCOME amount excluding settlement payments
+    val expense: Double = 0.0, // EXPENSE amount excluding settlement payments
+    val cogs: Double = 0.0,    // SALE line-items × item costPrice at write time
+    val txCount: Int = 0
+)
+
+/**
+ * Append-only khata: one row per change to `parties.balance`.
+ *
+ * debit raises the balance (customer owes more / we owe a vendor less), credit lowers it, and
+ * balanceAfter is the party balance right after the entry. Written in the same DB transaction as
+ * the balance change, so the newest entry of a party always equals [PartyEntity.balance].
+ * Statements page by (partyId, id) instead of filtering the whole transactions table.
+ */
+@Entity(
+    tableName = "party_ledger",
+    indices = [Index(value = ["partyId", "id"]), Index("transactionId")]
+)
+data class PartyLedgerEntryEntity(
+    @PrimaryKey(autoGenerate = true) val id: Long = 0,
+    val partyId: Int,
+    val transactionId: Int?, // null for OPENING balances
+    val kind: String, // OPENING | SALE | PURCHASE | PAYMENT | EDIT | VOID
+    val debit: Double = 0.0,
+    val credit: Double = 0.0,
+    val balanceAfter: Double,
+    val createdAt: Long,
+    val note: String? = null
+)
+
+/**
+ * Incremental cloud pull position per kf_* table: the (changedAt, deviceId, localId) key of the newest
+ * settled row applied, for the shop [shopId]. Written in the same DB transaction as the rows it covers.
+ */
+@Entity(tableName = "sync_watermarks")
+data class SyncWatermarkEntity(
+    @PrimaryKey val tableName: String,
+    val shopId: String,
+    val changedAt: String, // server timestamptz, verbatim
+    val deviceId: String, // device that wrote the row
+    val localId: String,
+    val pulledAtMillis: Long
+)
+
+/**
+ * Local id of a row that was first written on another device of the shop, keyed by where it
+ * originated. Ids are per-device autoincrements, so a pulled row never keeps its remote id here.
+ * [linkUploaded] is set once kf_id_links knows our copy, so the other devices read our later edits
+ * of it as edits of the original instead of as a new row.
+ */
+@Entity(
+    tableName = "remote_ids",
+    primaryKeys = ["entityType", "originDeviceId", "originId"],
+    indices = [Index(value = ["entityType", "localId"], unique = true), Index("linkUploaded")]
+)
+data class RemoteIdEntity(
+    val entityType: String, // ITEM | PARTY | TRANSACTION
+    val originDeviceId: String,
+    val originId: String,
+    val localId: Int,
+    val linkUploaded: Boolean = false
+)
+
+/**
+ * Another device's copy of a row (pulled from kf_id_links): its ([deviceId], [remoteId]) is the
+ * same row as ([originDeviceId], [originId]).
+ */
+@Entity(
+    tableName = "remote_links",
+    primaryKeys = ["entityType", "deviceId", "remoteId"]
+)
+data class RemoteLinkEntity(
+    val entityType: String,
+    val deviceId: String,
+    val remoteId: String,
+    val originDeviceId: String,
+    val originId: String
+)
@@ -6,6 +6,7 @@ import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
+import com.kiranaflow.app.sync.OutboxPayloadFormat
 
 @Database(
     entities = [
@@ -20,9 +21,17 @@ import androidx.sqlite.db.SupportSQLiteDatabase
         TransactionEditHistoryEntity::class,
         ReminderEntity::class,
         OutboxEntity::class,
-        BillingSessionEntity::class
+        BillingSessionEntity::class,
+        DailyRollupEntity::class,
+        ItemFtsEntity::class,
+        ItemSalesStatsEntity::class,
+        ItemCatalogVersionEntity::class,
+        PartyLedgerEntryEntity::class,
+        SyncWatermarkEntity::class,
+        RemoteIdEntity::class,
+        RemoteLinkEntity::class
     ],
-    version = 18, // v18: billing sessions (multi-tab billing)
+    version = 29, // v29: item_catalog_version (barcode index invalidation)
     exportSchema = false
 )
 abstract class KiranaDatabase : RoomDatabase() {
@@ -36,11 +45,84 @@ abstract class KiranaDatabase : RoomDatabase() {
     abstract fun reminderDao(): ReminderDao
     abstract fun outboxDao(): OutboxDao
     abstract fun billingSessionDao(): BillingSessionDao
+    abstract fun dailyRollupDao(): DailyRollupDao
+    abstract fun partyLedgerDao(): PartyLedgerDao
+    abstract fun partyKpiDao(): PartyKpiDao
+    abstract fun cloudPullDao(): CloudPullDao
+    abstract fun reconcileDao(): ReconcileDao
 
     companion object {
         @Volatile
         private var INSTANCE: KiranaDatabase? = null
 
+        /**
+         * Triggers keeping item_sales_stats in step with SALE line-items. Room does not manage custom
+         * triggers, so they are (re)installed with IF NOT EXISTS on every open.
+         * Deletes cannot see the (possibly cascaded) parent type, so they decrement with a floor at 0;
+         * the table is only a ranking hint.
+         */
+        private val SALES_STATS_TRIGGERS = listOf(
+            """
+            CREATE TRIGGER IF NOT EXISTS item_sales_stats_after_insert
+            AFTER INSERT ON transaction_items
+            WHEN NEW.itemId IS NOT NULL
+                 AND (SELECT type FROM transactions WHERE id = NEW.transactionId) = 'SALE'
+            BEGIN
+                INSERT OR IGNORE INTO item_sales_stats (itemId, saleLines) VALUES (NEW.itemId, 0);
+                UPDATE item_sales_stats SET saleLines = saleLines + 1 WHERE itemId = NEW.itemId;
+            END
+            """.trimIndent(),
+            """
+            CREATE TRIGGER IF NOT EXISTS item_sales_stats_after_delete
+            AFTER DELETE ON transaction_items
+            WHEN OLD.itemId IS NOT NULL
+            BEGIN
+                UPDATE item_sales_stats SET saleLines = MAX(saleLines - 1, 0) WHERE itemId = OLD.itemId;
+            END
+            """.trimIndent()
+        )
+
+        private const val BUMP_ITEM_CATALOG_VERSION =
+            "INSERT OR IGNORE INTO item_catalog_version (id, version) VALUES (0, 0); " +
+                "UPDATE item_catalog_version SET version = version + 1 WHERE id = 0;"
+
+        /**
+         * Triggers bumping item_catalog_version on item writes that can change a barcode lookup.
+         * @Update rewrites every column, so the update trigger compares values rather than relying on
+         * UPDATE OF alone; stock-only updates (sales, restocks) never fire it.
+         */
+        private val ITEM_CATALOG_TRIGGERS = listOf(
+            """
+            CREATE TRIGGER IF NOT EXISTS item_catalog_after_insert
+            AFTER INSERT ON items
+            BEGIN $BUMP_ITEM_CATALOG_VERSION END
+            """.trimIndent(),
+            """
+            CREATE TRIGGER IF NOT EXISTS item_catalog_after_delete
+            AFTER DELETE ON items
+            BEGIN $BUMP_ITEM_CATALOG_VERSION END
+            """.trimIndent(),
+            """
+            CREATE TRIGGER IF NOT EXISTS item_catalog_after_update
+            AFTER UPDATE OF name, price, barcode, isDeleted ON items
+            WHEN OLD.name IS NOT NEW.name OR OLD.price IS NOT NEW.price
+                 OR OLD.barcode IS NOT NEW.barcode OR OLD.isDeleted IS NOT NEW.isDeleted
+            BEGIN $BUMP_ITEM_CATALOG_VERSION END
+            """.trimIndent()
+        )
+
+        /** Installs the custom triggers (idempotent); run on every open and by tests building their own Room. */
+        internal fun installTriggers(db: SupportSQLiteDatabase) {
+            SALES_STATS_TRIGGERS.forEach { db.execSQL(it) }
+            ITEM_CATALOG_TRIGGERS.forEach { db.execSQL(it) }
+        }
+
+        private val installTriggersCallback = object : RoomDatabase.Callback() {
+            override fun onOpen(db: SupportSQLiteDatabase) {
+                installTriggers(db)
+            }
+        }
+
         private val MIGRATION_8_9 = object : Migration(8, 9) {
             override fun migrate(db: SupportSQLiteDatabase) {
                 db.execSQL("ALTER TABLE parties ADD COLUMN openingDue REAL NOT NULL DEFAULT 0.0")
@@ -289,6 +371,295 @@ abstract class KiranaDatabase : RoomDatabase() {
             }
         }
 
+        private val MIGRATION_18_19 = object : Migration(18, 19) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS daily_rollups (
+                        day INTEGER NOT NULL,
+                        type TEXT NOT NULL,
+                        paymentMode TEXT NOT NULL,
+                        amount REAL NOT NULL,
+                        revenue REAL NOT NULL,
+                        expense REAL NOT NULL,
+                        cogs REAL NOT NULL,
+                        txCount INTEGER NOT NULL,
+                        PRIMARY KEY(day, type, paymentMode)
+                    )
+                    """.trimIndent()
+                )
+                // Backfill from existing history. Not ROLLUP_SCAN_SQL: that tracks the latest schema and reads
+                // transaction_items.unitCostSnapshot, which only exists from v27 on.
+                db.execSQL(
+                    "INSERT INTO daily_rollups (day, type, paymentMode, amount, revenue, expense, cogs, txCount) " +
+                        ROLLUP_SCAN_SQL_V18
+                )
+            }
+        }
+
+        private val MIGRATION_19_20 = object : Migration(19, 20) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_date ON transactions(date)")
+            }
+        }
+
+        private val MIGRATION_20_21 = object : Migration(20, 21) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Same DDL Room generates for @Fts4(contentEntity = ItemEntity::class, tokenizer = unicode61).
+                db.execSQL(
+                    "CREATE VIRTUAL TABLE IF NOT EXISTS `items_fts` USING FTS4(" +
+                        "`name` TEXT NOT NULL, `category` TEXT NOT NULL, `barcode` TEXT, `rackLocation` TEXT, " +
+                        "tokenize=unicode61, content=`items`)"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_items_fts_BEFORE_UPDATE BEFORE UPDATE ON `items` " +
+                        "BEGIN DELETE FROM `items_fts` WHERE `docid`=OLD.`rowid`; END"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_items_fts_BEFORE_DELETE BEFORE DELETE ON `items` " +
+                        "BEGIN DELETE FROM `items_fts` WHERE `docid`=OLD.`rowid`; END"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_items_fts_AFTER_UPDATE AFTER UPDATE ON `items` " +
+                        "BEGIN INSERT INTO `items_fts`(`docid`, `name`, `category`, `barcode`, `rackLocation`) " +
+                        "VALUES (NEW.`rowid`, NEW.`name`, NEW.`category`, NEW.`barcode`, NEW.`rackLocation`); END"
+                )
+                db.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_items_fts_AFTER_INSERT AFTER INSERT ON `items` " +
+                        "BEGIN INSERT INTO `items_fts`(`docid`, `name`, `category`, `barcode`, `rackLocation`) " +
+                        "VALUES (NEW.`rowid`, NEW.`name`, NEW.`category`, NEW.`barcode`, NEW.`rackLocation`); END"
+                )
+                // Index existing rows.
+                db.execSQL("INSERT INTO items_fts(items_fts) VALUES('rebuild')")
+
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS item_sales_stats (
+                        itemId INTEGER NOT NULL,
+                        saleLines INTEGER NOT NULL,
+                        PRIMARY KEY(itemId)
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL(
+                    """
+                    INSERT INTO item_sales_stats (itemId, saleLines)
+                    SELECT ti.itemId, COUNT(*)
+                    FROM transaction_items ti
+                    INNER JOIN transactions t ON t.id = ti.transactionId
+                    WHERE t.type = 'SALE' AND ti.itemId IS NOT NULL
+                    GROUP BY ti.itemId
+                    """.trimIndent()
+                )
+                SALES_STATS_TRIGGERS.forEach { db.execSQL(it) }
+            }
+        }
+
+        private val MIGRATION_21_22 = object : Migration(21, 22) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Cold-path barcode lookups (BarcodeIndex fallback, duplicate checks on save).
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_items_barcode ON items(barcode)")
+            }
+        }
+
+        private val MIGRATION_22_23 = object : Migration(22, 23) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS party_ledger (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                        partyId INTEGER NOT NULL,
+                        transactionId INTEGER,
+                        kind TEXT NOT NULL,
+                        debit REAL NOT NULL,
+                        credit REAL NOT NULL,
+                        balanceAfter REAL NOT NULL,
+                        createdAt INTEGER NOT NULL,
+                        note TEXT
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_party_ledger_partyId_id ON party_ledger(partyId, id)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_party_ledger_transactionId ON party_ledger(transactionId)")
+                // Backfill from existing history, anchored on the current parties.balance.
+                rebuildPartyLedger(db)
+            }
+        }
+
+        private val MIGRATION_23_24 = object : Migration(23, 24) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Per-vendor/per-customer "newest N" and KPI reads (PartyKpiDao) become index range reads.
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_vendorId_date ON transactions(vendorId, date)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_transactions_customerId_date ON transactions(customerId, date)")
+            }
+        }
+
+        private val MIGRATION_24_25 = object : Migration(24, 25) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // outbox.payloadJson (text, re-parsed on every attempt) -> payload (binary, see OutboxPayloadFormat).
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS outbox_new (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                        opId TEXT NOT NULL,
+                        entityType TEXT NOT NULL,
+                        entityId TEXT,
+                        op TEXT NOT NULL,
+                        payload BLOB,
+                        createdAtMillis INTEGER NOT NULL,
+                        lastAttemptAtMillis INTEGER,
+                        status TEXT NOT NULL,
+                        error TEXT
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL(
+                    """
+                    INSERT INTO outbox_new (id, opId, entityType, entityId, op, payload, createdAtMillis, lastAttemptAtMillis, status, error)
+                    SELECT id, opId, entityType, entityId, op, NULL, createdAtMillis, lastAttemptAtMillis, status, error
+                    FROM outbox
+                    """.trimIndent()
+                )
+                // Re-encode in Kotlin: SQLite cannot produce the binary form.
+                db.compileStatement("UPDATE outbox_new SET payload = ? WHERE id = ?").use { update ->
+                    db.compileStatement(
+                        "UPDATE outbox_new SET status = 'FAILED', error = 'Invalid outbox payload' WHERE id = ? AND status != 'DONE'"
+                    ).use { invalid ->
+                        db.query("SELECT id, payloadJson FROM outbox WHERE payloadJson IS NOT NULL").use { c ->
+                            while (c.moveToNext()) {
+                                val id = c.getLong(0)
+                                val payload = try {
+                                    OutboxPayloadFormat.fromJsonText(c.getString(1))
+                                } catch (e: Exception) {
+                                    // Already unsendable before (decode failed on every attempt); keep it visible.
+                                    invalid.bindLong(1, id)
+                                    invalid.executeUpdateDelete()
+                                    null
+                                } ?: continue
+                                update.clearBindings()
+                                update.bindBlob(1, payload)
+                                update.bindLong(2, id)
+                                update.executeUpdateDelete()
+                            }
+                        }
+                    }
+                }
+                db.execSQL("DROP TABLE outbox")
+                db.execSQL("ALTER TABLE outbox_new RENAME TO outbox")
+            }
+        }
+
+        private val MIGRATION_25_26 = object : Migration(25, 26) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS sync_watermarks (
+                        tableName TEXT NOT NULL,
+                        deviceId TEXT NOT NULL,
+                        changedAt TEXT NOT NULL,
+                        localId TEXT NOT NULL,
+                        pulledAtMillis INTEGER NOT NULL,
+                        PRIMARY KEY(tableName)
+                    )
+                    """.trimIndent()
+                )
+            }
+        }
+
+        private val MIGRATION_26_27 = object : Migration(26, 27) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Existing lines stay NULL: their sale-time cost is unknown, the ledger falls back to items.costPrice.
+                db.execSQL("ALTER TABLE transaction_items ADD COLUMN unitCostSnapshot REAL")
+            }
+        }
+
+        private val MIGRATION_27_28 = object : Migration(27, 28) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Watermarks were per device namespace; the shop-wide pull starts over (applies are idempotent).
+                db.execSQL("DROP TABLE IF EXISTS sync_watermarks")
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS sync_watermarks (
+                        tableName TEXT NOT NULL,
+                        shopId TEXT NOT NULL,
+                        changedAt TEXT NOT NULL,
+                        deviceId TEXT NOT NULL,
+                        localId TEXT NOT NULL,
+                        pulledAtMillis INTEGER NOT NULL,
+                        PRIMARY KEY(tableName)
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS remote_ids (
+                        entityType TEXT NOT NULL,
+                        originDeviceId TEXT NOT NULL,
+                        originId TEXT NOT NULL,
+                        localId INTEGER NOT NULL,
+                        linkUploaded INTEGER NOT NULL,
+                        PRIMARY KEY(entityType, originDeviceId, originId)
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_remote_ids_entityType_localId ON remote_ids(entityType, localId)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS index_remote_ids_linkUploaded ON remote_ids(linkUploaded)")
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS remote_links (
+                        entityType TEXT NOT NULL,
+                        deviceId TEXT NOT NULL,
+                        remoteId TEXT NOT NULL,
+                        originDeviceId TEXT NOT NULL,
+                        originId TEXT NOT NULL,
+                        PRIMARY KEY(entityType, deviceId, remoteId)
+                    )
+                    """.trimIndent()
+                )
+            }
+        }
+
+        private val MIGRATION_28_29 = object : Migration(28, 29) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS item_catalog_version (
+                        id INTEGER NOT NULL,
+                        version INTEGER NOT NULL,
+                        PRIMARY KEY(id)
+                    )
+                    """.trimIndent()
+                )
+                db.execSQL("INSERT OR IGNORE INTO item_catalog_version (id, version) VALUES (0, 0)")
+                ITEM_CATALOG_TRIGGERS.forEach { db.execSQL(it) }
+            }
+        }
+
+        /** Every upgrade step, oldest first (shared with the migration tests). */
+        internal val MIGRATIONS: Array<Migration> = arrayOf(
+            MIGRATION_8_9,
+            MIGRATION_9_10,
+            MIGRATION_10_11,
+            MIGRATION_11_12,
+            MIGRATION_12_13,
+            MIGRATION_13_14,
+            MIGRATION_14_15,
+            MIGRATION_15_16,
+            MIGRATION_16_17,
+            MIGRATION_17_18,
+            MIGRATION_18_19,
+            MIGRATION_19_20,
+            MIGRATION_20_21,
+            MIGRATION_21_22,
+            MIGRATION_22_23,
+            MIGRATION_23_24,
+            MIGRATION_24_25,
+            MIGRATION_25_26,
+            MIGRATION_26_27,
+            MIGRATION_27_28,
+            MIGRATION_28_29
+        )
+
         fun getDatabase(context: Context): KiranaDatabase {
             return INSTANCE ?: synchronized(this) {
                 val instance = Room.databaseBuilder(
@@ -296,18 +667,8 @@ abstract class KiranaDatabase : RoomDatabase() {
                     KiranaDatabase::class.java,
                     "kirana_database"
                 )
-                .addMigrations(
-                    MIGRATION_8_9,
-                    MIGRATION_9_10,
-                    MIGRATION_10_11,
-                    MIGRATION_11_12,
-                    MIGRATION_12_13,
-                    MIGRATION_13_14,
-                    MIGRATION_14_15,
-                    MIGRATION_15_16,
-                    MIGRATION_16_17,
-                    MIGRATION_17_18
-                )
+                .addMigrations(*MIGRATIONS)
+                .addCallback(installTriggersCallback)
                 .fallbackToDestructiveMigration()
                 .build()
                 INSTANCE = instance
@@ -20,6 +20,7 @@ class LearningStore(private val context: Context) {
     private object Keys {
         val itemNameMapJson = stringPreferencesKey("item_name_map_json")
         val vendorNameMapJson = stringPreferencesKey("vendor_name_map_json")
+        val ocrDevanagariScoreJson = stringPreferencesKey("ocr_devanagari_score_json")
     }
 
     private val gson = Gson()
@@ -73,6 +74,24 @@ class LearningStore(private val context: Context) {
         return map[normalizeKey(raw)] ?: raw
     }
 
+    /**
+     * How often bills under [key] (device-wide or a vendor) needed the Devanagari OCR pass, as a
+     * running average in 0..1; null until a scan under [key] ran that pass. Used by OcrEngine.
+     */
+    suspend fun devanagariScore(key: String): Double? {
+        val prefs = context.billLearningDataStore.data.first()
+        return loadMap(prefs[Keys.ocrDevanagariScoreJson])[key]?.toDoubleOrNull()
+    }
+
+    suspend fun recordDevanagariUse(key: String, used: Boolean) {
+        val sample = if (used) 1.0 else 0.0
+        context.billLearningDataStore.edit { prefs ->
+            val cur = loadMap(prefs[Keys.ocrDevanagariScoreJson])
+            val next = cur[key]?.toDoubleOrNull()?.let { it * 0.7 + sample * 0.3 } ?: sample
+            prefs[Keys.ocrDevanagariScoreJson] = gson.toJson(limitSize(cur + (key to next.toString())))
+        }
+    }
+
     private fun loadMap(json: String?): Map<String, String> {
         if (json.isNullOrBlank()) return emptyMap()
         return runCatching { gson.fromJson<Map<String, String>>(json, mapType) }.getOrElse { emptyMap() }
@@ -0,0 +1,104 @@
+package com.kiranaflow.app.data.local
+
+import androidx.room.ColumnInfo
+import androidx.room.Dao
+import androidx.room.Query
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * Per-party reads for the vendor/customer screens, served by the v24 composite indexes
+ * index_transactions_vendorId_date and index_transactions_customerId_date.
+ *
+ * "Top N per party" is a correlated `IN (... ORDER BY date DESC LIMIT N)` driven from `parties`:
+ * one backward index range read of N rows per party. ROW_NUMBER() would be the textbook form, but
+ * window functions need SQLite 3.25 and minSdk 26 ships 3.18.
+ *
+ * The join is a CROSS JOIN so SQLite keeps `parties` as the outer loop. With an INNER JOIN and no
+ * ANALYZE stats the planner may scan `transactions` outside and build an automatic index on
+ * parties(type), running the correlated subquery once per transaction (seconds on a busy shop).
+ * PartyKpiQueryPlanTest pins the plan.
+ */
+
+internal const val RECENT_VENDOR_TRANSACTIONS_SQL = """
+        SELECT t.* FROM parties p
+        CROSS JOIN transactions t
+        WHERE t.id IN (
+            SELECT r.id FROM transactions r
+            WHERE r.vendorId = p.id
+            ORDER BY r.date DESC, r.id DESC
+            LIMIT :perVendor
+        )
+        AND p.type = 'VENDOR'
+        ORDER BY t.vendorId ASC, t.date DESC, t.id DESC
+        """
+
+internal const val RECENT_CUSTOMER_TRANSACTIONS_SQL = """
+        SELECT t.* FROM parties p
+        CROSS JOIN transactions t
+        WHERE t.id IN (
+            SELECT r.id FROM transactions r
+            WHERE r.customerId = p.id
+            ORDER BY r.date DESC, r.id DESC
+            LIMIT :perCustomer
+        )
+        AND p.type = 'CUSTOMER'
+        ORDER BY t.customerId ASC, t.date DESC, t.id DESC
+        """
+
+/**
+ * Purchase KPIs of one vendor. Purchases are vendor-linked EXPENSE rows other than settlement
+ * payments ("Payment ..."); VOIDED rows are skipped.
+ */
+data class VendorKpiRow(
+    @ColumnInfo(name = "vendorId")
+    val vendorId: Int,
+
+    @ColumnInfo(name = "spend")
+    val spend: Double,
+
+    @ColumnInfo(name = "purchaseCount")
+    val purchaseCount: Int,
+
+    // Null when the vendor has no purchases yet.
+    @ColumnInfo(name = "lastPurchaseAt")
+    val lastPurchaseAt: Long?,
+
+    // What the shop owes the vendor (negative balance flipped); 0 when nothing is due.
+    @ColumnInfo(name = "payable")
+    val payable: Double
+)
+
+@Dao
+interface PartyKpiDao {
+    @Query(
+        """
+        SELECT
+            p.id AS vendorId,
+            COALESCE(SUM(ABS(t.amount)), 0.0) AS spend,
+            COUNT(t.id) AS purchaseCount,
+            MAX(t.date) AS lastPurchaseAt,
+            CASE WHEN p.balance < 0 THEN -p.balance ELSE 0.0 END AS payable
+        FROM parties p
+        LEFT JOIN transactions t
+            ON t.vendorId = p.id
+            AND t.type = 'EXPENSE'
+            AND t.status != 'VOIDED'
+            AND substr(t.title, 1, 8) != 'Payment '
+        WHERE p.type = 'VENDOR'
+        GROUP BY p.id
+        """
+    )
+    fun vendorKpis(): Flow<List<VendorKpiRow>>
+
+    /**
+     * The [perVendor] newest transactions of every vendor, grouped by vendor, newest first.
+     */
+    @Query(RECENT_VENDOR_TRANSACTIONS_SQL)
+    fun recentVendorTransactions(perVendor: Int): Flow<List<TransactionEntity>>
+
+    /**
+     * The [perCustomer] newest transactions of every customer, grouped by customer, newest first.
+     */
+    @Query(RECENT_CUSTOMER_TRANSACTIONS_SQL)
+    fun recentCustomerTransactions(perCustomer: Int): Flow<List<TransactionEntity>>
+}
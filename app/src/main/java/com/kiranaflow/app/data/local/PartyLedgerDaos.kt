@@ -0,0 +1,232 @@
+package com.kiranaflow.app.data.local
+
+import androidx.room.ColumnInfo
+import androidx.room.Dao
+import androidx.room.Embedded
+import androidx.room.Query
+import androidx.room.Transaction
+import androidx.sqlite.db.SupportSQLiteDatabase
+import kotlin.math.abs
+
+/**
+ * DAO + row models for the v23 `party_ledger` table.
+ *
+ * Balance changes go through [PartyLedgerDao.post]; [PARTY_LEDGER_SCAN_SQL] is the full-scan
+ * definition of which transactions move a party balance, used by [rebuildPartyLedger].
+ */
+
+/**
+ * Balance-moving transactions, one row each, ordered per party by (date, id).
+ *
+ * - settlement payments ("Payment ..." linked to a party): customer INCOME lowers, vendor EXPENSE raises
+ * - CREDIT sales to a customer raise the balance; CREDIT purchases/expenses from a vendor lower it
+ * - VOIDED transactions and transactions of deleted parties are skipped
+ */
+internal const val PARTY_LEDGER_SCAN_SQL = """
+    SELECT partyId, transactionId, kind, delta, createdAt FROM (
+        SELECT
+            COALESCE(t.customerId, t.vendorId) AS partyId,
+            t.id AS transactionId,
+            CASE
+                WHEN substr(t.title, 1, 8) = 'Payment ' THEN 'PAYMENT'
+                WHEN t.type = 'SALE' THEN 'SALE'
+                ELSE 'PURCHASE'
+            END AS kind,
+            CASE
+                WHEN substr(t.title, 1, 8) = 'Payment ' AND t.type = 'INCOME' AND t.customerId IS NOT NULL THEN -t.amount
+                WHEN substr(t.title, 1, 8) = 'Payment ' AND t.type = 'EXPENSE' AND t.vendorId IS NOT NULL THEN t.amount
+                WHEN substr(t.title, 1, 8) = 'Payment ' THEN 0.0
+                WHEN t.type = 'SALE' AND t.paymentMode = 'CREDIT' AND t.customerId IS NOT NULL THEN t.amount
+                WHEN t.type = 'EXPENSE' AND t.paymentMode = 'CREDIT' AND t.vendorId IS NOT NULL THEN -t.amount
+                ELSE 0.0
+            END AS delta,
+            t.date AS createdAt
+        FROM transactions t
+        JOIN parties p ON p.id = COALESCE(t.customerId, t.vendorId)
+        WHERE t.status != 'VOIDED'
+    )
+    WHERE delta != 0.0
+    ORDER BY partyId ASC, createdAt ASC, transactionId ASC
+"""
+
+/**
+ * One statement line: the ledger entry plus the header of the transaction that caused it.
+ */
+data class PartyStatementRow(
+    @Embedded
+    val entry: PartyLedgerEntryEntity,
+
+    @ColumnInfo(name = "txTitle")
+    val txTitle: String?,
+
+    @ColumnInfo(name = "txType")
+    val txType: String?,
+
+    @ColumnInfo(name = "txPaymentMode")
+    val txPaymentMode: String?
+)
+
+/**
+ * Per-party summary of the ledger (for consistency checks against `parties.balance`).
+ */
+data class PartyLedgerTotalsRow(
+    @ColumnInfo(name = "partyId")
+    val partyId: Int,
+
+    @ColumnInfo(name = "entries")
+    val entries: Int,
+
+    @ColumnInfo(name = "net")
+    val net: Double,
+
+    @ColumnInfo(name = "lastBalance")
+    val lastBalance: Double
+)
+
+@Dao
+interface PartyLedgerDao {
+    @Query("UPDATE parties SET balance = balance + :delta WHERE id = :partyId")
+    suspend fun addToBalance(partyId: Int, delta: Double)
+
+    /**
+     * Append an entry whose balanceAfter is read from the party row, so it can never disagree with it.
+     */
+    @Query(
+        """
+        INSERT INTO party_ledger (partyId, transactionId, kind, debit, credit, balanceAfter, createdAt, note)
+        SELECT id, :transactionId, :kind, :debit, :credit, balance, :createdAt, :note
+        FROM parties
+        WHERE id = :partyId
+        """
+    )
+    suspend fun appendAtCurrentBalance(
+        partyId: Int,
+        transactionId: Int?,
+        kind: String,
+        debit: Double,
+        credit: Double,
+        createdAt: Long,
+        note: String?
+    )
+
+    /**
+     * Move the party balance by [delta] and append the matching entry.
+     * Callers run this inside their own `withTransaction`.
+     */
+    @Transaction
+    suspend fun post(partyId: Int, transactionId: Int?, kind: String, delta: Double, createdAt: Long, note: String?) {
+        addToBalance(partyId, delta)
+        appendAtCurrentBalance(
+            partyId = partyId,
+            transactionId = transactionId,
+            kind = kind,
+            debit = if (delta > 0.0) delta else 0.0,
+            credit = if (delta < 0.0) -delta else 0.0,
+            createdAt = createdAt,
+            note = note
+        )
+    }
+
+    /**
+     * Newest-first keyset page of a party's statement; pass Long.MAX_VALUE for the first page.
+     * Served by index_party_ledger_partyId_id as one range read.
+     */
+    @Query(
+        """
+        SELECT l.*, t.title AS txTitle, t.type AS txType, t.paymentMode AS txPaymentMode
+        FROM party_ledger l
+        LEFT JOIN transactions t ON t.id = l.transactionId
+        WHERE l.partyId = :partyId AND l.id < :beforeId
+        ORDER BY l.id DESC
+        LIMIT :limit
+        """
+    )
+    suspend fun statementPage(partyId: Int, beforeId: Long, limit: Int): List<PartyStatementRow>
+
+    @Query("SELECT COUNT(*) FROM party_ledger WHERE partyId = :partyId")
+    suspend fun countEntries(partyId: Int): Int
+
+    @Query("SELECT * FROM party_ledger WHERE transactionId = :transactionId ORDER BY id ASC")
+    suspend fun entriesForTransaction(transactionId: Int): List<PartyLedgerEntryEntity>
+
+    @Query("DELETE FROM party_ledger WHERE partyId IN (:partyIds)")
+    suspend fun deleteForParties(partyIds: List<Int>)
+
+    @Query(
+        """
+        SELECT
+            l.partyId AS partyId,
+            COUNT(*) AS entries,
+            SUM(l.debit - l.credit) AS net,
+            (SELECT x.balanceAfter FROM party_ledger x WHERE x.partyId = l.partyId ORDER BY x.id DESC LIMIT 1) AS lastBalance
+        FROM party_ledger l
+        GROUP BY l.partyId
+        """
+    )
+    suspend fun totalsByParty(): List<PartyLedgerTotalsRow>
+}
+
+/**
+ * Recreate `party_ledger` from history inside the caller's transaction. Per party: an OPENING entry
+ * for the part of the current balance that history does not explain (opening dues, seeded balances,
+ * voids from before the ledger existed), then one entry per balance-moving transaction.
+ *
+ * Kotlin rather than INSERT ... SELECT: running balances need window functions, which the SQLite
+ * shipped with minSdk 26 does not have. Used by the v23 migration and by manual rebuilds.
+ */
+internal fun rebuildPartyLedger(db: SupportSQLiteDatabase, now: Long = System.currentTimeMillis()) {
+    db.execSQL("DELETE FROM party_ledger")
+
+    val balances = LinkedHashMap<Int, Double>()
+    db.query("SELECT id, balance FROM parties ORDER BY id ASC").use { c ->
+        while (c.moveToNext()) balances[c.getInt(0)] = c.getDouble(1)
+    }
+    val explained = HashMap<Int, Double>()
+    db.query("SELECT partyId, SUM(delta) FROM ($PARTY_LEDGER_SCAN_SQL) GROUP BY partyId").use { c ->
+        while (c.moveToNext()) explained[c.getInt(0)] = c.getDouble(1)
+    }
+
+    db.compileStatement(
+        "INSERT INTO party_ledger (partyId, transactionId, kind, debit, credit, balanceAfter, createdAt, note) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)"
+    ).use { insert ->
+        fun append(partyId: Int, txId: Int?, kind: String, delta: Double, balanceAfter: Double, createdAt: Long, note: String?) {
+            insert.clearBindings()
+            insert.bindLong(1, partyId.toLong())
+            if (txId != null) insert.bindLong(2, txId.toLong()) else insert.bindNull(2)
+            insert.bindString(3, kind)
+            insert.bindDouble(4, if (delta > 0.0) delta else 0.0)
+            insert.bindDouble(5, if (delta < 0.0) -delta else 0.0)
+            insert.bindDouble(6, balanceAfter)
+            insert.bindLong(7, createdAt)
+            if (note != null) insert.bindString(8, note) else insert.bindNull(8)
+            insert.executeInsert()
+        }
+
+        var currentParty = -1
+        var running = 0.0
+        db.query(PARTY_LEDGER_SCAN_SQL).use { c ->
+            while (c.moveToNext()) {
+                val partyId = c.getInt(0)
+                val txId = c.getInt(1)
+                val kind = c.getString(2)
+                val delta = c.getDouble(3)
+                val createdAt = c.getLong(4)
+                if (partyId != currentParty) {
+                    currentParty = partyId
+                    val opening = (balances[partyId] ?: 0.0) - (explained[partyId] ?: 0.0)
+                    running = opening
+                    if (abs(opening) >= 0.005) append(partyId, null, "OPENING", opening, opening, createdAt, "Opening balance")
+                }
+                running += delta
+                append(partyId, txId, kind, delta, running, createdAt, null)
+            }
+        }
+
+        // Parties whose whole balance predates their (balance-moving) history.
+        for ((partyId, balance) in balances) {
+            if (partyId in explained || abs(balance) < 0.005) continue
+            append(partyId, null, "OPENING", balance, balance, now, "Opening balance")
+        }
+    }
+}
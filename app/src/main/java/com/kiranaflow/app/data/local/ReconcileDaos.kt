@@ -0,0 +1,76 @@
+package com.kiranaflow.app.data.local
+
+import androidx.room.ColumnInfo
+import androidx.room.Dao
+import androidx.room.Query
+
+/**
+ * The columns reconciliation digests (see sync/reconcile/RowDigest and supabase/sql/008), ordered
+ * by id. Only what the cloud stores as sent: stock and balances are left out.
+ */
+data class ItemDigestRow(
+    @ColumnInfo(name = "id") val id: Int,
+    @ColumnInfo(name = "name") val name: String,
+    @ColumnInfo(name = "category") val category: String,
+    @ColumnInfo(name = "price") val price: Double,
+    @ColumnInfo(name = "costPrice") val costPrice: Double,
+    @ColumnInfo(name = "barcode") val barcode: String?
+)
+
+data class PartyDigestRow(
+    @ColumnInfo(name = "id") val id: Int,
+    @ColumnInfo(name = "type") val type: String,
+    @ColumnInfo(name = "name") val name: String,
+    @ColumnInfo(name = "phone") val phone: String
+)
+
+data class TransactionDigestRow(
+    @ColumnInfo(name = "id") val id: Int,
+    @ColumnInfo(name = "type") val type: String,
+    @ColumnInfo(name = "amount") val amount: Double,
+    @ColumnInfo(name = "customerId") val customerId: Int?,
+    @ColumnInfo(name = "vendorId") val vendorId: Int?
+)
+
+/**
+ * Line items of one transaction, folded like kf_transaction_items is server-side.
+ */
+data class TransactionLinesDigestRow(
+    @ColumnInfo(name = "transactionId") val transactionId: Int,
+    @ColumnInfo(name = "lineCount") val lineCount: Int,
+    // SQLite ROUND is half away from zero, like Postgres numeric round.
+    @ColumnInfo(name = "priceCents") val priceCents: Long
+)
+
+@Dao
+interface ReconcileDao {
+    // Soft-deleted items were hard-deleted in the cloud.
+    @Query("SELECT id, name, category, price, costPrice, barcode FROM items WHERE isDeleted = 0 ORDER BY id")
+    suspend fun itemDigestRows(): List<ItemDigestRow>
+
+    @Query("SELECT id, type, name, phone FROM parties ORDER BY id")
+    suspend fun partyDigestRows(): List<PartyDigestRow>
+
+    @Query("SELECT id, type, amount, customerId, vendorId FROM transactions ORDER BY id")
+    suspend fun transactionDigestRows(): List<TransactionDigestRow>
+
+    @Query(
+        """
+        SELECT transactionId, COUNT(*) AS lineCount, SUM(CAST(ROUND(price * 100) AS INTEGER)) AS priceCents
+        FROM transaction_items
+        GROUP BY transactionId
+        ORDER BY transactionId
+        """
+    )
+    suspend fun transactionLinesDigestRows(): List<TransactionLinesDigestRow>
+
+    @Query(
+        "SELECT DISTINCT entityId FROM outbox " +
+            "WHERE status != 'DONE' AND entityType = :entityType AND entityId IN (:ids)"
+    )
+    suspend fun unsyncedEntityIds(entityType: String, ids: List<String>): List<String>
+
+    // Copies pulled from other devices of the shop (see CloudPullApplier); not pushed until edited.
+    @Query("SELECT localId FROM remote_ids WHERE entityType = :entityType AND localId IN (:ids)")
+    suspend fun pulledCopyIds(entityType: String, ids: List<Int>): List<Int>
+}
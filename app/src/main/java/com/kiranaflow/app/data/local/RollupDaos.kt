@@ -0,0 +1,252 @@
+package com.kiranaflow.app.data.local
+
+import androidx.room.ColumnInfo
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * DAO + row models for the v19 `daily_rollups` table.
+ *
+ * Incremental writes go through [DailyRollupDao.apply]; [ROLLUP_SCAN_SQL] is the full-scan
+ * definition used both to rebuild the table and to verify it.
+ */
+
+/**
+ * Full-scan aggregation of `transactions` into rollup rows.
+ *
+ * - day: local epoch day (matches LocalDate.toEpochDay() in the device zone)
+ * - settlement payments ("Payment ..." linked to a party) count towards amount but not revenue/expense
+ * - COGS uses each line's unitCostSnapshot, else the current items.costPrice (legacy GRAM lines are converted to KG)
+ */
+internal const val ROLLUP_SCAN_SQL = """
+    SELECT
+        CAST(julianday(t.date / 1000, 'unixepoch', 'localtime') - 2440587.5 AS INTEGER) AS day,
+        t.type AS type,
+        t.paymentMode AS paymentMode,
+        SUM(t.amount) AS amount,
+        SUM(
+            CASE
+                WHEN t.type IN ('SALE', 'INCOME')
+                     AND NOT (substr(t.title, 1, 8) = 'Payment ' AND (t.customerId IS NOT NULL OR t.vendorId IS NOT NULL))
+                THEN t.amount ELSE 0.0
+            END
+        ) AS revenue,
+        SUM(
+            CASE
+                WHEN t.type = 'EXPENSE'
+                     AND NOT (substr(t.title, 1, 8) = 'Payment ' AND (t.customerId IS NOT NULL OR t.vendorId IS NOT NULL))
+                THEN t.amount ELSE 0.0
+            END
+        ) AS expense,
+        SUM(CASE WHEN t.type = 'SALE' THEN COALESCE(c.cogs, 0.0) ELSE 0.0 END) AS cogs,
+        COUNT(*) AS txCount
+    FROM transactions t
+    LEFT JOIN (
+        SELECT
+            ti.transactionId AS txId,
+            SUM(
+                COALESCE(ti.unitCostSnapshot, i.costPrice, 0.0) *
+                CASE
+                    WHEN UPPER(ti.unit) IN ('GRAM', 'G', 'GM', 'GMS', 'GRAMS') THEN ti.qty / 1000.0
+                    ELSE ti.qty
+                END
+            ) AS cogs
+        FROM transaction_items ti
+        LEFT JOIN items i ON i.id = ti.itemId
+        GROUP BY ti.transactionId
+    ) c ON c.txId = t.id
+    WHERE t.status != 'VOIDED'
+    GROUP BY day, t.type, t.paymentMode
+"""
+
+/**
+ * [ROLLUP_SCAN_SQL] as it must run against a v18 schema, for the 18 -> 19 backfill only. Frozen:
+ * v18 has no transaction_items.unitCostSnapshot, so COGS uses the current items.costPrice.
+ */
+internal const val ROLLUP_SCAN_SQL_V18 = """
+    SELECT
+        CAST(julianday(t.date / 1000, 'unixepoch', 'localtime') - 2440587.5 AS INTEGER) AS day,
+        t.type AS type,
+        t.paymentMode AS paymentMode,
+        SUM(t.amount) AS amount,
+        SUM(
+            CASE
+                WHEN t.type IN ('SALE', 'INCOME')
+                     AND NOT (substr(t.title, 1, 8) = 'Payment ' AND (t.customerId IS NOT NULL OR t.vendorId IS NOT NULL))
+                THEN t.amount ELSE 0.0
+            END
+        ) AS revenue,
+        SUM(
+            CASE
+                WHEN t.type = 'EXPENSE'
+                     AND NOT (substr(t.title, 1, 8) = 'Payment ' AND (t.customerId IS NOT NULL OR t.vendorId IS NOT NULL))
+                THEN t.amount ELSE 0.0
+            END
+        ) AS expense,
+        SUM(CASE WHEN t.type = 'SALE' THEN COALESCE(c.cogs, 0.0) ELSE 0.0 END) AS cogs,
+        COUNT(*) AS txCount
+    FROM transactions t
+    LEFT JOIN (
+        SELECT
+            ti.transactionId AS txId,
+            SUM(
+                COALESCE(i.costPrice, 0.0) *
+                CASE
+                    WHEN UPPER(ti.unit) IN ('GRAM', 'G', 'GM', 'GMS', 'GRAMS') THEN ti.qty / 1000.0
+                    ELSE ti.qty
+                END
+            ) AS cogs
+        FROM transaction_items ti
+        LEFT JOIN items i ON i.id = ti.itemId
+        GROUP BY ti.transactionId
+    ) c ON c.txId = t.id
+    WHERE t.status != 'VOIDED'
+    GROUP BY day, t.type, t.paymentMode
+"""
+
+/**
+ * All-time KPI totals read from `daily_rollups`.
+ */
+data class RollupTotalsRow(
+    @ColumnInfo(name = "revenue")
+    val revenue: Double,
+
+    @ColumnInfo(name = "expense")
+    val expense: Double,
+
+    @ColumnInfo(name = "cogs")
+    val cogs: Double,
+
+    @ColumnInfo(name = "cashIn")
+    val cashIn: Double,
+
+    @ColumnInfo(name = "cashOut")
+    val cashOut: Double
+)
+
+/**
+ * One bucket of a per-day series (e.g. SALE amount for the chart).
+ */
+data class DailyAmountRow(
+    @ColumnInfo(name = "day")
+    val day: Long,
+
+    @ColumnInfo(name = "amount")
+    val amount: Double
+)
+
+@Dao
+interface DailyRollupDao {
+    @Query(
+        """
+        INSERT OR IGNORE INTO daily_rollups (day, type, paymentMode, amount, revenue, expense, cogs, txCount)
+        VALUES (:day, :type, :paymentMode, 0.0, 0.0, 0.0, 0.0, 0)
+        """
+    )
+    suspend fun ensureRow(day: Long, type: String, paymentMode: String)
+
+    @Query(
+        """
+        UPDATE daily_rollups
+        SET amount = amount + :amount,
+            revenue = revenue + :revenue,
+            expense = expense + :expense,
+            cogs = cogs + :cogs,
+            txCount = txCount + :txCount
+        WHERE day = :day AND type = :type AND paymentMode = :paymentMode
+        """
+    )
+    suspend fun addDelta(
+        day: Long,
+        type: String,
+        paymentMode: String,
+        amount: Double,
+        revenue: Double,
+        expense: Double,
+        cogs: Double,
+        txCount: Int
+    )
+
+    /**
+     * Add a signed delta to one rollup bucket. Callers run this inside their own `withTransaction`.
+     * (Two statements instead of UPSERT: minSdk 26 ships SQLite without ON CONFLICT DO UPDATE.)
+     */
+    @Transaction
+    suspend fun apply(delta: DailyRollupEntity) {
+        ensureRow(delta.day, delta.type, delta.paymentMode)
+        addDelta(
+            day = delta.day,
+            type = delta.type,
+            paymentMode = delta.paymentMode,
+            amount = delta.amount,
+            revenue = delta.revenue,
+            expense = delta.expense,
+            cogs = delta.cogs,
+            txCount = delta.txCount
+        )
+    }
+
+    /**
+     * Record the unit cost a line was counted at, so a later [DailyRollupLedger] remove subtracts
+     * the same COGS even if the item's costPrice has changed since.
+     */
+    @Query(
+        """
+        UPDATE transaction_items SET unitCostSnapshot = :unitCost
+        WHERE transactionId = :transactionId AND itemId = :itemId AND unitCostSnapshot IS NULL
+        """
+    )
+    suspend fun stampUnitCost(transactionId: Int, itemId: Int, unitCost: Double)
+
+    @Query("DELETE FROM daily_rollups")
+    suspend fun clear()
+
+    @Query(
+        "INSERT INTO daily_rollups (day, type, paymentMode, amount, revenue, expense, cogs, txCount) " + ROLLUP_SCAN_SQL
+    )
+    suspend fun insertFromScan()
+
+    @Transaction
+    suspend fun rebuild() {
+        clear()
+        insertFromScan()
+    }
+
+    /**
+     * Full-scan equivalent of the table contents (for consistency checks).
+     */
+    @Query(ROLLUP_SCAN_SQL)
+    suspend fun scanFromTransactions(): List<DailyRollupEntity>
+
+    @Query("SELECT * FROM daily_rollups ORDER BY day ASC, type ASC, paymentMode ASC")
+    suspend fun getAllSync(): List<DailyRollupEntity>
+
+    @Query(
+        """
+        SELECT
+            COALESCE(SUM(revenue), 0.0) AS revenue,
+            COALESCE(SUM(expense), 0.0) AS expense,
+            COALESCE(SUM(cogs), 0.0) AS cogs,
+            COALESCE(SUM(CASE WHEN paymentMode = 'CASH' AND type IN ('SALE', 'INCOME') THEN amount ELSE 0.0 END), 0.0) AS cashIn,
+            COALESCE(SUM(CASE WHEN paymentMode = 'CASH' AND type = 'EXPENSE' THEN amount ELSE 0.0 END), 0.0) AS cashOut
+        FROM daily_rollups
+        """
+    )
+    fun observeTotals(): Flow<RollupTotalsRow>
+
+    @Query(
+        """
+        SELECT day, SUM(amount) AS amount
+        FROM daily_rollups
+        WHERE type = 'SALE' AND day BETWEEN :fromDay AND :toDay
+        GROUP BY day
+        ORDER BY day ASC
+        """
+    )
+    fun observeDailySales(fromDay: Long, toDay: Long): Flow<List<DailyAmountRow>>
+
+    @Query("SELECT COALESCE(SUM(amount), 0.0) FROM daily_rollups WHERE type = 'SALE' AND day BETWEEN :fromDay AND :toDay")
+    fun observeSalesTotal(fromDay: Long, toDay: Long): Flow<Double>
+}
@@ -0,0 +1,252 @@
+package com.kiranaflow.app.data.remote
+
+import android.util.JsonReader
+import android.util.JsonToken
+import com.kiranaflow.app.data.local.RemoteIdEntity
+import com.kiranaflow.app.util.BackendConfig
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keyset-paged reads of the kf_* tables through PostgREST, for the incremental pull in
+ * [SimpleRealtimeManager], plus the two small writes the shop-wide pull needs (supabase/sql/010):
+ * joining a shop and uploading id links.
+ *
+ * Rows of one shop come ordered by (changed_at, device_id, local_id) and each page asks for the rows
+ * after the previous page's last key, bounded by a `Range: 0-(limit-1)` header, so a page costs one
+ * index range read on kf_*_shop_changed_idx however deep the table is. The body is parsed with a
+ * streaming [JsonReader] row by row; it is never held as one String or tree.
+ *
+ * Unlike [SimpleSupabaseClient] this client has no BODY logging interceptor (that buffers the
+ * whole response).
+ */
+class CloudPullClient(
+    private val baseUrl: String = BackendConfig.backendBaseUrl,
+    private val apiKey: String = BackendConfig.backendApiKey
+) {
+    /**
+     * Position in a table: the (changed_at, device_id, local_id) of a row, changed_at verbatim from
+     * the server. changed_at is stamped by the server on every write (supabase/sql/007), unlike
+     * updated_at, which kf_transactions takes from the client.
+     */
+    data class Key(val changedAt: String, val deviceId: String, val localId: String)
+
+    data class Page<T>(
+        val rows: List<T>,
+        // Keys of every row read, in order (including rows [fetchPage]'s parser dropped).
+        val keys: List<Key>,
+        // Server clock (Date header), used to tell settled rows from ones that may still gain neighbours.
+        val serverTimeMillis: Long?
+    ) {
+        val lastKey: Key? get() = keys.lastOrNull()
+    }
+
+    fun isConfigured(): Boolean = baseUrl.isNotBlank() && apiKey.isNotBlank()
+
+    /**
+     * Up to [limit] rows of [table] written by the devices of [shopId] other than [ownDeviceId],
+     * ordered by (changed_at, device_id, local_id), after [after] (exclusive; null = from the start).
+     * [filters] are extra PostgREST filters (column to "op.value").
+     * [parse] maps one row (read through [RowReader]'s accessors) to a value; null drops the row.
+     */
+    fun <T : Any> fetchPage(
+        table: String,
+        columns: String,
+        shopId: String,
+        ownDeviceId: String,
+        after: Key?,
+        limit: Int,
+        filters: Map<String, String> = emptyMap(),
+        parse: (RowReader) -> T?
+    ): Page<T> {
+        val url = restUrl(table).newBuilder()
+            .addQueryParameter("select", "device_id,$columns")
+            .addQueryParameter("shop_id", "eq.$shopId")
+            .addQueryParameter("device_id", "neq.$ownDeviceId")
+            .apply { filters.forEach { (column, filter) -> addQueryParameter(column, filter) } }
+            .addQueryParameter("order", "changed_at.asc,device_id.asc,local_id.asc")
+            .apply {
+                if (after != null) {
+                    val ts = "\"${after.changedAt}\""
+                    val device = "\"${after.deviceId}\""
+                    addQueryParameter(
+                        "or",
+                        "(changed_at.gt.$ts," +
+                            "and(changed_at.eq.$ts,device_id.gt.$device)," +
+                            "and(changed_at.eq.$ts,device_id.eq.$device,local_id.gt.\"${after.localId}\"))"
+                    )
+                }
+            }
+            .build()
+
+        val request = Request.Builder()
+            .url(url)
+            .header("apikey", apiKey)
+            .header("Authorization", "Bearer $apiKey")
+            .header("Accept", "application/json")
+            .header("Range-Unit", "items")
+            .header("Range", "0-${limit - 1}")
+            .get()
+            .build()
+
+        client.newCall(request).execute().use { resp ->
+            // 206 Partial Content when the range cut the result short.
+            if (!resp.isSuccessful) throw IOException("HTTP ${resp.code} ${resp.message} for $table")
+            val serverTime = resp.headers.getDate("Date")?.time
+            val body = resp.body ?: return Page(emptyList(), emptyList(), serverTime)
+            val rows = ArrayList<T>(limit)
+            val keys = ArrayList<Key>(limit)
+            JsonReader(body.charStream()).use { reader ->
+                reader.beginArray()
+                while (reader.hasNext()) {
+                    val row = RowReader(reader)
+                    val value = row.read(parse)
+                    keys += Key(
+                        changedAt = row.changedAt ?: throw IOException("$table row without changed_at"),
+                        deviceId = row.deviceId ?: throw IOException("$table row without device_id"),
+                        localId = row.localId ?: throw IOException("$table row without local_id")
+                    )
+                    if (value != null) rows += value
+                }
+                reader.endArray()
+            }
+            return Page(rows, keys, serverTime)
+        }
+    }
+
+    /**
+     * Puts [deviceId] (and the rows it already pushed) in [shopId]; a device never registered is a
+     * shop of its own. Idempotent.
+     */
+    fun joinShop(deviceId: String, shopId: String) {
+        post(
+            rpcUrl("kf_join_shop"),
+            JSONObject().put("p_device_id", deviceId).put("p_shop_id", shopId).toString(),
+            prefer = null
+        )
+    }
+
+    /**
+     * Tells the shop which rows of [deviceId] are copies of another device's rows, so edits of them
+     * are recognised. Links never change; duplicates are ignored.
+     */
+    fun uploadLinks(deviceId: String, links: List<RemoteIdEntity>) {
+        if (links.isEmpty()) return
+        val body = JSONArray()
+        for (link in links) {
+            body.put(
+                JSONObject()
+                    .put("device_id", deviceId)
+                    .put("entity_type", link.entityType)
+                    .put("local_id", link.localId.toString())
+                    .put("origin_device_id", link.originDeviceId)
+                    .put("origin_local_id", link.originId)
+            )
+        }
+        post(restUrl("kf_id_links"), body.toString(), prefer = "resolution=ignore-duplicates,return=minimal")
+    }
+
+    private fun post(url: HttpUrl, json: String, prefer: String?) {
+        val request = Request.Builder()
+            .url(url)
+            .header("apikey", apiKey)
+            .header("Authorization", "Bearer $apiKey")
+            .apply { if (prefer != null) header("Prefer", prefer) }
+            .post(json.toRequestBody(JSON))
+            .build()
+        client.newCall(request).execute().use { resp ->
+            if (!resp.isSuccessful) throw IOException("HTTP ${resp.code} ${resp.message} for ${url.encodedPath}")
+        }
+    }
+
+    /**
+     * One row object. `changed_at`, `device_id` and `local_id` are captured for the keyset before
+     * the rest is handed to the caller's parser.
+     */
+    class RowReader internal constructor(private val reader: JsonReader) {
+        var changedAt: String? = null
+            private set
+        var deviceId: String? = null
+            private set
+        var localId: String? = null
+            private set
+
+        private val fields = HashMap<String, Any?>()
+
+        internal fun <T : Any> read(parse: (RowReader) -> T?): T? {
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (val name = reader.nextName()) {
+                    "changed_at" -> changedAt = reader.nextString()
+                    "device_id" -> deviceId = string()
+                    "local_id" -> localId = string()
+                    else -> fields[name] = value()
+                }
+            }
+            reader.endObject()
+            return parse(this)
+        }
+
+        fun string(name: String): String? = fields[name] as? String
+        fun double(name: String): Double? = (fields[name] as? String)?.toDoubleOrNull()
+        fun long(name: String): Long? = double(name)?.toLong()
+        fun int(name: String): Int? = double(name)?.toInt()
+        fun bool(name: String): Boolean? = fields[name] as? Boolean
+
+        @Suppress("UNCHECKED_CAST")
+        fun objects(name: String): List<Map<String, Any?>> =
+            (fields[name] as? List<*>)?.filterIsInstance<Map<*, *>>()?.map { it as Map<String, Any?> }.orEmpty()
+
+        private fun string(): String? =
+            if (reader.peek() == JsonToken.NULL) reader.nextNull().let { null } else reader.nextString()
+
+        // Scalars are kept as strings (numbers included, so numeric columns keep full precision until read).
+        private fun value(): Any? = when (reader.peek()) {
+            JsonToken.NULL -> reader.nextNull().let { null }
+            JsonToken.BOOLEAN -> reader.nextBoolean()
+            JsonToken.BEGIN_ARRAY -> {
+                val list = ArrayList<Any?>()
+                reader.beginArray()
+                while (reader.hasNext()) list += value()
+                reader.endArray()
+                list
+            }
+            JsonToken.BEGIN_OBJECT -> {
+                val map = HashMap<String, Any?>()
+                reader.beginObject()
+                while (reader.hasNext()) map[reader.nextName()] = value()
+                reader.endObject()
+                map
+            }
+            else -> reader.nextString()
+        }
+    }
+
+    private fun restUrl(table: String): HttpUrl {
+        // BACKEND_BASE_URL is the project URL; tolerate it pointing at an edge function.
+        val root = baseUrl.trim().substringBefore("/functions/v1").removeSuffix("/")
+        return "$root/rest/v1/$table".toHttpUrlOrNull()
+            ?: throw IOException("Invalid backend URL: $baseUrl")
+    }
+
+    private fun rpcUrl(function: String): HttpUrl = restUrl("rpc/$function")
+
+    private companion object {
+        val JSON = "application/json; charset=utf-8".toMediaType()
+
+        val client: OkHttpClient by lazy {
+            OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build()
+        }
+    }
+}
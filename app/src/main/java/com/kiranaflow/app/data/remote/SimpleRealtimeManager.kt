@@ -1,100 +1,344 @@
 package com.kiranaflow.app.data.remote
 
-import com.kiranaflow.app.data.local.ItemDao
-import com.kiranaflow.app.data.local.PartyDao
-import com.kiranaflow.app.data.local.TransactionDao
+import android.util.Log
+import com.kiranaflow.app.data.local.CloudPullDao
+import com.kiranaflow.app.data.local.PulledItem
+import com.kiranaflow.app.data.local.PulledLine
+import com.kiranaflow.app.data.local.PulledLink
+import com.kiranaflow.app.data.local.PulledParty
+import com.kiranaflow.app.data.local.PulledStockMovement
+import com.kiranaflow.app.data.local.PulledTransaction
+import com.kiranaflow.app.data.local.SyncWatermarkEntity
+import com.kiranaflow.app.data.repository.CloudPullApplier
 import com.kiranaflow.app.util.ConnectivityMonitor
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import java.time.OffsetDateTime
 
 /**
- * Simple real-time subscription manager for Supabase
- * 
- * This provides basic polling-based real-time updates since we're using
- * simple HTTP client instead of full Supabase SDK.
+ * Incremental pull of changes the other devices of the shop pushed to the kf_* tables (e.g. counter
+ * phone and owner phone). Devices are grouped by shop on the server (supabase/sql/010); each poll
+ * first registers this device in its shop and uploads the id links it owes, then reads.
+ *
+ * Per table a watermark (changed_at, device_id, local_id) is kept in Room; each poll reads keyset
+ * pages after it through [CloudPullClient] and applies them with [CloudPullApplier], which maps the
+ * other devices' ids to local ones, neither queues outbox entries nor overwrites rows with unsynced
+ * local changes, and records pulled transactions through the ledgers. id links are read before the
+ * rows so an edited copy is recognised as the row it copies.
+ *
+ * changed_at is the writer's transaction start, so a row can become visible after a newer one has
+ * been pulled. The watermark therefore only moves past rows older than [SETTLE_MS] by the server
+ * clock; newer rows are applied at once and simply read again next poll (applies are idempotent).
+ *
+ * The interval adapts: halved (down to [MIN_INTERVAL_MS]) after a poll that changed something,
+ * stretched by half (up to [MAX_INTERVAL_MS]) after a quiet one, doubled after an error.
+ *
+ * Stock levels are not pulled: other devices' restocks and corrections come as kf_stock_movements
+ * (supabase/sql/012) and are added to the local count, their sales through the pulled transactions.
+ *
+ * Not covered: rows deleted in the cloud (kf_* deletes are hard deletes, so there is nothing to pull).
  */
 class SimpleRealtimeManager(
-    private val itemDao: ItemDao,
-    private val partyDao: PartyDao,
-    private val transactionDao: TransactionDao,
-    private val deviceId: String
+    private val cloudPullDao: CloudPullDao,
+    private val applier: CloudPullApplier,
+    // Namespace the outbox pushes under (AppPrefsStore.getOrCreateDeviceId).
+    private val deviceId: suspend () -> String,
+    // Shop whose devices are pulled (AppPrefsStore.getOrCreateShopId).
+    private val shopId: suspend () -> String,
+    private val pullClient: CloudPullClient = CloudPullClient()
 ) {
-    
+
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
-    private var isPolling = false
-    
+    @Volatile
+    private var pollJob: Job? = null
+
+    // Shop this process last registered the device in (kf_join_shop).
+    @Volatile
+    private var joinedShopId: String? = null
+
+    @Volatile
+    var intervalMs: Long = INITIAL_INTERVAL_MS
+        private set
+
     /**
      * Initialize real-time subscriptions (polling-based)
      */
     fun initialize() {
+        if (!pullClient.isConfigured()) return
         if (ConnectivityMonitor.isOnlineNow()) {
             startPolling()
         }
-        
+
         // Listen for connectivity changes
         ConnectivityMonitor.addOnConnectivityChangedListener { isOnline ->
-            if (isOnline && !isPolling) {
+            if (isOnline) {
                 startPolling()
-            } else if (!isOnline && isPolling) {
+            } else {
                 stopPolling()
             }
         }
     }
-    
+
     /**
      * Start polling for changes
      */
+    @Synchronized
     private fun startPolling() {
-        if (isPolling) return
-        
-        isPolling = true
-        scope.launch {
-            while (isPolling && ConnectivityMonitor.isOnlineNow()) {
-                try {
-                    // Poll for changes in all tables
-                    pollItems()
-                    pollParties()
-                    pollTransactions()
-                    
-                    // Poll every 30 seconds
-                    delay(30000)
+        if (pollJob?.isActive == true) return
+        intervalMs = INITIAL_INTERVAL_MS
+        pollJob = scope.launch {
+            while (isActive && ConnectivityMonitor.isOnlineNow()) {
+                intervalMs = try {
+                    val changed = pollOnce()
+                    if (changed > 0) {
+                        (intervalMs / 2).coerceAtLeast(MIN_INTERVAL_MS)
+                    } else {
+                        (intervalMs * 3 / 2).coerceAtMost(MAX_INTERVAL_MS)
+                    }
                 } catch (e: Exception) {
-                    println("Error in real-time polling: ${e.message}")
-                    delay(60000) // Wait longer on error
+                    Log.w(TAG, "Cloud pull failed: ${e.message}")
+                    (intervalMs * 2).coerceAtMost(MAX_INTERVAL_MS)
                 }
+                delay(intervalMs)
             }
         }
     }
-    
+
     /**
      * Stop polling for changes
      */
+    @Synchronized
     private fun stopPolling() {
-        isPolling = false
+        pollJob?.cancel()
+        pollJob = null
     }
-    
+
     /**
      * Clean up resources
      */
     fun cleanup() {
         stopPolling()
     }
-    
-    private fun pollItems() {
-        // Simple polling implementation - just log for now
-        println("Polling items...")
+
+    /**
+     * One pull of every table, parents first so transactions find their parties and items.
+     * Returns how many local rows changed.
+     */
+    suspend fun pollOnce(): Int {
+        val me = deviceId()
+        val shop = shopId()
+        if (joinedShopId != shop) {
+            pullClient.joinShop(me, shop)
+            joinedShopId = shop
+        }
+        uploadLinks(me)
+        for (entityType in LINKED_ENTITY_TYPES) pollLinks(me, shop, entityType)
+        var changed = pollParties(me, shop).changed
+        val items = pollItems(me, shop)
+        changed += items.changed
+        // Movements of items not pulled yet are skipped, and the watermark would move past them for good.
+        if (items.caughtUp) changed += pollStockMovements(me, shop).changed
+        changed += pollTransactions(me, shop).changed
+        return changed
+    }
+
+    private suspend fun uploadLinks(me: String) {
+        while (true) {
+            val links = applier.unuploadedLinks(LINK_BATCH)
+            if (links.isEmpty()) return
+            pullClient.uploadLinks(me, links)
+            applier.markLinksUploaded(links)
+            if (links.size < LINK_BATCH) return
+        }
+    }
+
+    private suspend fun pollLinks(me: String, shop: String, entityType: String): Pulled = pull(
+        table = SimpleSupabaseClient.kfIdLinks,
+        watermarkName = "${SimpleSupabaseClient.kfIdLinks}:$entityType",
+        filters = mapOf("entity_type" to "eq.$entityType"),
+        me = me,
+        shop = shop,
+        columns = "local_id,changed_at,origin_device_id,origin_local_id",
+        parse = { r ->
+            PulledLink(
+                deviceId = r.deviceId ?: return@pull null,
+                localId = r.localId ?: return@pull null,
+                entityType = entityType,
+                originDeviceId = r.string("origin_device_id") ?: return@pull null,
+                originId = r.string("origin_local_id") ?: return@pull null
+            )
+        },
+        apply = applier::applyLinks
+    )
+
+    private suspend fun pollItems(me: String, shop: String): Pulled = pull(
+        table = SimpleSupabaseClient.kfItems,
+        me = me,
+        shop = shop,
+        columns = "local_id,changed_at,name,category,price,cost_price,gst_percentage,reorder_point," +
+            "vendor_local_id,rack_location,barcode,expiry_date_millis",
+        parse = { r ->
+            PulledItem(
+                deviceId = r.deviceId ?: return@pull null,
+                localId = r.localId ?: return@pull null,
+                name = r.string("name").orEmpty(),
+                category = r.string("category"),
+                price = r.double("price"),
+                costPrice = r.double("cost_price"),
+                gstPercentage = r.double("gst_percentage"),
+                reorderPoint = r.int("reorder_point"),
+                vendorId = r.string("vendor_local_id"),
+                rackLocation = r.string("rack_location"),
+                barcode = r.string("barcode"),
+                expiryDateMillis = r.long("expiry_date_millis")
+            )
+        },
+        apply = { rows, watermark -> applier.applyItems(me, rows, watermark) }
+    )
+
+    private suspend fun pollStockMovements(me: String, shop: String): Pulled = pull(
+        table = SimpleSupabaseClient.kfStockMovements,
+        me = me,
+        shop = shop,
+        columns = "local_id,changed_at,item_local_id,delta",
+        parse = { r ->
+            PulledStockMovement(
+                deviceId = r.deviceId ?: return@pull null,
+                localId = r.localId ?: return@pull null,
+                itemId = r.string("item_local_id") ?: return@pull null,
+                delta = r.double("delta") ?: return@pull null
+            )
+        },
+        apply = { rows, watermark -> applier.applyStockMovements(me, rows, watermark) }
+    )
+
+    private suspend fun pollParties(me: String, shop: String): Pulled = pull(
+        table = SimpleSupabaseClient.kfParties,
+        me = me,
+        shop = shop,
+        columns = "local_id,changed_at,type,name,phone,gst_number",
+        parse = { r ->
+            PulledParty(
+                deviceId = r.deviceId ?: return@pull null,
+                localId = r.localId ?: return@pull null,
+                type = r.string("type") ?: return@pull null,
+                name = r.string("name").orEmpty(),
+                phone = r.string("phone"),
+                gstNumber = r.string("gst_number")
+            )
+        },
+        apply = { rows, watermark -> applier.applyParties(me, rows, watermark) }
+    )
+
+    private suspend fun pollTransactions(me: String, shop: String): Pulled = pull(
+        table = SimpleSupabaseClient.kfTransactions,
+        me = me,
+        shop = shop,
+        columns = "local_id,changed_at,type,payment_mode,customer_local_id,vendor_local_id,amount,items,note,status," +
+            "occurred_at,updated_at",
+        parse = { r ->
+            PulledTransaction(
+                deviceId = r.deviceId ?: return@pull null,
+                localId = r.localId ?: return@pull null,
+                type = r.string("type") ?: return@pull null,
+                paymentMode = r.string("payment_mode"),
+                customerId = r.string("customer_local_id"),
+                vendorId = r.string("vendor_local_id"),
+                amount = r.double("amount"),
+                note = r.string("note"),
+                status = r.string("status"),
+                lines = r.objects("items").map { line ->
+                    PulledLine(
+                        itemId = (line["itemId"] as? String)?.toDoubleOrNull()?.toLong()?.toString(),
+                        name = line["name"] as? String,
+                        qty = (line["qty"] as? String)?.toDoubleOrNull() ?: 0.0,
+                        unit = line["unit"] as? String,
+                        price = (line["price"] as? String)?.toDoubleOrNull() ?: 0.0
+                    )
+                },
+                // occurred_at is the recording device's clock at insert (010); updated_at for older servers.
+                occurredAtMillis = (r.string("occurred_at") ?: r.string("updated_at"))?.let { epochMillis(it) }
+                    ?: System.currentTimeMillis()
+            )
+        },
+        apply = { rows, watermark -> applier.applyTransactions(me, rows, watermark) }
+    )
+
+    /**
+     * Keyset pages of [table] after its watermark, each applied with its (possibly unchanged)
+     * watermark in one Room transaction. Stops after [MAX_PAGES_PER_POLL]; the rest follows next poll.
+     */
+    private suspend fun <T : Any> pull(
+        table: String,
+        watermarkName: String = table,
+        filters: Map<String, String> = emptyMap(),
+        me: String,
+        shop: String,
+        columns: String,
+        parse: (CloudPullClient.RowReader) -> T?,
+        apply: suspend (List<T>, SyncWatermarkEntity?) -> Int
+    ): Pulled {
+        val stored = cloudPullDao.watermark(watermarkName)?.takeIf { it.shopId == shop }
+        var settled = stored?.let { CloudPullClient.Key(it.changedAt, it.deviceId, it.localId) }
+        var after = settled
+        var changed = 0
+
+        repeat(MAX_PAGES_PER_POLL) {
+            val page = pullClient.fetchPage(table, columns, shop, me, after, PAGE_SIZE, filters, parse)
+            if (page.keys.isEmpty()) return Pulled(changed, caughtUp = true)
+
+            val cutoff = (page.serverTimeMillis ?: System.currentTimeMillis()) - SETTLE_MS
+            val previous = settled
+            val advanced = page.keys.lastOrNull { epochMillis(it.changedAt) <= cutoff }
+                ?.takeIf { previous == null || isAfter(it, previous) }
+            if (advanced != null) settled = advanced
+            val watermark = advanced?.let {
+                SyncWatermarkEntity(
+                    tableName = watermarkName,
+                    shopId = shop,
+                    changedAt = it.changedAt,
+                    deviceId = it.deviceId,
+                    localId = it.localId,
+                    pulledAtMillis = System.currentTimeMillis()
+                )
+            }
+            changed += apply(page.rows, watermark)
+
+            if (page.keys.size < PAGE_SIZE) return Pulled(changed, caughtUp = true)
+            after = page.lastKey
+        }
+        return Pulled(changed, caughtUp = false)
     }
-    
-    private fun pollParties() {
-        // Simple polling implementation - just log for now
-        println("Polling parties...")
+
+    /** Rows changed by one [pull]; [caughtUp] is false when it stopped at [MAX_PAGES_PER_POLL] with more to fetch. */
+    private data class Pulled(val changed: Int, val caughtUp: Boolean)
+
+    private fun isAfter(a: CloudPullClient.Key, b: CloudPullClient.Key): Boolean {
+        val byTime = epochMicros(a.changedAt).compareTo(epochMicros(b.changedAt))
+        if (byTime != 0) return byTime > 0
+        val byDevice = a.deviceId.compareTo(b.deviceId)
+        return byDevice > 0 || (byDevice == 0 && a.localId > b.localId)
     }
-    
-    private fun pollTransactions() {
-        // Simple polling implementation - just log for now
-        println("Polling transactions...")
+
+    private fun epochMillis(timestamp: String): Long = OffsetDateTime.parse(timestamp).toInstant().toEpochMilli()
+
+    private fun epochMicros(timestamp: String): Long =
+        OffsetDateTime.parse(timestamp).toInstant().let { it.epochSecond * 1_000_000 + it.nano / 1_000 }
+
+    private companion object {
+        const val TAG = "RealtimeManager"
+        const val PAGE_SIZE = 500
+        const val MAX_PAGES_PER_POLL = 20
+        const val SETTLE_MS = 10_000L
+        const val MIN_INTERVAL_MS = 5_000L
+        const val INITIAL_INTERVAL_MS = 30_000L
+        const val MAX_INTERVAL_MS = 5 * 60_000L
+        const val LINK_BATCH = 500
+        val LINKED_ENTITY_TYPES = listOf("PARTY", "ITEM", "TRANSACTION")
     }
 }
@@ -126,6 +126,8 @@ object SimpleSupabaseClient {
 val SimpleSupabaseClient.kfItems get() = "kf_items"
 val SimpleSupabaseClient.kfParties get() = "kf_parties"
 val SimpleSupabaseClient.kfTransactions get() = "kf_transactions"
+val SimpleSupabaseClient.kfIdLinks get() = "kf_id_links"
+val SimpleSupabaseClient.kfStockMovements get() = "kf_stock_movements"
 val SimpleSupabaseClient.kfTransactionItems get() = "kf_transaction_items"
 val SimpleSupabaseClient.kfReminders get() = "kf_reminders"
 val SimpleSupabaseClient.kfSyncOps get() = "kf_sync_ops"
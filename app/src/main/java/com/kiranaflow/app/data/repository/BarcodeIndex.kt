@@ -0,0 +1,274 @@
+package com.kiranaflow.app.data.repository
+
+import android.util.Log
+import androidx.room.InvalidationTracker
+import com.kiranaflow.app.data.local.ItemBarcodeRow
+import com.kiranaflow.app.data.local.ItemEntity
+import com.kiranaflow.app.data.local.KiranaDatabase
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * App-scoped barcode -> item index for scan-to-cart.
+ *
+ * Lookups normally hit an in-memory open-addressing table (64-bit key hash -> slot) holding only
+ * id/name/price/barcode. The table is warmed once at startup and rebuilt off the main thread whenever
+ * Room reports a write to `item_catalog_version`, which SQL triggers bump on any item insert/delete or
+ * name/price/barcode/isDeleted change (whatever the writer), but not on stock-only updates such as a sale.
+ * While a rebuild is pending, and on any miss, lookups fall back to [ItemDao.getItemByBarcode] so an
+ * item saved a moment ago is never reported as missing.
+ *
+ * [resolve] turns a hit into the live [ItemEntity] (stock and price as of now) and re-checks that row's
+ * barcode, so a write Room did not report (raw SQL outside a Room transaction) cannot return the wrong item.
+ */
+object BarcodeIndex {
+    private const val TAG = "BarcodeIndex"
+
+    data class Stats(
+        val hits: Long,
+        val misses: Long,
+        // Lookups served by SQLite: the index was cold, being rebuilt, or had no entry.
+        val dbFallbacks: Long,
+        // Hits whose live row no longer carries the barcode (forces a rebuild).
+        val staleHits: Long,
+        val lookups: Long,
+        val avgLookupMicros: Double,
+        val maxLookupMicros: Double,
+        val indexedBarcodes: Int,
+        val rebuilds: Long
+    )
+
+    /**
+     * Immutable snapshot; replaced wholesale on rebuild so readers never see a half-built table.
+     * Parallel arrays keep the probe loop on primitives; [items] holds the matching row.
+     */
+    private class Table(
+        val keys: LongArray,
+        val barcodes: Array<String?>,
+        val items: Array<ItemBarcodeRow?>,
+        val size: Int
+    ) {
+        private val mask = keys.size - 1
+
+        fun get(barcode: String): ItemBarcodeRow? {
+            val h = hash(barcode)
+            var slot = mix(h).toInt() and mask
+            while (true) {
+                val b = barcodes[slot] ?: return null
+                // Compare the string too: distinct barcodes may share a 64-bit hash.
+                if (keys[slot] == h && b == barcode) return items[slot]
+                slot = (slot + 1) and mask
+            }
+        }
+
+        companion object {
+            fun build(withBarcode: List<ItemBarcodeRow>): Table {
+                var capacity = 16
+                // Load factor <= 0.5 keeps linear probe chains short.
+                while (capacity < withBarcode.size * 2) capacity = capacity shl 1
+                val keys = LongArray(capacity)
+                val barcodes = arrayOfNulls<String>(capacity)
+                val items = arrayOfNulls<ItemBarcodeRow>(capacity)
+                val mask = capacity - 1
+                var size = 0
+                // Lowest id wins on duplicate barcodes (stable, unlike SQLite's LIMIT 1 without ORDER BY).
+                for (item in withBarcode.sortedBy { it.id }) {
+                    val barcode = item.barcode.trim()
+                    val h = hash(barcode)
+                    var slot = mix(h).toInt() and mask
+                    var duplicate = false
+                    while (barcodes[slot] != null) {
+                        if (keys[slot] == h && barcodes[slot] == barcode) {
+                            duplicate = true
+                            break
+                        }
+                        slot = (slot + 1) and mask
+                    }
+                    if (duplicate) continue
+                    keys[slot] = h
+                    barcodes[slot] = barcode
+                    items[slot] = item.copy(barcode = barcode)
+                    size++
+                }
+                return Table(keys, barcodes, items, size)
+            }
+        }
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val rebuildRequests = Channel<Unit>(Channel.CONFLATED)
+
+    @Volatile private var db: KiranaDatabase? = null
+    @Volatile private var table: Table? = null
+    // Bumped on every item_catalog_version invalidation; the table is trusted only if built at the latest generation.
+    private val generation = AtomicLong(0)
+    @Volatile private var builtGeneration = -1L
+
+    private val hits = AtomicLong(0)
+    private val misses = AtomicLong(0)
+    private val dbFallbacks = AtomicLong(0)
+    private val staleHits = AtomicLong(0)
+    private val lookups = AtomicLong(0)
+    private val totalLookupNanos = AtomicLong(0)
+    private val maxLookupNanos = AtomicLong(0)
+    private val rebuilds = AtomicLong(0)
+
+    /**
+     * Warm the index and subscribe to `item_catalog_version` invalidations. Safe to call more than once.
+     */
+    fun initialize(database: KiranaDatabase) {
+        if (db != null) return
+        synchronized(this) {
+            if (db != null) return
+            db = database
+        }
+        database.invalidationTracker.addObserver(object : InvalidationTracker.Observer("item_catalog_version") {
+            override fun onInvalidated(tables: Set<String>) {
+                invalidate()
+            }
+        })
+        scope.launch {
+            for (ignored in rebuildRequests) rebuild()
+        }
+        rebuildRequests.trySend(Unit)
+    }
+
+    /**
+     * Marks the table stale and schedules a rebuild. Writers do not need to call this: the
+     * `item_catalog_version` observer does.
+     */
+    fun invalidate() {
+        generation.incrementAndGet()
+        rebuildRequests.trySend(Unit)
+    }
+
+    /**
+     * Resolve a scanned barcode / QR payload. Tries the raw value, then without spaces, then
+     * digits-only (same candidates the scan handlers used to query one by one).
+     */
+    suspend fun lookup(scanned: String): ItemBarcodeRow? {
+        val start = System.nanoTime()
+        val candidates = candidatesFor(scanned)
+        if (candidates.isEmpty()) return null
+
+        val current = table
+        var found: ItemBarcodeRow? = null
+        if (current != null && builtGeneration == generation.get()) {
+            found = candidates.firstNotNullOfOrNull { current.get(it) }
+        }
+        if (found == null) {
+            // Cold, stale, or a write Room did not report: SQLite has the final say.
+            dbFallbacks.incrementAndGet()
+            found = fromDb(candidates)?.let(::rowOf)
+        }
+
+        if (found != null) hits.incrementAndGet() else misses.incrementAndGet()
+        recordLatency(System.nanoTime() - start)
+        return found
+    }
+
+    /**
+     * [lookup] resolved to the live item row. [live] is the caller's current item list by id (e.g. billing's
+     * observed items), checked before SQLite. A hit whose live row is gone, deleted or re-barcoded is
+     * answered from SQLite instead and schedules a rebuild.
+     */
+    suspend fun resolve(scanned: String, live: Map<Int, ItemEntity> = emptyMap()): ItemEntity? {
+        val hit = lookup(scanned) ?: return null
+        val row = live[hit.id] ?: db?.itemDao()?.getItemById(hit.id)
+        if (row != null && !row.isDeleted && row.barcode?.trim() == hit.barcode) return row
+        staleHits.incrementAndGet()
+        invalidate()
+        return fromDb(candidatesFor(scanned))
+    }
+
+    fun stats(): Stats {
+        val n = lookups.get()
+        return Stats(
+            hits = hits.get(),
+            misses = misses.get(),
+            dbFallbacks = dbFallbacks.get(),
+            staleHits = staleHits.get(),
+            lookups = n,
+            avgLookupMicros = if (n == 0L) 0.0 else totalLookupNanos.get() / n / 1_000.0,
+            maxLookupMicros = maxLookupNanos.get() / 1_000.0,
+            indexedBarcodes = table?.size ?: 0,
+            rebuilds = rebuilds.get()
+        )
+    }
+
+    fun resetStats() {
+        hits.set(0)
+        misses.set(0)
+        dbFallbacks.set(0)
+        staleHits.set(0)
+        lookups.set(0)
+        totalLookupNanos.set(0)
+        maxLookupNanos.set(0)
+    }
+
+    private suspend fun rebuild() {
+        val database = db ?: return
+        val target = generation.get()
+        runCatching {
+            val t0 = System.nanoTime()
+            val built = Table.build(database.itemDao().getBarcodeEntries())
+            table = built
+            builtGeneration = target
+            rebuilds.incrementAndGet()
+            Log.d(TAG, "Rebuilt: ${built.size} barcodes in ${(System.nanoTime() - t0) / 1_000_000}ms (gen=$target)")
+        }.onFailure {
+            Log.e(TAG, "Rebuild failed; lookups will use SQLite", it)
+        }
+    }
+
+    private suspend fun fromDb(candidates: List<String>): ItemEntity? {
+        val dao = db?.itemDao() ?: return null
+        return candidates.firstNotNullOfOrNull { dao.getItemByBarcode(it) }
+    }
+
+    private fun rowOf(item: ItemEntity) =
+        ItemBarcodeRow(id = item.id, name = item.name, price = item.price, barcode = item.barcode?.trim().orEmpty())
+
+    private fun candidatesFor(scanned: String): List<String> {
+        val raw = scanned.trim()
+        if (raw.isBlank()) return emptyList()
+        return LinkedHashSet<String>().apply {
+            add(raw)
+            add(raw.replace(" ", ""))
+            val digitsOnly = raw.filter(Char::isDigit)
+            if (digitsOnly.isNotBlank()) add(digitsOnly)
+        }.toList()
+    }
+
+    private fun recordLatency(nanos: Long) {
+        lookups.incrementAndGet()
+        totalLookupNanos.addAndGet(nanos)
+        while (true) {
+            val prev = maxLookupNanos.get()
+            if (nanos <= prev || maxLookupNanos.compareAndSet(prev, nanos)) break
+        }
+    }
+
+    // FNV-1a over UTF-16 code units.
+    private fun hash(s: String): Long {
+        var h = -0x340d631b7bdddcdbL
+        for (c in s) {
+            h = h xor c.code.toLong()
+            h *= 0x100000001b3L
+        }
+        return h
+    }
+
+    // Spread high bits into the low bits used for slot selection.
+    private fun mix(h: Long): Long {
+        var x = h
+        x = x xor (x ushr 33)
+        x *= -0xae502812aa7333L
+        x = x xor (x ushr 33)
+        return x
+    }
+}
@@ -0,0 +1,402 @@
+package com.kiranaflow.app.data.repository
+
+import androidx.room.withTransaction
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteStatement
+import com.kiranaflow.app.data.local.ItemEntity
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.sync.PendingSyncOp
+import com.kiranaflow.app.sync.SyncEntityType
+import com.kiranaflow.app.sync.SyncOpType
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * Bulk insert/update of inventory items (supplier sheets, vendor bills).
+ *
+ * 1. One snapshot of `items` is indexed by barcode, lowercase name and normalized name.
+ * 2. Rows are consumed in fixed-size chunks (from a list or a streaming parser). Each chunk is
+ *    classified in memory as insert / update / skip; rows that hit the same item are merged.
+ * 3. Each chunk is applied in one transaction using multi-row statements and mirrored to the
+ *    outbox as one ITEM/UPSERT_MANY op instead of one op per row. Items written by a chunk are
+ *    registered in the index, so a later chunk naming the same item updates it.
+ *
+ * Stock is applied as a delta in SQL, so a sale committed while an import is running is not lost.
+ * Cancelling the collector stops between chunks; chunks already committed stay committed.
+ */
+class BulkItemImporter(
+    private val db: KiranaDatabase,
+    private val enqueue: suspend (PendingSyncOp) -> Unit
+) {
+    private val itemDao = db.itemDao()
+
+    data class Row(
+        val name: String,
+        // Quantity to add to stock (PCS).
+        val stockDelta: Int,
+        val costPrice: Double? = null,
+        val sellPrice: Double? = null,
+        val category: String? = null,
+        val barcode: String? = null,
+        val vendorId: Int? = null
+    )
+
+    sealed interface Progress {
+        data class Running(
+            val processedRows: Int,
+            // Null when rows are streamed and the total is not known up front.
+            val totalRows: Int?,
+            val added: Int,
+            val updated: Int,
+            val skipped: Int,
+            // Share of the source file read so far (0..1), when the caller can tell.
+            val readFraction: Float? = null
+        ) : Progress
+
+        data class Done(val added: Int, val updated: Int, val skipped: Int) : Progress
+    }
+
+    /**
+     * Import [rows]; see the streaming overload.
+     */
+    fun run(
+        rows: List<Row>,
+        chunkSize: Int = DEFAULT_CHUNK_SIZE,
+        fallbackMatch: ((name: String, snapshot: List<ItemEntity>) -> ItemEntity?)? = null
+    ): Flow<Progress> = run(rows.asSequence(), rows.size, chunkSize, fallbackMatch)
+
+    /**
+     * Import [rows] chunk by chunk; the sequence is consumed lazily on [Dispatchers.IO], so a
+     * streaming parser never has to materialize the whole file.
+     *
+     * Emits [Progress.Running] before the first chunk and after each one, then [Progress.Done].
+     * [fallbackMatch] is consulted when barcode/name lookups miss (e.g. fuzzy matching of OCR'd
+     * vendor bill names). [readFraction] is sampled after each chunk for [Progress.Running.readFraction].
+     */
+    fun run(
+        rows: Sequence<Row>,
+        totalRows: Int? = null,
+        chunkSize: Int = DEFAULT_CHUNK_SIZE,
+        fallbackMatch: ((name: String, snapshot: List<ItemEntity>) -> ItemEntity?)? = null,
+        readFraction: (() -> Float?)? = null
+    ): Flow<Progress> = flow {
+        val index = MatchIndex(itemDao.getAllItemsSync())
+        var processed = 0
+        var added = 0
+        var updated = 0
+        var skipped = 0
+        emit(Progress.Running(processed, totalRows, added, updated, skipped, readFraction?.invoke()))
+
+        for (chunk in rows.chunked(chunkSize.coerceIn(1, MAX_CHUNK_SIZE))) {
+            currentCoroutineContext().ensureActive()
+            val plan = classify(chunk, index, fallbackMatch)
+            skipped += plan.skipped
+            if (plan.updates.isNotEmpty() || plan.inserts.isNotEmpty()) {
+                val updates = plan.updates.values.toList()
+                val stockDeltas = updates.associateTo(HashMap()) { it.id to it.stockDelta }
+                val touched = db.withTransaction {
+                    val sdb = db.openHelper.writableDatabase
+                    applyUpdates(sdb, updates)
+                    val newIds = insertItems(sdb, plan.inserts)
+                    plan.inserts.forEachIndexed { i, item -> stockDeltas[newIds[i]] = item.stock }
+                    itemDao.getItemsByIdsSync(updates.map { it.id } + newIds)
+                }
+                touched.forEach(index::register)
+                runCatching { enqueue(upsertManyOp(touched, stockDeltas)) }
+                added += plan.inserts.size
+                updated += updates.size
+            }
+            processed += chunk.size
+            emit(Progress.Running(processed, totalRows, added, updated, skipped, readFraction?.invoke()))
+        }
+        emit(Progress.Done(added, updated, skipped))
+    }.flowOn(Dispatchers.IO)
+
+    // Absolute values are final (computed from the indexed item); stock is a delta.
+    private data class Update(
+        val id: Int,
+        val stockDelta: Int,
+        val price: Double,
+        val costPrice: Double,
+        val category: String,
+        val vendorId: Int?
+    )
+
+    private class Plan(
+        val updates: LinkedHashMap<Int, Update>,
+        val inserts: List<ItemEntity>,
+        val skipped: Int
+    )
+
+    /**
+     * Live items by id plus barcode / lowercase-name / normalized-name lookups (first item wins).
+     */
+    private class MatchIndex(snapshot: List<ItemEntity>) {
+        private val byId = HashMap<Int, ItemEntity>()
+        private val byBarcode = HashMap<String, Int>()
+        private val byName = HashMap<String, Int>()
+        private val byNorm = HashMap<String, Int>()
+
+        init {
+            snapshot.forEach(::register)
+        }
+
+        fun register(item: ItemEntity) {
+            if (item.isDeleted) return
+            byId[item.id] = item
+            item.barcode?.trim()?.ifBlank { null }?.let { byBarcode.putIfAbsent(it, item.id) }
+            byName.putIfAbsent(item.name.trim().lowercase(), item.id)
+            normalizeForMatch(item.name).ifBlank { null }?.let { byNorm.putIfAbsent(it, item.id) }
+        }
+
+        fun find(barcode: String?, nameKey: String, norm: String): ItemEntity? {
+            val id = barcode?.let { byBarcode[it] } ?: byName[nameKey] ?: byNorm[norm] ?: return null
+            return byId[id]
+        }
+
+        fun all(): List<ItemEntity> = byId.values.toList()
+    }
+
+    private fun classify(
+        rows: List<Row>,
+        index: MatchIndex,
+        fallbackMatch: ((String, List<ItemEntity>) -> ItemEntity?)?
+    ): Plan {
+        val updates = LinkedHashMap<Int, Update>()
+        // New items keyed by lowercase name; later rows with the same name merge into them.
+        val inserts = LinkedHashMap<String, ItemEntity>()
+        val insertsByNorm = HashMap<String, String>()
+        val insertsByBarcode = HashMap<String, String>()
+        var skipped = 0
+
+        for (row in rows) {
+            val name = row.name.trim()
+            if (name.isBlank()) {
+                skipped++
+                continue
+            }
+            val nameKey = name.lowercase()
+            val norm = normalizeForMatch(name)
+            val barcode = row.barcode?.trim()?.ifBlank { null }
+
+            val existing = index.find(barcode, nameKey, norm)
+            val pendingKey = if (existing == null) {
+                barcode?.let { insertsByBarcode[it] }
+                    ?: nameKey.takeIf { inserts.containsKey(it) }
+                    ?: insertsByNorm[norm]
+            } else null
+            val target = existing ?: if (pendingKey == null) fallbackMatch?.invoke(name, index.all()) else null
+
+            when {
+                target != null -> {
+                    val prev = updates[target.id]
+                    val next = Update(
+                        id = target.id,
+                        stockDelta = (prev?.stockDelta ?: 0) + row.stockDelta,
+                        price = row.sellPrice ?: prev?.price ?: target.price,
+                        costPrice = row.costPrice ?: prev?.costPrice ?: target.costPrice,
+                        category = row.category?.trim()?.ifBlank { null } ?: prev?.category ?: target.category,
+                        vendorId = row.vendorId ?: prev?.vendorId
+                    )
+                    val unchanged = next.stockDelta == 0 &&
+                        next.price == target.price &&
+                        next.costPrice == target.costPrice &&
+                        next.category == target.category &&
+                        (next.vendorId == null || next.vendorId == target.vendorId)
+                    if (unchanged) {
+                        if (prev == null) skipped++
+                        updates.remove(target.id)
+                    } else {
+                        updates[target.id] = next
+                    }
+                }
+                pendingKey != null -> {
+                    val prev = inserts.getValue(pendingKey)
+                    inserts[pendingKey] = prev.copy(
+                        stock = prev.stock + row.stockDelta,
+                        price = row.sellPrice ?: prev.price,
+                        costPrice = row.costPrice ?: prev.costPrice,
+                        category = row.category?.trim()?.ifBlank { null } ?: prev.category,
+                        barcode = prev.barcode ?: barcode,
+                        vendorId = row.vendorId ?: prev.vendorId
+                    )
+                }
+                else -> {
+                    val cost = row.costPrice ?: 0.0
+                    inserts[nameKey] = ItemEntity(
+                        name = name,
+                        price = row.sellPrice ?: cost, // default selling price = unit cost (can be edited later)
+                        stock = row.stockDelta,
+                        category = row.category?.trim()?.ifBlank { null } ?: "General",
+                        rackLocation = null,
+                        marginPercentage = 0.0,
+                        barcode = barcode,
+                        costPrice = cost,
+                        gstPercentage = null,
+                        reorderPoint = 10,
+                        vendorId = row.vendorId,
+                        imageUri = null,
+                        expiryDateMillis = null,
+                        isDeleted = false
+                    )
+                    if (norm.isNotBlank()) insertsByNorm.putIfAbsent(norm, nameKey)
+                    barcode?.let { insertsByBarcode.putIfAbsent(it, nameKey) }
+                }
+            }
+        }
+        return Plan(updates, inserts.values.toList(), skipped)
+    }
+
+    private fun applyUpdates(sdb: SupportSQLiteDatabase, updates: List<Update>) {
+        if (updates.isEmpty()) return
+        sdb.execSQL(
+            """
+            CREATE TEMP TABLE IF NOT EXISTS bulk_item_updates (
+                id INTEGER PRIMARY KEY,
+                stockDelta INTEGER NOT NULL,
+                price REAL NOT NULL,
+                costPrice REAL NOT NULL,
+                category TEXT NOT NULL,
+                vendorId INTEGER
+            )
+            """.trimIndent()
+        )
+        sdb.execSQL("DELETE FROM bulk_item_updates")
+        for (chunk in updates.chunked(UPDATE_ROWS_PER_STATEMENT)) {
+            val sql = "INSERT INTO bulk_item_updates (id, stockDelta, price, costPrice, category, vendorId) VALUES " +
+                valuesRows(chunk.size, 6)
+            sdb.compileStatement(sql).use { st ->
+                var i = 1
+                for (u in chunk) {
+                    st.bindLong(i++, u.id.toLong())
+                    st.bindLong(i++, u.stockDelta.toLong())
+                    st.bindDouble(i++, u.price)
+                    st.bindDouble(i++, u.costPrice)
+                    st.bindString(i++, u.category)
+                    if (u.vendorId != null) st.bindLong(i++, u.vendorId.toLong()) else st.bindNull(i++)
+                }
+                st.executeInsert()
+            }
+        }
+        sdb.execSQL(
+            """
+            UPDATE items SET
+                stock = stock + (SELECT u.stockDelta FROM bulk_item_updates u WHERE u.id = items.id),
+                price = (SELECT u.price FROM bulk_item_updates u WHERE u.id = items.id),
+                costPrice = (SELECT u.costPrice FROM bulk_item_updates u WHERE u.id = items.id),
+                category = (SELECT u.category FROM bulk_item_updates u WHERE u.id = items.id),
+                vendorId = COALESCE((SELECT u.vendorId FROM bulk_item_updates u WHERE u.id = items.id), vendorId)
+            WHERE id IN (SELECT id FROM bulk_item_updates)
+            """.trimIndent()
+        )
+        sdb.execSQL("DELETE FROM bulk_item_updates")
+    }
+
+    /**
+     * Multi-row INSERT; returns the generated ids. items.id is AUTOINCREMENT and we hold the write
+     * lock, so the rows of one statement get consecutive ids ending at last_insert_rowid().
+     */
+    private fun insertItems(sdb: SupportSQLiteDatabase, items: List<ItemEntity>): List<Int> {
+        if (items.isEmpty()) return emptyList()
+        val ids = ArrayList<Int>(items.size)
+        for (chunk in items.chunked(INSERT_ROWS_PER_STATEMENT)) {
+            val sql = "INSERT INTO items (" +
+                "name, price, isLoose, pricePerKg, stockKg, stock, category, rackLocation, marginPercentage, " +
+                "barcode, costPrice, gstPercentage, hsnCode, reorderPoint, vendorId, imageUri, expiryDateMillis, " +
+                "batchSize, isDeleted) VALUES " + valuesRows(chunk.size, 19)
+            val lastId = sdb.compileStatement(sql).use { st ->
+                var i = 1
+                for (item in chunk) {
+                    st.bindString(i++, item.name)
+                    st.bindDouble(i++, item.price)
+                    st.bindLong(i++, if (item.isLoose) 1L else 0L)
+                    st.bindDouble(i++, item.pricePerKg)
+                    st.bindDouble(i++, item.stockKg)
+                    st.bindLong(i++, item.stock.toLong())
+                    st.bindString(i++, item.category)
+                    bindNullable(st, i++, item.rackLocation)
+                    st.bindDouble(i++, item.marginPercentage)
+                    bindNullable(st, i++, item.barcode)
+                    st.bindDouble(i++, item.costPrice)
+                    if (item.gstPercentage != null) st.bindDouble(i++, item.gstPercentage) else st.bindNull(i++)
+                    bindNullable(st, i++, item.hsnCode)
+                    st.bindLong(i++, item.reorderPoint.toLong())
+                    if (item.vendorId != null) st.bindLong(i++, item.vendorId.toLong()) else st.bindNull(i++)
+                    bindNullable(st, i++, item.imageUri)
+                    if (item.expiryDateMillis != null) st.bindLong(i++, item.expiryDateMillis) else st.bindNull(i++)
+                    if (item.batchSize != null) st.bindLong(i++, item.batchSize.toLong()) else st.bindNull(i++)
+                    st.bindLong(i++, if (item.isDeleted) 1L else 0L)
+                }
+                st.executeInsert()
+            }
+            val first = lastId - chunk.size + 1
+            for (k in 0 until chunk.size) ids += (first + k).toInt()
+        }
+        return ids
+    }
+
+    // [stockDeltas]: what this chunk added per item id (all of a new item's stock).
+    private fun upsertManyOp(items: List<ItemEntity>, stockDeltas: Map<Int, Int>): PendingSyncOp {
+        val arr = JSONArray()
+        items.forEach { item ->
+            arr.put(
+                JSONObject()
+                    .put("id", item.id)
+                    .put("name", item.name)
+                    .put("price", item.price)
+                    .put("stock", item.stock)
+                    .put("stockDelta", stockDeltas[item.id] ?: 0)
+                    .put("category", item.category)
+                    .put("costPrice", item.costPrice)
+                    .put("gstPercentage", item.gstPercentage)
+                    .put("hsnCode", item.hsnCode)
+                    .put("reorderPoint", item.reorderPoint)
+                    .put("vendorId", item.vendorId)
+                    .put("rackLocation", item.rackLocation)
+                    .put("barcode", item.barcode)
+                    .put("imageUri", item.imageUri)
+                    .put("expiryDateMillis", item.expiryDateMillis)
+                    .put("batchSize", item.batchSize)
+            )
+        }
+        return PendingSyncOp(
+            entityType = SyncEntityType.ITEM,
+            entityId = null,
+            op = SyncOpType.UPSERT_MANY,
+            payload = JSONObject().put("items", arr)
+        )
+    }
+
+    private fun bindNullable(st: SupportSQLiteStatement, index: Int, value: String?) {
+        if (value != null) st.bindString(index, value) else st.bindNull(index)
+    }
+
+    private fun valuesRows(rows: Int, columns: Int): String {
+        val row = (1..columns).joinToString(", ", prefix = "(", postfix = ")") { "?" }
+        return List(rows) { row }.joinToString(", ")
+    }
+
+    companion object {
+        const val DEFAULT_CHUNK_SIZE = 500
+        // Read-back uses `id IN (:ids)`; stay under SQLite's 999 variable limit.
+        private const val MAX_CHUNK_SIZE = 900
+        // 6 args per row => 900 variables.
+        private const val UPDATE_ROWS_PER_STATEMENT = 150
+        // 19 args per row => 950 variables.
+        private const val INSERT_ROWS_PER_STATEMENT = 50
+
+        fun normalizeForMatch(s: String): String {
+            return s
+                .lowercase()
+                .replace(Regex("[^a-z0-9 ]"), " ")
+                .replace(Regex("\\s+"), " ")
+                .trim()
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.kiranaflow.app.data.repository
+
+import androidx.room.withTransaction
+import com.kiranaflow.app.data.local.ItemEntity
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.data.local.PartyEntity
+import com.kiranaflow.app.data.local.PulledItem
+import com.kiranaflow.app.data.local.PulledLink
+import com.kiranaflow.app.data.local.PulledParty
+import com.kiranaflow.app.data.local.PulledStockMovement
+import com.kiranaflow.app.data.local.PulledTransaction
+import com.kiranaflow.app.data.local.RemoteIdEntity
+import com.kiranaflow.app.data.local.RemoteLinkEntity
+import com.kiranaflow.app.data.local.StockMovementEntity
+import com.kiranaflow.app.data.local.SyncWatermarkEntity
+import com.kiranaflow.app.data.local.TransactionEntity
+import com.kiranaflow.app.data.local.TransactionItemEntity
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * Applies pages pulled from the other devices of the shop (see SimpleRealtimeManager).
+ *
+ * Writes go through here, never through KiranaRepository, so pulled changes are not queued in the
+ * outbox and echoed back. Each page and its watermark are applied in one `db.withTransaction`.
+ *
+ * A pulled row is identified by its origin: its own (deviceId, localId), unless kf_id_links says it
+ * is a copy of another row. An origin on this device is that local row; any other origin goes
+ * through remote_ids, and rows seen for the first time get a fresh local id there (whose link is
+ * then uploaded by [unuploadedLinks]/[markLinksUploaded]). References inside a row (vendor, customer,
+ * line items) are resolved the same way in the writing device's id space; unknown ones become null
+ * and lines keep their name snapshot.
+ *
+ * Items, parties and transactions with an unsynced outbox entry are left alone: the local change
+ * wins until it has been pushed. A row whose local copy was deleted here stays deleted.
+ */
+class CloudPullApplier(private val db: KiranaDatabase) {
+    private val dao = db.cloudPullDao()
+    private val itemDao = db.itemDao()
+    private val stockMovementDao = db.stockMovementDao()
+    private val saleWriter = SaleBatchWriter(db)
+    private val partyLedger = PartyLedger(db)
+    private val rollups = DailyRollupLedger(db)
+
+    private data class RemoteKey(val deviceId: String, val id: String)
+
+    suspend fun applyLinks(rows: List<PulledLink>, watermark: SyncWatermarkEntity?): Int = db.withTransaction {
+        if (rows.isNotEmpty()) {
+            dao.insertRemoteLinks(
+                rows.map { RemoteLinkEntity(it.entityType, it.deviceId, it.localId, it.originDeviceId, it.originId) }
+            )
+        }
+        watermark?.let { dao.putWatermark(it) }
+        // Links change no visible row.
+        0
+    }
+
+    /**
+     * Returns how many local rows actually changed (the realtime manager polls faster while this is > 0).
+     */
+    suspend fun applyItems(ownDeviceId: String, rows: List<PulledItem>, watermark: SyncWatermarkEntity?): Int =
+        db.withTransaction {
+            val origins = originsOf(ITEM, rows.map { RemoteKey(it.deviceId, it.localId) })
+            val local = resolve(ITEM, ownDeviceId, origins)
+            val vendors = resolve(
+                PARTY,
+                ownDeviceId,
+                originsOf(PARTY, rows.mapNotNull { row -> row.vendorId?.let { RemoteKey(row.deviceId, it) } })
+            )
+            val skip = unsynced(ITEM, local.values)
+            val current = local.values.distinct().chunked(900).flatMap { dao.itemsByIds(it) }.associateBy { it.id }
+
+            val updates = LinkedHashMap<Int, ItemEntity>()
+            val inserts = LinkedHashMap<RemoteKey, ItemEntity>()
+            for (row in rows) {
+                val key = RemoteKey(row.deviceId, row.localId)
+                val vendorId = row.vendorId?.let { vendors[RemoteKey(row.deviceId, it)] }
+                val id = local[key]
+                if (id == null) {
+                    // Page order is changed_at order: a later copy of the same origin wins.
+                    inserts[origins.getValue(key)] = row.toEntity(vendorId)
+                    continue
+                }
+                if (id in skip) continue
+                val cur = updates[id] ?: current[id] ?: continue
+                val merged = row.mergeInto(cur, vendorId)
+                if (merged != cur) updates[id] = merged
+            }
+            if (updates.isNotEmpty()) dao.updateItems(updates.values.toList())
+            if (inserts.isNotEmpty()) {
+                val ids = dao.insertItems(inserts.values.toList())
+                dao.insertRemoteIds(
+                    inserts.keys.zip(ids) { origin, id -> RemoteIdEntity(ITEM, origin.deviceId, origin.id, id.toInt()) }
+                )
+            }
+            watermark?.let { dao.putWatermark(it) }
+            updates.size + inserts.size
+        }
+
+    suspend fun applyParties(ownDeviceId: String, rows: List<PulledParty>, watermark: SyncWatermarkEntity?): Int =
+        db.withTransaction {
+            val origins = originsOf(PARTY, rows.map { RemoteKey(it.deviceId, it.localId) })
+            val local = resolve(PARTY, ownDeviceId, origins)
+            val skip = unsynced(PARTY, local.values)
+            val current = local.values.distinct().chunked(900).flatMap { dao.partiesByIds(it) }.associateBy { it.id }
+
+            val updates = LinkedHashMap<Int, PartyEntity>()
+            val inserts = LinkedHashMap<RemoteKey, PartyEntity>()
+            for (row in rows) {
+                val key = RemoteKey(row.deviceId, row.localId)
+                val id = local[key]
+                if (id == null) {
+                    inserts[origins.getValue(key)] = PartyEntity(
+                        name = row.name,
+                        phone = row.phone.orEmpty(),
+                        type = row.type,
+                        gstNumber = row.gstNumber
+                    )
+                    continue
+                }
+                if (id in skip) continue
+                val cur = updates[id] ?: current[id] ?: continue
+                val merged = cur.copy(
+                    name = row.name,
+                    phone = row.phone ?: cur.phone,
+                    type = row.type,
+                    gstNumber = row.gstNumber
+                )
+                if (merged != cur) updates[id] = merged
+            }
+            if (updates.isNotEmpty()) dao.updateParties(updates.values.toList())
+            if (inserts.isNotEmpty()) {
+                val ids = dao.insertParties(inserts.values.toList())
+                dao.insertRemoteIds(
+                    inserts.keys.zip(ids) { origin, id -> RemoteIdEntity(PARTY, origin.deviceId, origin.id, id.toInt()) }
+                )
+            }
+            watermark?.let { dao.putWatermark(it) }
+            updates.size + inserts.size
+        }
+
+    /**
+     * Inserts transactions seen for the first time, the way KiranaRepository records its own: lines,
+     * SALE stock outflows (unchecked; the sale already happened), party ledger, daily rollups.
+     * Transactions already stored here take the voids and edits of the pulled row (see [applyChanges]).
+     */
+    suspend fun applyTransactions(ownDeviceId: String, rows: List<PulledTransaction>, watermark: SyncWatermarkEntity?): Int =
+        db.withTransaction {
+            val origins = originsOf(TRANSACTION, rows.map { RemoteKey(it.deviceId, it.localId) })
+            val local = resolve(TRANSACTION, ownDeviceId, origins)
+            val fresh = LinkedHashMap<RemoteKey, PulledTransaction>()
+            val known = LinkedHashMap<Int, PulledTransaction>()
+            for (row in rows) {
+                val key = RemoteKey(row.deviceId, row.localId)
+                val id = local[key]
+                if (id == null) fresh[origins.getValue(key)] = row else known[id] = row
+            }
+            val changed = applyChanges(known)
+            if (fresh.isNotEmpty()) {
+                val parties = resolve(
+                    PARTY,
+                    ownDeviceId,
+                    originsOf(
+                        PARTY,
+                        fresh.values.flatMap { tx ->
+                            listOfNotNull(tx.customerId, tx.vendorId).map { RemoteKey(tx.deviceId, it) }
+                        }
+                    )
+                )
+                val itemIds = resolve(
+                    ITEM,
+                    ownDeviceId,
+                    originsOf(
+                        ITEM,
+                        fresh.values.flatMap { tx -> tx.lines.mapNotNull { it.itemId }.map { RemoteKey(tx.deviceId, it) } }
+                    )
+                )
+                val items = itemIds.values.distinct().chunked(900).flatMap { dao.itemsByIds(it) }.associateBy { it.id }
+                val costByItemId = items.mapValues { it.value.costPrice }
+                val timeFmt = SimpleDateFormat("hh:mm a", Locale.getDefault())
+
+                val remoteIds = ArrayList<RemoteIdEntity>(fresh.size)
+                for ((origin, row) in fresh) {
+                    val customerId = row.customerId?.let { parties[RemoteKey(row.deviceId, it)] }
+                    val vendorId = row.vendorId?.let { parties[RemoteKey(row.deviceId, it)] }
+                    val header = row.toEntity(customerId, vendorId, timeFmt)
+                    val id = dao.insertTransaction(header).toInt()
+                    val tx = header.copy(id = id)
+                    val lines = row.lines.map { line ->
+                        val itemId = line.itemId?.let { itemIds[RemoteKey(row.deviceId, it)] }?.takeIf { it in items }
+                        TransactionItemEntity(
+                            transactionId = id,
+                            itemId = itemId,
+                            itemNameSnapshot = line.name ?: itemId?.let { items[it]?.name } ?: "Item",
+                            qty = line.qty,
+                            unit = line.unit ?: if (itemId != null && items[itemId]?.isLoose == true) "KG" else "PCS",
+                            price = line.price
+                        )
+                    }
+                    saleWriter.insertLines(id, lines)
+                    if (tx.type == "SALE" && tx.status.uppercase() != "VOIDED") {
+                        saleWriter.deductStockUnchecked(
+                            lines.mapNotNull { line ->
+                                line.itemId?.let { SaleBatchWriter.StockLine(it, line.qty, items[it]?.isLoose == true) }
+                            }
+                        )
+                        stockMovementDao.insertOutflowsForTransaction(id, "SALE", tx.date)
+                    }
+                    partyLedger.record(tx)
+                    rollups.add(tx, lines, unitCostByItemId = costByItemId)
+                    remoteIds += RemoteIdEntity(TRANSACTION, origin.deviceId, origin.id, id)
+                }
+                dao.insertRemoteIds(remoteIds)
+            }
+            watermark?.let { dao.putWatermark(it) }
+            fresh.size + changed
+        }
+
+    /**
+     * Adds the stock changes (restocks, corrections) other devices made to the local items. Each
+     * movement is applied once: remote_ids maps it to the stock_movements row it became here.
+     * Movements of items not known here are skipped and never retried, so the caller only pulls
+     * movements once the item pull has caught up.
+     */
+    suspend fun applyStockMovements(
+        ownDeviceId: String,
+        rows: List<PulledStockMovement>,
+        watermark: SyncWatermarkEntity?
+    ): Int = db.withTransaction {
+        val applied = HashSet<RemoteKey>()
+        rows.groupBy { it.deviceId }.forEach { (deviceId, group) ->
+            group.map { it.localId }.chunked(900)
+                .flatMap { dao.remoteIds(STOCK_MOVEMENT, deviceId, it) }
+                .forEach { applied += RemoteKey(deviceId, it.originId) }
+        }
+        val fresh = rows.filter { applied.add(RemoteKey(it.deviceId, it.localId)) }
+        val itemIds = resolve(ITEM, ownDeviceId, originsOf(ITEM, fresh.map { RemoteKey(it.deviceId, it.itemId) }))
+        val items = itemIds.values.distinct().chunked(900).flatMap { dao.itemsByIds(it) }.associateBy { it.id }
+        val now = System.currentTimeMillis()
+
+        val remoteIds = ArrayList<RemoteIdEntity>(fresh.size)
+        for (row in fresh) {
+            val item = itemIds[RemoteKey(row.deviceId, row.itemId)]?.let { items[it] } ?: continue
+            if (item.isLoose) itemDao.increaseStockKg(item.id, row.delta) else itemDao.increaseStock(item.id, row.delta.roundToInt())
+            val movementId = stockMovementDao.insertMovement(
+                StockMovementEntity(
+                    itemId = item.id,
+                    delta = row.delta,
+                    source = "EDIT",
+                    transactionId = null,
+                    adjustmentId = null,
+                    userId = null,
+                    createdAt = now
+                )
+            ).toInt()
+            // Nothing refers to a movement, so there is no id link to upload.
+            remoteIds += RemoteIdEntity(STOCK_MOVEMENT, row.deviceId, row.localId, movementId, linkUploaded = true)
+        }
+        if (remoteIds.isNotEmpty()) dao.insertRemoteIds(remoteIds)
+        watermark?.let { dao.putWatermark(it) }
+        remoteIds.size
+    }
+
+    suspend fun unuploadedLinks(limit: Int): List<RemoteIdEntity> = dao.unuploadedRemoteIds(limit)
+
+    suspend fun markLinksUploaded(rows: List<RemoteIdEntity>) = db.withTransaction {
+        rows.groupBy { it.entityType }.forEach { (entityType, group) ->
+            group.map { it.localId }.chunked(900).forEach { dao.markLinksUploaded(entityType, it) }
+        }
+    }
+
+    // Each key's origin: the row it is a copy of (kf_id_links), else itself.
+    private suspend fun originsOf(entityType: String, keys: List<RemoteKey>): Map<RemoteKey, RemoteKey> {
+        val origins = HashMap<RemoteKey, RemoteKey>(keys.size)
+        keys.distinct().groupBy { it.deviceId }.forEach { (deviceId, group) ->
+            val links = group.map { it.id }.chunked(900)
+                .flatMap { dao.remoteLinks(entityType, deviceId, it) }
+                .associateBy { it.remoteId }
+            for (key in group) {
+                origins[key] = links[key.id]?.let { RemoteKey(it.originDeviceId, it.originId) } ?: key
+            }
+        }
+        return origins
+    }
+
+    // Local id of each key whose origin is known here; keys missing from the result are new.
+    private suspend fun resolve(entityType: String, ownDeviceId: String, origins: Map<RemoteKey, RemoteKey>): Map<RemoteKey, Int> {
+        val local = HashMap<RemoteKey, Int>(origins.size)
+        origins.entries.groupBy { it.value.deviceId }.forEach { (originDeviceId, entries) ->
+            if (originDeviceId == ownDeviceId) {
+                for ((key, origin) in entries) origin.id.toIntOrNull()?.let { local[key] = it }
+                return@forEach
+            }
+            val mapped = entries.map { it.value.id }.distinct().chunked(900)
+                .flatMap { dao.remoteIds(entityType, originDeviceId, it) }
+                .associate { it.originId to it.localId }
+            for ((key, origin) in entries) mapped[origin.id]?.let { local[key] = it }
+        }
+        return local
+    }
+
+    /**
+     * Voids and edits of transactions stored here ([changes] by local id), applied the way
+     * KiranaRepository applies its own. Only status, amount, payment mode and line qty/price are
+     * taken; pulled lines pair with the stored ones by position (an edit never adds or drops one).
+     * A row re-read without changes, or whose local copy has unsynced changes, is left alone.
+     */
+    private suspend fun applyChanges(changes: Map<Int, PulledTransaction>): Int {
+        if (changes.isEmpty()) return 0
+        val skip = unsynced(TRANSACTION, changes.keys)
+        val ids = changes.keys.filter { it !in skip }
+        val current = ids.chunked(900).flatMap { dao.transactionsByIds(it) }.associateBy { it.id }
+        val linesById = ids.chunked(900).flatMap { dao.linesOfTransactions(it) }.groupBy { it.transactionId }
+        val now = System.currentTimeMillis()
+
+        var changed = 0
+        for (id in ids) {
+            val row = changes.getValue(id)
+            val tx = current[id] ?: continue
+            if (tx.status.uppercase() == "VOIDED") continue
+            val lines = linesById[id].orEmpty()
+            if (row.status?.uppercase() == "VOIDED") {
+                void(tx, lines, now)
+                changed++
+                continue
+            }
+            val edited = tx.copy(
+                amount = row.amount?.takeIf { abs(it - tx.amount) >= 0.005 } ?: tx.amount,
+                paymentMode = row.paymentMode ?: tx.paymentMode,
+                status = row.status ?: tx.status
+            )
+            val editedLines = if (row.lines.size != lines.size) lines else lines.zip(row.lines) { line, pulled ->
+                if (pulled.qty == line.qty && pulled.price == line.price) line else line.withQtyAndPrice(pulled.qty, pulled.price)
+            }
+            if (edited == tx && editedLines == lines) continue
+            edit(tx, edited.copy(updatedAt = now), lines, editedLines, now)
+            changed++
+        }
+        return changed
+    }
+
+    // As KiranaRepository.voidTransaction: SALE stock back, off the rollups and the party's khata.
+    private suspend fun void(tx: TransactionEntity, lines: List<TransactionItemEntity>, now: Long) {
+        if (tx.type == "SALE") {
+            val back = lines.mapNotNull { line ->
+                line.itemId?.let { SaleBatchWriter.StockLine(it, -line.qty, line.unit.uppercase() == "KG") }
+            }
+            saleWriter.deductStockUnchecked(back)
+            back.forEach { logMovement(it.itemId, -it.qty, "VOID", tx.id, now) }
+        }
+        rollups.remove(tx, lines)
+        partyLedger.reverse(tx.id, now, null)
+        dao.updateTransaction(tx.copy(status = "VOIDED", updatedAt = now))
+    }
+
+    // As KiranaRepository.editTransaction: the old version out of the rollups, SALE stock by the qty
+    // change of each line, the new version in, the khata by the difference.
+    private suspend fun edit(
+        before: TransactionEntity,
+        after: TransactionEntity,
+        oldLines: List<TransactionItemEntity>,
+        newLines: List<TransactionItemEntity>,
+        now: Long
+    ) {
+        rollups.remove(before, oldLines)
+        if (after.type == "SALE") {
+            val moved = oldLines.zip(newLines).mapNotNull { (old, new) ->
+                val itemId = old.itemId ?: return@mapNotNull null
+                (new.qty - old.qty).takeIf { it != 0.0 }?.let { SaleBatchWriter.StockLine(itemId, it, old.unit.uppercase() == "KG") }
+            }
+            saleWriter.deductStockUnchecked(moved)
+            moved.forEach { logMovement(it.itemId, -it.qty, "EDIT", after.id, now) }
+        }
+        if (newLines != oldLines) dao.updateLines(newLines)
+        dao.updateTransaction(after)
+        rollups.add(after, newLines)
+        partyLedger.recordEdit(before, after, now, null)
+    }
+
+    private suspend fun logMovement(itemId: Int, delta: Double, source: String, txId: Int, now: Long) {
+        stockMovementDao.insertMovement(
+            StockMovementEntity(
+                itemId = itemId,
+                delta = delta,
+                source = source,
+                transactionId = txId,
+                adjustmentId = null,
+                userId = null,
+                createdAt = now
+            )
+        )
+    }
+
+    private suspend fun unsynced(entityType: String, ids: Collection<Int>): Set<Int> =
+        ids.distinct()
+            .map { it.toString() }
+            .chunked(900)
+            .flatMap { dao.unsyncedEntityIds(entityType, it) }
+            .mapNotNull { it.toIntOrNull() }
+            .toHashSet()
+
+    private companion object {
+        const val ITEM = "ITEM"
+        const val PARTY = "PARTY"
+        const val TRANSACTION = "TRANSACTION"
+        const val STOCK_MOVEMENT = "STOCK_MOVEMENT"
+    }
+}
+
+// Stock starts at 0: the item's opening stock follows as a pulled stock movement.
+private fun PulledItem.toEntity(vendorId: Int?): ItemEntity {
+    val price = price ?: 0.0
+    val cost = costPrice ?: 0.0
+    return ItemEntity(
+        name = name,
+        price = price,
+        stock = 0,
+        category = category.orEmpty(),
+        rackLocation = rackLocation,
+        marginPercentage = if (cost > 0) ((price - cost) / cost) * 100 else 0.0,
+        barcode = barcode,
+        costPrice = cost,
+        gstPercentage = gstPercentage,
+        reorderPoint = reorderPoint ?: 10,
+        vendorId = vendorId,
+        expiryDateMillis = expiryDateMillis
+    )
+}
+
+private fun PulledItem.mergeInto(cur: ItemEntity, vendorId: Int?): ItemEntity = cur.copy(
+    name = name,
+    category = category ?: cur.category,
+    price = price ?: cur.price,
+    costPrice = costPrice ?: cur.costPrice,
+    gstPercentage = gstPercentage,
+    reorderPoint = reorderPoint ?: cur.reorderPoint,
+    vendorId = vendorId,
+    rackLocation = rackLocation,
+    barcode = barcode,
+    expiryDateMillis = expiryDateMillis
+)
+
+// Same GST split as KiranaRepository's line edits (CGST/SGST halves, no IGST).
+private fun TransactionItemEntity.withQtyAndPrice(qty: Double, price: Double): TransactionItemEntity {
+    val taxable = qty * price
+    val half = if (gstRate > 0.0 && taxable > 0.0) taxable * (gstRate / 100.0) / 2.0 else 0.0
+    return copy(qty = qty, price = price, taxableValue = taxable, cgstAmount = half, sgstAmount = half, igstAmount = 0.0)
+}
+
+// Titles follow KiranaRepository's, which PartyLedger and DailyRollupLedger read ("Payment ..." is a settlement).
+private fun PulledTransaction.toEntity(customerId: Int?, vendorId: Int?, timeFmt: SimpleDateFormat): TransactionEntity {
+    val mode = paymentMode ?: "CASH"
+    return TransactionEntity(
+        title = when (type) {
+            "SALE" -> "Sale - ${lines.size} items ($mode)"
+            else -> note?.takeIf { it.isNotBlank() } ?: type.lowercase().replaceFirstChar { it.uppercase() }
+        },
+        type = type,
+        amount = amount ?: lines.sumOf { it.qty * it.price },
+        date = occurredAtMillis,
+        time = timeFmt.format(Date(occurredAtMillis)),
+        customerId = customerId,
+        vendorId = vendorId,
+        paymentMode = mode,
+        status = status ?: "POSTED",
+        updatedAt = occurredAtMillis
+    )
+}
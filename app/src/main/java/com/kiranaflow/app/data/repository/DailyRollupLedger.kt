@@ -0,0 +1,188 @@
+package com.kiranaflow.app.data.repository
+
+import com.kiranaflow.app.data.local.DailyRollupEntity
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.data.local.TransactionEntity
+import com.kiranaflow.app.data.local.TransactionItemEntity
+import java.time.Instant
+import java.time.ZoneId
+import kotlin.math.abs
+
+/**
+ * Keeps `daily_rollups` in step with `transactions`.
+ *
+ * [add]/[remove]/[addLines] must be called inside the same `db.withTransaction` as the write they
+ * describe, so a crash can never leave the rollup half-applied. [rebuild] and [verify] are the
+ * escape hatches: rebuild recomputes everything from a full scan, verify compares the two.
+ *
+ * COGS is priced once: [add] stamps each line's `unitCostSnapshot` with the cost it counted, and
+ * [remove] (edits, voids, deletes) subtracts that same cost, whatever `items.costPrice` is by then.
+ */
+class DailyRollupLedger(private val db: KiranaDatabase) {
+    private val rollupDao = db.dailyRollupDao()
+    private val itemDao = db.itemDao()
+
+    data class Mismatch(
+        val day: Long,
+        val type: String,
+        val paymentMode: String,
+        val expected: DailyRollupEntity?,
+        val actual: DailyRollupEntity?
+    )
+
+    data class VerifyReport(
+        val checkedBuckets: Int,
+        // amount/revenue/expense/count disagree => the incremental path missed a write.
+        val mismatches: List<Mismatch>,
+        // Only COGS disagrees => a pre-v27 line (no cost snapshot) whose item costPrice changed since.
+        val cogsDrift: List<Mismatch>
+    ) {
+        val isConsistent: Boolean get() = mismatches.isEmpty()
+    }
+
+    /**
+     * Count [tx] (and its SALE line COGS) into its day bucket. Call after the lines are written:
+     * lines without a cost snapshot get the cost used here.
+     * [unitCostByItemId] avoids per-line item lookups when the caller already holds the items.
+     */
+    suspend fun add(
+        tx: TransactionEntity,
+        lines: List<TransactionItemEntity>,
+        unitCostByItemId: Map<Int, Double>? = null
+    ) = apply(tx, lines, sign = 1.0, unitCostByItemId = unitCostByItemId)
+
+    /**
+     * Inverse of [add]; used before edits/voids/deletes with the transaction's previous state
+     * (lines as stored, so their cost snapshots are used).
+     */
+    suspend fun remove(
+        tx: TransactionEntity,
+        lines: List<TransactionItemEntity>,
+        unitCostByItemId: Map<Int, Double>? = null
+    ) = apply(tx, lines, sign = -1.0, unitCostByItemId = unitCostByItemId)
+
+    /**
+     * Lines appended to an existing transaction only move COGS (the header amount is unchanged).
+     */
+    suspend fun addLines(tx: TransactionEntity, lines: List<TransactionItemEntity>) {
+        if (tx.status.uppercase() == "VOIDED" || tx.type != "SALE" || lines.isEmpty()) return
+        rollupDao.apply(
+            DailyRollupEntity(
+                day = dayOf(tx.date),
+                type = tx.type,
+                paymentMode = tx.paymentMode,
+                cogs = cogsOf(lines, null, stampTransactionId = tx.id)
+            )
+        )
+    }
+
+    suspend fun rebuild() = rollupDao.rebuild()
+
+    /**
+     * Compare the incremental table against a full scan of `transactions`.
+     */
+    suspend fun verify(): VerifyReport {
+        val expected = rollupDao.scanFromTransactions().associateBy { Triple(it.day, it.type, it.paymentMode) }
+        val actual = rollupDao.getAllSync()
+            // Buckets fully reversed by voids/edits stay as zero rows; they are not drift.
+            .filterNot { it.txCount == 0 && isZero(it.amount) && isZero(it.cogs) }
+            .associateBy { Triple(it.day, it.type, it.paymentMode) }
+
+        val mismatches = mutableListOf<Mismatch>()
+        val cogsDrift = mutableListOf<Mismatch>()
+        for (key in expected.keys + actual.keys) {
+            val e = expected[key]
+            val a = actual[key]
+            val m = Mismatch(key.first, key.second, key.third, e, a)
+            when {
+                e == null || a == null -> mismatches += m
+                e.txCount != a.txCount ||
+                    !isZero(e.amount - a.amount) ||
+                    !isZero(e.revenue - a.revenue) ||
+                    !isZero(e.expense - a.expense) -> mismatches += m
+                !isZero(e.cogs - a.cogs) -> cogsDrift += m
+            }
+        }
+        return VerifyReport(
+            checkedBuckets = (expected.keys + actual.keys).size,
+            mismatches = mismatches,
+            cogsDrift = cogsDrift
+        )
+    }
+
+    private suspend fun apply(
+        tx: TransactionEntity,
+        lines: List<TransactionItemEntity>,
+        sign: Double,
+        unitCostByItemId: Map<Int, Double>?
+    ) {
+        if (tx.status.uppercase() == "VOIDED") return
+        val settlement = isSettlementPayment(tx)
+        val isIncome = tx.type == "SALE" || tx.type == "INCOME"
+        val isExpense = tx.type == "EXPENSE"
+        rollupDao.apply(
+            DailyRollupEntity(
+                day = dayOf(tx.date),
+                type = tx.type,
+                paymentMode = tx.paymentMode,
+                amount = sign * tx.amount,
+                revenue = if (isIncome && !settlement) sign * tx.amount else 0.0,
+                expense = if (isExpense && !settlement) sign * tx.amount else 0.0,
+                cogs = if (tx.type == "SALE") {
+                    sign * cogsOf(lines, unitCostByItemId, stampTransactionId = if (sign > 0) tx.id else null)
+                } else {
+                    0.0
+                },
+                txCount = if (sign > 0) 1 else -1
+            )
+        )
+    }
+
+    private suspend fun cogsOf(
+        lines: List<TransactionItemEntity>,
+        unitCostByItemId: Map<Int, Double>?,
+        stampTransactionId: Int?
+    ): Double {
+        var total = 0.0
+        val toStamp = HashMap<Int, Double>()
+        for (line in lines) {
+            val itemId = line.itemId ?: continue
+            val snapshot = line.unitCostSnapshot
+            val unitCost = snapshot
+                ?: toStamp[itemId]
+                ?: unitCostByItemId?.get(itemId)
+                ?: itemDao.getItemById(itemId)?.costPrice
+                ?: 0.0
+            if (snapshot == null) toStamp[itemId] = unitCost
+            // Backward-compat: legacy GRAM entries are grams -> kg.
+            val qty = when (line.unit.uppercase()) {
+                "GRAM", "G", "GM", "GMS", "GRAMS" -> line.qty / 1000.0
+                else -> line.qty
+            }
+            total += unitCost * qty
+        }
+        if (stampTransactionId != null && stampTransactionId > 0) {
+            toStamp.forEach { (itemId, unitCost) -> rollupDao.stampUnitCost(stampTransactionId, itemId, unitCost) }
+        }
+        return total
+    }
+
+    private fun isZero(v: Double): Boolean = abs(v) < 0.005
+
+    companion object {
+        /**
+         * Local epoch day for [millis]; matches the `julianday(..., 'localtime')` bucket used by the full scan.
+         */
+        fun dayOf(millis: Long, zone: ZoneId = ZoneId.systemDefault()): Long =
+            Instant.ofEpochMilli(millis).atZone(zone).toLocalDate().toEpochDay()
+
+        /**
+         * Settlement payments move cash but are not P&L, otherwise credit sales/vendor payments get double-counted.
+         */
+        fun isSettlementPayment(tx: TransactionEntity): Boolean {
+            val looksLikePayment = tx.title.startsWith("Payment ")
+            val linkedParty = (tx.customerId != null || tx.vendorId != null)
+            return looksLikePayment && linkedParty
+        }
+    }
+}
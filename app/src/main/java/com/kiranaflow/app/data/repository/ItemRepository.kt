@@ -48,7 +48,7 @@ class ItemRepository(
             val remoteItem = getItemFromRemote(id)
             if (remoteItem != null) {
                 // Cache remote item locally
-                itemDao.insertItem(remoteItem)
+                itemDao.upsertItem(remoteItem)
                 return remoteItem
             }
         }
@@ -61,7 +61,7 @@ class ItemRepository(
      */
     suspend fun upsertItem(item: ItemEntity) {
         // Always update local first for immediate response
-        itemDao.insertItem(item)
+        itemDao.upsertItem(item)
         
         // Then sync to remote if online
         if (ConnectivityMonitor.isOnlineNow()) {
@@ -80,7 +80,7 @@ class ItemRepository(
     suspend fun deleteItem(item: ItemEntity) {
         // Mark as deleted locally
         val deletedItem = item.copy(isDeleted = true)
-        itemDao.insertItem(deletedItem)
+        itemDao.upsertItem(deletedItem)
         
         // Delete from remote if online
         if (ConnectivityMonitor.isOnlineNow()) {
@@ -133,7 +133,7 @@ class ItemRepository(
                     imageUri = remoteItemMap["imageUri"] as? String,
                     expiryDateMillis = remoteItemMap["expiryDateMillis"] as? Long
                 ).toLocalEntity()
-                itemDao.insertItem(localItem)
+                itemDao.upsertItem(localItem)
             }
             
         } catch (e: Exception) {
@@ -1,14 +1,26 @@
 package com.kiranaflow.app.data.repository
 
+import android.content.ContentResolver
+import android.net.Uri
+import androidx.room.InvalidationTracker
 import androidx.room.withTransaction
 import com.kiranaflow.app.data.local.*
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.firstOrNull
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.last
 import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.flatMapLatest
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.emitAll
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
@@ -21,6 +33,7 @@ import com.kiranaflow.app.sync.SyncEntityType
 import com.kiranaflow.app.sync.SyncOpType
 import kotlinx.coroutines.flow.map
 import com.kiranaflow.app.util.BillOcrParser
+import com.kiranaflow.app.util.InventorySheetParser
 import com.kiranaflow.app.util.ImmediateSyncManager
 import kotlin.math.abs
 import kotlin.math.roundToInt
@@ -35,7 +48,13 @@ class KiranaRepository(private val db: KiranaDatabase) {
     private val editHistoryDao = db.transactionEditHistoryDao()
     private val reminderDao = db.reminderDao()
     private val outboxDao = db.outboxDao()
+    private val rollupDao = db.dailyRollupDao()
+    private val partyKpiDao = db.partyKpiDao()
     private val syncQueue = PendingSyncQueue(outboxDao)
+    private val rollups = DailyRollupLedger(db)
+    private val partyLedger = PartyLedger(db)
+    private val saleWriter = SaleBatchWriter(db)
+    private val bulkImporter = BulkItemImporter(db) { enqueue(it) }
 
     val allItems: Flow<List<ItemEntity>> = itemDao.getAllItems()
     val allTransactions: Flow<List<TransactionEntity>> = transactionDao.getAllTransactions()
@@ -56,6 +75,201 @@ class KiranaRepository(private val db: KiranaDatabase) {
     val customers: Flow<List<PartyEntity>> = partyDao.getCustomers()
     val allParties: Flow<List<PartyEntity>> = partyDao.getAllParties()
 
+    // --- Dashboard aggregates (served from daily_rollups, O(days) rows) ---
+    val rollupTotals: Flow<RollupTotalsRow> = rollupDao.observeTotals()
+
+    fun dailySales(fromDay: Long, toDay: Long): Flow<List<DailyAmountRow>> = rollupDao.observeDailySales(fromDay, toDay)
+
+    fun salesTotal(fromDay: Long, toDay: Long): Flow<Double> = rollupDao.observeSalesTotal(fromDay, toDay)
+
+    suspend fun salesTotalBetween(fromMillis: Long, toMillis: Long): Double =
+        transactionDao.salesTotalBetween(fromMillis, toMillis)
+
+    fun recentTransactions(limit: Int): Flow<List<TransactionEntity>> = transactionDao.getRecentTransactions(limit)
+
+    fun itemsExpiringBetween(fromMillis: Long, toMillis: Long, limit: Int): Flow<List<ItemEntity>> =
+        itemDao.getItemsExpiringBetween(fromMillis, toMillis, limit)
+
+    /**
+     * Recompute daily_rollups from a full scan (e.g. after a restore or a failed consistency check).
+     */
+    suspend fun rebuildDailyRollups() = db.withTransaction { rollups.rebuild() }
+
+    suspend fun verifyDailyRollups(): DailyRollupLedger.VerifyReport = rollups.verify()
+
+    // --- Party statements (served from party_ledger) ---
+
+    /**
+     * Newest-first statement page for [partyId]; pass the last row's entry id as [beforeId] for the next page.
+     */
+    suspend fun partyStatementPage(partyId: Int, beforeId: Long = Long.MAX_VALUE, limit: Int = 50): List<PartyStatementRow> =
+        partyLedger.statementPage(partyId, beforeId, limit)
+
+    suspend fun countPartyStatementEntries(partyId: Int): Int = partyLedger.countEntries(partyId)
+
+    /**
+     * Recompute party_ledger from history, anchored on the current balances.
+     */
+    suspend fun rebuildPartyLedger() = db.withTransaction { partyLedger.rebuild() }
+
+    suspend fun verifyPartyLedger(): PartyLedger.VerifyReport = partyLedger.verify()
+
+    /**
+     * Emits once immediately and then whenever Room invalidates any of [tables].
+     * Lets screens re-run targeted queries instead of subscribing to whole-table flows.
+     */
+    fun tableInvalidations(vararg tables: String): Flow<Unit> = callbackFlow {
+        val observer = object : InvalidationTracker.Observer(tables) {
+            override fun onInvalidated(tables: Set<String>) {
+                trySend(Unit)
+            }
+        }
+        trySend(Unit)
+        db.invalidationTracker.addObserver(observer)
+        awaitClose { db.invalidationTracker.removeObserver(observer) }
+    }.conflate().flowOn(Dispatchers.IO)
+
+    // --- Item search (FTS4 + sales-frequency boost) ---
+    /**
+     * Prefix, multi-token item search. Every token must prefix-match a word in name, category,
+     * barcode or rack location. When nothing prefix-matches, falls back to a substring match on
+     * name/barcode (the pre-FTS behaviour). Blank/punctuation-only queries return an empty list.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun searchItemsRanked(query: String, limit: Int = 50): Flow<List<ItemEntity>> {
+        val tokens = query
+            .lowercase()
+            .split(Regex("[^\\p{L}\\p{N}]+"))
+            .filter { it.isNotBlank() }
+        if (tokens.isEmpty()) return flowOf(emptyList())
+        val match = tokens.joinToString(" ") { "$it*" }
+        val q = likeEscape(query.trim())
+        return itemDao.searchItemsRanked(
+            match = match,
+            namePrefix = "$q%",
+            nameWord = "% $q%",
+            limit = limit
+        ).flatMapLatest { ranked ->
+            if (ranked.isNotEmpty()) flowOf(ranked) else itemDao.searchItemsSubstring("%$q%", limit)
+        }
+    }
+
+    // --- Transactions explorer (SQL-filtered, keyset-paged) ---
+    data class TransactionExplorerFilter(
+        val query: String = "",
+        val productQuery: String = "",
+        val partyType: String = "ALL", // ALL | CUSTOMER | VENDOR
+        val paymentMode: String = "ALL", // ALL | CASH | UPI | CREDIT
+        val dateRange: Pair<Long, Long>? = null
+    )
+
+    data class TransactionExplorerPage(
+        val transactions: List<TransactionEntity>,
+        val partiesById: Map<Int, PartyEntity>,
+        val itemsByTxId: Map<Int, List<TransactionItemEntity>>
+    )
+
+    /**
+     * Next page after ([afterDate], [afterId]) in (date DESC, id DESC) order; null cursor => first page.
+     * Parties and line-items are fetched only for the rows on the page.
+     */
+    suspend fun transactionExplorerPage(
+        filter: TransactionExplorerFilter,
+        afterDate: Long?,
+        afterId: Int,
+        limit: Int
+    ): TransactionExplorerPage {
+        val (from, to) = explorerBounds(filter.dateRange)
+        val txs = transactionDao.getExplorerPage(
+            queryPattern = likePattern(filter.query),
+            productPattern = likePattern(filter.productQuery),
+            partyType = filter.partyType,
+            paymentMode = filter.paymentMode,
+            fromMillis = from,
+            toMillis = to,
+            afterDate = afterDate,
+            afterId = afterId,
+            limit = limit
+        )
+        if (txs.isEmpty()) return TransactionExplorerPage(emptyList(), emptyMap(), emptyMap())
+        val partyIds = txs.mapNotNull { it.customerId ?: it.vendorId }.distinct()
+        val parties = if (partyIds.isEmpty()) emptyList() else partyDao.getPartiesByIdsSync(partyIds)
+        val lines = transactionDao.getTransactionItemsForTransactionsSync(txs.map { it.id })
+        return TransactionExplorerPage(
+            transactions = txs,
+            partiesById = parties.associateBy { it.id },
+            itemsByTxId = lines.groupBy { it.transactionId }
+        )
+    }
+
+    /**
+     * One party's [limit] newest transactions (indexed lookup); raise [limit] to page further back.
+     */
+    fun recentTransactionsForParty(partyId: Int, limit: Int): Flow<List<TransactionEntity>> {
+        if (partyId <= 0) return flowOf(emptyList())
+        return transactionDao.getRecentTransactionsForParty(partyId, limit)
+    }
+
+    /**
+     * Spend, purchase count, last purchase and payable per vendor, aggregated in SQL.
+     */
+    val vendorKpis: Flow<List<VendorKpiRow>> = partyKpiDao.vendorKpis()
+
+    /**
+     * vendorId -> its [perVendor] newest transactions (newest first), read per vendor by index.
+     */
+    fun recentTransactionsByVendor(perVendor: Int): Flow<Map<Int, List<TransactionEntity>>> =
+        partyKpiDao.recentVendorTransactions(perVendor)
+            .map { txs -> txs.groupBy { it.vendorId!! } }
+
+    /**
+     * customerId -> its [perCustomer] newest transactions (newest first), read per customer by index.
+     */
+    fun recentTransactionsByCustomer(perCustomer: Int): Flow<Map<Int, List<TransactionEntity>>> =
+        partyKpiDao.recentCustomerTransactions(perCustomer)
+            .map { txs -> txs.groupBy { it.customerId!! } }
+
+    /**
+     * Line-items of [transactionIds], grouped by transaction. Chunked for SQLite's 999 variable limit.
+     */
+    suspend fun transactionItemsByTxId(transactionIds: List<Int>): Map<Int, List<TransactionItemEntity>> {
+        if (transactionIds.isEmpty()) return emptyMap()
+        return transactionIds.distinct()
+            .chunked(900)
+            .flatMap { transactionDao.getTransactionItemsForTransactionsSync(it) }
+            .groupBy { it.transactionId }
+    }
+
+    suspend fun countTransactionExplorerRows(filter: TransactionExplorerFilter): Int {
+        val (from, to) = explorerBounds(filter.dateRange)
+        return transactionDao.countExplorerRows(
+            queryPattern = likePattern(filter.query),
+            productPattern = likePattern(filter.productQuery),
+            partyType = filter.partyType,
+            paymentMode = filter.paymentMode,
+            fromMillis = from,
+            toMillis = to
+        )
+    }
+
+    private fun explorerBounds(range: Pair<Long, Long>?): Pair<Long, Long> {
+        if (range == null) return Pair(Long.MIN_VALUE, Long.MAX_VALUE)
+        val (s, e) = range
+        return Pair(minOf(s, e), maxOf(s, e))
+    }
+
+    /** `%q%` for SQL LIKE with `\` escaping, or '' when the filter is blank. */
+    private fun likePattern(raw: String): String {
+        val q = raw.trim()
+        if (q.isBlank()) return ""
+        return "%${likeEscape(q)}%"
+    }
+
+    private fun likeEscape(s: String): String = s
+        .replace("\\", "\\\\")
+        .replace("%", "\\%")
+        .replace("_", "\\_")
+
     /**
      * Read-only helper for feature modules that need a one-time snapshot (e.g. scan/diff).
      * This is additive and does not change any existing flows.
@@ -73,10 +287,10 @@ class KiranaRepository(private val db: KiranaDatabase) {
      * Enqueue operation and trigger immediate sync.
      * Data is synced immediately when online, never left pending.
      */
-    private suspend fun enqueue(op: PendingSyncOp) {
+    private suspend fun enqueue(op: PendingSyncOp, expedite: Boolean = false) {
         syncQueue.enqueue(op)
-        // Trigger immediate sync - fire and forget
-        ImmediateSyncManager.triggerSync()
+        // Trigger immediate sync - fire and forget (expedited after checkout)
+        if (expedite) ImmediateSyncManager.triggerSyncNow() else ImmediateSyncManager.triggerSync()
     }
 
     // --- Seeding Data ---
@@ -86,6 +300,8 @@ class KiranaRepository(private val db: KiranaDatabase) {
             partyDao.insertParty(PartyEntity(name = "Hindustan Unilever", phone = "1800111111", type = "VENDOR", gstNumber = null, balance = -12000.0))
             partyDao.insertParty(PartyEntity(name = "ITC Limited", phone = "1800222222", type = "VENDOR", gstNumber = null, balance = 0.0))
             partyDao.insertParty(PartyEntity(name = "Sharma Ji", phone = "9876543210", type = "CUSTOMER", gstNumber = null, balance = 2500.0))
+            // Seeded balances become OPENING entries.
+            rebuildPartyLedger()
             
             // Seed Items
             // IDs are auto-generated (Int)
@@ -122,6 +338,9 @@ class KiranaRepository(private val db: KiranaDatabase) {
             val existingTxEmpty = transactionDao.getAllTransactions().firstOrNull()?.isEmpty() == true
             if (existingTxEmpty) {
                 seedSyntheticTransactions(days = 380)
+                // Seeding writes through the DAO directly; derive rollups and the party ledger in one pass afterwards.
+                rebuildDailyRollups()
+                rebuildPartyLedger()
             }
         }
     }
@@ -310,7 +529,7 @@ class KiranaRepository(private val db: KiranaDatabase) {
         }
 
         val itemToInsert = item.copy(name = cleanName, barcode = cleanBarcode)
-        val id = itemDao.insertItem(itemToInsert).toInt()
+        val id = itemDao.upsertItem(itemToInsert)
         runCatching {
             enqueue(
                 PendingSyncOp(
@@ -322,6 +541,8 @@ class KiranaRepository(private val db: KiranaDatabase) {
                         .put("name", cleanName)
                         .put("price", item.price)
                         .put("stock", item.stock)
+                        // The opening stock is the first movement the shop's other phones pull (supabase/sql/012).
+                        .put("stockDelta", if (item.isLoose) item.stockKg else item.stock)
                         .put("category", item.category)
                         .put("costPrice", item.costPrice)
                         .put("gstPercentage", item.gstPercentage)
@@ -347,7 +568,8 @@ class KiranaRepository(private val db: KiranaDatabase) {
     }
     
     suspend fun updateItem(item: ItemEntity): Int {
-        val id = itemDao.insertItem(item).toInt() // Replace
+        val before = if (item.id != 0) itemDao.getItemById(item.id) else null
+        val id = itemDao.upsertItem(item)
         runCatching {
             enqueue(
                 PendingSyncOp(
@@ -359,6 +581,8 @@ class KiranaRepository(private val db: KiranaDatabase) {
                         .put("name", item.name)
                         .put("price", item.price)
                         .put("stock", item.stock)
+                        // Restocks/corrections as a change, not a level: the other phones apply it to their own count.
+                        .put("stockDelta", stockDelta(before, item))
                         .put("category", item.category)
                         .put("costPrice", item.costPrice)
                         .put("gstPercentage", item.gstPercentage)
@@ -376,6 +600,10 @@ class KiranaRepository(private val db: KiranaDatabase) {
         return id
     }
     
+    // In the item's unit (KG for loose items); the whole stock when the row is new.
+    private fun stockDelta(before: ItemEntity?, after: ItemEntity): Number =
+        if (after.isLoose) after.stockKg - (before?.stockKg ?: 0.0) else after.stock - (before?.stock ?: 0)
+
     suspend fun deleteItem(item: ItemEntity) {
         itemDao.softDelete(item.id)
         runCatching {
@@ -413,7 +641,11 @@ class KiranaRepository(private val db: KiranaDatabase) {
         if (existing != null) return null // Duplicate exists
         
         val partyToInsert = party.copy(phone = cleanPhone)
-        val id = partyDao.insertParty(partyToInsert).toInt()
+        val id = db.withTransaction {
+            val newId = partyDao.insertParty(partyToInsert).toInt()
+            partyLedger.recordOpening(newId, partyToInsert.balance, System.currentTimeMillis())
+            newId
+        }
         runCatching {
             enqueue(
                 PendingSyncOp(
@@ -566,7 +798,13 @@ class KiranaRepository(private val db: KiranaDatabase) {
     }
     
     suspend fun updateParty(party: PartyEntity) {
-        val id = partyDao.insertParty(party).toInt()
+        // Balance is owned by party_ledger postings; never let a stale UI copy overwrite it.
+        val saved = db.withTransaction {
+            val live = partyDao.getPartiesByIdsSync(listOf(party.id)).firstOrNull()
+            val toSave = if (live != null) party.copy(balance = live.balance) else party
+            toSave.copy(id = partyDao.insertParty(toSave).toInt())
+        }
+        val id = saved.id
         runCatching {
             enqueue(
                 PendingSyncOp(
@@ -580,14 +818,17 @@ class KiranaRepository(private val db: KiranaDatabase) {
                         .put("type", party.type)
                         .put("gstNumber", party.gstNumber)
                         .put("upiId", party.upiId)
-                        .put("balance", party.balance)
+                        .put("balance", saved.balance)
                 )
             )
         }
     }
 
     suspend fun deleteParty(party: PartyEntity) {
-        partyDao.deleteParty(party)
+        db.withTransaction {
+            partyDao.deleteParty(party)
+            partyLedger.forgetParties(listOf(party.id))
+        }
         runCatching {
             enqueue(PendingSyncOp(SyncEntityType.PARTY, party.id.toString(), SyncOpType.DELETE, JSONObject().put("id", party.id)))
         }
@@ -596,7 +837,10 @@ class KiranaRepository(private val db: KiranaDatabase) {
     suspend fun deletePartiesByIds(ids: List<Int>) {
         if (ids.isEmpty()) return
         val distinct = ids.distinct()
-        partyDao.deletePartiesByIds(distinct)
+        db.withTransaction {
+            partyDao.deletePartiesByIds(distinct)
+            partyLedger.forgetParties(distinct)
+        }
         runCatching {
             distinct.forEach { id ->
                 enqueue(PendingSyncOp(SyncEntityType.PARTY, id.toString(), SyncOpType.DELETE, JSONObject().put("id", id)))
@@ -608,6 +852,10 @@ class KiranaRepository(private val db: KiranaDatabase) {
         if (ids.isEmpty()) return
         val distinct = ids.distinct()
         db.withTransaction {
+            distinct.forEach { id ->
+                val bundle = transactionDao.getTransactionWithItems(id) ?: return@forEach
+                rollups.remove(bundle.tx, bundle.items)
+            }
             transactionDao.deleteTransactionsByIds(distinct)
         }
         runCatching {
@@ -649,6 +897,7 @@ class KiranaRepository(private val db: KiranaDatabase) {
         }
         db.withTransaction {
             transactionDao.insertTransactionItems(normalized)
+            transactionDao.getTransactionWithItems(transactionId)?.let { rollups.addLines(it.tx, normalized) }
         }
         runCatching {
             val payload = JSONObject()
@@ -854,9 +1103,13 @@ class KiranaRepository(private val db: KiranaDatabase) {
         var committedAmount: Double = tx.amount
         var committedPaymentMode: String = tx.paymentMode
         var committedTitle: String = tx.title
+        var committedLines: List<TransactionItemEntity> = bundle.items
 
         runCatching {
             db.withTransaction {
+                // Take the old version out of daily_rollups; the edited one is added back below.
+                rollups.remove(tx, bundle.items)
+
                 // 1) Apply line edits + stock deltas (SALE only)
                 for (e in edits) {
                     val line = byId[e.lineId] ?: continue
@@ -922,6 +1175,7 @@ class KiranaRepository(private val db: KiranaDatabase) {
                 committedAmount = newAmount
                 committedPaymentMode = newPaymentMode
                 committedTitle = newTitle
+                committedLines = newLines
                 transactionDao.updateTransactionFields(
                     id = tx.id,
                     paymentMode = newPaymentMode,
@@ -930,6 +1184,9 @@ class KiranaRepository(private val db: KiranaDatabase) {
                     gstFiledPeriod = tx.gstFiledPeriod,
                     updatedAt = now
                 )
+                val edited = tx.copy(paymentMode = newPaymentMode, title = newTitle, amount = newAmount, updatedAt = now)
+                rollups.add(edited, newLines)
+                partyLedger.recordEdit(tx, edited, now, cleanReason)
 
                 // 3) Append audit history + stock movements
                 if (newPaymentMode != tx.paymentMode) {
@@ -984,6 +1241,21 @@ class KiranaRepository(private val db: KiranaDatabase) {
                 .put("status", tx.status)
                 .put("gstFiledPeriod", tx.gstFiledPeriod)
                 .put("updatedAt", now)
+            // The edited lines replace the cloud copy's, so the shop's other phones move their stock too.
+            if (committedLines.isNotEmpty()) {
+                val lines = JSONArray()
+                committedLines.forEach { li ->
+                    lines.put(
+                        JSONObject()
+                            .put("itemId", li.itemId)
+                            .put("name", li.itemNameSnapshot)
+                            .put("qty", li.qty)
+                            .put("unit", li.unit)
+                            .put("price", li.price)
+                    )
+                }
+                payload.put("items", lines)
+            }
             enqueue(PendingSyncOp(SyncEntityType.TRANSACTION, txId.toString(), SyncOpType.EDIT_TRANSACTION, payload))
         }
 
@@ -1149,6 +1421,9 @@ class KiranaRepository(private val db: KiranaDatabase) {
                     logStockMovement(itemId, li.qty, "VOID", tx.id, null, userId, cleanReason)
                 }
             }
+            rollups.remove(tx, bundle.items)
+            // Voiding a credit sale/purchase or a payment also takes it off the party's khata.
+            partyLedger.reverse(tx.id, now, cleanReason)
             transactionDao.updateTransactionStatus(tx.id, "VOIDED", now)
             logEdit(tx.id, "status", tx.status, "VOIDED", userId, cleanReason)
         }
@@ -1263,35 +1538,33 @@ class KiranaRepository(private val db: KiranaDatabase) {
                 itemNameSnapshot = item.name,
                 qty = qty,
                 unit = if (item.isLoose) "KG" else "PCS",
-                price = item.price
+                price = item.price,
+                unitCostSnapshot = item.costPrice
             )
         }
 
         val txId = runCatching {
             db.withTransaction {
-                val offending = mutableSetOf<Int>()
-
-                // 1) Attempt atomic stock deductions (all-or-nothing within the transaction).
-                items.forEach { (item, qty) ->
-                    val ok = if (item.isLoose) {
-                        itemDao.decreaseStockKgSafe(item.id, qty) > 0
-                    } else {
-                        val q = qty.toInt()
-                        itemDao.decreaseStockSafe(item.id, q) > 0
-                    }
-                    if (!ok) offending += item.id
-                }
+                // 1) Set-based stock deduction (all-or-nothing within the transaction).
+                val offending = saleWriter.deductStock(
+                    items.map { (item, qty) -> SaleBatchWriter.StockLine(item.id, qty, item.isLoose) }
+                )
 
                 if (offending.isNotEmpty()) {
                     // Abort the transaction (no partial stock deduction, no sale insert).
                     throw StockConflictException(offending)
                 }
 
-                // 2) Persist sale + line items only after stock is safely deducted.
-                val id = transactionDao.insertSale(transaction, txItems)
-                if (customerId != null && paymentMode == "CREDIT") {
-                    partyDao.updateBalance(customerId, totalAmount)
-                }
+                // 2) Persist sale + line items (multi-row insert) + SALE stock movements.
+                val id = transactionDao.insertTransaction(transaction).toInt()
+                saleWriter.insertLines(id, txItems)
+                stockMovementDao.insertOutflowsForTransaction(id, "SALE", now)
+                partyLedger.record(transaction.copy(id = id))
+                rollups.add(
+                    transaction.copy(id = id),
+                    txItems,
+                    unitCostByItemId = items.associate { (item, _) -> item.id to item.costPrice }
+                )
                 id
             }
         }.getOrElse { e ->
@@ -1318,7 +1591,9 @@ class KiranaRepository(private val db: KiranaDatabase) {
                 .put("customerId", customerId)
                 .put("amount", totalAmount)
                 .put("items", lines)
-            enqueue(PendingSyncOp(SyncEntityType.TRANSACTION, txId.toString(), SyncOpType.CREATE_SALE, payload))
+                // Sale time; the server keeps it as the transaction's occurred_at for the other devices' pull.
+                .put("updatedAt", now)
+            enqueue(PendingSyncOp(SyncEntityType.TRANSACTION, txId.toString(), SyncOpType.CREATE_SALE, payload), expedite = true)
         }
 
         return SaleResult.Success(txId)
@@ -1343,7 +1618,8 @@ class KiranaRepository(private val db: KiranaDatabase) {
 
         val txId = db.withTransaction {
             val id = transactionDao.insertTransaction(tx).toInt()
-            partyDao.updateBalance(party.id, if (isVendor) amount else -amount)
+            partyLedger.record(tx.copy(id = id))
+            rollups.add(tx.copy(id = id), emptyList())
             id
         }
 
@@ -1358,6 +1634,9 @@ class KiranaRepository(private val db: KiranaDatabase) {
                         .put("partyType", party.type)
                         .put("amount", amount)
                         .put("mode", mode)
+                        // The shop's other devices rebuild the transaction from these (title marks a settlement).
+                        .put("note", tx.title)
+                        .put("updatedAt", now)
                 )
             )
         }
@@ -1392,13 +1671,10 @@ class KiranaRepository(private val db: KiranaDatabase) {
             paymentMode = mode
         )
 
-        val deltaBalance = if (mode == "CREDIT") -amount else 0.0
-
         val txId = db.withTransaction {
             val id = transactionDao.insertTransaction(tx).toInt()
-            if (deltaBalance != 0.0) {
-                partyDao.updateBalance(vendor.id, deltaBalance)
-            }
+            partyLedger.record(tx.copy(id = id))
+            rollups.add(tx.copy(id = id), emptyList())
             id
         }
 
@@ -1413,6 +1689,7 @@ class KiranaRepository(private val db: KiranaDatabase) {
                         .put("amount", amount)
                         .put("mode", mode)
                         .put("note", cleanNote)
+                        .put("updatedAt", now)
                 )
             )
         }
@@ -1457,13 +1734,10 @@ class KiranaRepository(private val db: KiranaDatabase) {
             receiptImageUri = receiptImageUri?.trim()?.ifBlank { null }
         )
 
-        val deltaBalance = if (vendor != null && mode == "CREDIT") -amount else 0.0
-
         val txId = db.withTransaction {
             val id = transactionDao.insertTransaction(tx).toInt()
-            if (deltaBalance != 0.0 && vendor != null) {
-                partyDao.updateBalance(vendor.id, deltaBalance)
-            }
+            partyLedger.record(tx.copy(id = id))
+            rollups.add(tx.copy(id = id), emptyList())
             id
         }
 
@@ -1480,6 +1754,8 @@ class KiranaRepository(private val db: KiranaDatabase) {
                         .put("category", cat)
                         .put("description", desc)
                         .put("receiptImageUri", receiptImageUri?.trim()?.ifBlank { null })
+                        .put("note", title)
+                        .put("updatedAt", now)
                 )
             )
         }
@@ -1525,69 +1801,21 @@ class KiranaRepository(private val db: KiranaDatabase) {
             findBestVendorMatchId(vName, vendorsSnapshot)
         }.getOrNull()
 
-        var added = 0
-        var updated = 0
-
-        val itemsSnapshot = runCatching { itemDao.getAllItems().first() }.getOrElse { emptyList() }
-        val normalizedItemIndex: Map<String, ItemEntity> = itemsSnapshot
-            .asSequence()
-            .filter { !it.isDeleted }
-            .map { it to normalizeForMatch(it.name) }
-            .filter { (_, norm) -> norm.isNotBlank() }
-            .distinctBy { (_, norm) -> norm }
-            .associate { (item, norm) -> norm to item }
-
-        for (it in parsed.items) {
+        val rows = parsed.items.mapNotNull {
             val name = it.name.trim()
-            if (name.isBlank()) continue
-            val qty = it.qty
-            if (qty <= 0) continue
-
-            val existing = itemDao.getItemByName(name) ?: run {
-                val norm = normalizeForMatch(name)
-                normalizedItemIndex[norm] ?: findBestItemMatch(name, itemsSnapshot)
-            }
-            if (existing != null) {
-                val newStock = existing.stock + qty
-                val newCost = it.unitPrice ?: existing.costPrice
-                updateItem(
-                    existing.copy(
-                        stock = newStock,
-                        costPrice = newCost,
-                        vendorId = vendorId ?: existing.vendorId
-                    )
-                )
-                updated++
-            } else {
-                val unit = it.unitPrice ?: 0.0
-                val result = addItemReturning(
-                    ItemEntity(
-                        name = name,
-                        price = unit, // default selling price = unit cost (can be edited later)
-                        stock = qty,
-                        category = "General",
-                        rackLocation = null,
-                        marginPercentage = 0.0,
-                        barcode = null,
-                        costPrice = unit,
-                        gstPercentage = null,
-                        reorderPoint = 10,
-                        vendorId = vendorId,
-                        imageUri = null,
-                        expiryDateMillis = null,
-                        isDeleted = false
-                    )
-                )
-                if (result is ItemAddResult.Success) {
-                    added++
-                }
-                // If duplicate, skip silently (already exists in inventory)
-            }
+            if (name.isBlank() || it.qty <= 0) return@mapNotNull null
+            BulkItemImporter.Row(
+                name = name,
+                stockDelta = it.qty,
+                costPrice = it.unitPrice,
+                vendorId = vendorId
+            )
         }
+        val done = bulkImporter.run(rows, fallbackMatch = ::findBestItemMatch).last() as BulkItemImporter.Progress.Done
 
         return InventoryImportResult(
-            added = added,
-            updated = updated,
+            added = done.added,
+            updated = done.updated,
             vendorId = vendorId,
             vendorName = parsed.vendor.name
         )
@@ -1618,13 +1846,7 @@ class KiranaRepository(private val db: KiranaDatabase) {
         return best.takeIf { it.second >= 0.66 }?.first
     }
 
-    private fun normalizeForMatch(s: String): String {
-        return s
-            .lowercase()
-            .replace(Regex("[^a-z0-9 ]"), " ")
-            .replace(Regex("\\s+"), " ")
-            .trim()
-    }
+    private fun normalizeForMatch(s: String): String = BulkItemImporter.normalizeForMatch(s)
 
     private fun vendorNameTokens(s: String): Set<String> {
         val stop = setOf(
@@ -1658,59 +1880,40 @@ class KiranaRepository(private val db: KiranaDatabase) {
         return if (union <= 0.0) 0.0 else inter / union
     }
 
-    suspend fun processInventorySheetRows(rows: List<com.kiranaflow.app.util.InventorySheetParser.InventoryRow>): InventoryImportResult {
-        var added = 0
-        var updated = 0
-
-        for (r in rows) {
-            val name = r.name.trim()
-            if (name.isBlank()) continue
-            val delivered = (if (r.stock > 0) r.stock else r.qty).coerceAtLeast(0)
-
-            val existing = itemDao.getItemByName(name)
-            if (existing != null) {
-                val newStock = existing.stock + delivered
-                val newCost = r.costPrice ?: existing.costPrice
-                val newSell = r.sellPrice ?: existing.price
-                val newCat = r.category?.trim()?.ifBlank { null } ?: existing.category
-                updateItem(
-                    existing.copy(
-                        stock = newStock,
-                        costPrice = newCost,
-                        price = newSell,
-                        category = newCat
-                    )
-                )
-                updated++
-            } else {
-                val cost = r.costPrice ?: 0.0
-                val sell = r.sellPrice ?: cost
-                val result = addItemReturning(
-                    ItemEntity(
-                        name = name,
-                        price = sell,
-                        stock = delivered,
-                        category = r.category?.trim()?.ifBlank { null } ?: "General",
-                        rackLocation = null,
-                        marginPercentage = 0.0,
-                        barcode = null,
-                        costPrice = cost,
-                        gstPercentage = null,
-                        reorderPoint = 10,
-                        vendorId = null,
-                        imageUri = null,
-                        expiryDateMillis = null,
-                        isDeleted = false
-                    )
-                )
-                if (result is ItemAddResult.Success) {
-                    added++
-                }
-                // If duplicate, skip silently (already exists in inventory)
-            }
+    /**
+     * Supplier sheet import with progress. Rows are matched by name (exact, then normalized), merged,
+     * and applied in chunks; see [BulkItemImporter].
+     */
+    fun importInventorySheetRows(
+        rows: List<com.kiranaflow.app.util.InventorySheetParser.InventoryRow>
+    ): Flow<BulkItemImporter.Progress> = bulkImporter.run(rows.map(::toImportRow))
+
+    /**
+     * Streams a CSV/XLSX file straight into [BulkItemImporter]: rows are parsed lazily and committed
+     * in chunks, so the file is never held in memory as a list. [sheetName] selects an XLSX sheet.
+     * CSV progress also carries the share of the file read, since the row total is unknown.
+     */
+    fun importInventorySheet(
+        contentResolver: ContentResolver,
+        uri: Uri,
+        sheetName: String? = null
+    ): Flow<BulkItemImporter.Progress> = flow {
+        InventorySheetParser.useRows(contentResolver, uri, sheetName) { rows, readFraction ->
+            emitAll(bulkImporter.run(rows.map(::toImportRow), readFraction = readFraction))
         }
+    }.flowOn(Dispatchers.IO)
+
+    private fun toImportRow(r: InventorySheetParser.InventoryRow) = BulkItemImporter.Row(
+        name = r.name,
+        stockDelta = (if (r.stock > 0) r.stock else r.qty).coerceAtLeast(0),
+        costPrice = r.costPrice,
+        sellPrice = r.sellPrice,
+        category = r.category
+    )
 
-        return InventoryImportResult(added = added, updated = updated)
+    suspend fun processInventorySheetRows(rows: List<com.kiranaflow.app.util.InventorySheetParser.InventoryRow>): InventoryImportResult {
+        val done = importInventorySheetRows(rows).last() as BulkItemImporter.Progress.Done
+        return InventoryImportResult(added = done.added, updated = done.updated)
     }
 
     /**
@@ -1762,13 +1965,10 @@ class KiranaRepository(private val db: KiranaDatabase) {
             receiptImageUri = receiptImageUri?.trim()?.ifBlank { null }
         )
 
-        val deltaBalance = if (mode == "CREDIT") -amount else 0.0
-
         val txId = db.withTransaction {
             val id = transactionDao.insertTransactionWithItems(tx, txItems)
-            if (deltaBalance != 0.0) {
-                partyDao.updateBalance(vendor.id, deltaBalance)
-            }
+            partyLedger.record(tx.copy(id = id))
+            rollups.add(tx.copy(id = id), txItems)
             id
         }
 
@@ -0,0 +1,144 @@
+package com.kiranaflow.app.data.repository
+
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.data.local.PartyStatementRow
+import com.kiranaflow.app.data.local.TransactionEntity
+import com.kiranaflow.app.data.local.rebuildPartyLedger
+import kotlin.math.abs
+
+/**
+ * Keeps `party_ledger` and `parties.balance` moving together.
+ *
+ * Every balance change goes through [record]/[recordEdit]/[reverse]/[recordOpening], called inside
+ * the same `db.withTransaction` as the transaction write, so the two can never diverge on a crash.
+ * [rebuild] and [verify] are the escape hatches, mirroring [DailyRollupLedger].
+ */
+class PartyLedger(private val db: KiranaDatabase) {
+    private val ledgerDao = db.partyLedgerDao()
+    private val partyDao = db.partyDao()
+
+    data class Mismatch(
+        val partyId: Int,
+        val partyName: String,
+        val balance: Double,
+        // Null when the party has no ledger entries at all.
+        val ledgerBalance: Double?,
+        val ledgerNet: Double?
+    )
+
+    data class VerifyReport(
+        val checkedParties: Int,
+        val mismatches: List<Mismatch>
+    ) {
+        val isConsistent: Boolean get() = mismatches.isEmpty()
+    }
+
+    /**
+     * Post the balance effect of a freshly inserted [tx] (must carry its generated id).
+     * Cash/UPI sales and unlinked expenses have no effect and post nothing.
+     */
+    suspend fun record(tx: TransactionEntity) {
+        val effect = effectOf(tx) ?: return
+        ledgerDao.post(effect.partyId, tx.id, effect.kind, effect.delta, tx.date, null)
+    }
+
+    /**
+     * Post the difference between the old and new version of an edited transaction
+     * (amount and/or payment mode changed).
+     */
+    suspend fun recordEdit(before: TransactionEntity, after: TransactionEntity, now: Long, note: String?) {
+        val old = effectOf(before)
+        val new = effectOf(after)
+        if (old != null && new != null && old.partyId == new.partyId) {
+            val diff = new.delta - old.delta
+            if (!isZero(diff)) ledgerDao.post(new.partyId, after.id, "EDIT", diff, now, note)
+            return
+        }
+        if (old != null) ledgerDao.post(old.partyId, before.id, "EDIT", -old.delta, now, note)
+        if (new != null) ledgerDao.post(new.partyId, after.id, "EDIT", new.delta, now, note)
+    }
+
+    /**
+     * Undo everything posted for [txId] (voids). Works from the stored entries, so edits are included.
+     */
+    suspend fun reverse(txId: Int, now: Long, note: String?) {
+        ledgerDao.entriesForTransaction(txId)
+            .groupBy { it.partyId }
+            .forEach { (partyId, entries) ->
+                val net = entries.sumOf { it.debit - it.credit }
+                if (!isZero(net)) ledgerDao.post(partyId, txId, "VOID", -net, now, note)
+            }
+    }
+
+    /**
+     * Opening due of a newly created party; the amount is already on the party row.
+     */
+    suspend fun recordOpening(partyId: Int, amount: Double, createdAt: Long) {
+        if (isZero(amount)) return
+        ledgerDao.appendAtCurrentBalance(
+            partyId = partyId,
+            transactionId = null,
+            kind = "OPENING",
+            debit = if (amount > 0.0) amount else 0.0,
+            credit = if (amount < 0.0) -amount else 0.0,
+            createdAt = createdAt,
+            note = "Opening balance"
+        )
+    }
+
+    suspend fun forgetParties(partyIds: List<Int>) = ledgerDao.deleteForParties(partyIds)
+
+    suspend fun statementPage(partyId: Int, beforeId: Long, limit: Int): List<PartyStatementRow> =
+        ledgerDao.statementPage(partyId, beforeId, limit)
+
+    suspend fun countEntries(partyId: Int): Int = ledgerDao.countEntries(partyId)
+
+    /**
+     * Recompute the ledger from history. Call inside `db.withTransaction`.
+     */
+    fun rebuild() = rebuildPartyLedger(db.openHelper.writableDatabase)
+
+    /**
+     * Compare each party's newest balanceAfter and entry total against [com.kiranaflow.app.data.local.PartyEntity.balance].
+     */
+    suspend fun verify(): VerifyReport {
+        val totals = ledgerDao.totalsByParty().associateBy { it.partyId }
+        val parties = partyDao.getAllPartiesSync()
+        val mismatches = parties.mapNotNull { p ->
+            val t = totals[p.id]
+            val consistent = if (t == null) {
+                isZero(p.balance)
+            } else {
+                isZero(t.lastBalance - p.balance) && isZero(t.net - p.balance)
+            }
+            if (consistent) null else Mismatch(p.id, p.name, p.balance, t?.lastBalance, t?.net)
+        }
+        return VerifyReport(checkedParties = parties.size, mismatches = mismatches)
+    }
+
+    private fun isZero(v: Double): Boolean = abs(v) < 0.005
+
+    companion object {
+        private data class Effect(val partyId: Int, val kind: String, val delta: Double)
+
+        /**
+         * Kotlin twin of the CASE in PARTY_LEDGER_SCAN_SQL; the two must stay in step.
+         */
+        private fun effectOf(tx: TransactionEntity): Effect? {
+            if (tx.status.uppercase() == "VOIDED") return null
+            val effect = when {
+                tx.title.startsWith("Payment ") -> when {
+                    tx.type == "INCOME" && tx.customerId != null -> Effect(tx.customerId, "PAYMENT", -tx.amount)
+                    tx.type == "EXPENSE" && tx.vendorId != null -> Effect(tx.vendorId, "PAYMENT", tx.amount)
+                    else -> null
+                }
+                tx.type == "SALE" && tx.paymentMode == "CREDIT" && tx.customerId != null ->
+                    Effect(tx.customerId, "SALE", tx.amount)
+                tx.type == "EXPENSE" && tx.paymentMode == "CREDIT" && tx.vendorId != null ->
+                    Effect(tx.vendorId, "PURCHASE", -tx.amount)
+                else -> null
+            }
+            return effect?.takeIf { it.delta != 0.0 }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.kiranaflow.app.data.repository
+
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteStatement
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.data.local.TransactionItemEntity
+
+/**
+ * Set-based writes for committing a sale: stock deduction and line-item insert run as a handful of
+ * multi-row statements instead of one statement per bill line.
+ *
+ * Both methods issue raw SQL on Room's connection, so they must be called inside `db.withTransaction`
+ * (the same transaction as the sale header). Statements are chunked to stay under SQLite's default
+ * 999 bound-variable limit on older Android builds.
+ */
+class SaleBatchWriter(private val db: KiranaDatabase) {
+
+    data class StockLine(
+        val itemId: Int,
+        // PCS as whole numbers; loose items in KG.
+        val qty: Double,
+        val isLoose: Boolean
+    )
+
+    /**
+     * Deduct stock for every line, all-or-nothing.
+     *
+     * Returns the ids whose stock is insufficient (or that no longer exist). When the set is non-empty
+     * nothing has been written; the caller is expected to abort its transaction.
+     */
+    fun deductStock(lines: List<StockLine>): Set<Int> {
+        if (lines.isEmpty()) return emptySet()
+        val deltas = aggregate(lines)
+        val chunks = deltas.chunked(STOCK_ROWS_PER_STATEMENT)
+
+        // 1) One read per chunk finds every offending line before anything is written.
+        val offending = mutableSetOf<Int>()
+        for (chunk in chunks) {
+            val sql = """
+                WITH d(itemId, qty, loose) AS (VALUES ${valuesRows(chunk.size, 3)})
+                SELECT d.itemId FROM d
+                LEFT JOIN items i ON i.id = d.itemId
+                WHERE i.id IS NULL
+                   OR (d.loose = 1 AND i.stockKg < d.qty)
+                   OR (d.loose = 0 AND i.stock < d.qty)
+            """.trimIndent()
+            db.query(SimpleSQLiteQuery(sql, stockArgs(chunk))).use { c ->
+                while (c.moveToNext()) offending += c.getInt(0)
+            }
+        }
+        if (offending.isNotEmpty()) return offending
+
+        // 2) One conditional UPDATE per chunk. We hold the write lock, so the check above still holds.
+        subtract(chunks)
+        return emptySet()
+    }
+
+    /**
+     * Deduct stock for a sale that was already made on another device of the shop (cloud pull).
+     * There is nothing to refuse: stock may go negative here until a restock reaches this phone.
+     * Ids that no longer exist are skipped. A negative qty puts stock back (pulled voids and edits).
+     */
+    fun deductStockUnchecked(lines: List<StockLine>) {
+        if (lines.isEmpty()) return
+        subtract(aggregate(lines).chunked(STOCK_ROWS_PER_STATEMENT), expectAll = false)
+    }
+
+    private fun subtract(chunks: List<List<StockDelta>>, expectAll: Boolean = true) {
+        val sdb = db.openHelper.writableDatabase
+        for (chunk in chunks) {
+            val sql = """
+                WITH d(itemId, qty, loose) AS (VALUES ${valuesRows(chunk.size, 3)})
+                UPDATE items SET
+                    stock = stock - COALESCE((SELECT d.qty FROM d WHERE d.itemId = items.id AND d.loose = 0), 0),
+                    stockKg = stockKg - COALESCE((SELECT d.qty FROM d WHERE d.itemId = items.id AND d.loose = 1), 0.0)
+                WHERE id IN (SELECT itemId FROM d)
+            """.trimIndent()
+            val changed = sdb.compileStatement(sql).use { st ->
+                bindStock(st, chunk)
+                st.executeUpdateDelete()
+            }
+            if (expectAll && changed != chunk.size) {
+                error("Stock deduction touched $changed rows, expected ${chunk.size}")
+            }
+        }
+    }
+
+    /**
+     * Insert [lines] for [txId] with multi-row INSERT statements (ids are auto-generated).
+     */
+    fun insertLines(txId: Int, lines: List<TransactionItemEntity>) {
+        if (lines.isEmpty()) return
+        val sdb = db.openHelper.writableDatabase
+        for (chunk in lines.chunked(LINE_ROWS_PER_STATEMENT)) {
+            val sql = "INSERT INTO transaction_items (" +
+                "transactionId, itemId, itemNameSnapshot, qty, unit, price, hsnCodeSnapshot, " +
+                "gstRate, taxableValue, cgstAmount, sgstAmount, igstAmount, unitCostSnapshot) VALUES " +
+                valuesRows(chunk.size, 13)
+            sdb.compileStatement(sql).use { st ->
+                var i = 1
+                for (line in chunk) {
+                    st.bindLong(i++, txId.toLong())
+                    if (line.itemId != null) st.bindLong(i++, line.itemId.toLong()) else st.bindNull(i++)
+                    st.bindString(i++, line.itemNameSnapshot)
+                    st.bindDouble(i++, line.qty)
+                    st.bindString(i++, line.unit)
+                    st.bindDouble(i++, line.price)
+                    if (line.hsnCodeSnapshot != null) st.bindString(i++, line.hsnCodeSnapshot) else st.bindNull(i++)
+                    st.bindDouble(i++, line.gstRate)
+                    st.bindDouble(i++, line.taxableValue)
+                    st.bindDouble(i++, line.cgstAmount)
+                    st.bindDouble(i++, line.sgstAmount)
+                    st.bindDouble(i++, line.igstAmount)
+                    if (line.unitCostSnapshot != null) st.bindDouble(i++, line.unitCostSnapshot) else st.bindNull(i++)
+                }
+                st.executeInsert()
+            }
+        }
+    }
+
+    private data class StockDelta(val itemId: Int, val qty: Double, val isLoose: Boolean)
+
+    // Same item on several lines => one row (the per-line loop deducted each line separately).
+    private fun aggregate(lines: List<StockLine>): List<StockDelta> {
+        val byId = LinkedHashMap<Int, StockDelta>()
+        for (line in lines) {
+            // PCS lines deduct whole units, matching the old decreaseStockSafe(qty.toInt()).
+            val qty = if (line.isLoose) line.qty else line.qty.toInt().toDouble()
+            val prev = byId[line.itemId]
+            byId[line.itemId] = if (prev == null) {
+                StockDelta(line.itemId, qty, line.isLoose)
+            } else {
+                prev.copy(qty = prev.qty + qty)
+            }
+        }
+        return byId.values.toList()
+    }
+
+    private fun stockArgs(chunk: List<StockDelta>): Array<Any> {
+        val args = ArrayList<Any>(chunk.size * 3)
+        for (d in chunk) {
+            args += d.itemId
+            args += if (d.isLoose) d.qty else d.qty.toLong()
+            args += if (d.isLoose) 1 else 0
+        }
+        return args.toTypedArray()
+    }
+
+    private fun bindStock(st: SupportSQLiteStatement, chunk: List<StockDelta>) {
+        var i = 1
+        for (d in chunk) {
+            st.bindLong(i++, d.itemId.toLong())
+            if (d.isLoose) st.bindDouble(i++, d.qty) else st.bindLong(i++, d.qty.toLong())
+            st.bindLong(i++, if (d.isLoose) 1L else 0L)
+        }
+    }
+
+    private fun valuesRows(rows: Int, columns: Int): String {
+        val row = (1..columns).joinToString(", ", prefix = "(", postfix = ")") { "?" }
+        return List(rows) { row }.joinToString(", ")
+    }
+
+    private companion object {
+        // 3 args per row => 900 variables.
+        const val STOCK_ROWS_PER_STATEMENT = 300
+        // 13 args per row => 988 variables.
+        const val LINE_ROWS_PER_STATEMENT = 76
+    }
+}
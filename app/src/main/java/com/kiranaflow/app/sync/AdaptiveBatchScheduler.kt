@@ -0,0 +1,134 @@
+package com.kiranaflow.app.sync
+
+/**
+ * Sizes sync requests for [HttpRemoteApi] with AIMD (additive increase, multiplicative decrease).
+ *
+ * - Batch size: capped by op count and by encoded bytes. It grows by [ADDITIVE_OPS] after each fast
+ *   response, halves when a response is slower than the latency target, and halves on 429/5xx/IO errors.
+ * - In-flight requests: grow by one after a full round of fast responses and halve on 429/5xx/IO
+ *   errors, never below one.
+ * - 429/5xx also pause sending until Retry-After (or [DEFAULT_BACKOFF_MS]).
+ * - Whether the batch endpoint exists is remembered. A missing endpoint (404/405/501) is re-probed
+ *   only after [endpointRecheckMs], not every sync cycle.
+ *
+ * One instance lives as long as its [HttpRemoteApi], so what it learns carries over between cycles.
+ * Thread-safe.
+ */
+class AdaptiveBatchScheduler(
+    private val maxBatchBytes: Int = DEFAULT_MAX_BATCH_BYTES,
+    private val maxBatchOps: Int = DEFAULT_MAX_BATCH_OPS,
+    initialBatchOps: Int = DEFAULT_INITIAL_BATCH_OPS,
+    private val maxInFlight: Int = DEFAULT_MAX_IN_FLIGHT,
+    initialInFlight: Int = DEFAULT_INITIAL_IN_FLIGHT,
+    private val targetLatencyMs: Long = DEFAULT_TARGET_LATENCY_MS,
+    private val endpointRecheckMs: Long = DEFAULT_ENDPOINT_RECHECK_MS,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+    enum class Endpoint { UNKNOWN, AVAILABLE, UNAVAILABLE }
+
+    data class Snapshot(
+        val batchOps: Int,
+        val inFlight: Int,
+        val endpoint: Endpoint,
+        val backoffRemainingMs: Long
+    )
+
+    private val lock = Any()
+    private var batchOps = initialBatchOps.coerceIn(1, maxBatchOps)
+    private var inFlight = initialInFlight.coerceIn(1, maxInFlight)
+    private var fastResponsesThisRound = 0
+    private var backoffUntil = 0L
+    private var endpoint = Endpoint.UNKNOWN
+    private var endpointMissingSince = 0L
+
+    val currentInFlight: Int get() = synchronized(lock) { inFlight }
+
+    /**
+     * How many ops starting at [from] go into the next request: at most the current batch size and
+     * at most [maxBatchBytes] of encoded ops (but always at least one, even if that one is larger).
+     * [batched] = false (single-op endpoint) always yields 1.
+     */
+    fun nextBatchLength(opBytes: List<Int>, from: Int, until: Int = opBytes.size, batched: Boolean = true): Int {
+        if (from >= until) return 0
+        if (!batched) return 1
+        val cap = synchronized(lock) { batchOps }
+        var count = 0
+        var bytes = 0
+        while (from + count < until && count < cap) {
+            val size = opBytes[from + count]
+            if (count > 0 && bytes + size > maxBatchBytes) break
+            bytes += size
+            count++
+        }
+        return count
+    }
+
+    /**
+     * A request succeeded (2xx, or a definite 4xx answer) after [latencyMs].
+     */
+    fun onResponse(latencyMs: Long) = synchronized(lock) {
+        if (latencyMs > targetLatencyMs) {
+            batchOps = (batchOps / 2).coerceAtLeast(1)
+            fastResponsesThisRound = 0
+            return@synchronized
+        }
+        batchOps = (batchOps + ADDITIVE_OPS).coerceAtMost(maxBatchOps)
+        fastResponsesThisRound++
+        if (fastResponsesThisRound >= inFlight) {
+            inFlight = (inFlight + 1).coerceAtMost(maxInFlight)
+            fastResponsesThisRound = 0
+        }
+    }
+
+    /**
+     * 429, 5xx or an IO failure: back off and cut both batch size and concurrency in half.
+     */
+    fun onCongestion(retryAfterMs: Long?) = synchronized(lock) {
+        batchOps = (batchOps / 2).coerceAtLeast(1)
+        inFlight = (inFlight / 2).coerceAtLeast(1)
+        fastResponsesThisRound = 0
+        val wait = (retryAfterMs ?: DEFAULT_BACKOFF_MS).coerceIn(0L, MAX_BACKOFF_MS)
+        backoffUntil = maxOf(backoffUntil, clock() + wait)
+    }
+
+    fun backoffRemainingMs(): Long = synchronized(lock) { (backoffUntil - clock()).coerceAtLeast(0L) }
+
+    /**
+     * False while the batch endpoint is known to be missing and not yet due for a re-probe.
+     */
+    fun useBatchEndpoint(): Boolean = synchronized(lock) {
+        endpoint != Endpoint.UNAVAILABLE || clock() - endpointMissingSince >= endpointRecheckMs
+    }
+
+    fun onBatchEndpointAvailable() = synchronized(lock) {
+        endpoint = Endpoint.AVAILABLE
+    }
+
+    fun onBatchEndpointMissing() = synchronized(lock) {
+        endpoint = Endpoint.UNAVAILABLE
+        endpointMissingSince = clock()
+    }
+
+    fun snapshot(): Snapshot = synchronized(lock) {
+        Snapshot(
+            batchOps = batchOps,
+            inFlight = inFlight,
+            endpoint = endpoint,
+            backoffRemainingMs = (backoffUntil - clock()).coerceAtLeast(0L)
+        )
+    }
+
+    companion object {
+        // Edge functions accept a few MB; stay well under so a slow uplink still finishes in time.
+        const val DEFAULT_MAX_BATCH_BYTES = 256 * 1024
+        const val DEFAULT_MAX_BATCH_OPS = 200
+        const val DEFAULT_INITIAL_BATCH_OPS = 20
+        const val DEFAULT_MAX_IN_FLIGHT = 8
+        const val DEFAULT_INITIAL_IN_FLIGHT = 2
+        const val DEFAULT_TARGET_LATENCY_MS = 2_000L
+        const val DEFAULT_ENDPOINT_RECHECK_MS = 10 * 60_000L
+        const val DEFAULT_BACKOFF_MS = 500L
+        const val MAX_BACKOFF_MS = 30_000L
+        const val ADDITIVE_OPS = 5
+    }
+}
@@ -4,6 +4,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.withContext
 import okhttp3.ConnectionPool
 import okhttp3.MediaType.Companion.toMediaType
@@ -11,24 +12,26 @@ import okhttp3.OkHttpClient
 import okhttp3.Protocol
 import okhttp3.Request
 import okhttp3.RequestBody.Companion.toRequestBody
-import org.json.JSONArray
+import okhttp3.Response
 import org.json.JSONObject
 import java.util.concurrent.TimeUnit
 
 /**
  * Real backend wiring - OPTIMIZED FOR SPEED:
  * - Uses singleton OkHttpClient with connection pooling
- * - Supports batch sync (multiple ops in one request)
- * - Parallel processing of individual ops when batching not available
+ * - Supports batch sync (multiple ops in one request), sized by [AdaptiveBatchScheduler]
+ * - Streams batch bodies as gzip-compressed NDJSON ([SyncBatchBody]); plain JSON once the server answers 415
+ * - Falls back to concurrent single-op requests while the batch endpoint is missing
  * - Uses opId as idempotency key.
  *
  * Expected backend contract:
  * - Single op: POST {baseUrl}/sync/apply with SyncEnvelope
- * - Batch ops: POST {baseUrl}/sync/apply-batch with { ops: SyncEnvelope[] }
+ * - Batch ops: POST {baseUrl}/sync/apply-batch with one op per NDJSON line (gzip), or { ops: SyncEnvelope[] }
  */
 class HttpRemoteApi(
     private val baseUrl: String,
-    private val apiKey: String?
+    private val apiKey: String?,
+    private val scheduler: AdaptiveBatchScheduler = AdaptiveBatchScheduler()
 ) : RemoteApi {
     
     companion object {
@@ -53,27 +56,60 @@ class HttpRemoteApi(
                 .retryOnConnectionFailure(true)
                 .build()
         }
-        
-        // Maximum concurrent requests for parallel sync
-        private const val MAX_PARALLEL_REQUESTS = 5
-        
-        // Batch size for batch sync endpoint
-        private const val BATCH_SIZE = 20
+
+        // A request slice hit by 429/5xx/IO errors is re-sent (re-split to the shrunk batch size)
+        // this many times before its ops are reported failed.
+        private const val MAX_ATTEMPTS = 3
+    }
+
+    /**
+     * Ops (by index into the current applyBatch call) sent together, [attempts] times so far.
+     */
+    private data class Slice(val indices: List<Int>, val attempts: Int)
+
+    private sealed interface Outcome {
+        // One result per op in the slice.
+        data class Answered(val results: List<RemoteResult>) : Outcome
+        // Batch endpoint absent (404/405/501) or not speaking the batch protocol.
+        data object NoBatchEndpoint : Outcome
+        // 415 for the streamed body: resend the slice as plain JSON.
+        data object FormatRejected : Outcome
+        // 429, 5xx or IO failure: worth retrying after backing off.
+        data class Congested(val message: String, val retryAfterMs: Long?) : Outcome
     }
 
     override suspend fun apply(envelope: SyncEnvelope, request: RemoteRequestPreview): RemoteResult {
         if (baseUrl.isBlank()) return RemoteResult(false, "Backend not configured (baseUrl empty)")
         return withContext(Dispatchers.IO) {
-            applySingle(envelope, request)
+            when (val outcome = sendSingle(envelope, request)) {
+                is Outcome.Answered -> outcome.results.first()
+                is Outcome.Congested -> RemoteResult(false, outcome.message)
+                Outcome.NoBatchEndpoint, Outcome.FormatRejected -> RemoteResult(false, "HTTP error")
+            }
         }
     }
+
+    // Downgraded to JSON for the life of this instance once the server rejects NDJSON/gzip.
+    @Volatile
+    private var batchFormat = SyncBatchBody.Format.NDJSON_GZIP
+
+    fun schedulerSnapshot(): AdaptiveBatchScheduler.Snapshot = scheduler.snapshot()
     
     /**
-     * Batch apply multiple sync operations in a single HTTP request.
-     * Falls back to parallel individual requests if batch endpoint fails.
+     * Apply [envelopes] and return one result per envelope, in input order.
+     *
+     * Requests go out in waves of [AdaptiveBatchScheduler.currentInFlight]. Each batch is capped by op
+     * count and encoded bytes; congested slices are re-queued at the front and re-split to the
+     * (now smaller) batch size.
+     *
+     * With a [graph], an op is sent only once all its prerequisites were applied, so independent
+     * chains go out in parallel and nothing reaches the server before what it depends on (the batch
+     * endpoint applies a batch's ops concurrently, so dependents never share a batch with their
+     * prerequisites). Ops whose prerequisite failed are returned as [RemoteResult.skipped].
      */
     suspend fun applyBatch(
-        envelopes: List<Pair<SyncEnvelope, RemoteRequestPreview>>
+        envelopes: List<Pair<SyncEnvelope, RemoteRequestPreview>>,
+        graph: SyncDependencyGraph? = null
     ): List<RemoteResult> = withContext(Dispatchers.IO) {
         if (baseUrl.isBlank()) {
             return@withContext envelopes.map { 
@@ -82,100 +118,154 @@ class HttpRemoteApi(
         }
         
         if (envelopes.isEmpty()) return@withContext emptyList()
-        
-        // Try batch endpoint first
-        val batchResult = tryBatchApply(envelopes)
-        if (batchResult != null) return@withContext batchResult
-        
-        // Fallback: parallel individual requests
-        applyParallel(envelopes)
+
+        // Sizes only; bodies are streamed from the envelopes when each request is written.
+        val opBytes = envelopes.map { (envelope, preview) -> SyncBatchBody.encodedSize(envelope, preview) }
+        val results = arrayOfNulls<RemoteResult>(envelopes.size)
+        // Handed to a slice (in flight or waiting for a retry).
+        val taken = BooleanArray(envelopes.size)
+        val retries = ArrayDeque<Slice>()
+
+        coroutineScope {
+            while (results.any { it == null }) {
+                scheduler.backoffRemainingMs().takeIf { it > 0 }?.let { delay(it) }
+                val batched = scheduler.useBatchEndpoint()
+
+                // Ops whose prerequisites are all applied. Prerequisites have lower indexes, so one
+                // forward sweep also propagates skips down a chain.
+                val ready = mutableListOf<Int>()
+                for (i in envelopes.indices) {
+                    if (results[i] != null || taken[i]) continue
+                    val prerequisites = graph?.prerequisitesOf(i)
+                    when {
+                        prerequisites == null || prerequisites.all { results[it]?.ok == true } -> ready += i
+                        prerequisites.any { results[it]?.let { r -> !r.ok } == true } ->
+                            results[i] = RemoteResult(false, "Waiting on a failed earlier change", skipped = true)
+                    }
+                }
+
+                val wave = mutableListOf<Slice>()
+                var nextReady = 0
+                while (wave.size < scheduler.currentInFlight) {
+                    val slice = takeRetry(retries, opBytes, batched) ?: run {
+                        if (nextReady >= ready.size) return@run null
+                        val pending = ready.subList(nextReady, ready.size)
+                        val count = scheduler.nextBatchLength(pending.map { opBytes[it] }, 0, batched = batched)
+                        Slice(pending.take(count), attempts = 0).also { nextReady += count }
+                    } ?: break
+                    slice.indices.forEach { taken[it] = true }
+                    wave += slice
+                }
+                if (wave.isEmpty()) break
+
+                val outcomes = wave.map { slice ->
+                    async(Dispatchers.IO) {
+                        slice to if (batched) {
+                            sendBatch(slice.indices.map { envelopes[it] })
+                        } else {
+                            val (envelope, preview) = envelopes[slice.indices.first()]
+                            sendSingle(envelope, preview)
+                        }
+                    }
+                }.awaitAll()
+
+                val requeue = mutableListOf<Slice>()
+                for ((slice, outcome) in outcomes) {
+                    when (outcome) {
+                        is Outcome.Answered -> outcome.results.forEachIndexed { i, r -> results[slice.indices[i]] = r }
+                        Outcome.NoBatchEndpoint -> {
+                            scheduler.onBatchEndpointMissing()
+                            requeue += slice
+                        }
+                        Outcome.FormatRejected -> requeue += slice
+                        is Outcome.Congested -> {
+                            scheduler.onCongestion(outcome.retryAfterMs)
+                            if (slice.attempts + 1 >= MAX_ATTEMPTS) {
+                                slice.indices.forEach { results[it] = RemoteResult(false, outcome.message) }
+                            } else {
+                                requeue += slice.copy(attempts = slice.attempts + 1)
+                            }
+                        }
+                    }
+                }
+                retries.addAll(0, requeue)
+            }
+        }
+
+        results.map { it ?: RemoteResult(false, "Not sent") }
     }
-    
+
     /**
-     * Try to send all ops in a single batch request.
-     * Returns null if batch endpoint is not available.
+     * Next re-queued slice, trimmed to what the scheduler allows now (the rest stays queued).
      */
-    private fun tryBatchApply(
-        envelopes: List<Pair<SyncEnvelope, RemoteRequestPreview>>
-    ): List<RemoteResult>? {
+    private fun takeRetry(queue: ArrayDeque<Slice>, opBytes: List<Int>, batched: Boolean): Slice? {
+        val slice = queue.removeFirstOrNull() ?: return null
+        val count = scheduler.nextBatchLength(slice.indices.map { opBytes[it] }, 0, batched = batched)
+        if (count < slice.indices.size) queue.addFirst(slice.copy(indices = slice.indices.drop(count)))
+        return slice.copy(indices = slice.indices.take(count))
+    }
+
+    /**
+     * One batch request. The response must carry exactly one result per op.
+     */
+    private fun sendBatch(ops: List<Pair<SyncEnvelope, RemoteRequestPreview>>): Outcome {
         val batchUrl = "${baseUrl.trim().removeSuffix("/")}-batch"
-        
-        // Build batch payload
-        val opsArray = JSONArray()
-        envelopes.forEach { (envelope, preview) ->
-            opsArray.put(JSONObject().apply {
-                put("envelope", envelope.toJson())
-                put("preview", JSONObject().apply {
-                    put("method", preview.method)
-                    put("path", preview.path)
-                })
-            })
-        }
-        
-        val batchBody = JSONObject().apply {
-            put("ops", opsArray)
-        }
-        
+        val body = SyncBatchBody(ops, batchFormat)
+
         val req = Request.Builder()
             .url(batchUrl)
-            .post(batchBody.toString().toRequestBody(json))
-            .header("Content-Type", "application/json")
-            .header("X-Batch-Count", envelopes.size.toString())
-            .apply {
-                val k = apiKey?.trim()
-                if (!k.isNullOrBlank()) {
-                    header("apikey", k)
-                    header("Authorization", "Bearer $k")
-                }
-            }
+            .post(body)
+            .header("X-Batch-Count", ops.size.toString())
+            .apply { if (body.format.gzip) header("Content-Encoding", "gzip") }
+            .withApiKey()
             .build()
-        
+
+        val startedAt = System.nanoTime()
         return try {
             sharedClient.newCall(req).execute().use { resp ->
-                if (!resp.isSuccessful) {
-                    // Batch endpoint not available or failed, return null to fallback
-                    return null
-                }
-                
-                val responseBody = resp.body?.string() ?: return null
-                val json = JSONObject(responseBody)
-                val results = json.optJSONArray("results") ?: return null
-                
-                // Parse individual results
-                (0 until results.length()).map { i ->
-                    val result = results.getJSONObject(i)
-                    RemoteResult(
-                        ok = result.optBoolean("ok", false),
-                        message = result.optString("message", "")
-                    )
+                val latencyMs = (System.nanoTime() - startedAt) / 1_000_000
+                when {
+                    resp.code == 404 || resp.code == 405 || resp.code == 501 -> Outcome.NoBatchEndpoint
+                    resp.code == 415 && body.format != SyncBatchBody.Format.JSON -> {
+                        batchFormat = SyncBatchBody.Format.JSON
+                        Outcome.FormatRejected
+                    }
+                    resp.isCongested() -> congested(resp)
+                    !resp.isSuccessful -> {
+                        // A definite answer (e.g. 400/401): every op in the slice fails with it.
+                        scheduler.onResponse(latencyMs)
+                        val text = resp.body?.string()
+                        val message = "HTTP ${resp.code} ${resp.message}${if (text.isNullOrBlank()) "" else ": $text"}"
+                        Outcome.Answered(ops.map { RemoteResult(false, message) })
+                    }
+                    else -> {
+                        val results = resp.body?.string()
+                            ?.let { runCatching { JSONObject(it).optJSONArray("results") }.getOrNull() }
+                            ?.takeIf { it.length() == ops.size }
+                            ?: return Outcome.NoBatchEndpoint
+                        scheduler.onResponse(latencyMs)
+                        scheduler.onBatchEndpointAvailable()
+                        Outcome.Answered(
+                            (0 until results.length()).map { i ->
+                                val result = results.optJSONObject(i)
+                                RemoteResult(
+                                    ok = result?.optBoolean("ok", false) ?: false,
+                                    message = result?.optString("message", "") ?: ""
+                                )
+                            }
+                        )
+                    }
                 }
             }
         } catch (e: Exception) {
-            // Batch endpoint failed, return null to fallback
-            null
-        }
-    }
-    
-    /**
-     * Apply ops in parallel with limited concurrency.
-     */
-    private suspend fun applyParallel(
-        envelopes: List<Pair<SyncEnvelope, RemoteRequestPreview>>
-    ): List<RemoteResult> = coroutineScope {
-        // Process in chunks to limit concurrent connections
-        envelopes.chunked(MAX_PARALLEL_REQUESTS).flatMap { chunk ->
-            chunk.map { (envelope, preview) ->
-                async(Dispatchers.IO) {
-                    applySingle(envelope, preview)
-                }
-            }.awaitAll()
+            Outcome.Congested("HTTP error: ${e.message ?: e.javaClass.simpleName}", retryAfterMs = null)
         }
     }
     
     /**
      * Apply a single sync operation.
      */
-    private fun applySingle(envelope: SyncEnvelope, request: RemoteRequestPreview): RemoteResult {
+    private fun sendSingle(envelope: SyncEnvelope, request: RemoteRequestPreview): Outcome {
         val url = baseUrl.trim()
         val bodyStr = envelope.toJson().toString()
 
@@ -187,28 +277,40 @@ class HttpRemoteApi(
             .header("X-Device-Id", envelope.deviceId)
             .header("X-Preview-Method", request.method)
             .header("X-Preview-Path", request.path)
-            .apply {
-                val k = apiKey?.trim()
-                if (!k.isNullOrBlank()) {
-                    header("apikey", k)
-                    header("Authorization", "Bearer $k")
-                }
-            }
+            .withApiKey()
             .build()
 
+        val startedAt = System.nanoTime()
         return try {
             sharedClient.newCall(req).execute().use { resp ->
+                if (resp.isCongested()) return congested(resp)
+                scheduler.onResponse((System.nanoTime() - startedAt) / 1_000_000)
                 val text = resp.body?.string()
-                if (resp.isSuccessful) {
+                val result = if (resp.isSuccessful) {
                     RemoteResult(true, "HTTP ${resp.code} ${resp.message}")
                 } else {
                     RemoteResult(false, "HTTP ${resp.code} ${resp.message}${if (text.isNullOrBlank()) "" else ": $text"}")
                 }
+                Outcome.Answered(listOf(result))
             }
         } catch (e: Exception) {
-            RemoteResult(false, "HTTP error: ${e.message ?: e.javaClass.simpleName}")
+            Outcome.Congested("HTTP error: ${e.message ?: e.javaClass.simpleName}", retryAfterMs = null)
         }
     }
-}
 
+    private fun Response.isCongested(): Boolean = code == 429 || (code >= 500 && code != 501)
+
+    private fun congested(resp: Response): Outcome.Congested {
+        // Retry-After in seconds (the HTTP-date form is rare from edge functions and ignored).
+        val retryAfterMs = resp.header("Retry-After")?.trim()?.toLongOrNull()?.times(1_000)
+        return Outcome.Congested("HTTP ${resp.code} ${resp.message}", retryAfterMs)
+    }
 
+    private fun Request.Builder.withApiKey(): Request.Builder = apply {
+        val k = apiKey?.trim()
+        if (!k.isNullOrBlank()) {
+            header("apikey", k)
+            header("Authorization", "Bearer $k")
+        }
+    }
+}
@@ -11,28 +11,25 @@ import org.json.JSONObject
  * - Coerce basic types (Int/Double/String/Boolean)
  * - Strip nulls to keep payload clean
  * - Add local IDs where appropriate (so backend can de-dupe / map)
+ *
+ * Never mutates [PendingSyncOp.payload]: it is shared with the envelope (see [OutboxCodec.Decoded]).
  */
 object OutboxCanonicalizer {
     fun canonicalBody(op: PendingSyncOp): JSONObject? {
         val p = op.payload
         return when (op.entityType) {
             SyncEntityType.ITEM -> when (op.op) {
-                SyncOpType.UPSERT -> json(
-                    "id" to (op.entityId?.toIntOrNull() ?: p?.optIntOrNull("id")),
-                    "name" to p?.optString("name"),
-                    "category" to p?.optString("category"),
-                    "price" to p?.optDoubleOrNull("price"),
-                    "costPrice" to p?.optDoubleOrNull("costPrice"),
-                    "stock" to p?.optIntOrNull("stock"),
-                    "gstPercentage" to p?.optDoubleOrNull("gstPercentage"),
-                    "reorderPoint" to (p?.optIntOrNull("reorderPoint") ?: 10),
-                    "vendorId" to p?.optIntOrNull("vendorId"),
-                    "rackLocation" to p?.optStringOrNull("rackLocation"),
-                    "barcode" to p?.optStringOrNull("barcode"),
-                    "imageUri" to p?.optStringOrNull("imageUri"),
-                    "expiryDateMillis" to p?.optLongOrNull("expiryDateMillis")
-                )
-                else -> p?.stripNulls()
+                SyncOpType.UPSERT -> canonicalItem(op.entityId?.toIntOrNull() ?: p?.optIntOrNull("id"), p)
+                SyncOpType.UPSERT_MANY -> {
+                    val src = p?.optJSONArray("items") ?: JSONArray()
+                    val items = JSONArray()
+                    for (i in 0 until src.length()) {
+                        val o = src.optJSONObject(i) ?: continue
+                        items.put(canonicalItem(o.optIntOrNull("id"), o))
+                    }
+                    json("items" to items)
+                }
+                else -> p?.withoutNulls()
             }
 
             SyncEntityType.PARTY -> when (op.op) {
@@ -60,7 +57,7 @@ object OutboxCanonicalizer {
                     "gstNumber" to p?.optStringOrNull("gstNumber"),
                     "balance" to 0.0
                 )
-                else -> p?.stripNulls()
+                else -> p?.withoutNulls()
             }
 
             SyncEntityType.TRANSACTION -> when (op.op) {
@@ -73,22 +70,38 @@ object OutboxCanonicalizer {
                         "paymentMode" to p?.optString("paymentMode"),
                         "customerId" to p?.optIntOrNull("customerId"),
                         "amount" to p?.optDoubleOrNull("amount"),
-                        "items" to items
+                        "items" to items,
+                        "updatedAt" to p?.optLongOrNull("updatedAt")
+                    )
+                }
+                // type/paymentMode/customerId/vendorId/note/updatedAt are the kf_transactions columns
+                // the shop's other devices pull the transaction back from.
+                SyncOpType.CREATE_PAYMENT -> {
+                    val isVendor = p?.optString("partyType") == "VENDOR"
+                    val partyId = p?.optIntOrNull("partyId")
+                    json(
+                        "localId" to op.entityId,
+                        "partyId" to partyId,
+                        "partyType" to p?.optString("partyType"),
+                        "amount" to p?.optDoubleOrNull("amount"),
+                        "mode" to p?.optString("mode"),
+                        "type" to if (isVendor) "EXPENSE" else "INCOME",
+                        "paymentMode" to p?.optString("mode"),
+                        "customerId" to if (isVendor) null else partyId,
+                        "vendorId" to if (isVendor) partyId else null,
+                        "note" to p?.optStringOrNull("note"),
+                        "updatedAt" to p?.optLongOrNull("updatedAt")
                     )
                 }
-                SyncOpType.CREATE_PAYMENT -> json(
-                    "localId" to op.entityId,
-                    "partyId" to p?.optIntOrNull("partyId"),
-                    "partyType" to p?.optString("partyType"),
-                    "amount" to p?.optDoubleOrNull("amount"),
-                    "mode" to p?.optString("mode")
-                )
                 SyncOpType.CREATE_VENDOR_PURCHASE -> json(
                     "localId" to op.entityId,
                     "vendorId" to p?.optIntOrNull("vendorId"),
                     "amount" to p?.optDoubleOrNull("amount"),
                     "mode" to p?.optString("mode"),
-                    "note" to p?.optStringOrNull("note")
+                    "note" to p?.optStringOrNull("note"),
+                    "type" to "EXPENSE",
+                    "paymentMode" to p?.optString("mode"),
+                    "updatedAt" to p?.optLongOrNull("updatedAt")
                 )
                 SyncOpType.CREATE_EXPENSE -> json(
                     "localId" to op.entityId,
@@ -96,10 +109,14 @@ object OutboxCanonicalizer {
                     "mode" to p?.optString("mode"),
                     "vendorId" to p?.optIntOrNull("vendorId"),
                     "category" to p?.optStringOrNull("category"),
-                    "description" to p?.optStringOrNull("description")
+                    "description" to p?.optStringOrNull("description"),
+                    "type" to "EXPENSE",
+                    "paymentMode" to p?.optString("mode"),
+                    "note" to p?.optStringOrNull("note"),
+                    "updatedAt" to p?.optLongOrNull("updatedAt")
                 )
-                SyncOpType.UPSERT -> p?.stripNulls()
-                else -> p?.stripNulls()
+                SyncOpType.UPSERT -> p?.withoutNulls()
+                else -> p?.withoutNulls()
             }
 
             SyncEntityType.TRANSACTION_ITEM -> when (op.op) {
@@ -110,7 +127,7 @@ object OutboxCanonicalizer {
                         "items" to items
                     )
                 }
-                else -> p?.stripNulls()
+                else -> p?.withoutNulls()
             }
 
             SyncEntityType.REMINDER -> when (op.op) {
@@ -125,11 +142,28 @@ object OutboxCanonicalizer {
                 SyncOpType.MARK_DONE -> json(
                     "id" to (op.entityId ?: p?.optStringOrNull("id"))
                 )
-                else -> p?.stripNulls()
+                else -> p?.withoutNulls()
             }
         }?.stripNulls()
     }
 
+    private fun canonicalItem(id: Int?, p: JSONObject?): JSONObject = json(
+        "id" to id,
+        "name" to p?.optString("name"),
+        "category" to p?.optString("category"),
+        "price" to p?.optDoubleOrNull("price"),
+        "costPrice" to p?.optDoubleOrNull("costPrice"),
+        "stock" to p?.optIntOrNull("stock"),
+        "stockDelta" to p?.optDoubleOrNull("stockDelta"),
+        "gstPercentage" to p?.optDoubleOrNull("gstPercentage"),
+        "reorderPoint" to (p?.optIntOrNull("reorderPoint") ?: 10),
+        "vendorId" to p?.optIntOrNull("vendorId"),
+        "rackLocation" to p?.optStringOrNull("rackLocation"),
+        "barcode" to p?.optStringOrNull("barcode"),
+        "imageUri" to p?.optStringOrNull("imageUri"),
+        "expiryDateMillis" to p?.optLongOrNull("expiryDateMillis")
+    )
+
     private fun json(vararg kv: Pair<String, Any?>): JSONObject {
         val o = JSONObject()
         kv.forEach { (k, v) ->
@@ -171,6 +205,32 @@ object OutboxCanonicalizer {
         return this
     }
 
+    // Pass-through bodies: a null-free copy, leaving the op's payload as it was.
+    private fun JSONObject.withoutNulls(): JSONObject {
+        val o = JSONObject()
+        for (k in keys()) {
+            when (val v = opt(k)) {
+                null, JSONObject.NULL -> Unit
+                is JSONObject -> o.put(k, v.withoutNulls())
+                is JSONArray -> o.put(k, v.withoutNullsDeep())
+                else -> o.put(k, v)
+            }
+        }
+        return o
+    }
+
+    private fun JSONArray.withoutNullsDeep(): JSONArray {
+        val arr = JSONArray()
+        for (i in 0 until length()) {
+            when (val v = opt(i)) {
+                is JSONObject -> arr.put(v.withoutNulls())
+                is JSONArray -> arr.put(v.withoutNullsDeep())
+                else -> arr.put(v)
+            }
+        }
+        return arr
+    }
+
     private fun JSONArray.stripNullsDeep(): JSONArray {
         for (i in 0 until length()) {
             val v = opt(i)
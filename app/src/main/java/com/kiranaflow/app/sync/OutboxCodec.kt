@@ -1,28 +1,53 @@
 package com.kiranaflow.app.sync
 
 import com.kiranaflow.app.data.local.OutboxEntity
-import org.json.JSONObject
 
 /**
  * Encodes/decodes outbox entries to typed ops + wire envelopes.
  *
- * This keeps the rest of the app from having to parse JSON strings manually.
+ * This keeps the rest of the app from having to parse payloads manually.
+ *
+ * Each row is decoded once into a [Decoded] and cached by opId: a row's opId changes whenever its
+ * payload does (new rows get a fresh UUID, compaction rewrites both together), so a retry of the
+ * same row reuses the decoded op and its canonical preview instead of decoding again.
  */
 object OutboxCodec {
-    fun decode(entry: OutboxEntity): PendingSyncOp {
-        val entityType = SyncEntityType.valueOf(entry.entityType)
-        val op = SyncOpType.valueOf(entry.op)
-        val body = entry.payloadJson?.trim()?.takeIf { it.isNotBlank() }?.let { JSONObject(it) }
-        return PendingSyncOp(
-            entityType = entityType,
-            entityId = entry.entityId,
-            op = op,
-            payload = body
+    /**
+     * The typed op of one outbox row. [preview] (canonical body + route) is computed on first use.
+     * [PendingSyncOp.payload] is shared between callers and must not be mutated.
+     *
+     * The payload stays a JSONObject rather than a per-op DTO. Both of its readers need that tree:
+     * the envelope body is sent as JSON, and [OutboxCanonicalizer] builds JSON, passing many bodies
+     * through as they are. A DTO would only add a DTO -> JSON step to every send.
+     */
+    class Decoded(val op: PendingSyncOp) {
+        val preview: RemoteRequestPreview by lazy { OutboxDispatcher.preview(op) }
+    }
+
+    // Two drain pages' worth, so a retry pass over a failed page still hits.
+    private const val CACHE_ENTRIES = 400
+
+    private val cache = object : LinkedHashMap<String, Decoded>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Decoded>?): Boolean = size > CACHE_ENTRIES
+    }
+
+    fun decoded(entry: OutboxEntity): Decoded {
+        synchronized(cache) { cache[entry.opId] }?.let { return it }
+        val decoded = Decoded(
+            PendingSyncOp(
+                entityType = SyncEntityType.valueOf(entry.entityType),
+                entityId = entry.entityId,
+                op = SyncOpType.valueOf(entry.op),
+                payload = entry.payload?.let(OutboxPayloadFormat::decode)
+            )
         )
+        synchronized(cache) { cache[entry.opId] = decoded }
+        return decoded
     }
 
+    fun decode(entry: OutboxEntity): PendingSyncOp = decoded(entry).op
+
     fun toEnvelope(entry: OutboxEntity, deviceId: String, sentAtMillis: Long = System.currentTimeMillis()): SyncEnvelope {
-        val body = entry.payloadJson?.trim()?.takeIf { it.isNotBlank() }?.let { JSONObject(it) }
         return SyncEnvelope(
             apiVersion = 1,
             deviceId = deviceId,
@@ -31,17 +56,7 @@ object OutboxCodec {
             entityType = entry.entityType,
             entityId = entry.entityId,
             op = entry.op,
-            body = body
+            body = decoded(entry).op.payload
         )
     }
 }
-
-
-
-
-
-
-
-
-
-
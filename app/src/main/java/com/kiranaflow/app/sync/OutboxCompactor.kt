@@ -0,0 +1,188 @@
+package com.kiranaflow.app.sync
+
+import com.kiranaflow.app.data.local.OutboxEntity
+import org.json.JSONArray
+
+/**
+ * Coalesces a window of pending outbox entries before they are decoded and dispatched.
+ *
+ * Rules (per (entityType, entityId)):
+ * - successive UPSERT / UPSERT_CUSTOMER / UPSERT_VENDOR of the same op merge into one: the row keeps the
+ *   slot (queue position) of the first and takes the payload + opId of the last, so the entity still
+ *   exists on the server before anything that was queued after its first write; an item's
+ *   `stockDelta` is the sum of the merged ones (the other phones apply it as a change)
+ * - a DELETE drops the UPSERTs queued before it
+ * - TRANSACTION_ITEM UPSERT_MANY is folded into the CREATE_SALE of the same transaction
+ * - any other op on the key is a barrier: nothing merges across it
+ * - so is any op whose body refers to the key ([SyncDependencyGraph.referencedKeys], e.g. a sale's
+ *   `items[].itemId`) or bulk-writes it: the item must still be created before that sale, so a later
+ *   DELETE only drops the UPSERTs queued after the last such op
+ *
+ * Only entries that were never attempted are touched. An attempted entry may already be applied
+ * on the server under its opId, so rewriting or dropping it would break idempotent retries.
+ * Merged rows take the opId of the newest entry they absorbed, which the server has not seen either.
+ */
+object OutboxCompactor {
+    data class Stats(
+        val before: Int,
+        val after: Int
+    ) {
+        // before/after; 1.0 = nothing merged.
+        val ratio: Double get() = if (after == 0) 1.0 else before.toDouble() / after
+        val merged: Int get() = before - after
+    }
+
+    data class Plan(
+        // What to dispatch, in queue order.
+        val entries: List<OutboxEntity>,
+        // Kept rows whose opId/payload changed; must be persisted before dispatch.
+        val rewritten: List<OutboxEntity>,
+        // Rows absorbed into (or superseded by) another; deleted with the rewrite.
+        val retiredIds: List<Int>,
+        val stats: Stats
+    ) {
+        val isNoop: Boolean get() = retiredIds.isEmpty()
+    }
+
+    private val UPSERT_OPS = setOf(
+        SyncOpType.UPSERT.name,
+        SyncOpType.UPSERT_CUSTOMER.name,
+        SyncOpType.UPSERT_VENDOR.name
+    )
+
+    fun plan(entries: List<OutboxEntity>): Plan {
+        val slots = ArrayList<OutboxEntity?>(entries.size)
+        val rewritten = HashSet<Int>() // slot indexes
+        val retired = ArrayList<Int>()
+        // (entityType, entityId, op) -> slot of the UPSERT new writes merge into
+        val upsertSlots = HashMap<Triple<String, String, String>, Int>()
+        // transaction entityId -> slot of its CREATE_SALE
+        val saleSlots = HashMap<String, Int>()
+
+        fun barrier(entityType: String, entityId: String) {
+            upsertSlots.keys.removeAll { it.first == entityType && it.second == entityId }
+            if (entityType == SyncEntityType.TRANSACTION.name) saleSlots.remove(entityId)
+        }
+
+        for (e in entries) {
+            if (upsertSlots.isNotEmpty()) {
+                for (key in bodyKeys(e)) {
+                    val (type, keyId) = key.split(':', limit = 2)
+                    if (type != e.entityType || keyId != e.entityId) barrier(type, keyId)
+                }
+            }
+            val id = e.entityId
+            if (id == null) {
+                slots += e
+                continue
+            }
+            if (!isUnsent(e)) {
+                barrier(e.entityType, id)
+                slots += e
+                continue
+            }
+
+            when {
+                e.op in UPSERT_OPS -> {
+                    val key = Triple(e.entityType, id, e.op)
+                    val slot = upsertSlots[key]
+                    val payload = slot?.let { mergedPayload(slots[it]!!, e) }
+                    if (slot != null && payload != null) {
+                        slots[slot] = slots[slot]!!.copy(opId = e.opId, payload = payload)
+                        rewritten += slot
+                        retired += e.id
+                    } else {
+                        // A different upsert op on the key (e.g. UPSERT after UPSERT_CUSTOMER) must stay ordered.
+                        barrier(e.entityType, id)
+                        upsertSlots[key] = slots.size
+                        slots += e
+                    }
+                }
+
+                e.op == SyncOpType.DELETE.name -> {
+                    upsertSlots.entries
+                        .filter { it.key.first == e.entityType && it.key.second == id }
+                        .forEach { (_, slot) ->
+                            retired += slots[slot]!!.id
+                            slots[slot] = null
+                            rewritten -= slot
+                        }
+                    barrier(e.entityType, id)
+                    slots += e
+                }
+
+                e.entityType == SyncEntityType.TRANSACTION.name && e.op == SyncOpType.CREATE_SALE.name -> {
+                    barrier(e.entityType, id)
+                    saleSlots[id] = slots.size
+                    slots += e
+                }
+
+                e.entityType == SyncEntityType.TRANSACTION_ITEM.name && e.op == SyncOpType.UPSERT_MANY.name -> {
+                    val slot = saleSlots[id]
+                    val folded = slot?.let { foldLineItems(slots[it]!!, e) }
+                    if (slot != null && folded != null) {
+                        slots[slot] = folded
+                        rewritten += slot
+                        retired += e.id
+                    } else {
+                        slots += e
+                    }
+                }
+
+                else -> {
+                    barrier(e.entityType, id)
+                    slots += e
+                }
+            }
+        }
+
+        val kept = slots.filterNotNull()
+        return Plan(
+            entries = kept,
+            rewritten = rewritten.sorted().mapNotNull { slots[it] },
+            retiredIds = retired,
+            stats = Stats(before = entries.size, after = kept.size)
+        )
+    }
+
+    private fun isUnsent(e: OutboxEntity): Boolean = e.status == "PENDING" && e.lastAttemptAtMillis == null
+
+    // `TYPE:id` keys the body reads or bulk-writes; empty when the payload is unreadable.
+    private fun bodyKeys(e: OutboxEntity): Set<String> {
+        val body = runCatching { OutboxPayloadFormat.decode(e.payload ?: return emptySet()) }.getOrNull()
+            ?: return emptySet()
+        val written = if (e.op == SyncOpType.UPSERT_MANY.name) {
+            SyncDependencyGraph.writtenKeys(e.entityType, e.entityId, e.op, body)
+        } else {
+            emptySet()
+        }
+        return SyncDependencyGraph.referencedKeys(body) + written
+    }
+
+    /**
+     * Payload of [older] merged into by [newer]: the newer one, carrying the summed `stockDelta` of
+     * both for items. Null when an item payload is unreadable (the two are then not merged).
+     */
+    private fun mergedPayload(older: OutboxEntity, newer: OutboxEntity): ByteArray? {
+        if (newer.entityType != SyncEntityType.ITEM.name) return newer.payload
+        return runCatching {
+            val before = OutboxPayloadFormat.decode(older.payload ?: return null).optDouble("stockDelta", 0.0)
+            val after = OutboxPayloadFormat.decode(newer.payload ?: return null)
+            if (before == 0.0) return newer.payload
+            after.put("stockDelta", before + after.optDouble("stockDelta", 0.0))
+            OutboxPayloadFormat.encode(after)
+        }.getOrNull()
+    }
+
+    /**
+     * Append the lines of a TRANSACTION_ITEM UPSERT_MANY to the `items` of its CREATE_SALE.
+     * Null when either payload is unreadable (the two are then dispatched as they are).
+     */
+    private fun foldLineItems(sale: OutboxEntity, lines: OutboxEntity): OutboxEntity? = runCatching {
+        val salePayload = OutboxPayloadFormat.decode(sale.payload ?: return null)
+        val extra = OutboxPayloadFormat.decode(lines.payload ?: return null).optJSONArray("items") ?: return null
+        val items = salePayload.optJSONArray("items") ?: JSONArray().also { salePayload.put("items", it) }
+        for (i in 0 until extra.length()) items.put(extra.get(i))
+        sale.copy(opId = lines.opId, payload = OutboxPayloadFormat.encode(salePayload))
+    }.getOrNull()
+}
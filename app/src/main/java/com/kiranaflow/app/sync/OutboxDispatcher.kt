@@ -28,6 +28,8 @@ object OutboxDispatcher {
                     RemoteRequestPreview("PUT", "$base/items/${op.entityId}", body)
                 SyncOpType.DELETE ->
                     RemoteRequestPreview("DELETE", "$base/items/${op.entityId ?: op.payload?.opt("id")}", null)
+                SyncOpType.UPSERT_MANY ->
+                    RemoteRequestPreview("POST", "$base/items/_bulk", body)
                 else ->
                     RemoteRequestPreview("POST", "$base/items/_unsupported_${op.op.name.lowercase()}", body)
             }
@@ -0,0 +1,201 @@
+package com.kiranaflow.app.sync
+
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.ByteArrayOutputStream
+
+/**
+ * Compact binary form of outbox payloads (`outbox.payload` BLOB).
+ *
+ * Layout: one version byte, then one tagged value. Numbers are zigzag varints (whole doubles such as
+ * prices like 40.0 too, decoded back as Double), strings are length-prefixed UTF-8, and object keys
+ * are written once per payload and referenced by index afterwards, so the `itemId`/`qty`/`price` of
+ * a 500-line sale cost one byte each after the first line.
+ *
+ * Decodes to the same JSONObject shapes org.json produces when parsing the equivalent text (Int when
+ * it fits, else Long; Double; String; nested JSONObject/JSONArray; JSONObject.NULL), so callers are
+ * unaffected by the storage change.
+ */
+object OutboxPayloadFormat {
+    const val VERSION = 1
+
+    private const val T_NULL = 0
+    private const val T_FALSE = 1
+    private const val T_TRUE = 2
+    private const val T_INT = 3
+    private const val T_DOUBLE = 4
+    private const val T_WHOLE_DOUBLE = 5
+    private const val T_STRING = 6
+    private const val T_ARRAY = 7
+    private const val T_OBJECT = 8
+
+    // Largest magnitude a double holds exactly as a whole number.
+    private const val MAX_WHOLE_DOUBLE = 9_007_199_254_740_992.0
+
+    fun encode(payload: JSONObject): ByteArray {
+        val out = ByteArrayOutputStream(256)
+        out.write(VERSION)
+        Writer(out).value(payload)
+        return out.toByteArray()
+    }
+
+    /**
+     * Payload of a legacy `payloadJson` row; null for blank text. Throws if the text is not a JSON object.
+     */
+    fun fromJsonText(text: String?): ByteArray? =
+        text?.trim()?.takeIf { it.isNotEmpty() }?.let { encode(JSONObject(it)) }
+
+    /**
+     * A fresh JSONObject on every call (callers may mutate it).
+     * Throws [IllegalArgumentException] for an unknown version or a truncated/corrupt payload.
+     */
+    fun decode(bytes: ByteArray): JSONObject {
+        require(bytes.isNotEmpty()) { "Empty outbox payload" }
+        val version = bytes[0].toInt() and 0xFF
+        require(version == VERSION) { "Unsupported outbox payload version $version" }
+        val reader = Reader(bytes, 1)
+        val value = try {
+            reader.value()
+        } catch (e: IndexOutOfBoundsException) {
+            throw IllegalArgumentException("Truncated outbox payload", e)
+        }
+        require(reader.pos == bytes.size) { "Trailing bytes in outbox payload" }
+        return value as? JSONObject ?: throw IllegalArgumentException("Outbox payload is not an object")
+    }
+
+    private class Writer(private val out: ByteArrayOutputStream) {
+        private val keyIndex = HashMap<String, Int>()
+
+        fun value(v: Any?) {
+            when (v) {
+                null, JSONObject.NULL -> out.write(T_NULL)
+                is Boolean -> out.write(if (v) T_TRUE else T_FALSE)
+                is Int, is Long, is Short, is Byte -> {
+                    out.write(T_INT)
+                    varint(zigzag((v as Number).toLong()))
+                }
+                is Number -> {
+                    val d = v.toDouble()
+                    if (d == Math.rint(d) && Math.abs(d) <= MAX_WHOLE_DOUBLE && !(d == 0.0 && 1.0 / d < 0)) {
+                        out.write(T_WHOLE_DOUBLE)
+                        varint(zigzag(d.toLong()))
+                    } else {
+                        out.write(T_DOUBLE)
+                        val bits = java.lang.Double.doubleToRawLongBits(d)
+                        for (shift in 56 downTo 0 step 8) out.write((bits ushr shift).toInt() and 0xFF)
+                    }
+                }
+                is String -> {
+                    out.write(T_STRING)
+                    string(v)
+                }
+                is JSONArray -> {
+                    out.write(T_ARRAY)
+                    varint(v.length().toLong())
+                    for (i in 0 until v.length()) value(v.opt(i))
+                }
+                is JSONObject -> {
+                    out.write(T_OBJECT)
+                    varint(v.length().toLong())
+                    for (key in v.keys()) {
+                        key(key)
+                        value(v.opt(key))
+                    }
+                }
+                // org.json stores anything else by its string form.
+                else -> {
+                    out.write(T_STRING)
+                    string(v.toString())
+                }
+            }
+        }
+
+        // Even header = new key (length << 1) followed by its bytes; odd = (index << 1) | 1 of an earlier key.
+        private fun key(k: String) {
+            val seen = keyIndex[k]
+            if (seen != null) {
+                varint((seen.toLong() shl 1) or 1L)
+            } else {
+                keyIndex[k] = keyIndex.size
+                val bytes = k.toByteArray(Charsets.UTF_8)
+                varint(bytes.size.toLong() shl 1)
+                out.write(bytes, 0, bytes.size)
+            }
+        }
+
+        private fun string(s: String) {
+            val bytes = s.toByteArray(Charsets.UTF_8)
+            varint(bytes.size.toLong())
+            out.write(bytes, 0, bytes.size)
+        }
+
+        private fun varint(value: Long) {
+            var v = value
+            while (v and 0x7FL.inv() != 0L) {
+                out.write(((v and 0x7F) or 0x80).toInt())
+                v = v ushr 7
+            }
+            out.write(v.toInt())
+        }
+
+        private fun zigzag(v: Long): Long = (v shl 1) xor (v shr 63)
+    }
+
+    private class Reader(private val bytes: ByteArray, var pos: Int) {
+        private val keys = ArrayList<String>()
+
+        fun value(): Any = when (val tag = bytes[pos++].toInt()) {
+            T_NULL -> JSONObject.NULL
+            T_FALSE -> false
+            T_TRUE -> true
+            T_INT -> {
+                val v = unzigzag(varint())
+                if (v in Int.MIN_VALUE..Int.MAX_VALUE) v.toInt() else v
+            }
+            T_DOUBLE -> {
+                var bits = 0L
+                repeat(8) { bits = (bits shl 8) or (bytes[pos++].toLong() and 0xFF) }
+                java.lang.Double.longBitsToDouble(bits)
+            }
+            T_WHOLE_DOUBLE -> unzigzag(varint()).toDouble()
+            T_STRING -> string(length())
+            T_ARRAY -> JSONArray().also { arr -> repeat(length()) { arr.put(value()) } }
+            T_OBJECT -> JSONObject().also { obj -> repeat(length()) { obj.put(key(), value()) } }
+            else -> throw IllegalArgumentException("Unknown outbox payload tag $tag at ${pos - 1}")
+        }
+
+        private fun key(): String {
+            val header = varint()
+            if (header and 1L == 1L) {
+                val index = (header ushr 1).toInt()
+                require(index < keys.size) { "Bad key reference $index in outbox payload" }
+                return keys[index]
+            }
+            return string(checkedLength(header ushr 1)).also { keys += it }
+        }
+
+        private fun length(): Int = checkedLength(varint())
+
+        private fun checkedLength(v: Long): Int {
+            require(v in 0..(bytes.size - pos).toLong()) { "Bad length $v in outbox payload" }
+            return v.toInt()
+        }
+
+        private fun string(length: Int): String =
+            String(bytes, pos, length, Charsets.UTF_8).also { pos += length }
+
+        private fun varint(): Long {
+            var result = 0L
+            var shift = 0
+            while (true) {
+                val b = bytes[pos++].toInt()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) return result
+                shift += 7
+                require(shift < 64) { "Varint too long in outbox payload" }
+            }
+        }
+
+        private fun unzigzag(v: Long): Long = (v ushr 1) xor -(v and 1)
+    }
+}
@@ -50,7 +50,7 @@ class PendingSyncQueue(
                 entityType = op.entityType.name,
                 entityId = op.entityId,
                 op = op.op.name,
-                payloadJson = op.payload?.toString()
+                payload = op.payload?.let(OutboxPayloadFormat::encode)
             )
         )
     }
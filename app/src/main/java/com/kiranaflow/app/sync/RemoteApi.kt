@@ -2,7 +2,9 @@ package com.kiranaflow.app.sync
 
 data class RemoteResult(
     val ok: Boolean,
-    val message: String
+    val message: String,
+    // Not sent because a prerequisite op failed; the entry should stay queued rather than fail.
+    val skipped: Boolean = false
 )
 
 /**
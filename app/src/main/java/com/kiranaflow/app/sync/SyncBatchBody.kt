@@ -0,0 +1,124 @@
+package com.kiranaflow.app.sync
+
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okio.Buffer
+import okio.BufferedSink
+import okio.GzipSink
+import okio.buffer
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * Batch request body written op by op straight into OkHttp's sink, so a batch never exists as a
+ * JSONObject tree or one big String (and, gzipped, never as uncompressed bytes either).
+ *
+ * - [Format.NDJSON_GZIP]: one `{"envelope":...,"preview":{...}}` per line, `Content-Encoding: gzip`
+ * - [Format.JSON]: the original `{"ops":[...]}` document, uncompressed, for servers that answer 415
+ *
+ * Replayable: OkHttp may call [writeTo] again when it retries on a fresh connection.
+ */
+internal class SyncBatchBody(
+    private val ops: List<Pair<SyncEnvelope, RemoteRequestPreview>>,
+    val format: Format
+) : RequestBody() {
+
+    enum class Format(val mediaType: MediaType, val gzip: Boolean) {
+        NDJSON_GZIP("application/x-ndjson; charset=utf-8".toMediaType(), gzip = true),
+        JSON("application/json; charset=utf-8".toMediaType(), gzip = false)
+    }
+
+    override fun contentType(): MediaType = format.mediaType
+
+    // Unknown up front: sent chunked.
+    override fun contentLength(): Long = -1L
+
+    override fun writeTo(sink: BufferedSink) {
+        if (format.gzip) {
+            val gzip = GzipSink(sink).buffer()
+            writeOps(gzip)
+            // Finishes the gzip trailer; OkHttp expects the sink closed by the body, as in its own gzip example.
+            gzip.close()
+        } else {
+            writeOps(sink)
+        }
+    }
+
+    private fun writeOps(sink: BufferedSink) {
+        when (format) {
+            Format.NDJSON_GZIP -> ops.forEach { (envelope, preview) ->
+                writeOp(sink, envelope, preview)
+                sink.writeByte('\n'.code)
+            }
+            Format.JSON -> {
+                sink.writeUtf8("{\"ops\":[")
+                ops.forEachIndexed { i, (envelope, preview) ->
+                    if (i > 0) sink.writeByte(','.code)
+                    writeOp(sink, envelope, preview)
+                }
+                sink.writeUtf8("]}")
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Uncompressed bytes of one op, the unit [AdaptiveBatchScheduler] caps batches by.
+         */
+        fun encodedSize(envelope: SyncEnvelope, preview: RemoteRequestPreview): Int {
+            val buffer = Buffer()
+            writeOp(buffer, envelope, preview)
+            return buffer.size.toInt().also { buffer.clear() }
+        }
+
+        /**
+         * One batch op; same fields and order as [SyncEnvelope.toJson] (null entityId/body omitted).
+         */
+        fun writeOp(sink: BufferedSink, envelope: SyncEnvelope, preview: RemoteRequestPreview) {
+            sink.writeUtf8("{\"envelope\":{\"apiVersion\":").writeDecimalLong(envelope.apiVersion.toLong())
+            sink.writeUtf8(",\"deviceId\":").writeUtf8(JSONObject.quote(envelope.deviceId))
+            sink.writeUtf8(",\"opId\":").writeUtf8(JSONObject.quote(envelope.opId))
+            sink.writeUtf8(",\"sentAtMillis\":").writeDecimalLong(envelope.sentAtMillis)
+            sink.writeUtf8(",\"entityType\":").writeUtf8(JSONObject.quote(envelope.entityType))
+            envelope.entityId?.let { sink.writeUtf8(",\"entityId\":").writeUtf8(JSONObject.quote(it)) }
+            sink.writeUtf8(",\"op\":").writeUtf8(JSONObject.quote(envelope.op))
+            envelope.body?.let {
+                sink.writeUtf8(",\"body\":")
+                writeValue(sink, it)
+            }
+            sink.writeUtf8("},\"preview\":{\"method\":").writeUtf8(JSONObject.quote(preview.method))
+            sink.writeUtf8(",\"path\":").writeUtf8(JSONObject.quote(preview.path))
+            sink.writeUtf8("}}")
+        }
+
+        private fun writeValue(sink: BufferedSink, v: Any?) {
+            when (v) {
+                null, JSONObject.NULL -> sink.writeUtf8("null")
+                is JSONObject -> {
+                    sink.writeByte('{'.code)
+                    var first = true
+                    for (key in v.keys()) {
+                        if (!first) sink.writeByte(','.code)
+                        first = false
+                        sink.writeUtf8(JSONObject.quote(key)).writeByte(':'.code)
+                        writeValue(sink, v.opt(key))
+                    }
+                    sink.writeByte('}'.code)
+                }
+                is JSONArray -> {
+                    sink.writeByte('['.code)
+                    for (i in 0 until v.length()) {
+                        if (i > 0) sink.writeByte(','.code)
+                        writeValue(sink, v.opt(i))
+                    }
+                    sink.writeByte(']'.code)
+                }
+                is String -> sink.writeUtf8(JSONObject.quote(v))
+                is Boolean -> sink.writeUtf8(if (v) "true" else "false")
+                is Number -> sink.writeUtf8(JSONObject.numberToString(v))
+                else -> sink.writeUtf8(JSONObject.quote(v.toString()))
+            }
+        }
+    }
+}
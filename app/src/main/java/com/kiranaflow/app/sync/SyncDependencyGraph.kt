@@ -0,0 +1,103 @@
+package com.kiranaflow.app.sync
+
+import org.json.JSONObject
+
+/**
+ * Prerequisites among a window of sync ops, so independent chains can be sent in parallel while
+ * kf_apply_sync_envelope still sees every customer, vendor, item and transaction before the ops
+ * that reference it.
+ *
+ * Each op writes one or more keys (`ITEM:12`, `PARTY:3`, `TRANSACTION:40`; line-items write their
+ * transaction's key) and reads the keys in its body (`customerId`, `vendorId`, `partyId`,
+ * `items[].itemId`). An op waits for:
+ * - the previous writer of each key it writes (per-entity order)
+ * - the previous writer of each key it reads (the dependency must exist remotely first)
+ * - earlier readers of each key it writes (a DELETE must not overtake a sale that references the row)
+ *
+ * Edges only point backwards, so the graph is acyclic and queue order is always a valid schedule.
+ * Keys written outside the window are assumed to be on the server already.
+ */
+class SyncDependencyGraph private constructor(
+    private val writes: List<Set<String>>,
+    private val reads: List<Set<String>>,
+    private val prerequisites: List<IntArray>
+) {
+    val size: Int get() = prerequisites.size
+
+    /** Indexes (all lower than [index]) that must be applied before op [index]. */
+    fun prerequisitesOf(index: Int): IntArray = prerequisites[index]
+
+    /** Keys op [index] creates or changes. */
+    fun writesOf(index: Int): Set<String> = writes[index]
+
+    companion object {
+        private val NO_PREREQUISITES = IntArray(0)
+
+        fun build(envelopes: List<SyncEnvelope>): SyncDependencyGraph {
+            val writes = envelopes.map { writtenKeys(it.entityType, it.entityId, it.op, it.body) }
+            val reads = envelopes.mapIndexed { i, e -> referencedKeys(e.body) - writes[i] }
+            val lastWriter = HashMap<String, Int>()
+            val readersSinceWrite = HashMap<String, MutableList<Int>>()
+
+            val prerequisites = envelopes.indices.map { i ->
+                val deps = sortedSetOf<Int>()
+                for (key in writes[i]) {
+                    lastWriter[key]?.let(deps::add)
+                    readersSinceWrite[key]?.let(deps::addAll)
+                }
+                for (key in reads[i]) lastWriter[key]?.let(deps::add)
+
+                for (key in writes[i]) {
+                    lastWriter[key] = i
+                    readersSinceWrite.remove(key)
+                }
+                for (key in reads[i]) readersSinceWrite.getOrPut(key) { mutableListOf() } += i
+
+                if (deps.isEmpty()) NO_PREREQUISITES else deps.toIntArray()
+            }
+            return SyncDependencyGraph(writes, reads, prerequisites)
+        }
+
+        /**
+         * Keys an op creates or changes. Bulk item upserts carry their ids in the body.
+         */
+        fun writtenKeys(entityType: String, entityId: String?, op: String, body: JSONObject?): Set<String> {
+            if (entityType == SyncEntityType.ITEM.name && op == SyncOpType.UPSERT_MANY.name) {
+                val items = body?.optJSONArray("items") ?: return emptySet()
+                return (0 until items.length())
+                    .mapNotNull { i -> items.optJSONObject(i)?.idValue("id")?.let { key(SyncEntityType.ITEM.name, it) } }
+                    .toSet()
+            }
+            val id = entityId?.trim()?.takeIf { it.isNotEmpty() } ?: return emptySet()
+            val type = if (entityType == SyncEntityType.TRANSACTION_ITEM.name) SyncEntityType.TRANSACTION.name else entityType
+            return setOf(key(type, id))
+        }
+
+        /**
+         * Parties and items an op's body refers to.
+         */
+        fun referencedKeys(body: JSONObject?): Set<String> {
+            if (body == null) return emptySet()
+            val keys = HashSet<String>()
+            for (field in PARTY_FIELDS) body.idValue(field)?.let { keys += key(SyncEntityType.PARTY.name, it) }
+            val items = body.optJSONArray("items")
+            if (items != null) {
+                for (i in 0 until items.length()) {
+                    items.optJSONObject(i)?.idValue("itemId")?.let { keys += key(SyncEntityType.ITEM.name, it) }
+                }
+            }
+            return keys
+        }
+
+        private val PARTY_FIELDS = listOf("customerId", "vendorId", "partyId")
+
+        private fun key(type: String, id: String) = "$type:$id"
+
+        private fun JSONObject.idValue(name: String): String? = when (val v = opt(name)) {
+            null, JSONObject.NULL -> null
+            is Number -> v.toLong().toString()
+            is String -> v.trim().ifEmpty { null }
+            else -> null
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.kiranaflow.app.sync
+
+import android.content.Context
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.OutOfQuotaPolicy
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Schedules outbox drains ([SyncWorker]) on WorkManager, so a sync survives process death and
+ * only runs with a network.
+ *
+ * - [requestSync]: unique one-time work. Coalesced: while one run is queued and not yet started,
+ *   further requests are no-ops (that run drains everything enqueued before it starts). A request
+ *   made while a run is in progress appends exactly one follow-up run.
+ * - [requestSync] with `expedited = true` (after checkout): additionally an expedited run under its
+ *   own unique name, so it is not held behind a run waiting out its backoff.
+ * - [schedulePeriodic]: a catch-up run every [PERIODIC_MINUTES], for whatever gave up retrying.
+ *
+ * Retry timing is WorkManager's exponential backoff from [BACKOFF_SECONDS]; whether to retry is
+ * decided by the worker from the outbox state after its pass.
+ */
+object SyncScheduler {
+    const val WORK_ONE_TIME = "outbox-sync"
+    const val WORK_EXPEDITED = "outbox-sync-expedited"
+    const val WORK_PERIODIC = "outbox-sync-periodic"
+
+    private const val BACKOFF_SECONDS = 30L
+    private const val PERIODIC_MINUTES = 15L
+
+    // True from enqueueing a one-time run until a run starts.
+    private val queued = AtomicBoolean(false)
+
+    private val networkConstraint: Constraints
+        get() = Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build()
+
+    fun requestSync(context: Context, expedited: Boolean = false) {
+        val workManager = WorkManager.getInstance(context.applicationContext)
+        if (queued.compareAndSet(false, true)) {
+            val request = OneTimeWorkRequestBuilder<SyncWorker>()
+                .setConstraints(networkConstraint)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build()
+            // APPEND_OR_REPLACE: a running drain is never cancelled; a failed/cancelled chain is replaced.
+            workManager.enqueueUniqueWork(WORK_ONE_TIME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+        }
+        if (expedited) {
+            val request = OneTimeWorkRequestBuilder<SyncWorker>()
+                .setConstraints(networkConstraint)
+                .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build()
+            workManager.enqueueUniqueWork(WORK_EXPEDITED, ExistingWorkPolicy.KEEP, request)
+        }
+    }
+
+    fun schedulePeriodic(context: Context) {
+        val request = PeriodicWorkRequestBuilder<SyncWorker>(PERIODIC_MINUTES, TimeUnit.MINUTES)
+            .setConstraints(networkConstraint)
+            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+            .build()
+        WorkManager.getInstance(context.applicationContext)
+            .enqueueUniquePeriodicWork(WORK_PERIODIC, ExistingPeriodicWorkPolicy.KEEP, request)
+    }
+
+    /**
+     * Called by [SyncWorker] as it starts: the next request needs a run of its own, since this one
+     * may already have read past the rows it will add.
+     */
+    internal fun onRunStarted() {
+        queued.set(false)
+    }
+}
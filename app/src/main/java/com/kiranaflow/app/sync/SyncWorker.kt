@@ -0,0 +1,101 @@
+package com.kiranaflow.app.sync
+
+import android.app.NotificationChannel
+import android.app.NotificationManager
+import android.content.Context
+import android.util.Log
+import androidx.core.app.NotificationCompat
+import androidx.work.CoroutineWorker
+import androidx.work.ForegroundInfo
+import androidx.work.WorkerParameters
+import com.kiranaflow.app.data.local.AppPrefsStore
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.util.BackendConfig
+import com.kiranaflow.app.util.StubSyncEngine
+import com.kiranaflow.app.util.SyncResult
+
+/**
+ * One outbox drain, scheduled by [SyncScheduler].
+ *
+ * After the pass the outbox decides what happens next:
+ * - empty: done
+ * - rows left but this pass made progress (or failed nothing, i.e. they arrived after it read the
+ *   outbox): done, and a fresh run is requested, so backoff starts over
+ * - nothing got through: [Result.retry], i.e. WorkManager's exponential backoff; after
+ *   [MAX_ATTEMPTS] the rows are left to the periodic catch-up
+ */
+class SyncWorker internal constructor(
+    context: Context,
+    params: WorkerParameters,
+    // The drain; null runs [drainOutbox]. Tests pass their own.
+    private val pass: (suspend () -> Pass?)?
+) : CoroutineWorker(context, params) {
+
+    constructor(context: Context, params: WorkerParameters) : this(context, params, null)
+
+    /**
+     * What a drain left behind: its result and how many rows are still PENDING or FAILED.
+     */
+    internal data class Pass(val result: SyncResult, val left: Int)
+
+    override suspend fun doWork(): Result {
+        SyncScheduler.onRunStarted()
+        val (result, left) = try {
+            (pass ?: ::drainOutbox)() ?: return Result.success()
+        } catch (e: Exception) {
+            Log.w(TAG, "Sync run ${runAttemptCount + 1} failed: ${e.message}")
+            return retryOrGiveUp()
+        }
+
+        return when {
+            left == 0 -> Result.success()
+            result.succeeded > 0 || (result.failed == 0 && result.deferred == 0) -> {
+                SyncScheduler.requestSync(applicationContext)
+                Result.success()
+            }
+            else -> {
+                Log.i(TAG, "Sync run ${runAttemptCount + 1}: ${result.message}; $left left")
+                retryOrGiveUp()
+            }
+        }
+    }
+
+    // Null when no backend is configured (nothing to do).
+    private suspend fun drainOutbox(): Pass? {
+        if (BackendConfig.backendBaseUrl.isBlank()) return null
+        val db = KiranaDatabase.getDatabase(applicationContext)
+        val engine = StubSyncEngine(db, AppPrefsStore(applicationContext), applicationContext)
+        val result = engine.syncAllPending()
+        return Pass(result, db.outboxDao().countWithStatus(listOf("PENDING", "FAILED")))
+    }
+
+    private fun retryOrGiveUp(): Result =
+        if (runAttemptCount + 1 < MAX_ATTEMPTS) Result.retry() else Result.success()
+
+    /**
+     * Expedited runs execute as a foreground service below Android 12, which needs a notification.
+     */
+    override suspend fun getForegroundInfo(): ForegroundInfo {
+        val manager = applicationContext.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+        if (manager.getNotificationChannel(CHANNEL_ID) == null) {
+            manager.createNotificationChannel(
+                NotificationChannel(CHANNEL_ID, "Sync", NotificationManager.IMPORTANCE_LOW)
+            )
+        }
+        val notification = NotificationCompat.Builder(applicationContext, CHANNEL_ID)
+            .setSmallIcon(android.R.drawable.stat_notify_sync)
+            .setContentTitle("Syncing sales")
+            .setOngoing(true)
+            .setSilent(true)
+            .build()
+        return ForegroundInfo(NOTIFICATION_ID, notification)
+    }
+
+    internal companion object {
+        private const val TAG = "SyncWorker"
+        private const val CHANNEL_ID = "sync"
+        private const val NOTIFICATION_ID = 4101
+        // 30 s doubling: the last retry waits about 1 h.
+        const val MAX_ATTEMPTS = 8
+    }
+}
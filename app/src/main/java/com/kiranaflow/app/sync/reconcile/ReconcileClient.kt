@@ -0,0 +1,149 @@
+package com.kiranaflow.app.sync.reconcile
+
+import android.util.JsonReader
+import com.kiranaflow.app.util.BackendConfig
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The two reconciliation RPCs of supabase/sql/008, called through PostgREST.
+ *
+ * [bytesSent]/[bytesReceived] add up request and response body bytes (responses as decoded, i.e.
+ * before any transfer gzip), to show what a pass costs.
+ */
+class ReconcileClient(
+    private val baseUrl: String = BackendConfig.backendBaseUrl,
+    private val apiKey: String = BackendConfig.backendApiKey
+) {
+    val bytesSent = AtomicLong()
+    val bytesReceived = AtomicLong()
+
+    fun isConfigured(): Boolean = baseUrl.isNotBlank() && apiKey.isNotBlank()
+
+    /**
+     * kf_reconcile_buckets: bucket -> summary at [width]; with [parents], only their children.
+     */
+    fun buckets(
+        deviceId: String,
+        table: ReconcileTable,
+        width: Long,
+        parentWidth: Long? = null,
+        parents: Collection<Long>? = null
+    ): Map<Long, BucketSummary> {
+        val args = JSONObject()
+            .put("p_device_id", deviceId)
+            .put("p_table", table.cloudTable)
+            .put("p_width", width)
+        if (parents != null) {
+            args.put("p_parent_width", parentWidth)
+            args.put("p_parents", JSONArray(parents))
+        }
+        val out = HashMap<Long, BucketSummary>()
+        call("kf_reconcile_buckets", args) { reader ->
+            var bucket = 0L
+            var count = 0L
+            var digest = 0L
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "bucket" -> bucket = reader.nextLong()
+                    "row_count" -> count = reader.nextLong()
+                    "digest" -> digest = reader.nextLong()
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            out[bucket] = BucketSummary(count, digest)
+        }
+        return out
+    }
+
+    /**
+     * kf_reconcile_leaf_rows: id -> row digest for the rows in [buckets] of [width].
+     */
+    fun leafRows(deviceId: String, table: ReconcileTable, width: Long, buckets: Collection<Long>): Map<Long, Long> {
+        val args = JSONObject()
+            .put("p_device_id", deviceId)
+            .put("p_table", table.cloudTable)
+            .put("p_width", width)
+            .put("p_buckets", JSONArray(buckets))
+        val out = HashMap<Long, Long>()
+        call("kf_reconcile_leaf_rows", args) { reader ->
+            var id = 0L
+            var digest = 0L
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "id" -> id = reader.nextLong()
+                    "digest" -> digest = reader.nextLong()
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            out[id] = digest
+        }
+        return out
+    }
+
+    // POST /rest/v1/rpc/<fn>; the result is a JSON array of row objects, each handed to [row].
+    private fun call(fn: String, args: JSONObject, row: (JsonReader) -> Unit) {
+        val payload = args.toString().toByteArray(Charsets.UTF_8)
+        bytesSent.addAndGet(payload.size.toLong())
+        val request = Request.Builder()
+            .url(rpcUrl(fn))
+            .header("apikey", apiKey)
+            .header("Authorization", "Bearer $apiKey")
+            .header("Accept", "application/json")
+            .post(payload.toRequestBody("application/json; charset=utf-8".toMediaType()))
+            .build()
+        client.newCall(request).execute().use { resp ->
+            if (!resp.isSuccessful) throw IOException("HTTP ${resp.code} ${resp.message} for $fn")
+            val body = resp.body ?: return
+            val counted = CountingInput(body.byteStream())
+            JsonReader(counted.reader(Charsets.UTF_8)).use { reader ->
+                reader.beginArray()
+                while (reader.hasNext()) row(reader)
+                reader.endArray()
+            }
+            bytesReceived.addAndGet(counted.count)
+        }
+    }
+
+    private class CountingInput(private val input: InputStream) : InputStream() {
+        var count = 0L
+            private set
+
+        override fun read(): Int = input.read().also { if (it >= 0) count++ }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int =
+            input.read(b, off, len).also { if (it > 0) count += it }
+
+        override fun close() = input.close()
+    }
+
+    private fun rpcUrl(fn: String): HttpUrl {
+        // BACKEND_BASE_URL is the project URL; tolerate it pointing at an edge function.
+        val root = baseUrl.trim().substringBefore("/functions/v1").removeSuffix("/")
+        return "$root/rest/v1/rpc/$fn".toHttpUrlOrNull()
+            ?: throw IOException("Invalid backend URL: $baseUrl")
+    }
+
+    private companion object {
+        val client: OkHttpClient by lazy {
+            OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .build()
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.kiranaflow.app.sync.reconcile
+
+import android.util.Log
+import com.kiranaflow.app.data.local.ReconcileDao
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+
+enum class ReconcileTable(val cloudTable: String, val entityType: String) {
+    ITEMS("kf_items", "ITEM"),
+    PARTIES("kf_parties", "PARTY"),
+    TRANSACTIONS("kf_transactions", "TRANSACTION"),
+    // Lines travel inside their transaction's ops.
+    TRANSACTION_ITEMS("kf_transaction_items", "TRANSACTION")
+}
+
+/**
+ * Checks whether the kf_* cloud copy matches Room without moving the rows.
+ *
+ * Both sides digest rows the same way ([RowDigest], kf_reconcile_rows) and sum them up per id
+ * range: leaves are [LEAF_WIDTH] ids wide, each level up [FANOUT] times wider. Starting from a top
+ * level of at most [FANOUT] buckets, only the children of differing buckets are asked for, then
+ * the row digests of differing leaves. A bucket the cloud lacks entirely is resolved without
+ * descending (all of its rows are missing). Matching data costs one small response per table.
+ *
+ * Ids with unsynced outbox entries are expected to differ and are reported as [TableReport.pending],
+ * not as drift. Rows pulled from another device of the shop live in the cloud under that device
+ * until this phone edits them, so their absence here is not drift either ([TableReport.pulled]).
+ * The result is a report; re-pushing or pulling the differing ids is up to the caller.
+ */
+class Reconciler(
+    private val dao: ReconcileDao,
+    private val deviceId: suspend () -> String,
+    private val client: ReconcileClient = ReconcileClient()
+) {
+
+    data class TableReport(
+        val table: ReconcileTable,
+        val localRows: Int,
+        // Ids present here but not in the cloud.
+        val missingInCloud: List<Long>,
+        // Ids present in the cloud but not here.
+        val extraInCloud: List<Long>,
+        // Ids on both sides with different content.
+        val differing: List<Long>,
+        // Differing ids that still have unsynced outbox entries.
+        val pending: Int,
+        // Ids missing in the cloud that are unedited copies of another device's rows.
+        val pulled: Int,
+        val roundTrips: Int,
+        val bytesSent: Long,
+        val bytesReceived: Long
+    ) {
+        val inSync: Boolean get() = missingInCloud.isEmpty() && extraInCloud.isEmpty() && differing.isEmpty()
+    }
+
+    data class Report(val tables: List<TableReport>) {
+        val inSync: Boolean get() = tables.all { it.inSync }
+
+        fun printReport() {
+            Log.d(TAG, "=== RECONCILIATION ===")
+            tables.forEach {
+                Log.d(
+                    TAG,
+                    "${it.table.cloudTable}: rows=${it.localRows} missingInCloud=${it.missingInCloud.size} " +
+                        "extraInCloud=${it.extraInCloud.size} differing=${it.differing.size} pending=${it.pending} pulled=${it.pulled} " +
+                        "roundTrips=${it.roundTrips} sent=${it.bytesSent}B received=${it.bytesReceived}B"
+                )
+            }
+            Log.d(TAG, "=== END REPORT ===")
+        }
+
+        /** One line for the sync settings. */
+        fun summary(): String {
+            if (inSync) return "Cloud copy matches (${tables.sumOf { it.localRows }} rows checked)"
+            val off = tables.filterNot { it.inSync }.joinToString(", ") {
+                "${it.table.cloudTable}: ${it.missingInCloud.size} missing, ${it.extraInCloud.size} extra, ${it.differing.size} differ"
+            }
+            return "Cloud copy differs: $off"
+        }
+    }
+
+    fun isConfigured(): Boolean = client.isConfigured()
+
+    suspend fun reconcile(tables: List<ReconcileTable> = ReconcileTable.values().toList()): Report =
+        withContext(Dispatchers.IO) {
+            val namespace = deviceId()
+            Report(tables.map { reconcileTable(namespace, it) })
+        }
+
+    private suspend fun reconcileTable(namespace: String, table: ReconcileTable): TableReport {
+        val sentBefore = client.bytesSent.get()
+        val receivedBefore = client.bytesReceived.get()
+        var roundTrips = 0
+        val local = RowDigest.local(dao, table)
+
+        val missing = mutableListOf<Long>()
+        val extra = mutableListOf<Long>()
+        val differing = mutableListOf<Long>()
+
+        var width = LEAF_WIDTH
+        while (local.maxId / width >= FANOUT) width *= FANOUT
+
+        val top = client.buckets(namespace, table, width).also { roundTrips++ }
+        var open = diverging(local.summaries(width), top, local, width, missing)
+
+        while (open.isNotEmpty() && width > LEAF_WIDTH) {
+            val parentWidth = width
+            width /= FANOUT
+            val localLevel = local.summaries(width, parentWidth, open)
+            val remoteLevel = HashMap<Long, BucketSummary>()
+            for (chunk in open.chunked(MAX_BUCKETS_PER_CALL)) {
+                remoteLevel.putAll(client.buckets(namespace, table, width, parentWidth, chunk))
+                roundTrips++
+            }
+            open = diverging(localLevel, remoteLevel, local, width, missing)
+        }
+
+        if (open.isNotEmpty()) {
+            val localRows = local.rows(width, open)
+            val remoteRows = HashMap<Long, Long>()
+            for (chunk in open.chunked(MAX_BUCKETS_PER_CALL)) {
+                remoteRows.putAll(client.leafRows(namespace, table, width, chunk))
+                roundTrips++
+            }
+            for ((id, digest) in localRows) {
+                when (remoteRows[id]) {
+                    null -> missing += id
+                    digest -> Unit
+                    else -> differing += id
+                }
+            }
+            remoteRows.keys.filterTo(extra) { it !in localRows }
+        }
+
+        val unsynced = unsyncedIds(table, missing + extra + differing)
+        val pulled = pulledCopyIds(table, missing.filterNot { it in unsynced })
+        return TableReport(
+            table = table,
+            localRows = local.size,
+            missingInCloud = missing.filterNot { it in unsynced || it in pulled }.sorted(),
+            extraInCloud = extra.filterNot { it in unsynced }.sorted(),
+            differing = differing.filterNot { it in unsynced }.sorted(),
+            pending = unsynced.size,
+            pulled = pulled.size,
+            roundTrips = roundTrips,
+            bytesSent = client.bytesSent.get() - sentBefore,
+            bytesReceived = client.bytesReceived.get() - receivedBefore
+        )
+    }
+
+    /**
+     * Buckets of one level whose summaries differ. Buckets only the phone has are settled here
+     * (their rows go to [missing]); the rest are returned to be opened a level down.
+     */
+    private fun diverging(
+        local: Map<Long, BucketSummary>,
+        remote: Map<Long, BucketSummary>,
+        digests: DigestSet,
+        width: Long,
+        missing: MutableList<Long>
+    ): Set<Long> {
+        val open = HashSet<Long>()
+        val localOnly = HashSet<Long>()
+        for ((bucket, summary) in local) {
+            when (remote[bucket]) {
+                null -> localOnly += bucket
+                summary -> Unit
+                else -> open += bucket
+            }
+        }
+        remote.keys.filterTo(open) { it !in local }
+        if (localOnly.isNotEmpty()) missing += digests.rows(width, localOnly).keys
+        return open
+    }
+
+    private suspend fun unsyncedIds(table: ReconcileTable, ids: List<Long>): Set<Long> =
+        ids.map { it.toString() }
+            .chunked(900)
+            .flatMap { dao.unsyncedEntityIds(table.entityType, it) }
+            .mapNotNull { it.toLongOrNull() }
+            .toHashSet()
+
+    private suspend fun pulledCopyIds(table: ReconcileTable, ids: List<Long>): Set<Long> =
+        ids.map { it.toInt() }
+            .chunked(900)
+            .flatMap { dao.pulledCopyIds(table.entityType, it) }
+            .mapTo(HashSet()) { it.toLong() }
+
+    private companion object {
+        const val TAG = "Reconciler"
+        const val LEAF_WIDTH = 64L
+        const val FANOUT = 16L
+        const val MAX_BUCKETS_PER_CALL = 500
+    }
+}
@@ -0,0 +1,108 @@
+package com.kiranaflow.app.sync.reconcile
+
+import com.kiranaflow.app.data.local.ReconcileDao
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+/**
+ * Row digests as supabase/sql/008 computes them: the first 8 bytes (big-endian, signed) of md5
+ * over a canonical `|`-joined text. Any change here must be mirrored in kf_reconcile_rows.
+ */
+object RowDigest {
+
+    fun digest(md: MessageDigest, text: String): Long =
+        ByteBuffer.wrap(md.digest(text.toByteArray(Charsets.UTF_8))).long
+
+    /** round(x * 100), half away from zero, as Postgres rounds numeric. */
+    fun cents(x: Double): Long {
+        val scaled = x * 100
+        return if (scaled < 0) -Math.round(-scaled) else Math.round(scaled)
+    }
+
+    suspend fun local(dao: ReconcileDao, table: ReconcileTable): DigestSet {
+        val md = MessageDigest.getInstance("MD5")
+        return when (table) {
+            ReconcileTable.ITEMS -> dao.itemDigestRows().let { rows ->
+                DigestSet.of(rows.size, { rows[it].id.toLong() }) { i ->
+                    val r = rows[i]
+                    digest(md, join(r.id, r.name, r.category, cents(r.price), cents(r.costPrice), r.barcode))
+                }
+            }
+            ReconcileTable.PARTIES -> dao.partyDigestRows().let { rows ->
+                DigestSet.of(rows.size, { rows[it].id.toLong() }) { i ->
+                    val r = rows[i]
+                    digest(md, join(r.id, r.type, r.name, r.phone))
+                }
+            }
+            ReconcileTable.TRANSACTIONS -> dao.transactionDigestRows().let { rows ->
+                DigestSet.of(rows.size, { rows[it].id.toLong() }) { i ->
+                    val r = rows[i]
+                    digest(md, join(r.id, r.type, cents(r.amount), r.customerId, r.vendorId))
+                }
+            }
+            ReconcileTable.TRANSACTION_ITEMS -> dao.transactionLinesDigestRows().let { rows ->
+                DigestSet.of(rows.size, { rows[it].transactionId.toLong() }) { i ->
+                    val r = rows[i]
+                    digest(md, join(r.transactionId, r.lineCount, r.priceCents))
+                }
+            }
+        }
+    }
+
+    // concat_ws('|', ...) with every null coalesced to ''.
+    private fun join(vararg parts: Any?): String = parts.joinToString("|") { it?.toString().orEmpty() }
+}
+
+/**
+ * (row count, xor of row digests) of one bucket. Xor makes it independent of row order, so both
+ * sides can aggregate it however they scan.
+ */
+data class BucketSummary(val rowCount: Long, val digest: Long)
+
+/**
+ * One table's row digests, sorted by id.
+ */
+class DigestSet private constructor(
+    private val ids: LongArray,
+    private val digests: LongArray
+) {
+    val size: Int get() = ids.size
+    val maxId: Long get() = if (ids.isEmpty()) 0L else ids.last()
+
+    /**
+     * Summaries of the buckets of [width]; with [parents], only those under them (id / [parentWidth]).
+     */
+    fun summaries(width: Long, parentWidth: Long? = null, parents: Set<Long>? = null): Map<Long, BucketSummary> {
+        val counts = HashMap<Long, Long>()
+        val xors = HashMap<Long, Long>()
+        for (i in ids.indices) {
+            val id = ids[i]
+            if (parents != null && (id / parentWidth!!) !in parents) continue
+            val bucket = id / width
+            counts[bucket] = (counts[bucket] ?: 0L) + 1
+            xors[bucket] = (xors[bucket] ?: 0L) xor digests[i]
+        }
+        return counts.mapValues { (bucket, count) -> BucketSummary(count, xors.getValue(bucket)) }
+    }
+
+    /** id -> digest of the rows in [buckets] of [width]. */
+    fun rows(width: Long, buckets: Set<Long>): Map<Long, Long> {
+        val out = HashMap<Long, Long>()
+        for (i in ids.indices) {
+            if ((ids[i] / width) in buckets) out[ids[i]] = digests[i]
+        }
+        return out
+    }
+
+    companion object {
+        fun of(size: Int, id: (Int) -> Long, digest: (Int) -> Long): DigestSet {
+            val ids = LongArray(size)
+            val digests = LongArray(size)
+            for (i in 0 until size) {
+                ids[i] = id(i)
+                digests[i] = digest(i)
+            }
+            return DigestSet(ids, digests)
+        }
+    }
+}
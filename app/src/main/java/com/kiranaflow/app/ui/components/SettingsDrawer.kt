@@ -37,6 +37,7 @@ import kotlinx.coroutines.launch
 import androidx.compose.foundation.interaction.MutableInteractionSource
 import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.data.repository.KiranaRepository
+import com.kiranaflow.app.sync.reconcile.Reconciler
 import com.kiranaflow.app.util.StubSyncEngine
 import com.kiranaflow.app.util.LocalBackupManager
 import androidx.compose.foundation.lazy.LazyColumn
@@ -64,6 +65,7 @@ fun SettingsDrawer(
     val failedOutbox by repo.failedOutboxCount.collectAsState(initial = 0)
     val outboxRecent by repo.recentOutbox.collectAsState(initial = emptyList())
     val syncEngine = remember(context) { StubSyncEngine(db, appPrefsStore) }
+    val reconciler = remember(context) { Reconciler(db.reconcileDao(), { appPrefsStore.getOrCreateDeviceId() }) }
     val scope = rememberCoroutineScope()
 
     var expandedShop by remember { mutableStateOf(true) }
@@ -99,6 +101,9 @@ fun SettingsDrawer(
     var showDemoConfirm by remember { mutableStateOf(false) }
     var pendingDemoEnabled by remember { mutableStateOf(false) }
     var showOutboxDialog by remember { mutableStateOf(false) }
+    var joinShopCode by remember { mutableStateOf("") }
+    var isReconciling by remember { mutableStateOf(false) }
+    var reconcileMessage by remember { mutableStateOf<String?>(null) }
     var showMarkDoneConfirm by remember { mutableStateOf(false) }
     var outboxFilter by remember { mutableStateOf("UNSYNCED") } // ALL | UNSYNCED | FAILED | DONE
     val lastSyncFmt = remember { SimpleDateFormat("dd MMM yy, hh:mm a", Locale.getDefault()) }
@@ -570,6 +575,52 @@ fun SettingsDrawer(
                                         }
                                     }
 
+                                    Spacer(modifier = Modifier.height(10.dp))
+                                    Text(
+                                        "Shop code: ${appPrefs.shopId ?: appPrefs.deviceId ?: "—"}",
+                                        color = TextSecondary,
+                                        fontSize = 12.sp
+                                    )
+                                    Text(
+                                        "Enter this code on another phone to share items, parties and sales with it.",
+                                        color = TextSecondary,
+                                        fontSize = 12.sp
+                                    )
+                                    Spacer(modifier = Modifier.height(8.dp))
+                                    Row(
+                                        horizontalArrangement = Arrangement.spacedBy(10.dp),
+                                        verticalAlignment = Alignment.CenterVertically,
+                                        modifier = Modifier.fillMaxWidth()
+                                    ) {
+                                        OutlinedTextField(
+                                            value = joinShopCode,
+                                            onValueChange = { joinShopCode = it },
+                                            placeholder = { Text("Shop code", color = Gray400, fontSize = 12.sp) },
+                                            singleLine = true,
+                                            modifier = Modifier.weight(1f),
+                                            colors = OutlinedTextFieldDefaults.colors(
+                                                focusedContainerColor = White,
+                                                unfocusedContainerColor = White,
+                                                focusedTextColor = TextPrimary,
+                                                unfocusedTextColor = TextPrimary,
+                                                focusedBorderColor = Purple600,
+                                                unfocusedBorderColor = Gray200
+                                            ),
+                                            shape = RoundedCornerShape(16.dp)
+                                        )
+                                        OutlinedButton(
+                                            onClick = {
+                                                scope.launch {
+                                                    appPrefsStore.setShopId(joinShopCode)
+                                                    joinShopCode = ""
+                                                }
+                                            },
+                                            enabled = joinShopCode.isNotBlank(),
+                                            colors = ButtonDefaults.outlinedButtonColors(containerColor = BgPrimary, contentColor = Purple600),
+                                            border = null
+                                        ) { Text("Join", fontWeight = FontWeight.Bold) }
+                                    }
+
                                     Spacer(modifier = Modifier.height(10.dp))
                                     if (com.kiranaflow.app.BuildConfig.BACKEND_BASE_URL.isBlank()) {
                                         Spacer(modifier = Modifier.height(6.dp))
@@ -595,6 +646,31 @@ fun SettingsDrawer(
                                         Text("Sync now", fontWeight = FontWeight.Bold)
                                     }
                                     Spacer(modifier = Modifier.height(10.dp))
+                                    OutlinedButton(
+                                        onClick = {
+                                            scope.launch {
+                                                isReconciling = true
+                                                reconcileMessage = try {
+                                                    reconciler.reconcile().also { it.printReport() }.summary()
+                                                } catch (e: Exception) {
+                                                    "Cloud check failed: ${e.message ?: e.javaClass.simpleName}"
+                                                } finally {
+                                                    isReconciling = false
+                                                }
+                                            }
+                                        },
+                                        enabled = reconciler.isConfigured() && !isReconciling,
+                                        modifier = Modifier.fillMaxWidth(),
+                                        colors = ButtonDefaults.outlinedButtonColors(containerColor = BgPrimary, contentColor = TextPrimary),
+                                        border = null
+                                    ) {
+                                        Text(if (isReconciling) "Checking…" else "Check cloud copy", fontWeight = FontWeight.Bold)
+                                    }
+                                    reconcileMessage?.let {
+                                        Spacer(modifier = Modifier.height(6.dp))
+                                        Text(it, color = TextSecondary, fontSize = 12.sp)
+                                    }
+                                    Spacer(modifier = Modifier.height(10.dp))
                                     Text(
                                         buildString {
                                             append("Last sync: ")
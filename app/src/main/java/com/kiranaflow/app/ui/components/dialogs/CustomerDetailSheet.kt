@@ -9,6 +9,7 @@ import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
+import androidx.compose.foundation.lazy.itemsIndexed
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.CalendarMonth
@@ -25,12 +26,14 @@ import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import com.kiranaflow.app.data.local.CustomerEntity
+import com.kiranaflow.app.data.local.PartyStatementRow
 import com.kiranaflow.app.data.local.TransactionEntity
 import com.kiranaflow.app.data.local.TransactionItemEntity
 import com.kiranaflow.app.ui.components.KiranaButton
 import com.kiranaflow.app.ui.components.KiranaInput
 import com.kiranaflow.app.ui.components.SearchField
 import com.kiranaflow.app.ui.theme.*
+import com.kiranaflow.app.util.Formatters
 import com.kiranaflow.app.util.InputFilters
 import androidx.compose.ui.text.input.KeyboardType
 import androidx.compose.ui.platform.LocalContext
@@ -40,7 +43,7 @@ import kotlinx.coroutines.launch
 import java.text.SimpleDateFormat
 import java.util.*
 
-private enum class CustomerTxTypeFilter { ALL, SALE, PAYMENT }
+private enum class CustomerTxTypeFilter { ALL, SALE, PAYMENT, KHATA }
 private enum class CustomerTxSort { LATEST_FIRST, OLDEST_FIRST }
 
 @OptIn(ExperimentalMaterial3Api::class)
@@ -51,7 +54,14 @@ fun CustomerDetailSheet(
     transactionItemsByTxId: Map<Int, List<TransactionItemEntity>> = emptyMap(),
     onDismiss: () -> Unit,
     onSavePayment: (Double, String) -> Unit,
-    onOpenTransaction: (Int) -> Unit = {}
+    onOpenTransaction: (Int) -> Unit = {},
+    // Paged party_ledger statement (newest first); null hides the Khata tab, otherwise it opens first.
+    statement: List<PartyStatementRow>? = null,
+    statementEndReached: Boolean = true,
+    onLoadMoreStatement: () -> Unit = {},
+    // False while older [transactions] can still be paged in via [onLoadMoreTransactions].
+    transactionsEndReached: Boolean = true,
+    onLoadMoreTransactions: () -> Unit = {}
 ) {
     var showPaymentForm by remember { mutableStateOf(false) }
     var amountText by remember { mutableStateOf("") }
@@ -63,7 +73,10 @@ fun CustomerDetailSheet(
     // In-sheet filters/search/sort
     var txSearchQuery by remember { mutableStateOf("") }
     var productQuery by remember { mutableStateOf("") }
-    var typeFilter by remember { mutableStateOf(CustomerTxTypeFilter.ALL) }
+    // Null until the user picks a chip: the khata statement is the default view when there is one.
+    var chosenFilter by remember { mutableStateOf<CustomerTxTypeFilter?>(null) }
+    val typeFilter = chosenFilter?.takeIf { it != CustomerTxTypeFilter.KHATA || statement != null }
+        ?: if (statement != null) CustomerTxTypeFilter.KHATA else CustomerTxTypeFilter.ALL
     var sortOrder by remember { mutableStateOf(CustomerTxSort.LATEST_FIRST) }
     var showDateRangePicker by remember { mutableStateOf(false) }
     val dateRangePickerState = rememberDateRangePickerState()
@@ -120,6 +133,7 @@ fun CustomerDetailSheet(
                 CustomerTxTypeFilter.ALL -> true
                 CustomerTxTypeFilter.SALE -> tx.type == "SALE"
                 CustomerTxTypeFilter.PAYMENT -> tx.type == "INCOME"
+                CustomerTxTypeFilter.KHATA -> false
             }
         }
 
@@ -291,19 +305,26 @@ fun CustomerDetailSheet(
 
                     Spacer(modifier = Modifier.height(10.dp))
                     Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                        if (statement != null) {
+                            FilterChip(
+                                selected = typeFilter == CustomerTxTypeFilter.KHATA,
+                                onClick = { chosenFilter = CustomerTxTypeFilter.KHATA },
+                                label = { Text("Khata") }
+                            )
+                        }
                         FilterChip(
                             selected = typeFilter == CustomerTxTypeFilter.ALL,
-                            onClick = { typeFilter = CustomerTxTypeFilter.ALL },
+                            onClick = { chosenFilter = CustomerTxTypeFilter.ALL },
                             label = { Text("All") }
                         )
                         FilterChip(
                             selected = typeFilter == CustomerTxTypeFilter.SALE,
-                            onClick = { typeFilter = CustomerTxTypeFilter.SALE },
+                            onClick = { chosenFilter = CustomerTxTypeFilter.SALE },
                             label = { Text("Sales") }
                         )
                         FilterChip(
                             selected = typeFilter == CustomerTxTypeFilter.PAYMENT,
-                            onClick = { typeFilter = CustomerTxTypeFilter.PAYMENT },
+                            onClick = { chosenFilter = CustomerTxTypeFilter.PAYMENT },
                             label = { Text("Payments") }
                         )
                     }
@@ -394,8 +415,32 @@ fun CustomerDetailSheet(
                 }
             }
 
+            // Khata statement: udhaar entries with running balance (search/date filters don't apply).
+            if (typeFilter == CustomerTxTypeFilter.KHATA && statement != null) {
+                if (statement.isEmpty()) {
+                    item {
+                        Text(
+                            "No udhaar entries yet",
+                            color = TextSecondary,
+                            fontSize = 13.sp,
+                            modifier = Modifier.padding(horizontal = 8.dp, vertical = 12.dp)
+                        )
+                    }
+                }
+                itemsIndexed(statement, key = { _, row -> row.entry.id }) { index, row ->
+                    StatementEntryRow(
+                        row = row,
+                        onOpen = { row.entry.transactionId?.let(onOpenTransaction) }
+                    )
+                    Spacer(modifier = Modifier.height(8.dp))
+                    if (index == statement.lastIndex && !statementEndReached) {
+                        LaunchedEffect(statement.size) { onLoadMoreStatement() }
+                    }
+                }
+            }
+
             // Transaction History
-            if (filteredSortedTransactions.isEmpty()) {
+            if (typeFilter != CustomerTxTypeFilter.KHATA && filteredSortedTransactions.isEmpty()) {
                 item {
                     Card(
                         modifier = Modifier
@@ -413,7 +458,7 @@ fun CustomerDetailSheet(
                 }
             }
 
-            transactionsByDate.forEach { (dateStr, txList) ->
+            if (typeFilter != CustomerTxTypeFilter.KHATA) transactionsByDate.forEach { (dateStr, txList) ->
                 // Highlighted Date header with bright background
                 item {
                     Box(
@@ -446,6 +491,19 @@ fun CustomerDetailSheet(
                 }
             }
 
+            // Filters only see the loaded pages: scrolling to the end pulls in the next (older) page.
+            if (typeFilter != CustomerTxTypeFilter.KHATA && !transactionsEndReached) {
+                item {
+                    LaunchedEffect(transactions.size) { onLoadMoreTransactions() }
+                    TextButton(
+                        onClick = onLoadMoreTransactions,
+                        modifier = Modifier.fillMaxWidth()
+                    ) {
+                        Text("Load older transactions", color = Blue600, fontSize = 13.sp)
+                    }
+                }
+            }
+
             // Bottom buttons: Close and Record Payment
             item {
                 Row(
@@ -482,6 +540,56 @@ fun CustomerDetailSheet(
     }
 }
 
+@Composable
+private fun StatementEntryRow(
+    row: PartyStatementRow,
+    onOpen: () -> Unit
+) {
+    val e = row.entry
+    fun rupees(v: Double) = Formatters.formatInrCurrency(v, fractionDigits = 2)
+    val title = row.txTitle ?: when (e.kind) {
+        "OPENING" -> "Opening balance"
+        else -> e.kind.lowercase().replaceFirstChar { it.uppercase() }
+    }
+    val whenText = remember(e.createdAt) {
+        SimpleDateFormat("d MMM yyyy, hh:mm a", Locale.getDefault()).format(Date(e.createdAt))
+    }
+    Card(
+        modifier = Modifier
+            .fillMaxWidth()
+            .clickable(enabled = e.transactionId != null) { onOpen() },
+        shape = RoundedCornerShape(12.dp),
+        colors = CardDefaults.cardColors(containerColor = BgPrimary),
+        elevation = CardDefaults.cardElevation(defaultElevation = 1.dp)
+    ) {
+        Row(
+            modifier = Modifier
+                .fillMaxWidth()
+                .padding(horizontal = 14.dp, vertical = 12.dp),
+            horizontalArrangement = Arrangement.SpaceBetween,
+            verticalAlignment = Alignment.CenterVertically
+        ) {
+            Column(modifier = Modifier.weight(1f)) {
+                Text(title, fontWeight = FontWeight.SemiBold, fontSize = 14.sp, color = TextPrimary, maxLines = 1)
+                val sub = listOfNotNull(e.kind.takeIf { it == "EDIT" || it == "VOID" }, whenText).joinToString(" • ")
+                Text(sub, fontSize = 12.sp, color = TextSecondary)
+            }
+            Column(horizontalAlignment = Alignment.End) {
+                if (e.debit > 0.0) {
+                    Text("+${rupees(e.debit)}", fontWeight = FontWeight.Bold, fontSize = 15.sp, color = LossRed)
+                } else {
+                    Text("-${rupees(e.credit)}", fontWeight = FontWeight.Bold, fontSize = 15.sp, color = ProfitGreen)
+                }
+                Text(
+                    "Bal ${Formatters.formatInrCurrency(e.balanceAfter, fractionDigits = 2, useAbsolute = false)}",
+                    fontSize = 11.sp,
+                    color = TextSecondary
+                )
+            }
+        }
+    }
+}
+
 @Composable
 private fun ExpandableTransactionCard(
     transaction: TransactionEntity,
@@ -8,9 +8,11 @@ import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.viewModelScope
 import com.kiranaflow.app.data.local.BillingSessionDao
 import com.kiranaflow.app.data.local.ItemEntity
+import com.kiranaflow.app.data.repository.BarcodeIndex
 import com.kiranaflow.app.data.repository.KiranaRepository
 import com.kiranaflow.app.data.local.KiranaDatabase
 import android.util.Log
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
 import com.kiranaflow.app.util.StockValidator
@@ -174,18 +176,14 @@ class BillingViewModel(application: Application) : AndroidViewModel(application)
     private val _itemsById: StateFlow<Map<Int, ItemEntity>> = _items
         .map { list -> list.associateBy { it.id } }
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyMap())
-    val searchResults: StateFlow<List<ItemEntity>> = combine(_items, _searchQuery) { items, query ->
-        Log.d("BillingViewModel", "Search called with query: '$query', items count: ${items.size}")
-        val results = if (query.isEmpty()) {
-            Log.d("BillingViewModel", "Query is empty, returning empty list")
-            emptyList()
-        } else {
-            val filtered = items.filter { it.name.contains(query, ignoreCase = true) }
-            Log.d("BillingViewModel", "Filtered results count: ${filtered.size}")
-            filtered
+    // FTS-backed: prefix match on name/category/barcode/rack, frequently sold items first.
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val searchResults: StateFlow<List<ItemEntity>> = _searchQuery
+        .flatMapLatest { query ->
+            if (query.isBlank()) flowOf(emptyList())
+            else repository.searchItemsRanked(query, limit = 50)
         }
-        results
-    }.stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
     
     // Keep searchResults as alias, add searchItems
     val searchItems: StateFlow<List<ItemEntity>> = searchResults
@@ -210,23 +208,13 @@ class BillingViewModel(application: Application) : AndroidViewModel(application)
             val raw = payload.trim()
             if (raw.isBlank()) return@launch
 
-            val candidates = LinkedHashSet<String>().apply {
-                add(raw)
-                add(raw.replace(" ", ""))
-                val digitsOnly = raw.filter(Char::isDigit)
-                if (digitsOnly.isNotBlank()) add(digitsOnly)
-            }
-
-            val db = KiranaDatabase.getDatabase(getApplication())
-
-            val found = candidates.firstNotNullOfOrNull { cand ->
-                db.itemDao().getItemByBarcode(cand)
-            }
+            // Raw, space-stripped and digits-only candidates are resolved in memory by the index;
+            // the item itself is the live row (current stock and price), not the index snapshot.
+            val found = BarcodeIndex.resolve(raw, live = _itemsById.value)
 
             if (found != null) {
                 val currentQty = billItems.value.firstOrNull { it.item.id == found.id }?.qty ?: 0.0
-                val stockItem = _itemsById.value[found.id] ?: found
-                val check = StockValidator.canAddToBill(stockItem, currentQtyInBill = currentQty, qtyToAdd = 1.0)
+                val check = StockValidator.canAddToBill(found, currentQtyInBill = currentQty, qtyToAdd = 1.0)
                 if (!check.canAdd) {
                     val msg = check.message ?: "Out of Stock"
                     _scanResults.tryEmit(BillingScanResult.OutOfStock(msg, check.availableStock))
@@ -443,15 +431,13 @@ class BillingViewModel(application: Application) : AndroidViewModel(application)
             val raw = barcode.trim()
             if (raw.isBlank()) return@launch
 
-            // Prefer DB lookup to avoid mismatch with stale/incomplete in-memory lists.
-            val db = KiranaDatabase.getDatabase(getApplication())
-            val found = db.itemDao().getItemByBarcode(raw)
-                ?: db.itemDao().getItemByBarcode(raw.replace(" ", ""))
+            // BarcodeIndex answers from memory; SQLite is consulted while it rebuilds and on a miss.
+            // The item added is the live row (current stock and price), not the index snapshot.
+            val found = BarcodeIndex.resolve(raw, live = _itemsById.value)
 
             if (found != null) {
                 val currentQty = billItems.value.firstOrNull { it.item.id == found.id }?.qty ?: 0.0
-                val stockItem = _itemsById.value[found.id] ?: found
-                val check = StockValidator.canAddToBill(stockItem, currentQtyInBill = currentQty, qtyToAdd = 1.0)
+                val check = StockValidator.canAddToBill(found, currentQtyInBill = currentQty, qtyToAdd = 1.0)
                 if (!check.canAdd) {
                     val msg = check.message ?: "Out of Stock"
                     _scanResults.tryEmit(BillingScanResult.OutOfStock(msg, check.availableStock))
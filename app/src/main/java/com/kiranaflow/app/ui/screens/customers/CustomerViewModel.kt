@@ -8,11 +8,14 @@ import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.data.local.TransactionEntity
 import com.kiranaflow.app.data.local.TransactionItemEntity
 import com.kiranaflow.app.data.repository.KiranaRepository
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flowOf
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
@@ -24,15 +27,21 @@ data class CustomerState(
     val totalReceivables: Double = 0.0,
     val searchQuery: String = "",
     val isLoading: Boolean = true,
+    // Newest pages of the selected customer's history only (see selectCustomer / loadMoreTransactions).
     val customerTransactions: List<TransactionEntity> = emptyList(),
-    val transactionItemsByTxId: Map<Int, List<TransactionItemEntity>> = emptyMap()
+    val transactionItemsByTxId: Map<Int, List<TransactionItemEntity>> = emptyMap(),
+    val customerTransactionsEndReached: Boolean = true
 )
 
+@OptIn(ExperimentalCoroutinesApi::class)
 class CustomerViewModel(application: Application) : AndroidViewModel(application) {
     private val repository = KiranaRepository(KiranaDatabase.getDatabase(application))
 
     private val _searchQuery = MutableStateFlow("")
     private val _isLoading = MutableStateFlow(true)
+    private val _selectedCustomerId = MutableStateFlow<Int?>(null)
+    private val _historyLimit = MutableStateFlow(PAGE_SIZE)
+    private val _historyEndReached = MutableStateFlow(true)
     private val _customerTransactions = MutableStateFlow<List<TransactionEntity>>(emptyList())
     private val _transactionItemsByTxId = MutableStateFlow<Map<Int, List<TransactionItemEntity>>>(emptyMap())
 
@@ -56,7 +65,8 @@ class CustomerViewModel(application: Application) : AndroidViewModel(application
             _searchQuery,
             _isLoading,
             _customerTransactions,
-            _transactionItemsByTxId
+            _transactionItemsByTxId,
+            _historyEndReached
         ) { values ->
             @Suppress("UNCHECKED_CAST")
             val customers = values[0] as List<CustomerEntity>
@@ -67,6 +77,7 @@ class CustomerViewModel(application: Application) : AndroidViewModel(application
             val txns = values[4] as List<TransactionEntity>
             @Suppress("UNCHECKED_CAST")
             val txItems = values[5] as Map<Int, List<TransactionItemEntity>>
+            val endReached = values[6] as Boolean
 
             CustomerState(
                 customers = customers,
@@ -74,25 +85,42 @@ class CustomerViewModel(application: Application) : AndroidViewModel(application
                 searchQuery = searchQuery,
                 isLoading = isLoading,
                 customerTransactions = txns,
-                transactionItemsByTxId = txItems
+                transactionItemsByTxId = txItems,
+                customerTransactionsEndReached = endReached
             )
         }.stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), CustomerState())
 
     init {
-        repository.allTransactions
-            .onEach { txns ->
+        // Only the open customer's newest [_historyLimit] transactions are loaded, and only their line-items.
+        combine(_selectedCustomerId, _historyLimit) { id, limit -> id to limit }
+            .flatMapLatest { (id, limit) ->
+                if (id == null) flowOf(emptyList<TransactionEntity>() to limit)
+                else repository.recentTransactionsForParty(id, limit).map { it to limit }
+            }
+            .onEach { (txns, limit) ->
+                _transactionItemsByTxId.value = repository.transactionItemsByTxId(txns.map { it.id })
                 _customerTransactions.value = txns
+                _historyEndReached.value = txns.size < limit
             }
             .launchIn(viewModelScope)
 
-        repository.allTransactionItems
-            .map { items -> items.groupBy { it.transactionId } }
-            .onEach { _transactionItemsByTxId.value = it }
-            .launchIn(viewModelScope)
-
         _isLoading.value = false
     }
 
+    fun selectCustomer(customerId: Int?) {
+        if (_selectedCustomerId.value != customerId) _historyLimit.value = PAGE_SIZE
+        _selectedCustomerId.value = customerId
+    }
+
+    /**
+     * Extend the open customer's history by one page. Called by the sheet when the list nears its end.
+     */
+    fun loadMoreTransactions() {
+        if (_selectedCustomerId.value == null || _historyEndReached.value) return
+        if (_customerTransactions.value.size < _historyLimit.value) return
+        _historyLimit.value += PAGE_SIZE
+    }
+
     fun search(query: String) {
         _searchQuery.value = query
     }
@@ -104,4 +132,8 @@ class CustomerViewModel(application: Application) : AndroidViewModel(application
             repository.recordPayment(customer, amount, paymentMethod)
         }
     }
-}
\ No newline at end of file
+
+    private companion object {
+        const val PAGE_SIZE = 50
+    }
+}
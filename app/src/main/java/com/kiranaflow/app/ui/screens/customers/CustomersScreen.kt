@@ -9,6 +9,7 @@ import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.ArrowForward
 import androidx.compose.material3.*
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.getValue
 import androidx.compose.ui.Alignment
@@ -30,12 +31,20 @@ import com.kiranaflow.app.util.Formatters
 fun CustomersScreen(
     modifier: Modifier = Modifier,
     viewModel: CustomerViewModel = viewModel(),
+    statementViewModel: PartyStatementViewModel = viewModel(),
     onAddCustomer: () -> Unit = {},
     onOpenSettings: () -> Unit = {},
     onCustomerClick: (Int) -> Unit = {}
 ) {
     val state by viewModel.state.collectAsState()
     var selectedCustomerId by remember { mutableStateOf<Int?>(null) }
+    val statement by statementViewModel.state.collectAsState()
+
+    LaunchedEffect(selectedCustomerId) {
+        val id = selectedCustomerId
+        viewModel.selectCustomer(id)
+        if (id != null) statementViewModel.open(id) else statementViewModel.close()
+    }
 
     val accent = tabCapsuleColor("customers")
 
@@ -167,7 +176,12 @@ fun CustomersScreen(
                 onDismiss = { selectedCustomerId = null },
                 onSavePayment = { amount, paymentMethod ->
                     viewModel.recordPayment(customerId, amount, paymentMethod)
-                }
+                },
+                statement = statement.rows.takeIf { statement.partyId == customerId },
+                statementEndReached = statement.endReached,
+                onLoadMoreStatement = statementViewModel::loadMore,
+                transactionsEndReached = state.customerTransactionsEndReached,
+                onLoadMoreTransactions = viewModel::loadMoreTransactions
             )
         }
     }
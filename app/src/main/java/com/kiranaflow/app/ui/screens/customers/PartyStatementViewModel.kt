@@ -0,0 +1,111 @@
+package com.kiranaflow.app.ui.screens.customers
+
+import android.app.Application
+import androidx.lifecycle.AndroidViewModel
+import androidx.lifecycle.viewModelScope
+import com.kiranaflow.app.data.local.KiranaDatabase
+import com.kiranaflow.app.data.local.PartyStatementRow
+import com.kiranaflow.app.data.repository.KiranaRepository
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+
+data class PartyStatementState(
+    val partyId: Int? = null,
+    // Loaded pages only (newest first); more are fetched via loadMore() as the list scrolls.
+    val rows: List<PartyStatementRow> = emptyList(),
+    val totalCount: Int = 0,
+    val endReached: Boolean = false,
+    val isLoading: Boolean = false
+)
+
+/**
+ * Paged khata statement of one party, read from party_ledger by keyset (partyId, id).
+ * Opening a party with thousands of udhaar entries reads one page, not the whole history.
+ */
+class PartyStatementViewModel(application: Application) : AndroidViewModel(application) {
+    private val repo = KiranaRepository(KiranaDatabase.getDatabase(application))
+
+    private val partyId = MutableStateFlow<Int?>(null)
+    private val _state = MutableStateFlow(PartyStatementState())
+    val state: StateFlow<PartyStatementState> = _state.asStateFlow()
+
+    private var reloadJob: Job? = null
+    private var loadMoreJob: Job? = null
+
+    init {
+        // New postings (or edited transaction titles) => re-read the pages already on screen.
+        combine(partyId, repo.tableInvalidations("party_ledger", "transactions")) { id, _ -> id }
+            .onEach { id -> reload(id) }
+            .launchIn(viewModelScope)
+    }
+
+    fun open(id: Int) {
+        partyId.value = id
+    }
+
+    fun close() {
+        partyId.value = null
+    }
+
+    private fun reload(id: Int?) {
+        reloadJob?.cancel()
+        loadMoreJob?.cancel()
+        if (id == null) {
+            _state.value = PartyStatementState()
+            return
+        }
+        val current = _state.value
+        // Same party => keep the user's scroll depth; another party => start from the first page.
+        val samePartyAsBefore = current.partyId == id
+        val target = if (samePartyAsBefore) current.rows.size.coerceAtLeast(PAGE_SIZE) else PAGE_SIZE
+        _state.value = if (samePartyAsBefore) current.copy(isLoading = true) else PartyStatementState(partyId = id, isLoading = true)
+        reloadJob = viewModelScope.launch {
+            val rows = mutableListOf<PartyStatementRow>()
+            var endReached = false
+            while (rows.size < target) {
+                val page = repo.partyStatementPage(id, beforeId = rows.lastOrNull()?.entry?.id ?: Long.MAX_VALUE, limit = PAGE_SIZE)
+                rows += page
+                if (page.size < PAGE_SIZE) {
+                    endReached = true
+                    break
+                }
+            }
+            _state.value = PartyStatementState(
+                partyId = id,
+                rows = rows,
+                totalCount = repo.countPartyStatementEntries(id),
+                endReached = endReached,
+                isLoading = false
+            )
+        }
+    }
+
+    /**
+     * Fetch the next keyset page. Called by the sheet when the list nears its end.
+     */
+    fun loadMore() {
+        val current = _state.value
+        val id = current.partyId ?: return
+        if (current.endReached || current.isLoading) return
+        if (reloadJob?.isActive == true || loadMoreJob?.isActive == true) return
+        _state.value = current.copy(isLoading = true)
+        loadMoreJob = viewModelScope.launch {
+            val page = repo.partyStatementPage(id, beforeId = current.rows.lastOrNull()?.entry?.id ?: Long.MAX_VALUE, limit = PAGE_SIZE)
+            _state.value = _state.value.copy(
+                rows = current.rows + page,
+                endReached = page.size < PAGE_SIZE,
+                isLoading = false
+            )
+        }
+    }
+
+    private companion object {
+        const val PAGE_SIZE = 50
+    }
+}
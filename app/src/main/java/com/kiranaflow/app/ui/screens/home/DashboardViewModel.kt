@@ -4,19 +4,21 @@ import android.app.Application
 import android.util.Log
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.viewModelScope
+import com.kiranaflow.app.data.local.DailyAmountRow
 import com.kiranaflow.app.data.local.ItemEntity
 import com.kiranaflow.app.data.local.ReminderEntity
 import com.kiranaflow.app.data.local.TransactionEntity
-import com.kiranaflow.app.data.local.TransactionItemEntity
 import com.kiranaflow.app.data.local.ShopSettingsStore
+import com.kiranaflow.app.data.repository.DailyRollupLedger
 import com.kiranaflow.app.data.repository.KiranaRepository
 import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.ui.components.ChartDataPoint
 import com.kiranaflow.app.util.DebugLogger
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
 import java.time.format.DateTimeFormatter
-import java.time.Instant
 import java.time.ZoneId
 import java.time.LocalDate
 
@@ -41,6 +43,7 @@ data class DashboardState(
     val selectedTimeRange: String = "7D"
 )
 
+@OptIn(ExperimentalCoroutinesApi::class)
 class DashboardViewModel(application: Application) : AndroidViewModel(application) {
     private val repository = KiranaRepository(KiranaDatabase.getDatabase(application))
     private val shopSettingsStore = ShopSettingsStore(application)
@@ -74,73 +77,67 @@ class DashboardViewModel(application: Application) : AndroidViewModel(applicatio
                 repository.cleanupOldCompletedReminders()
             }
 
-            // Kotlin Flow `combine` overloads in this project support up to 5 typed flows.
-            // Combine (range + customRange) first, then combine with the other 4 flows.
-            val rangeAndCustomRange: Flow<Pair<String, Pair<Long, Long>?>> =
-                combine(selectedRange, customRangeMillis) { range, customRange -> range to customRange }
-
-            @Suppress("UNCHECKED_CAST")
-            combine(
-                listOf(
-                    repository.allTransactions,
-                    repository.allTransactionItems,
-                    repository.getRemindersWithRecentCompleted(),
-                    repository.allItems,
-                    rangeAndCustomRange
-                )
-            ) { values ->
-                val transactions = values[0] as List<TransactionEntity>
-                val txItems = values[1] as List<TransactionItemEntity>
-                val reminders = values[2] as List<ReminderEntity>
-                val allItems = values[3] as List<ItemEntity>
-                val rangeAndCustom = values[4] as Pair<String, Pair<Long, Long>?>
-
-                val (range, customRange) = rangeAndCustom
-                val now = System.currentTimeMillis()
-                val dayMs = 24L * 60L * 60L * 1000L
+            // Wall clock for the time-anchored windows below, so they keep moving while the screen stays open.
+            val clock: SharedFlow<Long> = flow {
+                while (true) {
+                    emit(System.currentTimeMillis())
+                    delay(CLOCK_TICK_MS)
+                }
+            }.shareIn(viewModelScope, SharingStarted.WhileSubscribed(), replay = 1)
+            val today: Flow<Long> = clock.map { DailyRollupLedger.dayOf(it) }.distinctUntilChanged()
 
-                val (start, end) = when (range) {
-                    "TODAY" -> {
+            // Range-dependent series (chart + trend) are re-queried per range (and at midnight); the all-time
+            // KPIs come from daily_rollups totals, so a new sale re-reads O(days) rows instead of all history.
+            val rangeSeries: Flow<RangeSeries> =
+                combine(selectedRange, customRangeMillis, today) { range, customRange, _ -> range to customRange }
+                    .flatMapLatest { (range, customRange) ->
+                        val bounds = rangeBounds(range, customRange)
                         val zone = ZoneId.systemDefault()
-                        val startOfDay = LocalDate.now(zone).atStartOfDay(zone).toInstant().toEpochMilli()
-                        Pair(startOfDay, now)
+                        val startDay = DailyRollupLedger.dayOf(bounds.first, zone)
+                        val endDay = DailyRollupLedger.dayOf(bounds.second, zone)
+                        if (range == "TODAY") {
+                            // Today so far vs yesterday up to the same time of day (a whole yesterday would read
+                            // as a drop every morning). Re-read on every sale and clock tick as "now" moves.
+                            val startOfYesterday = LocalDate.ofEpochDay(startDay - 1).atStartOfDay(zone).toInstant().toEpochMilli()
+                            combine(repository.dailySales(startDay, endDay), clock) { daily, _ ->
+                                val elapsed = (System.currentTimeMillis() - bounds.first).coerceAtLeast(0L)
+                                val sameTimeYesterday = startOfYesterday + elapsed
+                                val prevSales = repository.salesTotalBetween(startOfYesterday, sameTimeYesterday)
+                                RangeSeries(range = range, bounds = bounds, daily = daily, prevSales = prevSales)
+                            }
+                        } else {
+                            // Previous equal-length period, in whole days.
+                            val prevEndDay = startDay - 1
+                            val prevStartDay = prevEndDay - (endDay - startDay)
+                            combine(
+                                repository.dailySales(startDay, endDay),
+                                repository.salesTotal(prevStartDay, prevEndDay)
+                            ) { daily, prevSales ->
+                                RangeSeries(range = range, bounds = bounds, daily = daily, prevSales = prevSales)
+                            }
+                        }
                     }
-                    "7D" -> Pair(now - (7L * dayMs), now)
-                    "1M" -> Pair(now - (30L * dayMs), now)
-                    "3M" -> Pair(now - (90L * dayMs), now)
-                    "6M" -> Pair(now - (180L * dayMs), now)
-                    "1Y" -> Pair(now - (365L * dayMs), now)
-                    "CUSTOM" -> customRange ?: Pair(0L, now)
-                    else -> Pair(0L, now)
-                }.let { (s, e) ->
-                    // Ensure stable bounds even if caller passes swapped values.
-                    val startBound = minOf(s, e)
-                    val endBound = maxOf(s, e)
-                    Pair(startBound, endBound)
-                }
-
-                val filtered = transactions.filter { it.date in start..end }
 
-                val expiringSoon = allItems
-                    .asSequence()
-                    .filter { it.expiryDateMillis != null }
-                    .filter { (it.expiryDateMillis ?: 0L) in now..(now + 30L * dayMs) }
-                    .sortedBy { it.expiryDateMillis }
-                    .take(10)
-                    .toList()
+            val dayMs = 24L * 60L * 60L * 1000L
+            val expiringSoon: Flow<List<ItemEntity>> = clock.flatMapLatest { now ->
+                repository.itemsExpiringBetween(now, now + 30L * dayMs, limit = 10)
+            }
 
-                Triple(filtered, range, Pair(start, end)) to Triple(transactions, reminders, expiringSoon) to Pair(txItems, allItems)
-            }.onEach { (bundlePair, itemsPair) ->
-                val (bundle, allTriple) = bundlePair
-                val (filtered, range, bounds) = bundle
-                val (allTx, reminders, expiringItems) = allTriple
-                val (allTxItems, allItems) = itemsPair
+            combine(
+                repository.rollupTotals,
+                rangeSeries,
+                repository.getRemindersWithRecentCompleted(),
+                repository.recentTransactions(limit = 5),
+                expiringSoon
+            ) { totals, series, reminders, recent, expiringItems ->
+                val range = series.range
+                val bounds = series.bounds
                 try {
                     // #region agent log
                     DebugLogger.log(
                         "DashboardViewModel.kt:43",
-                        "Processing transactions (filtered)",
-                        mapOf("count" to filtered.size, "range" to range, "start" to bounds.first, "end" to bounds.second),
+                        "Processing rollups (range)",
+                        mapOf("days" to series.daily.size, "range" to range, "start" to bounds.first, "end" to bounds.second),
                         "H5"
                     )
                     // #endregion
@@ -148,102 +145,42 @@ class DashboardViewModel(application: Application) : AndroidViewModel(applicatio
                     Log.e("DashboardViewModel", "Log failed", e)
                 }
 
-                // KPIs should feel "always alive": compute them across ALL TIME.
-                // Important: exclude settlement payments from P&L, otherwise credit sales/vendor payments get double-counted.
-                fun isSettlementPayment(tx: TransactionEntity): Boolean {
-                    val looksLikePayment = tx.title.startsWith("Payment ")
-                    val linkedParty = (tx.customerId != null || tx.vendorId != null)
-                    return looksLikePayment && linkedParty
-                }
-
-                val revenue = allTx
-                    .asSequence()
-                    .filter { it.type == "SALE" || it.type == "INCOME" }
-                    .filterNot { isSettlementPayment(it) }
-                    .sumOf { it.amount }
-                val expense = allTx
-                    .asSequence()
-                    .filter { it.type == "EXPENSE" }
-                    .filterNot { isSettlementPayment(it) }
-                    .sumOf { it.amount }
+                // KPIs should feel "always alive": they are ALL TIME totals.
+                // Settlement payments are already excluded from revenue/expense in the rollup.
+                val revenue = totals.revenue
+                val expense = totals.expense
+                // COGS (stock cost) = SALE line-items × item costPrice, captured when the sale was written.
+                val cogs = totals.cogs
+                val cashInHand = totals.cashIn - totals.cashOut
 
-                // COGS (stock cost) = sum over SALE line-items of (costPrice × qty).
-                // - For unit=PCS: qty is pieces, costPrice is per piece/packet.
-                // - For unit=KG:  qty is kilograms, costPrice is per KG (loose items).
-                // NOTE: costPrice is taken from current `items` table (not snapshot-at-sale).
-                val txTypeById: Map<Int, String> = allTx.associate { it.id to it.type }
-                val costByItemId: Map<Int, Double> = allItems.associate { it.id to it.costPrice }
-                val cogs = allTxItems
-                    .asSequence()
-                    .filter { txTypeById[it.transactionId] == "SALE" }
-                    .sumOf { line ->
-                        val itemId = line.itemId
-                        val unitCost = if (itemId != null) (costByItemId[itemId] ?: 0.0) else 0.0
-                        // Backward-compat: if any legacy GRAM entries exist, treat qty as grams -> kg.
-                        val multiplierQty = when (line.unit.uppercase()) {
-                            "GRAM", "G", "GM", "GMS", "GRAMS" -> (line.qty / 1000.0)
-                            else -> line.qty
-                        }
-                        unitCost * multiplierQty
-                    }
-
-                val daySpan = ((bounds.second - bounds.first).coerceAtLeast(0L) / (24L * 60L * 60L * 1000L)).toInt()
+                val daySpan = ((bounds.second - bounds.first).coerceAtLeast(0L) / dayMs).toInt()
                 val grouped = if (daySpan >= 62) {
                     // For longer ranges, group by month for readability/perf.
-                    filtered
-                        .filter { it.type == "SALE" }
-                        .groupBy {
-                            val d = Instant.ofEpochMilli(it.date).atZone(ZoneId.systemDefault()).toLocalDate()
-                            d.withDayOfMonth(1)
-                        }
+                    series.daily
+                        .groupBy { LocalDate.ofEpochDay(it.day).withDayOfMonth(1) }
                         .toSortedMap()
-                        .map { (date, txns) ->
+                        .map { (date, days) ->
                             ChartDataPoint(
                                 label = date.format(DateTimeFormatter.ofPattern("MMM")),
-                                value = txns.sumOf { it.amount }.toFloat()
+                                value = days.sumOf { it.amount }.toFloat()
                             )
                         }
                 } else {
-                    filtered
-                        .filter { it.type == "SALE" }
-                        .groupBy {
-                            Instant.ofEpochMilli(it.date).atZone(ZoneId.systemDefault()).toLocalDate()
-                        }
-                        .toSortedMap()
-                        .map { (date, txns) ->
-                            ChartDataPoint(
-                                label = date.format(DateTimeFormatter.ofPattern("dd MMM")),
-                                value = txns.sumOf { it.amount }.toFloat()
-                            )
-                        }
+                    series.daily.map { d ->
+                        ChartDataPoint(
+                            label = LocalDate.ofEpochDay(d.day).format(DateTimeFormatter.ofPattern("dd MMM")),
+                            value = d.amount.toFloat()
+                        )
+                    }
                 }
 
-                val cashIn = allTx
-                    .asSequence()
-                    .filter { it.paymentMode == "CASH" && (it.type == "INCOME" || it.type == "SALE") }
-                    .sumOf { it.amount }
-                val cashOut = allTx
-                    .asSequence()
-                    .filter { it.paymentMode == "CASH" && it.type == "EXPENSE" }
-                    .sumOf { it.amount }
-                val cashInHand = cashIn - cashOut
-
-                // Sales trend % change vs previous equal-length period (based on SALE only).
-                val duration = (bounds.second - bounds.first).coerceAtLeast(0L)
-                val prevStart = (bounds.first - duration).coerceAtLeast(0L)
-                val prevEnd = bounds.first
-                val currentSales = filtered
-                    .asSequence()
-                    .filter { it.type == "SALE" }
-                    .sumOf { it.amount }
-                val prevSales = allTx
-                    .asSequence()
-                    .filter { it.type == "SALE" && it.date in prevStart..prevEnd }
-                    .sumOf { it.amount }
+                // Sales trend % change vs previous equal-length period (based on SALE only; TODAY: vs yesterday so far).
+                val currentSales = series.daily.sumOf { it.amount }
+                val prevSales = series.prevSales
                 val delta = currentSales - prevSales
                 val pct = if (prevSales > 0.0) (delta / prevSales) * 100.0 else null
 
-                _state.value = _state.value.copy(
+                _state.value.copy(
                     revenue = revenue,
                     cogs = cogs,
                     expense = expense,
@@ -256,17 +193,24 @@ class DashboardViewModel(application: Application) : AndroidViewModel(applicatio
                     reminders = reminders,
                     expiringItems = expiringItems,
                     // Recent should always show the true latest activity.
-                    recentTransactions = allTx.sortedByDescending { it.date }.take(5),
+                    recentTransactions = recent,
                     chartData = grouped,
                     selectedTimeRange = range
                 )
+            }.onEach { next ->
+                // Keep shop/owner/greeting written by other collectors.
+                _state.value = next.copy(
+                    shopName = _state.value.shopName,
+                    ownerName = _state.value.ownerName,
+                    greeting = _state.value.greeting
+                )
 
                 // #region agent log
                 try {
                     DebugLogger.log(
                         "DashboardViewModel.kt:72",
                         "State updated",
-                        mapOf("revenue" to revenue, "cogs" to cogs, "expense" to expense, "netProfit" to (revenue - cogs - expense), "range" to range),
+                        mapOf("revenue" to next.revenue, "cogs" to next.cogs, "expense" to next.expense, "netProfit" to next.netProfit, "range" to next.selectedTimeRange),
                         "H5"
                     )
                 } catch (e: Exception) {
@@ -288,6 +232,34 @@ class DashboardViewModel(application: Application) : AndroidViewModel(applicatio
         }
     }
     
+    private data class RangeSeries(
+        val range: String,
+        val bounds: Pair<Long, Long>,
+        val daily: List<DailyAmountRow>,
+        val prevSales: Double
+    )
+
+    private fun rangeBounds(range: String, customRange: Pair<Long, Long>?): Pair<Long, Long> {
+        val now = System.currentTimeMillis()
+        val dayMs = 24L * 60L * 60L * 1000L
+        val (s, e) = when (range) {
+            "TODAY" -> {
+                val zone = ZoneId.systemDefault()
+                val startOfDay = LocalDate.now(zone).atStartOfDay(zone).toInstant().toEpochMilli()
+                Pair(startOfDay, now)
+            }
+            "7D" -> Pair(now - (7L * dayMs), now)
+            "1M" -> Pair(now - (30L * dayMs), now)
+            "3M" -> Pair(now - (90L * dayMs), now)
+            "6M" -> Pair(now - (180L * dayMs), now)
+            "1Y" -> Pair(now - (365L * dayMs), now)
+            "CUSTOM" -> customRange ?: Pair(0L, now)
+            else -> Pair(0L, now)
+        }
+        // Ensure stable bounds even if caller passes swapped values.
+        return Pair(minOf(s, e), maxOf(s, e))
+    }
+
     private fun updateGreeting() {
         val hour = java.time.LocalTime.now().hour
         val greeting = when {
@@ -322,4 +294,9 @@ class DashboardViewModel(application: Application) : AndroidViewModel(applicatio
             repository.dismissReminder(id)
         }
     }
+
+    private companion object {
+        // Expiry dates and day buckets are coarse; an hourly tick is enough to keep them current.
+        const val CLOCK_TICK_MS = 60L * 60L * 1000L
+    }
 }
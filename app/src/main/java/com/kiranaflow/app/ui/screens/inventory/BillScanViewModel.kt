@@ -15,8 +15,12 @@ import com.kiranaflow.app.util.BillExtractionPipeline
 import com.kiranaflow.app.util.CorrectionLogger
 import com.kiranaflow.app.util.EntityExtractionHelper
 import com.kiranaflow.app.util.InventoryDiffEngine
+import com.kiranaflow.app.util.OcrProgress
 import com.kiranaflow.app.util.OcrUtils
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancelAndJoin
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -38,12 +42,22 @@ class BillScanViewModel(application: Application) : AndroidViewModel(application
     private val _busy = MutableStateFlow(false)
     val busy: StateFlow<Boolean> = _busy.asStateFlow()
 
+    // Pages read so far while a scan's OCR runs (multi-page PDFs); null otherwise.
+    private val _ocrProgress = MutableStateFlow<OcrProgress?>(null)
+    val ocrProgress: StateFlow<OcrProgress?> = _ocrProgress.asStateFlow()
+
+    // Collects the running scan's extraction; the model's result replaces the heuristic draft
+    // unless the user has started reviewing it (edit, discard, commit) or scanned again.
+    private var extractionJob: Job? = null
+
     fun clearDraft() {
+        extractionJob?.cancel()
         _draft.value = null
     }
 
     fun updateItem(updated: ScannedItemDraft) {
         val d = _draft.value ?: return
+        extractionJob?.cancel()
         _draft.value = d.copy(items = d.items.map { if (it.tempId == updated.tempId) updated else it })
     }
 
@@ -51,60 +65,80 @@ class BillScanViewModel(application: Application) : AndroidViewModel(application
         viewModelScope.launch {
             if (_busy.value) return@launch
             _busy.value = true
+            extractionJob?.cancelAndJoin()
+            // Load the model while OCR runs, in case the scan screen did not already.
+            BillExtractionPipeline.preload(context)
             try {
-                val cr = context.contentResolver
-                val ocrText = withContext(Dispatchers.IO) { OcrUtils.ocrFromUri(cr, uri) }
-                val parsed = BillExtractionPipeline.extract(context, ocrText)
+                val ocrText = withContext(Dispatchers.IO) {
+                    OcrUtils.ocrFromUri(context, uri) { _ocrProgress.value = it }
+                }
+                _ocrProgress.value = null
                 val learning = LearningStore(context)
 
                 // Entity extraction is best-effort hints. We don't block on it.
                 val entities = runCatching { EntityExtractionHelper.extract(ocrText) }.getOrNull()
-                val vendor = parsed.vendor.copy(
-                    name = parsed.vendor.name?.let { learning.applyVendorNameCorrection(it) } ?: parsed.vendor.name,
-                    phone = parsed.vendor.phone ?: entities?.phones?.firstOrNull(),
-                    address = parsed.vendor.address ?: entities?.addresses?.firstOrNull(),
-                    invoiceDateMillis = parsed.vendor.invoiceDateMillis ?: entities?.datesEpochMillis?.minOrNull()
-                )
-
                 val existingItems = runCatching { repo.allItemsSnapshot() }.getOrDefault(emptyList())
-
-                val drafts = parsed.items.map { line ->
-                    val correctedName = learning.applyItemNameCorrection(line.name)
-                    val match = InventoryDiffEngine.matchItem(line.name, existingItems)
-                    val existing = match.matchedItem
-                    val changeType = if (existing == null) {
-                        ChangeType.NEW
-                    } else {
-                        InventoryDiffEngine.computeChangeType(existing, line.qty, line.unitPrice)
+                val draftId = UUID.randomUUID().toString()
+                val scannedAtMillis = System.currentTimeMillis()
+
+                // The first (heuristic) result ends the busy state; a later model result keeps collecting.
+                val firstDraft = CompletableDeferred<Unit>()
+                extractionJob = launch {
+                    try {
+                        BillExtractionPipeline.extractProgressive(context, ocrText).collect { extraction ->
+                            val parsed = extraction.bill
+                            val vendor = parsed.vendor.copy(
+                                name = parsed.vendor.name?.let { learning.applyVendorNameCorrection(it) } ?: parsed.vendor.name,
+                                phone = parsed.vendor.phone ?: entities?.phones?.firstOrNull(),
+                                address = parsed.vendor.address ?: entities?.addresses?.firstOrNull(),
+                                invoiceDateMillis = parsed.vendor.invoiceDateMillis ?: entities?.datesEpochMillis?.minOrNull()
+                            )
+
+                            val drafts = parsed.items.map { line ->
+                                val correctedName = learning.applyItemNameCorrection(line.name)
+                                val match = InventoryDiffEngine.matchItem(line.name, existingItems)
+                                val existing = match.matchedItem
+                                val changeType = if (existing == null) {
+                                    ChangeType.NEW
+                                } else {
+                                    InventoryDiffEngine.computeChangeType(existing, line.qty, line.unitPrice)
+                                }
+                                ScannedItemDraft(
+                                    tempId = UUID.randomUUID().toString(),
+                                    sourceName = line.name.trim(),
+                                    sourceQty = line.qty,
+                                    sourceCostPrice = line.unitPrice,
+                                    name = correctedName.trim(),
+                                    qty = line.qty,
+                                    qtyKg = null,
+                                    unit = line.unit ?: "PCS",
+                                    costPrice = line.unitPrice,
+                                    sellingPrice = null,
+                                    gstRate = line.gstRate,
+                                    matchedItemId = existing?.id,
+                                    changeType = changeType,
+                                    confidence = match.confidence,
+                                    rawLine = line.rawLine
+                                )
+                            }
+
+                            _draft.value = ScannedBillDraft(
+                                id = draftId,
+                                scannedAtMillis = scannedAtMillis,
+                                imageUri = uri.toString(),
+                                vendor = vendor,
+                                items = drafts,
+                                invoiceTotal = parsed.grandTotalAmount
+                            )
+                            firstDraft.complete(Unit)
+                        }
+                    } finally {
+                        firstDraft.complete(Unit)
                     }
-                    ScannedItemDraft(
-                        tempId = UUID.randomUUID().toString(),
-                        sourceName = line.name.trim(),
-                        sourceQty = line.qty,
-                        sourceCostPrice = line.unitPrice,
-                        name = correctedName.trim(),
-                        qty = line.qty,
-                        qtyKg = null,
-                        unit = line.unit ?: "PCS",
-                        costPrice = line.unitPrice,
-                        sellingPrice = null,
-                        gstRate = line.gstRate,
-                        matchedItemId = existing?.id,
-                        changeType = changeType,
-                        confidence = match.confidence,
-                        rawLine = line.rawLine
-                    )
                 }
-
-                _draft.value = ScannedBillDraft(
-                    id = UUID.randomUUID().toString(),
-                    scannedAtMillis = System.currentTimeMillis(),
-                    imageUri = uri.toString(),
-                    vendor = vendor,
-                    items = drafts,
-                    invoiceTotal = parsed.grandTotalAmount
-                )
+                firstDraft.await()
             } finally {
+                _ocrProgress.value = null
                 _busy.value = false
             }
         }
@@ -119,6 +153,7 @@ class BillScanViewModel(application: Application) : AndroidViewModel(application
         viewModelScope.launch {
             if (_busy.value) return@launch
             _busy.value = true
+            extractionJob?.cancel()
             try {
                 // Self-learning: persist user corrections (best-effort, local only).
                 runCatching { CorrectionLogger.logDraftCorrections(getApplication(), d) }
@@ -36,6 +36,7 @@ import androidx.compose.material3.rememberModalBottomSheetState
 import androidx.compose.material3.Surface
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.setValue
@@ -53,6 +54,7 @@ import com.kiranaflow.app.ui.theme.GrayBg
 import com.kiranaflow.app.ui.theme.TextPrimary
 import com.kiranaflow.app.ui.theme.TextSecondary
 import com.kiranaflow.app.ui.theme.White
+import com.kiranaflow.app.util.BillExtractionPipeline
 import com.kiranaflow.app.util.DocumentScannerHelper
 import com.kiranaflow.app.util.InventoryImportDemoGenerator
 import com.kiranaflow.app.util.gst.GstFileExporter
@@ -72,6 +74,8 @@ fun BillScannerScreen(
     val cr = context.contentResolver
     val scope = rememberCoroutineScope()
     var pendingDocScanIntentSender by remember { mutableStateOf<IntentSender?>(null) }
+    // Start loading the extraction model now; it is usually warm by the time OCR finishes.
+    LaunchedEffect(Unit) { BillExtractionPipeline.preload(context) }
     var pendingCameraUri by remember { mutableStateOf<Uri?>(null) }
     val cameraLauncher = rememberLauncherForActivityResult(ActivityResultContracts.TakePicture()) { ok ->
         if (ok) {
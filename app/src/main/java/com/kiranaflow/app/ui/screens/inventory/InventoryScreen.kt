@@ -71,6 +71,7 @@ import com.kiranaflow.app.data.local.ItemEntity
 import com.kiranaflow.app.data.local.PartyEntity
 import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.data.local.CategoryHsnStore
+import com.kiranaflow.app.data.repository.BulkItemImporter
 import com.kiranaflow.app.data.repository.KiranaRepository
 import com.kiranaflow.app.ui.components.CircleButton
 import com.kiranaflow.app.ui.components.IconCircleButton
@@ -85,7 +86,6 @@ import com.kiranaflow.app.util.InputFilters
 import com.kiranaflow.app.util.OcrUtils
 import com.kiranaflow.app.util.BillExtractionPipeline
 import com.kiranaflow.app.util.BillOcrParser
-import com.kiranaflow.app.util.InventorySheetParser
 import com.kiranaflow.app.util.gst.GstValidator
 import androidx.compose.ui.text.input.KeyboardType
 import android.widget.Toast
@@ -113,6 +113,7 @@ fun InventoryScreen(
     val categoryHsnDefaults by categoryHsnStore.defaults.collectAsState(initial = emptyMap())
     val items by viewModel.filteredItems.collectAsState()
     val searchQuery by viewModel.searchQuery.collectAsState()
+    val searchCapped by viewModel.searchCapped.collectAsState()
     val isSavingItem by viewModel.isSavingItem.collectAsState()
     // Important: Navigation to scanner disposes this destination; keep modal state across navigation.
     var showAddModal by rememberSaveable { mutableStateOf(false) }
@@ -122,10 +123,12 @@ fun InventoryScreen(
     var showBulkDeleteConfirm by remember { mutableStateOf(false) }
     var showBillScanner by remember { mutableStateOf(false) }
     var importBusy by remember { mutableStateOf(false) }
+    var importProgressLabel by remember { mutableStateOf<String?>(null) }
     var purchaseDraft by remember { mutableStateOf<PurchaseDraft?>(null) }
     var showStockAdjustmentDialog by remember { mutableStateOf(false) }
     var scannedItemForStockAdjustment by remember { mutableStateOf<ItemEntity?>(null) }
     val billDraft by billScanViewModel.draft.collectAsState()
+    val billOcrProgress by billScanViewModel.ocrProgress.collectAsState()
 
     var saveEventToConfirm by remember { mutableStateOf<InventoryViewModel.ItemSaveEvent.Success?>(null) }
     var saveErrorMessage by remember { mutableStateOf<String?>(null) }
@@ -383,6 +386,17 @@ fun InventoryScreen(
                 }
             }
 
+            if (searchCapped) {
+                item {
+                    Text(
+                        "Showing first ${InventoryViewModel.SEARCH_LIMIT} matches. Type more to narrow the search.",
+                        color = TextSecondary,
+                        fontSize = 12.sp,
+                        modifier = Modifier.padding(horizontal = 24.dp)
+                    )
+                }
+            }
+
             // Selection controls
             item {
                 Box(modifier = Modifier.padding(horizontal = 24.dp)) {
@@ -413,7 +427,15 @@ fun InventoryScreen(
                                 ) {
                                     Icon(Icons.Default.AddCircle, contentDescription = null, tint = TextSecondary)
                                     Spacer(modifier = Modifier.width(6.dp))
-                                    Text("Add Inventory", fontWeight = FontWeight.Bold, color = TextSecondary)
+                                    Text(
+                                        importProgressLabel
+                                            ?: billOcrProgress?.let { p ->
+                                                if (p.pageCount > 1) "Reading pages ${p.pagesDone}/${p.pageCount}" else "Reading bill"
+                                            }
+                                            ?: "Add Inventory",
+                                        fontWeight = FontWeight.Bold,
+                                        color = TextSecondary
+                                    )
                                 }
                                 TextButton(onClick = { selectionMode = true }) {
                                     Icon(Icons.Default.Checklist, contentDescription = null, tint = TextSecondary)
@@ -598,15 +620,24 @@ fun InventoryScreen(
                     if (importBusy) return@launch
                     importBusy = true
                     try {
-                        val rows = InventorySheetParser.parse(cr, uri)
-                        val res = repo.processInventorySheetRows(rows)
-                        Toast.makeText(
-                            context,
-                            "Imported: ${res.added} added, ${res.updated} updated",
-                            Toast.LENGTH_LONG
-                        ).show()
+                        repo.importInventorySheet(cr, uri).collect { p ->
+                            when (p) {
+                                is BulkItemImporter.Progress.Running ->
+                                    importProgressLabel = p.totalRows
+                                        ?.let { total -> "Importing ${p.processedRows}/$total" }
+                                        ?: p.readFraction?.let { f -> "Importing ${(f * 100).toInt()}%" }
+                                        ?: "Importing ${p.processedRows} rows"
+                                is BulkItemImporter.Progress.Done ->
+                                    Toast.makeText(
+                                        context,
+                                        "Imported: ${p.added} added, ${p.updated} updated",
+                                        Toast.LENGTH_LONG
+                                    ).show()
+                            }
+                        }
                     } finally {
                         importBusy = false
+                        importProgressLabel = null
                     }
                 }
             }
@@ -9,12 +9,14 @@ import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.data.local.PartyEntity
 import com.kiranaflow.app.data.remote.OffProductInfo
 import com.kiranaflow.app.data.remote.OpenFoodFactsClient
+import com.kiranaflow.app.data.repository.BarcodeIndex
 import com.kiranaflow.app.data.repository.KiranaRepository
 import com.kiranaflow.app.util.ProductImageStore
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
 import android.util.Log
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.withContext
 
 class InventoryViewModel(application: Application) : AndroidViewModel(application) {
@@ -29,10 +31,18 @@ class InventoryViewModel(application: Application) : AndroidViewModel(applicatio
     val vendors: StateFlow<List<PartyEntity>> = repository.vendors
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
     
-    val filteredItems: StateFlow<List<ItemEntity>> = combine(_items, _searchQuery) { items, query ->
-        if (query.isEmpty()) items
-        else items.filter { it.name.contains(query, ignoreCase = true) || it.category.contains(query, ignoreCase = true) }
-    }.stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val filteredItems: StateFlow<List<ItemEntity>> = _searchQuery
+        .flatMapLatest { query ->
+            if (query.isBlank()) _items
+            else repository.searchItemsRanked(query, limit = SEARCH_LIMIT)
+        }
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
+
+    /** True when a search filled [SEARCH_LIMIT] rows, i.e. more items may match than are listed. */
+    val searchCapped: StateFlow<Boolean> = combine(_searchQuery, filteredItems) { query, items ->
+        query.isNotBlank() && items.size >= SEARCH_LIMIT
+    }.stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), false)
 
     private val _scannedItem = MutableStateFlow<ItemEntity?>(null)
     val scannedItem: StateFlow<ItemEntity?> = _scannedItem.asStateFlow()
@@ -67,7 +77,7 @@ class InventoryViewModel(application: Application) : AndroidViewModel(applicatio
         if (raw.isBlank()) return
         viewModelScope.launch {
             _scannedBarcode.value = raw
-            val found = itemDao.getItemByBarcode(raw) ?: itemDao.getItemByBarcode(raw.replace(" ", ""))
+            val found = BarcodeIndex.resolve(raw)
             _scannedItem.value = found
             Log.d("InventoryViewModel", "Barcode scanned='$raw' foundInDb=${found != null}")
 
@@ -286,4 +296,9 @@ class InventoryViewModel(application: Application) : AndroidViewModel(applicatio
     fun getItemByIdFlow(itemId: Int): Flow<ItemEntity?> {
         return itemDao.getItemByIdFlow(itemId)
     }
+
+    companion object {
+        /** Inventory search lists at most this many matches (the screen says so when the cap is hit). */
+        const val SEARCH_LIMIT = 500
+    }
 }
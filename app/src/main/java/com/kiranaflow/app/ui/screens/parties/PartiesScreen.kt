@@ -50,11 +50,13 @@ import com.kiranaflow.app.data.repository.KiranaRepository
 import com.kiranaflow.app.ui.components.*
 import androidx.compose.material.icons.outlined.Settings
 import com.kiranaflow.app.ui.theme.*
+import com.kiranaflow.app.ui.screens.customers.PartyStatementViewModel
 import com.kiranaflow.app.ui.components.dialogs.CustomerDetailSheet
 import com.kiranaflow.app.ui.components.dialogs.VendorDetailSheet
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.withContext
 import java.util.Locale
 import com.kiranaflow.app.util.InputFilters
@@ -70,6 +72,7 @@ import androidx.core.content.ContextCompat
 import androidx.compose.ui.window.Dialog
 import com.kiranaflow.app.util.Formatters
 
+@OptIn(ExperimentalCoroutinesApi::class)
 class PartiesViewModel(application: Application) : AndroidViewModel(application) {
     private val repository = KiranaRepository(KiranaDatabase.getDatabase(application))
     private val partyDao = KiranaDatabase.getDatabase(application).partyDao()
@@ -115,33 +118,21 @@ class PartiesViewModel(application: Application) : AndroidViewModel(application)
         }
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
 
-    private val allTransactions: StateFlow<List<TransactionEntity>> = repository.allTransactions
-        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
-
-    private val allTxItems: StateFlow<List<TransactionItemEntity>> = repository.allTransactionItems
-        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
-
-    // transactionId -> line items
-    val transactionItemsByTransactionId: StateFlow<Map<Int, List<TransactionItemEntity>>> = allTxItems
-        .map { items -> items.groupBy { it.transactionId } }
-        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyMap())
-
     // customerId -> recent transactions (sales + payments that reference customerId)
-    val customerTransactionsById: StateFlow<Map<Int, List<TransactionEntity>>> = allTransactions
-        .map { txs ->
-            txs.filter { it.customerId != null }
-                .groupBy { it.customerId!! }
-                .mapValues { (_, list) -> list.sortedByDescending { it.date }.take(50) }
-        }
+    val customerTransactionsById: StateFlow<Map<Int, List<TransactionEntity>>> = repository.recentTransactionsByCustomer(perCustomer = 50)
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyMap())
 
     // vendorId -> recent transactions (payments + sales/others that reference vendorId)
-    val vendorTransactionsById: StateFlow<Map<Int, List<TransactionEntity>>> = allTransactions
-        .map { txs ->
-            txs.filter { it.vendorId != null }
-                .groupBy { it.vendorId!! }
-                .mapValues { (_, list) -> list.sortedByDescending { it.date }.take(10) }
-        }
+    val vendorTransactionsById: StateFlow<Map<Int, List<TransactionEntity>>> = repository.recentTransactionsByVendor(perVendor = 10)
+        .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyMap())
+
+    // transactionId -> line items, for the recent transactions above only
+    val transactionItemsByTransactionId: StateFlow<Map<Int, List<TransactionItemEntity>>> = combine(
+        customerTransactionsById,
+        vendorTransactionsById,
+        repository.tableInvalidations("transaction_items")
+    ) { byCustomer, byVendor, _ -> (byCustomer.values.flatten() + byVendor.values.flatten()).map { it.id } }
+        .mapLatest { ids -> repository.transactionItemsByTxId(ids) }
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyMap())
 
     // vendorId -> latest transaction
@@ -315,7 +306,8 @@ fun PartiesScreen(
     onOpenReorder: () -> Unit = {},
     onOpenVendorDetail: (Int) -> Unit = {},
     onOpenTransaction: (Int) -> Unit = {},
-    viewModel: PartiesViewModel = viewModel()
+    viewModel: PartiesViewModel = viewModel(),
+    statementViewModel: PartyStatementViewModel = viewModel()
 ) {
     val context = LocalContext.current
     val shopSettingsStore = remember(context) { ShopSettingsStore(context) }
@@ -339,6 +331,10 @@ fun PartiesScreen(
     // Store IDs (not entity snapshots) so balance/fields update live while sheets are open.
     var customerDetailPartyId by remember { mutableStateOf<Int?>(null) }
     var vendorDetailPartyId by remember { mutableStateOf<Int?>(null) }
+    val statement by statementViewModel.state.collectAsState()
+    LaunchedEffect(customerDetailPartyId) {
+        customerDetailPartyId?.let(statementViewModel::open) ?: statementViewModel.close()
+    }
     var recordDueParty by remember { mutableStateOf<PartyEntity?>(null) }
 
     // Contacts import state (customers only)
@@ -726,7 +722,10 @@ fun PartiesScreen(
                 onSavePayment = { amount, method ->
                     viewModel.recordCustomerPayment(c, amount, method)
                 },
-                onOpenTransaction = onOpenTransaction
+                onOpenTransaction = onOpenTransaction,
+                statement = statement.rows.takeIf { statement.partyId == c.id },
+                statementEndReached = statement.endReached,
+                onLoadMoreStatement = statementViewModel::loadMore
             )
         }
     }
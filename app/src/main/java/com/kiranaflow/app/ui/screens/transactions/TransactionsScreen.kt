@@ -11,6 +11,7 @@ import androidx.compose.foundation.rememberScrollState
 import androidx.compose.foundation.horizontalScroll
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
+import androidx.compose.foundation.lazy.rememberLazyListState
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.*
@@ -47,6 +48,19 @@ fun TransactionsScreen(
     var selectedIds by remember { mutableStateOf<Set<Int>>(emptySet()) }
     var showDeleteConfirm by remember { mutableStateOf(false) }
     var filtersExpanded by rememberSaveable { mutableStateOf(false) }
+    val listState = rememberLazyListState()
+
+    // Only the visible pages are loaded: ask for the next keyset page as the user nears the end.
+    LaunchedEffect(listState) {
+        snapshotFlow {
+            val info = listState.layoutInfo
+            val lastVisible = info.visibleItemsInfo.lastOrNull()?.index ?: 0
+            // Include the item count so a freshly appended (but still short) page re-triggers.
+            (lastVisible >= info.totalItemsCount - 10) to info.totalItemsCount
+        }.collect { (nearEnd, _) ->
+            if (nearEnd) viewModel.loadMore()
+        }
+    }
 
     val chipColors = FilterChipDefaults.filterChipColors(
         selectedContainerColor = Blue50,
@@ -95,6 +109,7 @@ fun TransactionsScreen(
 
         // Use single LazyColumn for entire content to support landscape scrolling
         LazyColumn(
+            state = listState,
             modifier = Modifier.fillMaxSize(),
             contentPadding = PaddingValues(start = 16.dp, end = 16.dp, top = 16.dp, bottom = 100.dp),
             verticalArrangement = Arrangement.spacedBy(12.dp)
@@ -115,7 +130,7 @@ fun TransactionsScreen(
             item {
                 Column {
                     Text(
-                        "${state.results.size} result${if (state.results.size == 1) "" else "s"}",
+                        "${state.totalCount} result${if (state.totalCount == 1) "" else "s"}",
                         color = TextSecondary,
                         fontSize = 12.sp,
                         fontWeight = FontWeight.Medium
@@ -338,7 +353,7 @@ fun TransactionsScreen(
             }
 
             // Transaction results - empty state or list
-            if (state.results.isEmpty()) {
+            if (state.results.isEmpty() && !state.isLoading) {
                 item {
                     Column(
                         modifier = Modifier
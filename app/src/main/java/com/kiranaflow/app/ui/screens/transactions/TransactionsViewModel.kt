@@ -8,10 +8,16 @@ import com.kiranaflow.app.data.local.PartyEntity
 import com.kiranaflow.app.data.local.TransactionEntity
 import com.kiranaflow.app.data.local.TransactionItemEntity
 import com.kiranaflow.app.data.repository.KiranaRepository
+import com.kiranaflow.app.data.repository.KiranaRepository.TransactionExplorerFilter
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.flow.SharingStarted
 
@@ -21,7 +27,12 @@ data class TransactionsExplorerState(
     val partyType: String = "ALL", // ALL | CUSTOMER | VENDOR
     val paymentMode: String = "ALL", // ALL | CASH | UPI | CREDIT
     val dateRange: Pair<Long, Long>? = null,
+    // Loaded pages only (newest first); more are fetched via loadMore() as the list scrolls.
     val results: List<TransactionRow> = emptyList(),
+    // Total rows matching the filters (not just the loaded pages).
+    val totalCount: Int = 0,
+    val endReached: Boolean = false,
+    val isLoading: Boolean = false,
     val unsyncedTxIds: Set<Int> = emptySet()
 )
 
@@ -31,6 +42,7 @@ data class TransactionRow(
     val items: List<TransactionItemEntity>
 )
 
+@OptIn(FlowPreview::class)
 class TransactionsViewModel(application: Application) : AndroidViewModel(application) {
     private val repo = KiranaRepository(KiranaDatabase.getDatabase(application))
 
@@ -40,105 +52,36 @@ class TransactionsViewModel(application: Application) : AndroidViewModel(applica
     private val _paymentMode = MutableStateFlow("ALL")
     private val _dateRange = MutableStateFlow<Pair<Long, Long>?>(null)
 
-    private data class Filters(
-        val query: String,
-        val productQuery: String,
-        val partyType: String,
-        val paymentMode: String,
-        val dateRange: Pair<Long, Long>?
-    )
-
     private val filtersFlow =
         combine(_query, _productQuery, _partyType, _paymentMode, _dateRange) { q, pq, pt, pm, dr ->
-            Filters(query = q, productQuery = pq, partyType = pt, paymentMode = pm, dateRange = dr)
+            TransactionExplorerFilter(query = q, productQuery = pq, partyType = pt, paymentMode = pm, dateRange = dr)
         }
 
-    private data class Base(
-        val txs: List<TransactionEntity>,
-        val parties: List<PartyEntity>,
-        val txItems: List<TransactionItemEntity>,
-        val unsyncedTxIds: Set<Int>
+    private data class Pages(
+        val filter: TransactionExplorerFilter = TransactionExplorerFilter(),
+        val rows: List<TransactionRow> = emptyList(),
+        val totalCount: Int = 0,
+        val endReached: Boolean = false,
+        val isLoading: Boolean = false
     )
 
-    private val baseFlow =
-        combine(repo.allTransactions, repo.allParties, repo.allTransactionItems, repo.unsyncedTransactionIds) { txs, parties, txItems, unsynced ->
-            Base(txs = txs, parties = parties, txItems = txItems, unsyncedTxIds = unsynced)
-        }
+    private val pages = MutableStateFlow(Pages())
+    private var reloadJob: Job? = null
+    private var loadMoreJob: Job? = null
 
     val state: StateFlow<TransactionsExplorerState> =
-        combine(baseFlow, filtersFlow) { base, f ->
-            val txs = base.txs
-            val parties = base.parties
-            val txItems = base.txItems
-            val partyById = parties.associateBy { it.id }
-            val itemsByTx = txItems.groupBy { it.transactionId }
-
-            fun matchesSearch(row: TransactionRow, qRaw: String): Boolean {
-                val qn = qRaw.trim()
-                if (qn.isBlank()) return true
-                val hay = buildString {
-                    append(row.tx.title)
-                    append(" ")
-                    append(row.tx.type)
-                    append(" ")
-                    append(row.tx.paymentMode)
-                    append(" ")
-                    append(row.party?.name.orEmpty())
-                    append(" ")
-                    append(row.items.joinToString(" ") { it.itemNameSnapshot })
-                }
-                return hay.contains(qn, ignoreCase = true)
-            }
-
-            fun matchesProduct(row: TransactionRow, pqRaw: String): Boolean {
-                val pqn = pqRaw.trim()
-                if (pqn.isBlank()) return true
-                return row.items.any { it.itemNameSnapshot.contains(pqn, ignoreCase = true) }
-            }
-
-            fun matchesPartyType(row: TransactionRow, partyType: String): Boolean {
-                if (partyType == "ALL") return true
-                return row.party?.type == partyType
-            }
-
-            fun matchesPaymentMode(row: TransactionRow, paymentMode: String): Boolean {
-                if (paymentMode == "ALL") return true
-                return row.tx.paymentMode == paymentMode
-            }
-
-            fun matchesDateRange(row: TransactionRow, range: Pair<Long, Long>?): Boolean {
-                if (range == null) return true
-                val (s, e) = range
-                val start = minOf(s, e)
-                val end = maxOf(s, e)
-                return row.tx.date in start..end
-            }
-
-            val rows = txs
-                .asSequence()
-                .sortedByDescending { it.date }
-                .map { tx ->
-                    TransactionRow(
-                        tx = tx,
-                        party = tx.customerId?.let { partyById[it] } ?: tx.vendorId?.let { partyById[it] },
-                        items = itemsByTx[tx.id].orEmpty()
-                    )
-                }
-                .filter { matchesSearch(it, f.query) }
-                .filter { matchesProduct(it, f.productQuery) }
-                .filter { matchesPartyType(it, f.partyType) }
-                .filter { matchesPaymentMode(it, f.paymentMode) }
-                .filter { matchesDateRange(it, f.dateRange) }
-                .toList()
-
+        combine(filtersFlow, pages, repo.unsyncedTransactionIds) { f, p, unsynced ->
             TransactionsExplorerState(
                 query = f.query,
                 productQuery = f.productQuery,
                 partyType = f.partyType,
                 paymentMode = f.paymentMode,
                 dateRange = f.dateRange,
-                results = rows,
-                unsyncedTxIds = base.unsyncedTxIds
+                results = p.rows,
+                totalCount = p.totalCount,
+                endReached = p.endReached,
+                isLoading = p.isLoading,
+                unsyncedTxIds = unsynced
             )
         }.stateIn(
             scope = viewModelScope,
@@ -146,6 +89,80 @@ class TransactionsViewModel(application: Application) : AndroidViewModel(applica
             initialValue = TransactionsExplorerState()
         )
 
+    init {
+        // Filters (debounced for typing) or writes to the joined tables => re-run the SQL for the
+        // pages already on screen. Nothing is filtered in memory.
+        combine(
+            filtersFlow.debounce(FILTER_DEBOUNCE_MS),
+            repo.tableInvalidations("transactions", "transaction_items", "parties")
+        ) { f, _ -> f }
+            .onEach { f -> reload(f) }
+            .launchIn(viewModelScope)
+    }
+
+    private fun reload(filter: TransactionExplorerFilter) {
+        reloadJob?.cancel()
+        loadMoreJob?.cancel()
+        // Same filter => keep the user's scroll depth; new filter => start from the first page.
+        val target = if (filter == pages.value.filter) pages.value.rows.size.coerceAtLeast(PAGE_SIZE) else PAGE_SIZE
+        pages.value = pages.value.copy(isLoading = true)
+        reloadJob = viewModelScope.launch {
+            val rows = mutableListOf<TransactionRow>()
+            var endReached = false
+            while (rows.size < target) {
+                val last = rows.lastOrNull()?.tx
+                val page = fetchPage(filter, last)
+                rows += page
+                if (page.size < PAGE_SIZE) {
+                    endReached = true
+                    break
+                }
+            }
+            val total = repo.countTransactionExplorerRows(filter)
+            pages.value = Pages(
+                filter = filter,
+                rows = rows,
+                totalCount = total,
+                endReached = endReached,
+                isLoading = false
+            )
+        }
+    }
+
+    /**
+     * Fetch the next keyset page. Called by the screen when the list nears its end.
+     */
+    fun loadMore() {
+        val current = pages.value
+        if (current.endReached || current.isLoading) return
+        if (reloadJob?.isActive == true || loadMoreJob?.isActive == true) return
+        pages.value = current.copy(isLoading = true)
+        loadMoreJob = viewModelScope.launch {
+            val page = fetchPage(current.filter, current.rows.lastOrNull()?.tx)
+            pages.value = pages.value.copy(
+                rows = current.rows + page,
+                endReached = page.size < PAGE_SIZE,
+                isLoading = false
+            )
+        }
+    }
+
+    private suspend fun fetchPage(filter: TransactionExplorerFilter, after: TransactionEntity?): List<TransactionRow> {
+        val page = repo.transactionExplorerPage(
+            filter = filter,
+            afterDate = after?.date,
+            afterId = after?.id ?: 0,
+            limit = PAGE_SIZE
+        )
+        return page.transactions.map { tx ->
+            TransactionRow(
+                tx = tx,
+                party = tx.customerId?.let { page.partiesById[it] } ?: tx.vendorId?.let { page.partiesById[it] },
+                items = page.itemsByTxId[tx.id].orEmpty()
+            )
+        }
+    }
+
     fun setQuery(v: String) = run { _query.value = v }
     fun setProductQuery(v: String) = run { _productQuery.value = v }
     fun setPartyType(v: String) = run { _partyType.value = v }
@@ -159,6 +176,9 @@ class TransactionsViewModel(application: Application) : AndroidViewModel(applica
             repo.deleteTransactionsByIds(ids.toList())
         }
     }
-}
-
 
+    private companion object {
+        const val PAGE_SIZE = 50
+        const val FILTER_DEBOUNCE_MS = 250L
+    }
+}
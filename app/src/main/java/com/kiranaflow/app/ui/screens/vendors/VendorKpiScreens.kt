@@ -22,6 +22,7 @@ import androidx.compose.ui.unit.sp
 import androidx.lifecycle.viewmodel.compose.viewModel
 import com.kiranaflow.app.data.local.ItemEntity
 import com.kiranaflow.app.data.local.PartyEntity
+import com.kiranaflow.app.data.local.VendorKpiRow
 import com.kiranaflow.app.ui.components.KiranaInput
 import com.kiranaflow.app.ui.components.SearchField
 import com.kiranaflow.app.ui.components.dialogs.VendorDetailSheet
@@ -29,6 +30,7 @@ import com.kiranaflow.app.ui.theme.*
 import java.time.Instant
 import java.time.ZoneId
 import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
 import java.util.concurrent.TimeUnit
 
 @Composable
@@ -157,6 +159,7 @@ fun TotalPayablesScreen(
     val vendors by viewModel.vendorsWithPayables.collectAsState()
     val vendorTxById by viewModel.vendorTransactionsById.collectAsState()
     val txItemsByTxId by viewModel.transactionItemsByTxId.collectAsState()
+    val kpisById by viewModel.vendorKpisById.collectAsState()
     var query by remember { mutableStateOf("") }
     var reminderForVendor by remember { mutableStateOf<PartyEntity?>(null) }
     var showReminderDialog by remember { mutableStateOf(false) }
@@ -202,6 +205,7 @@ fun TotalPayablesScreen(
                         val lastDue = recent.firstOrNull { it.type == "EXPENSE" && it.paymentMode == "CREDIT" }
                         lastDue?.title
                     },
+                    kpi = kpisById[v.id],
                     onOpenDetails = { detailVendor = v },
                     onRemind = {
                         reminderForVendor = v
@@ -333,11 +337,14 @@ fun TotalPayablesScreen(
     }
 }
 
+private val KPI_DATE_FORMAT: DateTimeFormatter = DateTimeFormatter.ofPattern("d MMM")
+
 @Composable
 @OptIn(ExperimentalMaterial3Api::class)
 private fun PayableVendorRow(
     v: PartyEntity,
     lastDueNote: String?,
+    kpi: VendorKpiRow?,
     onOpenDetails: () -> Unit,
     onRemind: () -> Unit
     ,
@@ -375,6 +382,22 @@ private fun PayableVendorRow(
                             maxLines = 1
                         )
                     }
+                    if (kpi != null && kpi.purchaseCount > 0) {
+                        Spacer(modifier = Modifier.height(2.dp))
+                        Text(
+                            text = buildString {
+                                append("₹${kpi.spend.toInt()} over ${kpi.purchaseCount} purchase")
+                                if (kpi.purchaseCount > 1) append("s")
+                                kpi.lastPurchaseAt?.let { at ->
+                                    append(" • last ")
+                                    append(Instant.ofEpochMilli(at).atZone(ZoneId.systemDefault()).format(KPI_DATE_FORMAT))
+                                }
+                            },
+                            color = TextSecondary,
+                            fontSize = 12.sp,
+                            maxLines = 1
+                        )
+                    }
                 }
                 Column(horizontalAlignment = Alignment.End) {
                     Text("PAYABLE", fontSize = 10.sp, fontWeight = FontWeight.Bold, color = TextSecondary)
@@ -8,14 +8,18 @@ import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.data.local.PartyEntity
 import com.kiranaflow.app.data.local.TransactionEntity
 import com.kiranaflow.app.data.local.TransactionItemEntity
+import com.kiranaflow.app.data.local.VendorKpiRow
 import com.kiranaflow.app.data.repository.KiranaRepository
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.mapLatest
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.launch
 
+@OptIn(ExperimentalCoroutinesApi::class)
 class VendorKpiViewModel(application: Application) : AndroidViewModel(application) {
     private val repo = KiranaRepository(KiranaDatabase.getDatabase(application))
 
@@ -39,18 +43,19 @@ class VendorKpiViewModel(application: Application) : AndroidViewModel(applicatio
         .map { it.filter { v -> v.balance < 0 }.sortedByDescending { v -> kotlin.math.abs(v.balance) } }
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5_000), emptyList())
 
-    val vendorTransactionsById: StateFlow<Map<Int, List<TransactionEntity>>> = repo.allTransactions
-        .map { txs ->
-            txs.filter { it.vendorId != null }
-                .groupBy { it.vendorId!! }
-                .mapValues { (_, list) -> list.sortedByDescending { it.date }.take(20) }
-        }
+    val vendorKpisById: StateFlow<Map<Int, VendorKpiRow>> = repo.vendorKpis
+        .map { rows -> rows.associateBy { it.vendorId } }
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5_000), emptyMap())
 
-    val transactionItemsByTxId: StateFlow<Map<Int, List<TransactionItemEntity>>> = repo.allTransactionItems
-        .map { items -> items.groupBy { it.transactionId } }
+    val vendorTransactionsById: StateFlow<Map<Int, List<TransactionEntity>>> = repo.recentTransactionsByVendor(perVendor = 20)
         .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5_000), emptyMap())
 
+    // Line-items of the transactions above only, re-read when either side changes.
+    val transactionItemsByTxId: StateFlow<Map<Int, List<TransactionItemEntity>>> =
+        combine(vendorTransactionsById, repo.tableInvalidations("transaction_items")) { byVendor, _ -> byVendor }
+            .mapLatest { byVendor -> repo.transactionItemsByTxId(byVendor.values.flatten().map { it.id }) }
+            .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5_000), emptyMap())
+
     fun recordVendorPayment(vendor: PartyEntity, amount: Double, mode: String) {
         viewModelScope.launch { repo.recordPayment(vendor, amount, mode) }
     }
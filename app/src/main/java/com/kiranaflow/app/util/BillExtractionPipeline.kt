@@ -1,21 +1,89 @@
 package com.kiranaflow.app.util
 
 import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.last
+
+data class ExtractionTimings(
+    val normalizeMs: Long,
+    val heuristicMs: Long,
+    // Null until the model ran (or when its result came from the cache).
+    val modelMs: Long? = null,
+    val cacheHit: Boolean = false
+)
+
+data class BillExtraction(
+    val bill: BillOcrParser.ParsedBill,
+    val source: Source,
+    val timings: ExtractionTimings
+) {
+    enum class Source { HEURISTIC, MODEL, CACHE }
+}
 
 /**
  * Runs best-available bill extraction with a safe fallback.
+ *
+ * [extractProgressive] shows the [BillOcrParser] result straight away and then, when FunctionGemma
+ * is available and finds line items, replaces it with the model's. The model runs through
+ * [FunctionGemmaRuntimeManager] (call [preload] when a scan screen opens) and its results are
+ * cached per OCR text.
  */
 object BillExtractionPipeline {
+    private const val TAG = "BillExtraction"
+
     private val functionGemma: BillExtractionEngine = FunctionGemmaBillExtractionEngine()
 
-    suspend fun extract(context: Context, ocrText: String): BillOcrParser.ParsedBill {
+    fun preload(context: Context) = FunctionGemmaRuntimeManager.preload(context)
+
+    /** The final result only: the model's when it has one, else the heuristic parse. */
+    suspend fun extract(context: Context, ocrText: String): BillOcrParser.ParsedBill =
+        extractProgressive(context, ocrText).last().bill
+
+    /**
+     * The heuristic result first, then the model's if it produces one (at most two emissions; one
+     * on a cache hit).
+     */
+    fun extractProgressive(context: Context, ocrText: String): Flow<BillExtraction> = flow {
+        val start = SystemClock.elapsedRealtime()
         val cleaned = BillTextNormalizer.normalize(ocrText)
-        if (cleaned.isBlank()) return BillOcrParser.ParsedBill(BillOcrParser.ParsedVendor(), emptyList())
+        val normalizeMs = SystemClock.elapsedRealtime() - start
+        if (cleaned.isBlank()) {
+            emit(
+                BillExtraction(
+                    BillOcrParser.ParsedBill(BillOcrParser.ParsedVendor(), emptyList()),
+                    BillExtraction.Source.HEURISTIC,
+                    ExtractionTimings(normalizeMs, heuristicMs = 0)
+                )
+            )
+            return@flow
+        }
 
-        // Prefer FunctionGemma if available; otherwise fall back.
-        return functionGemma.extract(context, cleaned)
-            ?: BillOcrParser.parse(cleaned)
-    }
-}
+        val key = FunctionGemmaRuntimeManager.cacheKey(cleaned)
+        FunctionGemmaRuntimeManager.cachedResult(key)?.let { cached ->
+            val timings = ExtractionTimings(normalizeMs, heuristicMs = 0, cacheHit = true)
+            Log.d(TAG, "cache hit: $timings")
+            emit(BillExtraction(cached, BillExtraction.Source.CACHE, timings))
+            return@flow
+        }
 
+        val heuristicStart = SystemClock.elapsedRealtime()
+        val heuristic = BillOcrParser.parse(cleaned)
+        val timings = ExtractionTimings(normalizeMs, SystemClock.elapsedRealtime() - heuristicStart)
+        emit(BillExtraction(heuristic, BillExtraction.Source.HEURISTIC, timings))
 
+        // Prefer FunctionGemma if available; otherwise the heuristic result stands.
+        val modelStart = SystemClock.elapsedRealtime()
+        val model = functionGemma.extract(context, cleaned)
+        val modelTimings = timings.copy(modelMs = SystemClock.elapsedRealtime() - modelStart)
+        Log.d(TAG, "${if (model != null) "model" else "heuristic only"}: $modelTimings")
+        if (model != null) {
+            FunctionGemmaRuntimeManager.cacheResult(key, model)
+            emit(BillExtraction(model, BillExtraction.Source.MODEL, modelTimings))
+        }
+    }.flowOn(Dispatchers.Default)
+}
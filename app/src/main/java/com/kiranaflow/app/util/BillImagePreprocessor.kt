@@ -0,0 +1,178 @@
+package com.kiranaflow.app.util
+
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.os.SystemClock
+import com.google.mlkit.vision.common.InputImage
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * Prepares a bill photo or rendered PDF page for OCR, in this order:
+ * - downscale to [Config.targetDpi] (photos are assumed to frame the bill's short edge, so a long
+ *   receipt keeps its width in pixels however long it is);
+ * - extract luminance into a reused byte plane (a quarter of an ARGB bitmap; handed to ML Kit as
+ *   NV21 with neutral chroma);
+ * - crop to the paper (bright region against a darker background);
+ * - deskew (projection profile over a small angle range);
+ * - stretch contrast between the 1st and 99th luminance percentiles.
+ * Every step can be switched off. Crop, deskew and contrast work on the luminance plane
+ * ([LumaPlane]), so they are skipped when [Config.grayscale] is off.
+ *
+ * Not thread-safe: an instance reuses its buffers across calls, and a [Frame] is only valid until
+ * the next [process] on the same instance. Use one instance per concurrent OCR.
+ */
+class BillImagePreprocessor(val config: Config = Config()) {
+
+    data class Config(
+        val downscale: Boolean = true,
+        val targetDpi: Int = 200,
+        // A4 short edge. Thermal receipts are narrower, so they stay at or above targetDpi too.
+        val assumedShortEdgeInches: Float = 8.27f,
+        // Memory guard for extreme aspect ratios (ARGB bitmaps take 4 bytes per pixel).
+        val maxPixels: Int = 12_000_000,
+        val grayscale: Boolean = true,
+        val cropToDocument: Boolean = true,
+        val deskew: Boolean = true,
+        val normalizeContrast: Boolean = true
+    ) {
+        val maxShortEdgePx: Int get() = (targetDpi * assumedShortEdgeInches).roundToInt()
+
+        /** Scale (at most 1) that brings a [width] x [height] image down to [targetDpi]. */
+        fun downscaleFactor(width: Int, height: Int): Float {
+            val byEdge = maxShortEdgePx.toFloat() / min(width, height)
+            val byArea = sqrt(maxPixels.toDouble() / (width.toLong() * height)).toFloat()
+            return minOf(1f, byEdge, byArea)
+        }
+
+        companion object {
+            /** The bitmap as decoded: what OCR got before this stage existed. */
+            val OFF = Config(
+                downscale = false,
+                grayscale = false,
+                cropToDocument = false,
+                deskew = false,
+                normalizeContrast = false
+            )
+        }
+    }
+
+    class Frame internal constructor(
+        val width: Int,
+        val height: Int,
+        private val nv21: ByteArray?,
+        private val bitmap: Bitmap?,
+        // Step name -> wall time, in the order the steps ran.
+        val stepMs: Map<String, Long>,
+        val skewDegrees: Float,
+        // In the downscaled image's coordinates; null when not cropped.
+        val crop: Rect?
+    ) {
+        fun toInputImage(): InputImage =
+            if (nv21 != null) {
+                InputImage.fromByteArray(nv21, width, height, 0, InputImage.IMAGE_FORMAT_NV21)
+            } else {
+                InputImage.fromBitmap(bitmap!!, 0)
+            }
+    }
+
+    private val plane = LumaPlane()
+    private var nv21 = ByteArray(0)
+    private var rowPixels = IntArray(0)
+
+    fun process(source: Bitmap): Frame {
+        val steps = LinkedHashMap<String, Long>()
+        var t = SystemClock.elapsedRealtime()
+        fun mark(step: String) {
+            val now = SystemClock.elapsedRealtime()
+            steps[step] = now - t
+            t = now
+        }
+
+        var bitmap = source
+        if (config.downscale) {
+            val scale = config.downscaleFactor(source.width, source.height)
+            if (scale < 1f) {
+                bitmap = Bitmap.createScaledBitmap(
+                    source,
+                    max(1, (source.width * scale).roundToInt()),
+                    max(1, (source.height * scale).roundToInt()),
+                    true
+                )
+            }
+            mark("downscale")
+        }
+        if (!config.grayscale) {
+            return Frame(bitmap.width, bitmap.height, null, bitmap, steps, 0f, null)
+        }
+
+        var w = bitmap.width
+        var h = bitmap.height
+        extractLuma(bitmap, w, h)
+        if (bitmap !== source) bitmap.recycle()
+        mark("luminance")
+
+        var crop: Rect? = null
+        if (config.cropToDocument) {
+            val box = plane.documentBounds(w, h)
+            if (box != null) {
+                plane.compact(w, box)
+                crop = Rect(box.left, box.top, box.right, box.bottom)
+                w = box.width
+                h = box.height
+            }
+            mark("crop")
+        }
+
+        var skew = 0f
+        if (config.deskew) {
+            skew = plane.estimateSkew(w, h)
+            if (abs(skew) >= LumaPlane.MIN_SKEW_DEGREES) plane.rotate(w, h, skew)
+            mark("deskew")
+        }
+
+        if (config.normalizeContrast) {
+            plane.stretchContrast(w * h)
+            mark("contrast")
+        }
+
+        // NV21 wants even dimensions; drop the odd last row/column.
+        val ew = w and 1.inv()
+        val eh = h and 1.inv()
+        val size = ew * eh * 3 / 2
+        if (nv21.size < size) nv21 = ByteArray(size)
+        val luma = plane.luma
+        for (y in 0 until eh) System.arraycopy(luma, y * w, nv21, y * ew, ew)
+        nv21.fill(NEUTRAL_CHROMA, ew * eh, size)
+        mark("pack")
+
+        return Frame(ew, eh, nv21, null, steps, skew, crop)
+    }
+
+    private fun extractLuma(bitmap: Bitmap, w: Int, h: Int) {
+        plane.ensureCapacity(w * h)
+        val luma = plane.luma
+        val rows = max(1, min(h, ROWS_PER_READ))
+        if (rowPixels.size < w * rows) rowPixels = IntArray(w * rows)
+        var y = 0
+        while (y < h) {
+            val n = min(rows, h - y)
+            bitmap.getPixels(rowPixels, 0, w, 0, y, w, n)
+            var o = y * w
+            for (i in 0 until w * n) {
+                val c = rowPixels[i]
+                // BT.601 weights in 8.8 fixed point.
+                luma[o++] = ((77 * ((c shr 16) and 0xFF) + 150 * ((c shr 8) and 0xFF) + 29 * (c and 0xFF)) shr 8).toByte()
+            }
+            y += n
+        }
+    }
+
+    private companion object {
+        const val ROWS_PER_READ = 64
+        const val NEUTRAL_CHROMA: Byte = -128
+    }
+}
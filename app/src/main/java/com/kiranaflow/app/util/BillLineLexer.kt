@@ -0,0 +1,210 @@
+package com.kiranaflow.app.util
+
+/**
+ * One OCR line of a bill, lexed once for [BillOcrParser]'s rules.
+ *
+ * [text] is the line with whitespace runs collapsed to one space; [tokens] are its space-separated
+ * words, each typed up front ([BillLineLexer.NUMBER], [BillLineLexer.AMOUNT], [BillLineLexer.UNIT],
+ * [BillLineLexer.QUANTITY]). Line-level fields (GSTIN, phone, invoice number, date, header/skip/tax/
+ * total markers) are worked out on first use and then kept, behind cheap character checks so
+ * most lines never reach a regex.
+ *
+ * The token types mirror the character classes of the old per-line regexes exactly. That holds
+ * for ASCII digits and letters; a line with characters where Android's ICU regex and a hand check
+ * could disagree (non-ASCII digits, case-folding letters, Unicode line breaks) is [exotic], and the
+ * rules then fall back to the regexes for it.
+ */
+internal class BillLine(val raw: String) {
+
+    val text: String = BillLineLexer.collapse(raw)
+
+    val tokens: List<String>
+    private val tokenStarts: IntArray
+    private val kinds: IntArray
+
+    val exotic: Boolean = raw.any(BillLineLexer::isExoticChar)
+
+    init {
+        if (text.isEmpty()) {
+            tokens = emptyList()
+            tokenStarts = IntArray(0)
+            kinds = IntArray(0)
+        } else {
+            tokens = text.split(' ')
+            tokenStarts = IntArray(tokens.size)
+            var offset = 0
+            for (i in tokens.indices) {
+                tokenStarts[i] = offset
+                offset += tokens[i].length + 1
+            }
+            kinds = if (exotic) IntArray(tokens.size) else IntArray(tokens.size) { BillLineLexer.classify(tokens[it]) }
+        }
+    }
+
+    fun isKind(index: Int, kind: Int): Boolean = kinds[index] and kind != 0
+
+    /** [text] before token [index] (without the separating space). */
+    fun before(index: Int): String = text.substring(0, tokenStarts[index] - 1)
+
+    val isSkipRaw: Boolean by lazy(LazyThreadSafetyMode.NONE) { BillLineLexer.isSkip(raw) }
+    val isSkip: Boolean by lazy(LazyThreadSafetyMode.NONE) { if (text == raw) isSkipRaw else BillLineLexer.isSkip(text) }
+    val isHeaderRaw: Boolean by lazy(LazyThreadSafetyMode.NONE) { BillLineLexer.isHeader(raw) }
+    val isHeader: Boolean by lazy(LazyThreadSafetyMode.NONE) { if (text == raw) isHeaderRaw else BillLineLexer.isHeader(text) }
+
+    val gstin: String? by lazy(LazyThreadSafetyMode.NONE) {
+        if (!raw.contains('z', ignoreCase = true)) null else BillLineLexer.gstRegex.find(raw)?.value
+    }
+
+    val phone: String? by lazy(LazyThreadSafetyMode.NONE) {
+        if (exotic) BillLineLexer.phoneRegex.find(raw)?.groupValues?.getOrNull(1) else BillLineLexer.tenDigitRun(raw)
+    }
+
+    val invoiceNumber: String? by lazy(LazyThreadSafetyMode.NONE) {
+        if (!raw.contains("inv", ignoreCase = true)) null
+        else BillLineLexer.invoiceNoRegex.find(raw)?.groupValues?.getOrNull(2)
+    }
+
+    val dateText: String? by lazy(LazyThreadSafetyMode.NONE) {
+        if (raw.indexOf('/') < 0 && raw.indexOf('-') < 0) null
+        else BillLineLexer.dateRegex.find(raw)?.groupValues?.getOrNull(1)
+    }
+
+    val isTaxLine: Boolean by lazy(LazyThreadSafetyMode.NONE) {
+        (text.contains("gst", ignoreCase = true) || text.contains("tax", ignoreCase = true)) &&
+            BillLineLexer.taxLineRegex.containsMatchIn(text)
+    }
+
+    val isGrandTotalLine: Boolean by lazy(LazyThreadSafetyMode.NONE) {
+        (text.contains("total", ignoreCase = true) || text.contains("amount", ignoreCase = true)) &&
+            BillLineLexer.grandRegex.containsMatchIn(text)
+    }
+
+    /** The last token that reads as a number (₹ and commas ignored). */
+    val trailingAmount: Double? by lazy(LazyThreadSafetyMode.NONE) {
+        var i = tokens.lastIndex
+        var found: Double? = null
+        while (i >= 0 && found == null) found = BillLineLexer.parseNumber(tokens[i--])
+        found
+    }
+}
+
+internal object BillLineLexer {
+
+    // Token types (bit flags).
+    const val NUMBER = 1 // 12 or 12.5
+    const val AMOUNT = 2 // ₹1,234.50, 450
+    const val UNIT = 4 // pcs, kg, gm, ...
+    const val QUANTITY = 8 // 2kg, 1.5kgs
+
+    private val whitespaceRegex = Regex("\\s+")
+
+    val skipLineRegex = Regex(
+        pattern = "(?i)^(total|grand\\s*total|sub\\s*total|gst|cgst|sgst|igst|invoice|bill\\s*no|date|amount|net|round\\s*off|cash|upi|balance|thank)",
+    )
+    val headerLineRegex = Regex(
+        pattern = "(?i)\\b(item|particulars?|description|product)\\b.*\\b(qty|quantity)\\b.*\\b(rate|price|mrp)\\b"
+    )
+    val gstRegex = Regex("(?i)\\b\\d{2}[A-Z]{5}\\d{4}[A-Z]{1}[A-Z\\d]{1}Z[A-Z\\d]{1}\\b")
+    val phoneRegex = Regex("(?<!\\d)(\\d{10})(?!\\d)")
+    // Invoice number is highly variable; this is intentionally loose.
+    val invoiceNoRegex = Regex("(?i)\\b(inv(?:oice)?\\s*(?:no|#|number)?\\s*[:\\-]?)\\s*([A-Z0-9\\-/]{3,})\\b")
+    val dateRegex = Regex("(?i)\\b(\\d{1,2}[\\-/]\\d{1,2}[\\-/]\\d{2,4})\\b")
+    val taxLineRegex = Regex("(?i)\\b(cgst|sgst|igst|gst|tax)\\b")
+    val grandRegex = Regex("(?i)\\b(grand\\s*total|net\\s*amount|total\\s*amount|amount\\s*payable)\\b")
+
+    private val unitWords = setOf("pc", "pcs", "no", "nos", "unit", "units", "kg", "kgs", "g", "gm", "gms", "gram", "grams")
+
+    fun collapse(line: String): String = line.replace(whitespaceRegex, " ").trim()
+
+    fun isExoticChar(c: Char): Boolean =
+        (c.isDigit() && c !in '0'..'9') ||
+            c == '\u017F' || c == '\u212A' || c == '\u0085' || c == '\u2028' || c == '\u2029'
+
+    fun isSkip(line: String): Boolean {
+        val c = line.firstOrNull() ?: return false
+        if (c.code < 128 && c.lowercaseChar() !in "tgscibdanru") return false
+        return skipLineRegex.containsMatchIn(line)
+    }
+
+    fun isHeader(line: String): Boolean = line.contains('q', ignoreCase = true) && headerLineRegex.containsMatchIn(line)
+
+    fun classify(token: String): Int {
+        var kind = 0
+        if (isNumber(token, 0, token.length)) kind = kind or NUMBER
+        if (isAmount(token)) kind = kind or AMOUNT
+        if (isUnit(token, 0)) kind = kind or UNIT
+        if (quantityNumberEnd(token) > 0) kind = kind or QUANTITY
+        return kind
+    }
+
+    /** `\d+(\.\d+)?` over [from, to) of [s]. */
+    fun isNumber(s: String, from: Int, to: Int): Boolean {
+        var i = from
+        while (i < to && s[i] in '0'..'9') i++
+        if (i == from) return false
+        if (i == to) return true
+        if (s[i] != '.') return false
+        val frac = ++i
+        while (i < to && s[i] in '0'..'9') i++
+        return i == to && i > frac
+    }
+
+    /** `[₹\d][\d,]*(\.\d+)?` over the whole token. */
+    private fun isAmount(t: String): Boolean {
+        if (t.isEmpty() || (t[0] != '₹' && t[0] !in '0'..'9')) return false
+        var i = 1
+        while (i < t.length && (t[i] in '0'..'9' || t[i] == ',')) i++
+        if (i == t.length) return true
+        if (t[i] != '.') return false
+        val frac = ++i
+        while (i < t.length && t[i] in '0'..'9') i++
+        return i == t.length && i > frac
+    }
+
+    private fun isUnit(t: String, from: Int): Boolean {
+        val n = t.length - from
+        if (n < 1 || n > 5) return false
+        val sb = StringBuilder(n)
+        for (i in from until t.length) {
+            val c = t[i]
+            if (c.code >= 128) return false
+            sb.append(c.lowercaseChar())
+        }
+        return sb.toString() in unitWords
+    }
+
+    /** For "2kg"-style tokens, where the number ends; -1 otherwise. */
+    fun quantityNumberEnd(t: String): Int {
+        var i = 0
+        while (i < t.length && t[i] in '0'..'9') i++
+        if (i == 0) return -1
+        if (i + 1 < t.length && t[i] == '.' && t[i + 1] in '0'..'9') {
+            i++
+            while (i < t.length && t[i] in '0'..'9') i++
+        }
+        return if (i < t.length && isUnit(t, i)) i else -1
+    }
+
+    /** The first run of exactly ten ASCII digits. */
+    fun tenDigitRun(s: String): String? {
+        var i = 0
+        while (i < s.length) {
+            if (s[i] !in '0'..'9') {
+                i++
+                continue
+            }
+            val start = i
+            while (i < s.length && s[i] in '0'..'9') i++
+            if (i - start == 10) return s.substring(start, i)
+        }
+        return null
+    }
+
+    fun parseNumber(token: String): Double? {
+        val cleaned = token
+            .replace("₹", "")
+            .replace(",", "")
+            .trim()
+        return cleaned.toDoubleOrNull()
+    }
+}
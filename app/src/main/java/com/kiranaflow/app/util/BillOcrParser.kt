@@ -6,6 +6,11 @@ package com.kiranaflow.app.util
  * This is intentionally heuristic: real-world bills vary a lot. We aim to extract:
  * - vendor details (best-effort)
  * - line items: name, qty, unit price, total
+ *
+ * Each line is lexed once into a [BillLine] (collapsed text, typed tokens, lazily computed
+ * line-level fields); vendor, item and total rules then read those instead of re-scanning the
+ * text. Output matches the earlier regex-per-pass parser field for field; BillOcrParserGoldenTest
+ * (app/src/test) holds that parser and checks it on every unit-test run.
  */
 object BillOcrParser {
     data class ParsedVendor(
@@ -45,25 +50,6 @@ object BillOcrParser {
         val grandTotalAmount: Double? = null
     )
 
-    private val skipLineRegex = Regex(
-        pattern = "(?i)^(total|grand\\s*total|sub\\s*total|gst|cgst|sgst|igst|invoice|bill\\s*no|date|amount|net|round\\s*off|cash|upi|balance|thank)",
-    )
-
-    private val headerLineRegex = Regex(
-        pattern = "(?i)\\b(item|particulars?|description|product)\\b.*\\b(qty|quantity)\\b.*\\b(rate|price|mrp)\\b"
-    )
-
-    private val gstRegex = Regex("(?i)\\b\\d{2}[A-Z]{5}\\d{4}[A-Z]{1}[A-Z\\d]{1}Z[A-Z\\d]{1}\\b")
-    private val phoneRegex = Regex("(?<!\\d)(\\d{10})(?!\\d)")
-    private val vendorPrefixRegex = Regex("(?i)^(m\\.?\\s*/\\s*s\\.?\\s+|m/s\\s+|ms\\.?\\s+)")
-
-    // Invoice number is highly variable; this is intentionally loose.
-    private val invoiceNoRegex = Regex("(?i)\\b(inv(?:oice)?\\s*(?:no|#|number)?\\s*[:\\-]?)\\s*([A-Z0-9\\-/]{3,})\\b")
-    private val dateRegex = Regex("(?i)\\b(\\d{1,2}[\\-/]\\d{1,2}[\\-/]\\d{2,4})\\b")
-
-    // Invoice-level tax totals (best-effort)
-    private val taxLineRegex = Regex("(?i)\\b(cgst|sgst|igst|gst|tax)\\b")
-
     // Common vendor suffix/stopwords we don't want to over-weight when matching names.
     private val vendorStopwords = setOf(
         "pvt", "pvt.", "ltd", "ltd.", "limited", "private", "llp",
@@ -72,6 +58,19 @@ object BillOcrParser {
         "and", "&", "the", "co", "co.", "company"
     )
 
+    private val vendorPrefixRegex = Regex("(?i)^(m\\.?\\s*/\\s*s\\.?\\s+|m/s\\s+|ms\\.?\\s+)")
+    private val nonAlphanumericRegex = Regex("[^a-z0-9 ]")
+    private val whitespaceRegex = Regex("\\s+")
+
+    // The item line shapes, tried in this order; the first that yields an item wins. Each has a
+    // token matcher and, for exotic lines (see BillLine), the regex it mirrors.
+    private val itemRules: List<(BillLine) -> ParsedBillItem?> = listOf(
+        ::matchSpacedColumns,
+        ::matchQtyRate,
+        ::matchQtyUnitRate,
+        ::matchRateAmount
+    )
+
     // Examples:
     // "Sugar 10 45.00 450.00"
     // "Sugar 10 45 450"
@@ -99,6 +98,7 @@ object BillOcrParser {
             .lines()
             .map { it.trim() }
             .filter { it.isNotBlank() }
+            .map(::BillLine)
 
         val vendor = parseVendor(lines)
         val items = parseItems(lines)
@@ -114,12 +114,12 @@ object BillOcrParser {
         )
     }
 
-    private fun parseVendor(lines: List<String>): ParsedVendor {
-        val gst = lines.asSequence().mapNotNull { gstRegex.find(it)?.value }.firstOrNull()
-        val phone = lines.asSequence().mapNotNull { phoneRegex.find(it)?.groupValues?.getOrNull(1) }.firstOrNull()
-        val invoiceNo = lines.asSequence().mapNotNull { invoiceNoRegex.find(it)?.groupValues?.getOrNull(2) }.firstOrNull()
+    private fun parseVendor(lines: List<BillLine>): ParsedVendor {
+        val gst = lines.firstNotNullOfOrNull { it.gstin }
+        val phone = lines.firstNotNullOfOrNull { it.phone }
+        val invoiceNo = lines.firstNotNullOfOrNull { it.invoiceNumber }
         val invoiceDateMillis = lines.asSequence()
-            .mapNotNull { dateRegex.find(it)?.groupValues?.getOrNull(1) }
+            .mapNotNull { it.dateText }
             .mapNotNull { parseDateToMillisOrNull(it) }
             .firstOrNull()
 
@@ -130,35 +130,35 @@ object BillOcrParser {
             addAll(lines.take(10))
 
             // If GST line exists, try the line immediately before it.
-            val gstIdx = lines.indexOfFirst { gstRegex.containsMatchIn(it) }
+            val gstIdx = lines.indexOfFirst { it.gstin != null }
             if (gstIdx > 0) add(lines[gstIdx - 1])
 
             // If phone line exists, try the line immediately before it.
-            val phoneIdx = lines.indexOfFirst { phoneRegex.containsMatchIn(it) }
+            val phoneIdx = lines.indexOfFirst { it.phone != null }
             if (phoneIdx > 0) add(lines[phoneIdx - 1])
         }
 
         val name = candidateLines
             .asSequence()
-            .map { it.trim() }
-            .filter { it.isNotBlank() }
-            .filter { it.length >= 3 }
-            .filterNot { skipLineRegex.containsMatchIn(it) }
-            .map { it.replace(vendorPrefixRegex, "").trim() }
+            .filter { it.raw.length >= 3 }
+            .filterNot { it.isSkipRaw }
+            .map { it.raw.replace(vendorPrefixRegex, "").trim() }
             .filter { it.length >= 3 }
-            .maxByOrNull { vendorNameScore(it) }
-            ?.takeIf { vendorNameScore(it) >= 2 }
+            .map { it to vendorNameScore(it) }
+            .maxByOrNull { it.second }
+            ?.takeIf { it.second >= 2 }
+            ?.first
 
         // Address (best-effort): take a couple of lines after the vendor name line if they look address-like.
         val address = runCatching {
-            val idx = name?.let { n -> lines.indexOfFirst { it.contains(n, ignoreCase = true) } } ?: -1
+            val idx = name?.let { n -> lines.indexOfFirst { it.raw.contains(n, ignoreCase = true) } } ?: -1
             if (idx < 0) return@runCatching null
             lines.drop(idx + 1)
                 .take(3)
-                .joinToString(", ")
-                .replace(Regex("\\s+"), " ")
+                .joinToString(", ") { it.raw }
+                .replace(whitespaceRegex, " ")
                 .trim()
-                .takeIf { it.length in 8..120 && it.any { ch -> ch.isLetter() } && !gstRegex.containsMatchIn(it) }
+                .takeIf { it.length in 8..120 && it.any { ch -> ch.isLetter() } && !BillLineLexer.gstRegex.containsMatchIn(it) }
         }.getOrNull()
 
         return ParsedVendor(
@@ -185,8 +185,8 @@ object BillOcrParser {
         if (digits >= (t.length / 2)) return 0
 
         val tokens = t.lowercase()
-            .replace(Regex("[^a-z0-9 ]"), " ")
-            .split(Regex("\\s+"))
+            .replace(nonAlphanumericRegex, " ")
+            .split(whitespaceRegex)
             .filter { it.isNotBlank() }
 
         val meaningful = tokens.count { it !in vendorStopwords && it.length >= 2 }
@@ -202,126 +202,195 @@ object BillOcrParser {
         return score
     }
 
-    private fun parseItems(lines: List<String>): List<ParsedBillItem> {
+    private fun parseItems(lines: List<BillLine>): List<ParsedBillItem> {
         val items = mutableListOf<ParsedBillItem>()
-        val startIdx = lines.indexOfFirst { headerLineRegex.containsMatchIn(it) }.let { if (it >= 0) it + 1 else 0 }
-        for (raw in lines.drop(startIdx)) {
-            val line = raw
-                .replace(Regex("\\s+"), " ")
-                .trim()
-            if (line.isBlank()) continue
-            if (skipLineRegex.containsMatchIn(line)) continue
-            if (line.length < 3) continue
-            if (headerLineRegex.containsMatchIn(line)) continue
+        val startIdx = lines.indexOfFirst { it.isHeaderRaw }.let { if (it >= 0) it + 1 else 0 }
+        for (i in startIdx until lines.size) {
+            val line = lines[i]
+            val text = line.text
+            if (text.isBlank()) continue
+            if (line.isSkip) continue
+            if (text.length < 3) continue
+            if (line.isHeader) continue
             // Skip lines that are clearly headings/metadata (often mis-parsed as items)
-            if (line.length <= 4) continue
-            if (line.count { it.isDigit() } >= (line.length * 0.7)) continue
-
-            // Try common "columns" pattern: name qty unit total.
-            val m1 = spacedColumnsRegex.find(line)
-            if (m1 != null) {
-                val name = m1.groupValues[1].trim().trim('-').trim()
-                val qtyRaw = m1.groupValues[2].toDoubleOrNull()
-                val unitPrice = parseNumber(m1.groupValues[3])
-                val total = parseNumber(m1.groupValues[4])
-                val qInt = qtyRaw?.toIntOrNullSafe()
-                if (!name.isNullOrBlank() && qInt != null && qInt > 0) {
-                    items.add(
-                        ParsedBillItem(
-                            name = name,
-                            qty = qInt,
-                            qtyRaw = qtyRaw,
-                            unit = "PCS",
-                            unitPrice = unitPrice,
-                            total = total,
-                            rawLine = raw
-                        )
-                    )
-                    continue
-                }
-            }
+            if (text.length <= 4) continue
+            if (text.count { it.isDigit() } >= (text.length * 0.7)) continue
 
-            // Try "name x qty @ price" pattern.
-            val m2 = qtyRateRegex.find(line)
-            if (m2 != null) {
-                val name = m2.groupValues[1].trim().trim('-').trim()
-                val qtyRaw = m2.groupValues[2].toDoubleOrNull()
-                val unitPrice = m2.groupValues[3].toDoubleOrNull()
-                val qInt = qtyRaw?.toIntOrNullSafe()
-                if (!name.isNullOrBlank() && qInt != null && qInt > 0) {
-                    val total = if (unitPrice != null) unitPrice * qInt else null
-                    items.add(
-                        ParsedBillItem(
-                            name = name,
-                            qty = qInt,
-                            qtyRaw = qtyRaw,
-                            unit = "PCS",
-                            unitPrice = unitPrice,
-                            total = total,
-                            rawLine = raw
-                        )
-                    )
-                    continue
-                }
+            for (rule in itemRules) {
+                val item = rule(line) ?: continue
+                items.add(item)
+                break
             }
+        }
 
-            // Try "name qty pcs unitPrice" pattern.
-            val m3 = qtyUnitRateRegex.find(line)
-            if (m3 != null) {
-                val name = m3.groupValues[1].trim().trim('-').trim()
-                val qtyRaw = m3.groupValues[2].toDoubleOrNull()
-                val unitToken = line.lowercase().split(" ").firstOrNull { it in setOf("kg", "kgs", "g", "gm", "gms", "grams", "pcs", "pc", "nos", "units") }
-                val unit = when {
-                    unitToken == null -> "PCS"
-                    unitToken.startsWith("kg") -> "KG"
-                    unitToken.startsWith("g") -> "G"
-                    else -> "PCS"
-                }
-                val unitPrice = m3.groupValues[3].toDoubleOrNull()
-                val qInt = qtyRaw?.toIntOrNullSafe()
-                if (!name.isNullOrBlank() && qInt != null && qInt > 0) {
-                    val total = if (unitPrice != null) unitPrice * qInt else null
-                    items.add(
-                        ParsedBillItem(
-                            name = name,
-                            qty = qInt,
-                            qtyRaw = qtyRaw,
-                            unit = unit,
-                            unitPrice = unitPrice,
-                            total = total,
-                            rawLine = raw
-                        )
-                    )
-                    continue
-                }
+        // De-dupe: OCR often repeats the same line twice.
+        return items
+            .distinctBy { (it.name.lowercase() + "|" + it.qty + "|" + (it.unitPrice ?: 0.0)) }
+    }
+
+    // name qty rate amount
+    private fun matchSpacedColumns(line: BillLine): ParsedBillItem? {
+        val g: List<String> = if (line.exotic) {
+            spacedColumnsRegex.find(line.text)?.groupValues ?: return null
+        } else {
+            val t = line.tokens
+            val n = t.size
+            if (n < 4 ||
+                !line.isKind(n - 3, BillLineLexer.NUMBER) ||
+                !line.isKind(n - 2, BillLineLexer.AMOUNT) ||
+                !line.isKind(n - 1, BillLineLexer.AMOUNT)
+            ) return null
+            listOf(line.text, line.before(n - 3), t[n - 3], t[n - 2], t[n - 1])
+        }
+        val name = g[1].trim().trim('-').trim()
+        val qtyRaw = g[2].toDoubleOrNull()
+        val unitPrice = BillLineLexer.parseNumber(g[3])
+        val total = BillLineLexer.parseNumber(g[4])
+        val qInt = qtyRaw?.toIntOrNullSafe()
+        if (name.isBlank() || qInt == null || qInt <= 0) return null
+        return ParsedBillItem(
+            name = name,
+            qty = qInt,
+            qtyRaw = qtyRaw,
+            unit = "PCS",
+            unitPrice = unitPrice,
+            total = total,
+            rawLine = line.raw
+        )
+    }
+
+    // name x qty @ rate
+    private fun matchQtyRate(line: BillLine): ParsedBillItem? {
+        val g = (if (line.exotic) qtyRateRegex.find(line.text)?.groupValues else qtyRateGroups(line.text)) ?: return null
+        val name = g[1].trim().trim('-').trim()
+        val qtyRaw = g[2].toDoubleOrNull()
+        val unitPrice = g[3].toDoubleOrNull()
+        val qInt = qtyRaw?.toIntOrNullSafe()
+        if (name.isBlank() || qInt == null || qInt <= 0) return null
+        val total = if (unitPrice != null) unitPrice * qInt else null
+        return ParsedBillItem(
+            name = name,
+            qty = qInt,
+            qtyRaw = qtyRaw,
+            unit = "PCS",
+            unitPrice = unitPrice,
+            total = total,
+            rawLine = line.raw
+        )
+    }
+
+    // name qty unit rate
+    private fun matchQtyUnitRate(line: BillLine): ParsedBillItem? {
+        val g: List<String> = if (line.exotic) {
+            qtyUnitRateRegex.find(line.text)?.groupValues ?: return null
+        } else {
+            val t = line.tokens
+            val n = t.size
+            if (n < 3 || !line.isKind(n - 1, BillLineLexer.NUMBER)) return null
+            when {
+                // "2 kg 45" before "2kg 45": the regex's lazy name stops at the earliest fit.
+                n >= 4 && line.isKind(n - 3, BillLineLexer.NUMBER) && line.isKind(n - 2, BillLineLexer.UNIT) ->
+                    listOf(line.text, line.before(n - 3), t[n - 3], t[n - 1])
+                line.isKind(n - 2, BillLineLexer.QUANTITY) ->
+                    listOf(line.text, line.before(n - 2), t[n - 2].substring(0, BillLineLexer.quantityNumberEnd(t[n - 2])), t[n - 1])
+                else -> return null
             }
+        }
+        val name = g[1].trim().trim('-').trim()
+        val qtyRaw = g[2].toDoubleOrNull()
+        val unitToken = line.text.lowercase().split(" ").firstOrNull { it in setOf("kg", "kgs", "g", "gm", "gms", "grams", "pcs", "pc", "nos", "units") }
+        val unit = when {
+            unitToken == null -> "PCS"
+            unitToken.startsWith("kg") -> "KG"
+            unitToken.startsWith("g") -> "G"
+            else -> "PCS"
+        }
+        val unitPrice = g[3].toDoubleOrNull()
+        val qInt = qtyRaw?.toIntOrNullSafe()
+        if (name.isBlank() || qInt == null || qInt <= 0) return null
+        val total = if (unitPrice != null) unitPrice * qInt else null
+        return ParsedBillItem(
+            name = name,
+            qty = qInt,
+            qtyRaw = qtyRaw,
+            unit = unit,
+            unitPrice = unitPrice,
+            total = total,
+            rawLine = line.raw
+        )
+    }
+
+    // name rate amount (qty defaults to 1)
+    private fun matchRateAmount(line: BillLine): ParsedBillItem? {
+        val g: List<String> = if (line.exotic) {
+            rateAmountRegex.find(line.text)?.groupValues ?: return null
+        } else {
+            val t = line.tokens
+            val n = t.size
+            if (n < 3 || !line.isKind(n - 2, BillLineLexer.AMOUNT) || !line.isKind(n - 1, BillLineLexer.AMOUNT)) return null
+            listOf(line.text, line.before(n - 2), t[n - 2], t[n - 1])
+        }
+        val name = g[1].trim().trim('-').trim()
+        val unitPrice = BillLineLexer.parseNumber(g[2])
+        val total = BillLineLexer.parseNumber(g[3])
+        if (name.isBlank() || unitPrice == null || total == null) return null
+        return ParsedBillItem(
+            name = name,
+            qty = 1,
+            qtyRaw = 1.0,
+            unit = "PCS",
+            unitPrice = unitPrice,
+            total = total,
+            rawLine = line.raw
+        )
+    }
 
-            // Try "name rate amount" (qty defaults to 1)
-            val m4 = rateAmountRegex.find(line)
-            if (m4 != null) {
-                val name = m4.groupValues[1].trim().trim('-').trim()
-                val unitPrice = parseNumber(m4.groupValues[2])
-                val total = parseNumber(m4.groupValues[3])
-                if (!name.isNullOrBlank() && unitPrice != null && total != null) {
-                    items.add(
-                        ParsedBillItem(
-                            name = name,
-                            qty = 1,
-                            qtyRaw = 1.0,
-                            unit = "PCS",
-                            unitPrice = unitPrice,
-                            total = total,
-                            rawLine = raw
-                        )
-                    )
-                    continue
+    /**
+     * [qtyRateRegex] by hand over a collapsed line, same groups: the shortest name followed by
+     * `[ ]x[ ]qty[ ][@|at][ ]rate` up to the end, where qty takes as many digits as still leave
+     * a rate (the regex's greedy-then-backtrack order).
+     */
+    private fun qtyRateGroups(s: String): List<String>? {
+        val n = s.length
+        for (p in 1 until n) {
+            var i = p
+            if (s[i] == ' ') i++
+            if (i >= n) continue
+            val x = s[i]
+            if (x != 'x' && x != 'X' && x != '×' && x != '*') continue
+            i++
+            if (i < n && s[i] == ' ') i++
+            var j = i
+            while (j < n && s[j] in '0'..'9') j++
+            if (j == i) continue
+
+            // Whole integer part with the longest fraction first, then without, then shorter integers.
+            if (j < n && s[j] == '.') {
+                var k = j + 1
+                while (k < n && s[k] in '0'..'9') k++
+                for (end in k downTo j + 2) {
+                    rateFrom(s, end)?.let { return listOf(s, s.substring(0, p), s.substring(i, end), it) }
                 }
             }
+            for (end in j downTo i + 1) {
+                rateFrom(s, end)?.let { return listOf(s, s.substring(0, p), s.substring(i, end), it) }
+            }
         }
+        return null
+    }
 
-        // De-dupe: OCR often repeats the same line twice.
-        return items
-            .distinctBy { (it.name.lowercase() + "|" + it.qty + "|" + (it.unitPrice ?: 0.0)) }
+    // `[ ][@|at][ ]rate` from [from] to the end of [s]; the rate text, or null.
+    private fun rateFrom(s: String, from: Int): String? {
+        val n = s.length
+        var j = from
+        if (j < n && s[j] == ' ') j++
+        if (j < n && s[j] == '@') {
+            j++
+        } else if (j + 1 < n && (s[j] == 'a' || s[j] == 'A') && (s[j + 1] == 't' || s[j + 1] == 'T')) {
+            j += 2
+        }
+        if (j < n && s[j] == ' ') j++
+        return if (j < n && BillLineLexer.isNumber(s, j, n)) s.substring(j) else null
     }
 
     private fun Double.toIntOrNullSafe(): Int? {
@@ -330,14 +399,6 @@ object BillOcrParser {
         return rounded
     }
 
-    private fun parseNumber(token: String): Double? {
-        val cleaned = token
-            .replace("₹", "")
-            .replace(",", "")
-            .trim()
-        return cleaned.toDoubleOrNull()
-    }
-
     private data class InvoiceTotals(
         val totalTaxAmount: Double? = null,
         val cgstTotal: Double? = null,
@@ -346,17 +407,8 @@ object BillOcrParser {
         val grandTotalAmount: Double? = null
     )
 
-    private fun parseInvoiceTotals(lines: List<String>): InvoiceTotals {
+    private fun parseInvoiceTotals(lines: List<BillLine>): InvoiceTotals {
         // Best-effort: look for lines containing CGST/SGST/IGST/TAX and parse trailing amount.
-        fun trailingAmountOrNull(line: String): Double? {
-            val tokens = line.split(" ").reversed()
-            for (t in tokens) {
-                val n = parseNumber(t)
-                if (n != null) return n
-            }
-            return null
-        }
-
         var cgst: Double? = null
         var sgst: Double? = null
         var igst: Double? = null
@@ -364,11 +416,11 @@ object BillOcrParser {
         var grand: Double? = null
 
         for (l in lines) {
-            val line = l.replace(Regex("\\s+"), " ").trim()
+            val line = l.text
             if (line.isBlank()) continue
-            if (!taxLineRegex.containsMatchIn(line)) continue
+            if (!l.isTaxLine) continue
 
-            val amt = trailingAmountOrNull(line) ?: continue
+            val amt = l.trailingAmount ?: continue
             when {
                 line.contains("cgst", ignoreCase = true) -> cgst = amt
                 line.contains("sgst", ignoreCase = true) -> sgst = amt
@@ -378,11 +430,9 @@ object BillOcrParser {
         }
 
         // Grand total: search bottom-up for "grand total"/"net amount"/"total amount".
-        val grandRegex = Regex("(?i)\\b(grand\\s*total|net\\s*amount|total\\s*amount|amount\\s*payable)\\b")
         for (l in lines.asReversed()) {
-            val line = l.replace(Regex("\\s+"), " ").trim()
-            if (!grandRegex.containsMatchIn(line)) continue
-            grand = trailingAmountOrNull(line)
+            if (!l.isGrandTotalLine) continue
+            grand = l.trailingAmount
             if (grand != null) break
         }
 
@@ -418,4 +468,3 @@ object BillOcrParser {
 }
 
 
-
@@ -0,0 +1,82 @@
+package com.kiranaflow.app.util
+
+/**
+ * Joins the per-page OCR text of a multi-page bill ([PdfBillOcr]) into one text for the line-based
+ * parsers. Plain strings only, so it runs (and is tested) without Android.
+ */
+internal object BillPageStitcher {
+
+    private val pageMarkerRegex = Regex(
+        "(?i)^(page\\s*(no\\.?)?\\s*:?\\s*\\d+(\\s*(of|/)\\s*\\d+)?|\\d+\\s*/\\s*\\d+|cont(inue)?d\\.?.*|" +
+            "\\(?\\s*(c|b)\\s*/\\s*f\\s*\\)?.*|carried\\s+(forward|over).*|brought\\s+forward.*|page\\s+total.*)$"
+    )
+
+    private val columnHeaderRegex = Regex(
+        "(?i)\\b(item|particulars?|description|product)\\b.*\\b(qty|quantity)\\b"
+    )
+
+    // A quantity, rate or amount: a number standing on its own, not part of a date, time, phone or id.
+    private val amountTokenRegex = Regex("(?<![\\w./:-])\\d{1,6}(?:[.,]\\d{1,3})?(?![\\w./:-])")
+
+    private const val HEADER_ZONE_LINES = 15
+    private const val FOOTER_ZONE_LINES = 6
+
+    /**
+     * - drops page markers ("Page 2 of 5", "Continued", c/f and b/f lines, page totals);
+     * - on later pages, drops the repeated letterhead and column header at the top, and on all but
+     *   the last page, footers that repeat across pages (the last page keeps its totals). Item
+     *   lines are never taken for letterhead or footer: the same item bought again on the next page
+     *   is a genuine line;
+     * - rejoins an item split by the break: a name-only last line with a numbers-only first line.
+     */
+    fun stitch(pageTexts: List<String>): String {
+        val pages = pageTexts.map { text ->
+            text.lines().map { it.trim() }.filter { it.isNotEmpty() && !pageMarkerRegex.matches(it) }
+        }
+        if (pages.size <= 1) return pages.firstOrNull().orEmpty().joinToString("\n")
+
+        val header = pages.first().take(HEADER_ZONE_LINES).mapTo(HashSet(), ::lineKey)
+        val footers = pages.map { p -> p.takeLast(FOOTER_ZONE_LINES).mapTo(HashSet(), ::lineKey) }
+
+        val out = ArrayList<String>()
+        pages.forEachIndexed { index, lines ->
+            var from = 0
+            if (index > 0) {
+                while (from < lines.size && isRepeatedHeader(lines[from], header)) from++
+            }
+            var to = lines.size
+            if (index < pages.lastIndex) {
+                while (to > from && isRepeatedFooter(lines[to - 1], index, footers)) to--
+            }
+            val body = lines.subList(from, to)
+            if (body.isEmpty()) return@forEachIndexed
+
+            val last = out.lastOrNull()
+            val first = body.first()
+            if (index > 0 && last != null && isNameOnly(last) && isNumbersOnly(first)) {
+                out[out.lastIndex] = "$last $first"
+                out.addAll(body.subList(1, body.size))
+            } else {
+                out.addAll(body)
+            }
+        }
+        return out.joinToString("\n")
+    }
+
+    private fun isRepeatedHeader(line: String, header: Set<String>): Boolean =
+        columnHeaderRegex.containsMatchIn(line) || (lineKey(line) in header && !isItemLine(line))
+
+    private fun isRepeatedFooter(line: String, page: Int, footers: List<Set<String>>): Boolean =
+        !isItemLine(line) && footers.withIndex().any { (j, f) -> j != page && lineKey(line) in f }
+
+    // A name with at least two quantity/amount tokens (qty and rate or amount).
+    private fun isItemLine(line: String): Boolean =
+        line.any { it.isLetter() } && amountTokenRegex.findAll(line).take(2).count() == 2
+
+    private fun lineKey(line: String): String = line.lowercase().replace(Regex("\\s+"), " ")
+
+    private fun isNameOnly(line: String): Boolean = line.any { it.isLetter() } && line.none { it.isDigit() }
+
+    private fun isNumbersOnly(line: String): Boolean =
+        line.any { it.isDigit() } && line.count { it.isLetter() } <= 3
+}
@@ -0,0 +1,202 @@
+package com.kiranaflow.app.util
+
+import java.io.BufferedInputStream
+import java.io.Closeable
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.Reader
+import java.nio.charset.Charset
+
+/**
+ * Streaming CSV tokenizer (RFC 4180) over a [Reader] with one reusable char buffer.
+ *
+ * - Quoted fields may contain delimiters, line breaks and doubled quotes (`""` -> `"`).
+ * - CRLF, LF and bare CR all end a record.
+ * - The delimiter is `,`, `;` or TAB; when not given it is sniffed from the first record
+ *   (Tally/Busy exports often use `;` or TAB).
+ * - A leading BOM is dropped ([open] also picks UTF-16 from its BOM).
+ *
+ * Memory is bounded by the buffer plus the current record, whatever the file size.
+ */
+class CsvStreamReader(
+    private val reader: Reader,
+    delimiter: Char? = null,
+    bufferSize: Int = DEFAULT_BUFFER_SIZE
+) : Closeable {
+
+    private val buf = CharArray(bufferSize.coerceAtLeast(1024))
+    private var pos = 0
+    private var limit = 0
+    private var eof = false
+    private var pushback = NONE
+
+    private var resolvedDelimiter: Char? = delimiter
+
+    /** Effective delimiter (sniffed on first access when not given). */
+    val delimiter: Char
+        get() = resolvedDelimiter ?: sniffDelimiter().also { resolvedDelimiter = it }
+
+    /**
+     * Records as lists of fields, lazily. Records whose fields are all blank are skipped.
+     * The sequence can be iterated once.
+     */
+    fun rows(): Sequence<List<String>> = sequence {
+        val delim = delimiter
+        skipBom()
+        val field = StringBuilder()
+        val record = ArrayList<String>()
+        var inQuotes = false
+        // True once the current record has any content (so "a," yields two fields and EOF without
+        // a trailing newline still flushes the last record).
+        var dirty = false
+
+        while (true) {
+            val ch = read()
+            if (ch == NONE) break
+            val c = ch.toChar()
+            if (inQuotes) {
+                if (c == '"') {
+                    val next = read()
+                    if (next == '"'.code) {
+                        field.append('"')
+                    } else {
+                        inQuotes = false
+                        if (next != NONE) pushback = next
+                    }
+                } else {
+                    field.append(c)
+                }
+                continue
+            }
+            when (c) {
+                delim -> {
+                    record.add(field.toString())
+                    field.setLength(0)
+                    dirty = true
+                }
+                '\n', '\r' -> {
+                    if (c == '\r') {
+                        val next = read()
+                        if (next != '\n'.code && next != NONE) pushback = next
+                    }
+                    if (dirty || field.isNotEmpty()) {
+                        record.add(field.toString())
+                        field.setLength(0)
+                        if (record.any { it.isNotBlank() }) yield(record.toList())
+                    }
+                    record.clear()
+                    dirty = false
+                }
+                '"' -> {
+                    // Quotes only open a quoted field at its start; elsewhere they are literal.
+                    if (field.isEmpty()) inQuotes = true else field.append(c)
+                    dirty = true
+                }
+                else -> {
+                    field.append(c)
+                    dirty = true
+                }
+            }
+        }
+        if (dirty || field.isNotEmpty()) {
+            record.add(field.toString())
+            if (record.any { it.isNotBlank() }) yield(record.toList())
+        }
+    }
+
+    override fun close() {
+        reader.close()
+    }
+
+    private fun read(): Int {
+        if (pushback != NONE) {
+            val c = pushback
+            pushback = NONE
+            return c
+        }
+        if (pos >= limit && !fill()) return NONE
+        return buf[pos++].code
+    }
+
+    private fun fill(): Boolean {
+        if (eof) return false
+        if (pos >= limit) {
+            limit = 0
+        } else if (pos > 0) {
+            // Keep unread chars (only happens while sniffing the first record).
+            System.arraycopy(buf, pos, buf, 0, limit - pos)
+            limit -= pos
+        }
+        pos = 0
+        if (limit < buf.size) {
+            val n = reader.read(buf, limit, buf.size - limit)
+            if (n < 0) eof = true else limit += n
+        }
+        return limit > pos
+    }
+
+    private fun skipBom() {
+        if (pos >= limit && !fill()) return
+        if (buf[pos] == '\uFEFF') pos++
+    }
+
+    /**
+     * Count candidate delimiters outside quotes in the first record (within the first buffer).
+     */
+    private fun sniffDelimiter(): Char {
+        while (!eof && limit < buf.size && !hasLineBreak()) {
+            val before = limit
+            fill()
+            if (limit == before) break
+        }
+        var commas = 0
+        var semis = 0
+        var tabs = 0
+        var inQuotes = false
+        for (i in pos until limit) {
+            val c = buf[i]
+            if (c == '"') inQuotes = !inQuotes
+            if (inQuotes) continue
+            when (c) {
+                ',' -> commas++
+                ';' -> semis++
+                '\t' -> tabs++
+                '\n', '\r' -> break
+            }
+        }
+        return when {
+            tabs > commas && tabs >= semis -> '\t'
+            semis > commas -> ';'
+            else -> ','
+        }
+    }
+
+    private fun hasLineBreak(): Boolean {
+        for (i in pos until limit) {
+            if (buf[i] == '\n' || buf[i] == '\r') return true
+        }
+        return false
+    }
+
+    companion object {
+        const val DEFAULT_BUFFER_SIZE = 16 * 1024
+        private const val NONE = -1
+
+        /**
+         * Open [input] choosing the charset from its BOM (UTF-16 LE/BE, else UTF-8).
+         */
+        fun open(input: InputStream, delimiter: Char? = null): CsvStreamReader {
+            val stream = if (input.markSupported()) input else BufferedInputStream(input)
+            stream.mark(3)
+            val b0 = stream.read()
+            val b1 = stream.read()
+            stream.reset()
+            val charset: Charset = when {
+                b0 == 0xFF && b1 == 0xFE -> Charsets.UTF_16LE
+                b0 == 0xFE && b1 == 0xFF -> Charsets.UTF_16BE
+                else -> Charsets.UTF_8
+            }
+            return CsvStreamReader(InputStreamReader(stream, charset), delimiter)
+        }
+    }
+}
@@ -3,25 +3,17 @@ package com.kiranaflow.app.util
 import android.content.Context
 
 /**
- * Phase 5 placeholder: wire FunctionGemma (on-device) here.
+ * FunctionGemma (on-device, function calling) extraction.
  *
- * Current implementation:
- * - Uses a strengthened heuristic parser as the extraction backend.
- * - Keeps the API surface so we can swap in on-device FunctionGemma later without touching callers.
+ * Returns only the model's result: null when the runtime/model is unavailable or the output had
+ * no usable line items. The heuristic fallback lives in [BillExtractionPipeline], which shows the
+ * [BillOcrParser] result first and swaps in this one when it arrives.
  */
 class FunctionGemmaBillExtractionEngine : BillExtractionEngine {
     override suspend fun extract(context: Context, ocrText: String): BillOcrParser.ParsedBill? {
-        // FunctionGemma integration strategy:
         // - Try a function-calling extraction (when a runtime is available).
-        // - Validate/sanitize the result.
-        // - Fall back to the heuristic parser for safety.
+        // - Validate/sanitize the result (FunctionGemmaBillExtractor).
         val fgParsed = runCatching { FunctionGemmaBillExtractor.tryExtract(context, ocrText) }.getOrNull()
-        if (fgParsed != null && fgParsed.items.isNotEmpty()) return fgParsed
-
-        // Fallback: heuristic extraction. Return non-null only when we found line items.
-        val parsed = BillOcrParser.parse(ocrText)
-        return parsed.takeIf { it.items.isNotEmpty() }
+        return fgParsed?.takeIf { it.items.isNotEmpty() }
     }
 }
-
-
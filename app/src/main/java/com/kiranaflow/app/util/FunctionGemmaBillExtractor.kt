@@ -12,8 +12,7 @@ import org.json.JSONObject
  * - the function schema (so the model returns stable JSON)
  * - robust parsing/validation/sanitization
  *
- * The actual on-device runtime hookup can be added behind [tryRunModel] without
- * changing call sites.
+ * The on-device runtime sits behind [tryRunModel] (see [FunctionGemmaRuntimeManager]).
  */
 object FunctionGemmaBillExtractor {
      private const val TAG = "FunctionGemmaBillExtractor"
@@ -42,26 +41,14 @@ object FunctionGemmaBillExtractor {
     }
 
     /**
-     * Runtime hook.
-     *
-     * TODO: Integrate LiteRT-LM runtime + FunctionGemma model here.
-     * Keep this method returning null until the runtime is added, so the app
-     * safely falls back to heuristics.
+     * Runtime hook: the shared runtime from [FunctionGemmaRuntimeManager] (loaded once, warm
+     * sessions), or null so the caller falls back to heuristics.
      */
-    @Suppress("UNUSED_PARAMETER")
     private suspend fun tryRunModel(context: Context, prompt: String): String? {
-         // If no runtime dependency is present, we cannot run the model yet.
+         // If no runtime dependency or model asset is present, we cannot run the model.
          // Keep fallback behavior intact, but be explicit in logs so setup is obvious.
-         val runtime = FunctionGemmaRuntime.tryCreate(context) ?: run {
-             Log.w(TAG, "No FunctionGemma runtime configured. Falling back to heuristic parser.")
-             return null
-         }
-
-         // If the app doesn't ship a model asset yet, also fall back.
-         // (Runtime implementations should load DEFAULT_MODEL_ASSET.)
-         val hasAsset = runCatching { context.assets.open(DEFAULT_MODEL_ASSET).close(); true }.getOrElse { false }
-         if (!hasAsset) {
-             Log.w(TAG, "Missing model asset: $DEFAULT_MODEL_ASSET under app/src/main/assets/. Falling back.")
+         val runtime = FunctionGemmaRuntimeManager.runtime(context) ?: run {
+             Log.w(TAG, "No FunctionGemma runtime configured (needs $DEFAULT_MODEL_ASSET under app/src/main/assets/). Falling back.")
              return null
          }
 
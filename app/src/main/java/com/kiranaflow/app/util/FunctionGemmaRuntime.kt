@@ -12,6 +12,12 @@ import android.content.Context
 interface FunctionGemmaRuntime {
     suspend fun generate(prompt: String): String
 
+    /** Loads the model and readies sessions ahead of the first [generate]; a no-op once warm. */
+    suspend fun warmUp() {}
+
+    /** Frees the model and any idle sessions; the next call loads them again. */
+    fun release() {}
+
     companion object {
         /**
          * Returns a runtime if available, else null.
@@ -0,0 +1,81 @@
+package com.kiranaflow.app.util
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import java.security.MessageDigest
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+
+/**
+ * Owns the app's one [FunctionGemmaRuntime] and what makes it cheap to call repeatedly:
+ * - the runtime is resolved once (asset + classpath checks), not per scan;
+ * - [preload] loads the model in the background as soon as a scan screen opens, so the
+ *   engine and a session are usually ready by the time OCR finishes;
+ * - extractions are cached by a hash of the normalized OCR text, so re-scanning the same bill
+ *   (retake, reopened draft) does not run the model again.
+ */
+object FunctionGemmaRuntimeManager {
+    private const val TAG = "FunctionGemmaRuntime"
+    private const val MAX_CACHED_RESULTS = 16
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    @Volatile
+    private var runtime: FunctionGemmaRuntime? = null
+
+    @Volatile
+    private var resolved = false
+    private var preloadJob: Job? = null
+
+    private val results = object : LinkedHashMap<String, BillOcrParser.ParsedBill>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, BillOcrParser.ParsedBill>?): Boolean =
+            size > MAX_CACHED_RESULTS
+    }
+
+    /** The runtime, or null when the model asset or LiteRT-LM is not packaged. */
+    fun runtime(context: Context): FunctionGemmaRuntime? {
+        if (resolved) return runtime
+        synchronized(this) {
+            if (!resolved) {
+                runtime = FunctionGemmaRuntime.tryCreate(context.applicationContext)
+                resolved = true
+            }
+            return runtime
+        }
+    }
+
+    /** Starts loading the model unless it is loaded or already loading. Safe to call often. */
+    fun preload(context: Context) {
+        synchronized(this) {
+            if (preloadJob?.isActive == true) return
+            preloadJob = scope.launch {
+                val rt = runtime(context) ?: return@launch
+                val start = SystemClock.elapsedRealtime()
+                runCatching { rt.warmUp() }
+                    .onSuccess { Log.d(TAG, "Warm in ${SystemClock.elapsedRealtime() - start}ms") }
+                    .onFailure { Log.w(TAG, "Preload failed", it) }
+            }
+        }
+    }
+
+    /** Frees the model (tens to hundreds of MB); the next scan loads it again. */
+    fun releaseIfCreated() {
+        synchronized(this) { preloadJob?.cancel() }
+        runtime?.release()
+    }
+
+    fun cacheKey(normalizedText: String): String {
+        val digest = MessageDigest.getInstance("SHA-256").digest(normalizedText.toByteArray(Charsets.UTF_8))
+        return digest.joinToString("") { "%02x".format(it) }
+    }
+
+    fun cachedResult(key: String): BillOcrParser.ParsedBill? = synchronized(results) { results[key] }
+
+    fun cacheResult(key: String, bill: BillOcrParser.ParsedBill) {
+        synchronized(results) { results[key] = bill }
+    }
+}
@@ -2,12 +2,9 @@ package com.kiranaflow.app.util
 
 import android.content.ContentResolver
 import android.net.Uri
-import org.xmlpull.v1.XmlPullParser
-import org.xmlpull.v1.XmlPullParserFactory
-import java.io.BufferedReader
+import java.io.BufferedInputStream
+import java.io.FilterInputStream
 import java.io.InputStream
-import java.io.InputStreamReader
-import java.util.zip.ZipInputStream
 
 object InventorySheetParser {
     data class InventoryRow(
@@ -35,92 +32,134 @@ object InventorySheetParser {
         return emptyList()
     }
 
-    private fun parseCsv(input: InputStream): List<InventoryRow> {
-        val rows = readCsvAll(input)
-        if (rows.isEmpty()) return emptyList()
-        val header = rows.first().map { it.trim().lowercase() }
-        val idx = headerIndex(header)
-        val out = mutableListOf<InventoryRow>()
-        for (r in rows.drop(1)) {
-            val name = r.getOrNull(idx.name)?.trim().orEmpty()
-            if (name.isBlank()) continue
-            val qty = r.getOrNull(idx.qty)?.toIntSafe() ?: 0
-            val stock = r.getOrNull(idx.stock)?.toIntSafe() ?: 0
-            val cost = r.getOrNull(idx.costPrice)?.toDoubleSafe()
-            val sell = r.getOrNull(idx.sellPrice)?.toDoubleSafe()
-            val cat = r.getOrNull(idx.category)?.trim()?.ifBlank { null }
-            val vendor = r.getOrNull(idx.vendor)?.trim()?.ifBlank { null }
-            out.add(
-                InventoryRow(
-                    name = name,
-                    qty = qty,
-                    stock = stock,
-                    costPrice = cost,
-                    sellPrice = sell,
-                    category = cat,
-                    vendor = vendor
-                )
-            )
+    /**
+     * Streaming variant of [parse]: hands [block] a lazy sequence of rows, so callers (the bulk
+     * importer) can consume a large sheet without materializing it. The file stays open only for
+     * the duration of [block]. [sheetName] selects an XLSX worksheet; null means the first one.
+     *
+     * [block] also gets a read-progress probe (0..1 of the file consumed). It returns null when the
+     * size is unknown, and for XLSX, which is spooled to disk before the first row.
+     */
+    inline fun <T> useRows(
+        contentResolver: ContentResolver,
+        uri: Uri,
+        sheetName: String? = null,
+        block: (rows: Sequence<InventoryRow>, readFraction: () -> Float?) -> T
+    ): T {
+        val mime = contentResolver.getType(uri).orEmpty()
+        val totalBytes = sizeOf(contentResolver, uri)
+        val raw = contentResolver.openInputStream(uri) ?: return block(emptySequence()) { null }
+        val counting = CountingInputStream(raw)
+        counting.buffered().use { input ->
+            if (isXlsx(mime, input)) {
+                XlsxStreamReader.open(input).use { reader ->
+                    return block(mapRows(reader.rows(sheetName))) { null }
+                }
+            }
+            CsvStreamReader.open(input).use { csv ->
+                return block(mapRows(csv.rows())) {
+                    totalBytes?.let { (counting.count.toFloat() / it).coerceIn(0f, 1f) }
+                }
+            }
         }
-        return out
     }
 
     /**
-     * Minimal XLSX reader (first sheet) without external deps:
-     * - Reads sharedStrings + sheet1 XML
-     * - Extracts cell values by row/column
+     * Worksheet names of an XLSX file, in workbook order (empty for CSV / unreadable files).
      */
-    private fun parseXlsx(input: InputStream): List<InventoryRow> {
-        val zis = ZipInputStream(input)
-        val sharedStrings = mutableListOf<String>()
-        var sheetXml: ByteArray? = null
+    fun xlsxSheetNames(contentResolver: ContentResolver, uri: Uri): List<String> {
+        val input = contentResolver.openInputStream(uri) ?: return emptyList()
+        return input.use {
+            runCatching { XlsxStreamReader.open(it).use { reader -> reader.sheets.map { s -> s.name } } }
+                .getOrDefault(emptyList())
+        }
+    }
 
-        zis.use { zip ->
-            while (true) {
-                val entry = zip.nextEntry ?: break
-                val name = entry.name
-                if (name == "xl/sharedStrings.xml") {
-                    sharedStrings.clear()
-                    sharedStrings.addAll(parseSharedStrings(zip))
-                } else if (name.startsWith("xl/worksheets/sheet") && sheetXml == null) {
-                    sheetXml = zip.readBytes()
-                }
-                zip.closeEntry()
-            }
+    // MIME first; otherwise sniff the ZIP signature ("PK") without consuming the stream.
+    @PublishedApi
+    internal fun isXlsx(mime: String, input: BufferedInputStream): Boolean {
+        if (mime.contains("sheet", ignoreCase = true)) return true
+        if (mime.contains("csv", ignoreCase = true)) return false
+        input.mark(2)
+        val b0 = input.read()
+        val b1 = input.read()
+        input.reset()
+        return b0 == 'P'.code && b1 == 'K'.code
+    }
+
+    // Byte size from the provider, or null when it does not report one.
+    @PublishedApi
+    internal fun sizeOf(contentResolver: ContentResolver, uri: Uri): Long? =
+        runCatching {
+            contentResolver.openAssetFileDescriptor(uri, "r")?.use { it.length }
+        }.getOrNull()?.takeIf { it > 0 }
+
+    // Bytes pulled from the underlying stream (read-ahead included), for progress only.
+    @PublishedApi
+    internal class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+        @Volatile
+        var count: Long = 0L
+            private set
+
+        override fun read(): Int {
+            val b = super.read()
+            if (b >= 0) count++
+            return b
         }
 
-        val sheetBytes = sheetXml ?: return emptyList()
-        val table = parseSheetXml(sheetBytes.inputStream(), sharedStrings)
-        if (table.isEmpty()) return emptyList()
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val n = super.read(b, off, len)
+            if (n > 0) count += n
+            return n
+        }
 
-        val header = table.first().map { it.trim().lowercase() }
-        val idx = headerIndex(header)
-        val out = mutableListOf<InventoryRow>()
+        override fun skip(n: Long): Long {
+            val skipped = super.skip(n)
+            if (skipped > 0) count += skipped
+            return skipped
+        }
+    }
 
-        for (r in table.drop(1)) {
-            val name = r.getOrNull(idx.name)?.trim().orEmpty()
+    /**
+     * Header row + data rows -> [InventoryRow]s (rows without a name are dropped).
+     */
+    @PublishedApi
+    internal fun mapRows(table: Sequence<List<String>>): Sequence<InventoryRow> = sequence {
+        var idx: HeaderIndex? = null
+        for (r in table) {
+            val header = idx
+            if (header == null) {
+                idx = headerIndex(r.map { it.trim().lowercase() })
+                continue
+            }
+            val name = r.getOrNull(header.name)?.trim().orEmpty()
             if (name.isBlank()) continue
-            val qty = r.getOrNull(idx.qty)?.toIntSafe() ?: 0
-            val stock = r.getOrNull(idx.stock)?.toIntSafe() ?: 0
-            val cost = r.getOrNull(idx.costPrice)?.toDoubleSafe()
-            val sell = r.getOrNull(idx.sellPrice)?.toDoubleSafe()
-            val cat = r.getOrNull(idx.category)?.trim()?.ifBlank { null }
-            val vendor = r.getOrNull(idx.vendor)?.trim()?.ifBlank { null }
-            out.add(
+            yield(
                 InventoryRow(
                     name = name,
-                    qty = qty,
-                    stock = stock,
-                    costPrice = cost,
-                    sellPrice = sell,
-                    category = cat,
-                    vendor = vendor
+                    qty = r.getOrNull(header.qty)?.toIntSafe() ?: 0,
+                    stock = r.getOrNull(header.stock)?.toIntSafe() ?: 0,
+                    costPrice = r.getOrNull(header.costPrice)?.toDoubleSafe(),
+                    sellPrice = r.getOrNull(header.sellPrice)?.toDoubleSafe(),
+                    category = r.getOrNull(header.category)?.trim()?.ifBlank { null },
+                    vendor = r.getOrNull(header.vendor)?.trim()?.ifBlank { null }
                 )
             )
         }
-        return out
     }
 
+    /**
+     * CSV via [CsvStreamReader] (delimiter sniffed: `,`, `;` or TAB).
+     */
+    private fun parseCsv(input: InputStream): List<InventoryRow> =
+        mapRows(CsvStreamReader.open(input).rows()).toList()
+
+    /**
+     * XLSX (first sheet) via [XlsxStreamReader].
+     */
+    private fun parseXlsx(input: InputStream): List<InventoryRow> =
+        XlsxStreamReader.open(input).use { reader -> mapRows(reader.rows()).toList() }
+
     private data class HeaderIndex(
         val name: Int,
         val qty: Int,
@@ -147,153 +186,4 @@ object InventorySheetParser {
 
     private fun String.toIntSafe(): Int? = trim().filter { it.isDigit() || it == '-' }.toIntOrNull()
     private fun String.toDoubleSafe(): Double? = trim().replace(",", "").toDoubleOrNull()
-
-    private fun readCsvAll(input: InputStream): List<List<String>> {
-        val reader = BufferedReader(InputStreamReader(input))
-        val rows = mutableListOf<List<String>>()
-        val sb = StringBuilder()
-        val current = mutableListOf<String>()
-        var inQuotes = false
-
-        fun flushCell() {
-            current.add(sb.toString())
-            sb.setLength(0)
-        }
-        fun flushRow() {
-            flushCell()
-            rows.add(current.toList())
-            current.clear()
-        }
-
-        while (true) {
-            val ch = reader.read()
-            if (ch == -1) break
-            val c = ch.toChar()
-            when (c) {
-                '"' -> {
-                    inQuotes = !inQuotes
-                }
-                ',' -> {
-                    if (inQuotes) sb.append(c) else flushCell()
-                }
-                '\n' -> {
-                    if (inQuotes) sb.append(c) else flushRow()
-                }
-                '\r' -> Unit
-                else -> sb.append(c)
-            }
-        }
-        if (sb.isNotEmpty() || current.isNotEmpty()) {
-            flushRow()
-        }
-        return rows.filter { it.any { cell -> cell.isNotBlank() } }
-    }
-
-    private fun parseSharedStrings(input: InputStream): List<String> {
-        val parser = XmlPullParserFactory.newInstance().newPullParser()
-        parser.setInput(input, "UTF-8")
-        val strings = mutableListOf<String>()
-        var currentText: StringBuilder? = null
-        var event = parser.eventType
-        while (event != XmlPullParser.END_DOCUMENT) {
-            when (event) {
-                XmlPullParser.START_TAG -> {
-                    if (parser.name == "t") currentText = StringBuilder()
-                }
-                XmlPullParser.TEXT -> {
-                    currentText?.append(parser.text)
-                }
-                XmlPullParser.END_TAG -> {
-                    if (parser.name == "t") {
-                        strings.add(currentText?.toString().orEmpty())
-                        currentText = null
-                    }
-                }
-            }
-            event = parser.next()
-        }
-        return strings
-    }
-
-    private fun parseSheetXml(input: InputStream, sharedStrings: List<String>): List<List<String>> {
-        val parser = XmlPullParserFactory.newInstance().newPullParser()
-        parser.setInput(input, "UTF-8")
-
-        val rows = mutableListOf<MutableList<String>>()
-        var currentRow: MutableList<String>? = null
-
-        var currentCellCol: Int? = null
-        var currentCellType: String? = null
-        var currentValue: String? = null
-
-        var event = parser.eventType
-        while (event != XmlPullParser.END_DOCUMENT) {
-            when (event) {
-                XmlPullParser.START_TAG -> {
-                    when (parser.name) {
-                        "row" -> currentRow = mutableListOf()
-                        "c" -> {
-                            val r = parser.getAttributeValue(null, "r").orEmpty()
-                            currentCellCol = colIndexFromRef(r)
-                            currentCellType = parser.getAttributeValue(null, "t")
-                            currentValue = null
-                        }
-                        "v" -> currentValue = ""
-                    }
-                }
-                XmlPullParser.TEXT -> {
-                    if (currentValue != null) currentValue += parser.text
-                }
-                XmlPullParser.END_TAG -> {
-                    when (parser.name) {
-                        "c" -> {
-                            val col = currentCellCol ?: 0
-                            val row = currentRow ?: mutableListOf()
-                            while (row.size <= col) row.add("")
-                            val raw = currentValue.orEmpty()
-                            val value = if (currentCellType == "s") {
-                                raw.toIntOrNull()?.let { idx -> sharedStrings.getOrNull(idx).orEmpty() }.orEmpty()
-                            } else raw
-                            row[col] = value
-                            currentCellCol = null
-                            currentCellType = null
-                            currentValue = null
-                        }
-                        "row" -> {
-                            currentRow?.let { rows.add(it) }
-                            currentRow = null
-                        }
-                    }
-                }
-            }
-            event = parser.next()
-        }
-
-        return rows.map { it.toList() }.filter { it.any { cell -> cell.isNotBlank() } }
-    }
-
-    private fun colIndexFromRef(cellRef: String): Int {
-        // "AB12" -> "AB"
-        val letters = cellRef.takeWhile { it.isLetter() }.uppercase()
-        var result = 0
-        for (ch in letters) {
-            result = result * 26 + (ch - 'A' + 1)
-        }
-        return (result - 1).coerceAtLeast(0)
-    }
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
@@ -1,9 +1,15 @@
 package com.kiranaflow.app.util
 
 import android.content.Context
+import android.os.SystemClock
 import android.util.Log
 import java.io.File
+import java.lang.reflect.Constructor
+import java.lang.reflect.Method
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeout
 
@@ -14,26 +20,42 @@ import kotlinx.coroutines.withTimeout
  * - `com.google.ai.edge.litertlm:litertlm-android` is compiled with Kotlin metadata 2.2.x.
  * - This app is on Kotlin 1.9.x (Compose compiler 1.5.1), so we cannot put that library on compile classpath.
  * - We depend on it as `runtimeOnly(...)` and call into it reflectively.
+ *
+ * The engine is loaded once (ideally by [warmUp], off the scan path) and kept until [release].
+ * Sessions carry the previous prompt's context, so each is used for one [generate] and closed;
+ * a fresh one is created in the background right after, so the next call finds it ready. That
+ * refill only tops up the engine already loaded: after [release] it does nothing.
  */
 class LiteRtLmReflectiveRuntime private constructor(
     context: Context
 ) : FunctionGemmaRuntime {
     private val appContext = context.applicationContext
 
-    override suspend fun generate(prompt: String): String = withTimeout(18_000L) {
+    override suspend fun warmUp() = withContext(Dispatchers.Default) {
+        SessionPool.fill(appContext)
+    }
+
+    override suspend fun generate(prompt: String): String = withTimeout(GENERATE_TIMEOUT_MS) {
         withContext(Dispatchers.Default) {
-            val engine = EngineHolder.getOrCreate(appContext)
-            val session = engineCreateSession(engine)
+            val session = SessionPool.take(appContext)
             try {
-                sessionGenerateContent(session, prompt)
+                Api.generateContent(session, prompt)
             } finally {
-                runCatching { sessionClose(session) }
+                SessionPool.finish(session)
+                SessionPool.refillInBackground()
             }
         }
     }
 
+    override fun release() = SessionPool.release()
+
     companion object {
         private const val TAG = "LiteRtLmReflective"
+        private const val GENERATE_TIMEOUT_MS = 18_000L
+
+        // Each session reserves its own KV cache (maxNumTokens), so one spare is enough for
+        // one scan at a time.
+        private const val MAX_IDLE_SESSIONS = 1
 
         fun tryCreate(context: Context): FunctionGemmaRuntime? {
             // 1) Ensure model asset exists
@@ -54,41 +76,109 @@ class LiteRtLmReflectiveRuntime private constructor(
         }
     }
 
-    private object EngineHolder {
-        private const val TAG = "LiteRtLmReflective"
+    private object SessionPool {
+        private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
 
         @Volatile
         private var engine: Any? = null
+        private val idle = ArrayDeque<Any>()
+        private var inFlight = 0
+
+        // An engine released while a session of it was still generating; closed when that finishes.
+        private var retiring: Any? = null
 
         @Synchronized
-        fun getOrCreate(context: Context): Any {
+        fun engine(context: Context): Any {
             engine?.let { return it }
 
+            val start = SystemClock.elapsedRealtime()
             val modelPath = ensureModelOnDisk(context)
+            val copiedAt = SystemClock.elapsedRealtime()
             val cacheDir = File(context.cacheDir, "litertlm_cache").apply { mkdirs() }.absolutePath
+            val eng = Api.createEngine(modelPath, cacheDir)
 
-            val backendCls = Class.forName("com.google.ai.edge.litertlm.Backend")
-            val cpu = java.lang.Enum.valueOf(backendCls.asSubclass(Enum::class.java), "CPU")
-
-            val engineConfigCls = Class.forName("com.google.ai.edge.litertlm.EngineConfig")
-            val engineConfig = engineConfigCls.constructors.first { it.parameterTypes.size == 6 }.newInstance(
-                /* modelPath */ modelPath,
-                /* backend */ cpu,
-                /* visionBackend */ cpu,
-                /* audioBackend */ cpu,
-                /* maxNumTokens */ 2048,
-                /* cacheDir */ cacheDir
+            engine = eng
+            Log.i(
+                TAG,
+                "LiteRT-LM engine initialized (modelPath=$modelPath, copy=${copiedAt - start}ms, " +
+                    "init=${SystemClock.elapsedRealtime() - copiedAt}ms)"
             )
+            return eng
+        }
 
-            val engineCls = Class.forName("com.google.ai.edge.litertlm.Engine")
-            val eng = engineCls.getConstructor(engineConfigCls).newInstance(engineConfig)
+        /** An idle session, or a new one; hand it back through [finish]. */
+        fun take(context: Context): Any {
+            synchronized(this) {
+                inFlight++
+                idle.removeFirstOrNull()?.let { return it }
+            }
+            return try {
+                Api.createSession(engine(context))
+            } catch (t: Throwable) {
+                finish(null)
+                throw t
+            }
+        }
 
-            // initialize()
-            engineCls.getMethod("initialize").invoke(eng)
+        fun finish(session: Any?) {
+            session?.let { runCatching { Api.closeSession(it) } }
+            val toClose = synchronized(this) {
+                inFlight--
+                if (inFlight == 0) retiring.also { retiring = null } else null
+            }
+            toClose?.let { runCatching { Api.closeEngine(it) } }
+        }
 
-            engine = eng
-            Log.i(TAG, "LiteRT-LM engine initialized (modelPath=$modelPath)")
-            return eng
+        /** Loads the engine if needed and tops up its idle sessions. */
+        fun fill(context: Context) = topUp(engine(context))
+
+        // Stops as soon as [eng] is no longer the pool's engine (released or replaced).
+        private fun topUp(eng: Any) {
+            while (true) {
+                synchronized(this) {
+                    if (engine !== eng || idle.size >= MAX_IDLE_SESSIONS) return
+                    // Counted like a generate: a release meanwhile leaves [eng] open until [finish].
+                    inFlight++
+                }
+                val start = SystemClock.elapsedRealtime()
+                val session = try {
+                    Api.createSession(eng)
+                } catch (t: Throwable) {
+                    finish(null)
+                    throw t
+                }
+                val kept = synchronized(this) {
+                    (engine === eng && idle.size < MAX_IDLE_SESSIONS).also { if (it) idle.addLast(session) }
+                }
+                finish(if (kept) null else session)
+                if (!kept) return
+                Log.d(TAG, "Session ready in ${SystemClock.elapsedRealtime() - start}ms")
+            }
+        }
+
+        /** Tops up the loaded engine's sessions; never loads one, so it is a no-op after [release]. */
+        fun refillInBackground() {
+            val eng = engine ?: return
+            scope.launch {
+                runCatching { topUp(eng) }.onFailure { Log.w(TAG, "Session refill failed", it) }
+            }
+        }
+
+        fun release() {
+            val (eng, sessions) = synchronized(this) {
+                val e = engine
+                engine = null
+                val s = idle.toList()
+                idle.clear()
+                if (e != null && inFlight > 0) {
+                    retiring = e
+                    null to s
+                } else {
+                    e to s
+                }
+            }
+            sessions.forEach { runCatching { Api.closeSession(it) } }
+            eng?.let { runCatching { Api.closeEngine(it) } }
         }
 
         private fun ensureModelOnDisk(context: Context): String {
@@ -96,45 +186,83 @@ class LiteRtLmReflectiveRuntime private constructor(
             val outFile = File(modelsDir, FunctionGemmaBillExtractor.DEFAULT_MODEL_ASSET)
             if (outFile.exists() && outFile.length() > 0L) return outFile.absolutePath
 
+            // Copy to a temp file first: a copy cut short (process killed) must not pass the check above.
+            val tmpFile = File(modelsDir, outFile.name + ".tmp")
             context.assets.open(FunctionGemmaBillExtractor.DEFAULT_MODEL_ASSET).use { input ->
-                outFile.outputStream().use { output ->
+                tmpFile.outputStream().use { output ->
                     input.copyTo(output)
                 }
             }
+            if (!tmpFile.renameTo(outFile)) {
+                tmpFile.delete()
+                error("Could not move model into place: $outFile")
+            }
             return outFile.absolutePath
         }
     }
 
-    private fun engineCreateSession(engine: Any): Any {
-        val samplerConfigCls = Class.forName("com.google.ai.edge.litertlm.SamplerConfig")
-        val samplerConfig = samplerConfigCls.constructors.first { it.parameterTypes.size == 4 }.newInstance(
-            /* topK */ 40,
-            /* topP */ 0.95,
-            /* temperature */ 0.2,
-            /* seed */ 1234
-        )
+    // Reflective handles into LiteRT-LM, looked up once.
+    private object Api {
+        private const val PKG = "com.google.ai.edge.litertlm"
 
-        val sessionConfigCls = Class.forName("com.google.ai.edge.litertlm.SessionConfig")
-        val sessionConfig = sessionConfigCls.constructors.first { it.parameterTypes.size == 1 }.newInstance(samplerConfig)
+        private val engineCls: Class<*> by lazy { Class.forName("$PKG.Engine") }
+        private val sessionCls: Class<*> by lazy { Class.forName("$PKG.Session") }
+        private val sessionConfigCls: Class<*> by lazy { Class.forName("$PKG.SessionConfig") }
 
-        val engineCls = Class.forName("com.google.ai.edge.litertlm.Engine")
-        return engineCls.getMethod("createSession", sessionConfigCls).invoke(engine, sessionConfig) as Any
-    }
+        private val sessionConfig: Any by lazy {
+            val samplerConfigCls = Class.forName("$PKG.SamplerConfig")
+            val samplerConfig = samplerConfigCls.constructors.first { it.parameterTypes.size == 4 }.newInstance(
+                /* topK */ 40,
+                /* topP */ 0.95,
+                /* temperature */ 0.2,
+                /* seed */ 1234
+            )
+            sessionConfigCls.constructors.first { it.parameterTypes.size == 1 }.newInstance(samplerConfig)
+        }
 
-    private fun sessionGenerateContent(session: Any, prompt: String): String {
-        // Build InputData.Text(prompt)
-        val inputTextCls = Class.forName("com.google.ai.edge.litertlm.InputData\$Text")
-        val inputText = inputTextCls.getConstructor(String::class.java).newInstance(prompt)
+        private val createSessionMethod: Method by lazy { engineCls.getMethod("createSession", sessionConfigCls) }
+        private val generateContentMethod: Method by lazy { sessionCls.getMethod("generateContent", List::class.java) }
+        private val closeSessionMethod: Method by lazy { sessionCls.getMethod("close") }
+        private val closeEngineMethod: Method by lazy { engineCls.getMethod("close") }
+        private val inputTextConstructor: Constructor<*> by lazy {
+            Class.forName("$PKG.InputData\$Text").getConstructor(String::class.java)
+        }
 
-        val list = java.util.Collections.singletonList(inputText)
-        val sessionCls = Class.forName("com.google.ai.edge.litertlm.Session")
-        return sessionCls.getMethod("generateContent", List::class.java).invoke(session, list) as String
-    }
+        fun createEngine(modelPath: String, cacheDir: String): Any {
+            val backendCls = Class.forName("$PKG.Backend")
+            val cpu = java.lang.Enum.valueOf(backendCls.asSubclass(Enum::class.java), "CPU")
 
-    private fun sessionClose(session: Any) {
-        val sessionCls = Class.forName("com.google.ai.edge.litertlm.Session")
-        sessionCls.getMethod("close").invoke(session)
-    }
-}
+            val engineConfigCls = Class.forName("$PKG.EngineConfig")
+            val engineConfig = engineConfigCls.constructors.first { it.parameterTypes.size == 6 }.newInstance(
+                /* modelPath */ modelPath,
+                /* backend */ cpu,
+                /* visionBackend */ cpu,
+                /* audioBackend */ cpu,
+                /* maxNumTokens */ 2048,
+                /* cacheDir */ cacheDir
+            )
+
+            val eng = engineCls.getConstructor(engineConfigCls).newInstance(engineConfig)
+
+            // initialize()
+            engineCls.getMethod("initialize").invoke(eng)
+            return eng
+        }
 
+        fun createSession(engine: Any): Any = createSessionMethod.invoke(engine, sessionConfig) as Any
 
+        fun generateContent(session: Any, prompt: String): String {
+            // Build InputData.Text(prompt)
+            val inputText = inputTextConstructor.newInstance(prompt)
+            return generateContentMethod.invoke(session, java.util.Collections.singletonList(inputText)) as String
+        }
+
+        fun closeSession(session: Any) {
+            closeSessionMethod.invoke(session)
+        }
+
+        fun closeEngine(engine: Any) {
+            closeEngineMethod.invoke(engine)
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.kiranaflow.app.util
+
+import kotlin.math.cos
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sin
+import kotlin.math.tan
+
+/**
+ * The luminance steps of [BillImagePreprocessor] (crop, deskew, contrast) on a row-major 8-bit
+ * plane. Plain arrays only, so the steps run (and are tested) without Android.
+ *
+ * [luma] holds the current image; steps that shrink or rotate it work in place and leave the
+ * result at the start of [luma]. Buffers are reused across images; not thread-safe.
+ */
+internal class LumaPlane {
+
+    /** A crop box, right/bottom exclusive. */
+    data class Bounds(val left: Int, val top: Int, val right: Int, val bottom: Int) {
+        val width: Int get() = right - left
+        val height: Int get() = bottom - top
+    }
+
+    var luma = ByteArray(0)
+        private set
+    private var scratch = ByteArray(0)
+    private val histogram = IntArray(256)
+
+    /** Makes [luma] hold at least [pixels] bytes; contents are not kept. */
+    fun ensureCapacity(pixels: Int) {
+        if (luma.size < pixels) luma = ByteArray(pixels)
+    }
+
+    private fun fillHistogram(pixels: Int, step: Int = 1) {
+        histogram.fill(0)
+        var i = 0
+        while (i < pixels) {
+            histogram[luma[i].toInt() and 0xFF]++
+            i += step
+        }
+    }
+
+    // Otsu's threshold over [histogram].
+    private fun otsu(): Int {
+        var total = 0L
+        var sum = 0L
+        for (v in 0..255) {
+            total += histogram[v]
+            sum += v.toLong() * histogram[v]
+        }
+        var weightBg = 0L
+        var sumBg = 0L
+        var best = 0.0
+        var threshold = 127
+        for (v in 0..255) {
+            weightBg += histogram[v]
+            if (weightBg == 0L) continue
+            val weightFg = total - weightBg
+            if (weightFg == 0L) break
+            sumBg += v.toLong() * histogram[v]
+            val meanBg = sumBg.toDouble() / weightBg
+            val meanFg = (sum - sumBg).toDouble() / weightFg
+            val between = weightBg.toDouble() * weightFg * (meanBg - meanFg) * (meanBg - meanFg)
+            if (between > best) {
+                best = between
+                threshold = v
+            }
+        }
+        return threshold
+    }
+
+    /**
+     * Rows and columns that are mostly brighter than the Otsu threshold bound the paper. Null when
+     * that box is (nearly) the whole image or implausibly small.
+     */
+    fun documentBounds(w: Int, h: Int): Bounds? {
+        fillHistogram(w * h, SAMPLE_STEP)
+        val threshold = otsu()
+        val colBright = IntArray(w)
+        val rowBright = IntArray(h)
+        var sampledRows = 0
+        var y = 0
+        while (y < h) {
+            sampledRows++
+            val o = y * w
+            var x = 0
+            while (x < w) {
+                if ((luma[o + x].toInt() and 0xFF) > threshold) {
+                    colBright[x]++
+                    rowBright[y]++
+                }
+                x += SAMPLE_STEP
+            }
+            y += SAMPLE_STEP
+        }
+        val sampledCols = (w + SAMPLE_STEP - 1) / SAMPLE_STEP
+        val colMin = (sampledRows * PAPER_SHARE).toInt()
+        val rowMin = (sampledCols * PAPER_SHARE).toInt()
+
+        var left = 0
+        while (left < w && (left % SAMPLE_STEP != 0 || colBright[left] < colMin)) left++
+        var right = w - 1
+        while (right > left && (right % SAMPLE_STEP != 0 || colBright[right] < colMin)) right--
+        var top = 0
+        while (top < h && (top % SAMPLE_STEP != 0 || rowBright[top] < rowMin)) top++
+        var bottom = h - 1
+        while (bottom > top && (bottom % SAMPLE_STEP != 0 || rowBright[bottom] < rowMin)) bottom--
+        if (left >= right || top >= bottom) return null
+
+        val marginX = w / 100
+        val marginY = h / 100
+        val box = Bounds(
+            max(0, left - marginX),
+            max(0, top - marginY),
+            min(w, right + 1 + marginX),
+            min(h, bottom + 1 + marginY)
+        )
+        val area = box.width.toLong() * box.height
+        val full = w.toLong() * h
+        return if (area >= full * MAX_CROP_AREA || area < full * MIN_CROP_AREA) null else box
+    }
+
+    // Moves [box] to the start of [luma] as a [box.width] x [box.height] plane.
+    fun compact(w: Int, box: Bounds) {
+        val cw = box.width
+        for (y in 0 until box.height) {
+            System.arraycopy(luma, (box.top + y) * w + box.left, luma, y * cw, cw)
+        }
+    }
+
+    /**
+     * Skew in degrees (positive: text lines fall to the right). Ink pixels are sheared by each
+     * candidate angle; the angle whose row profile is peakiest aligns the text lines.
+     */
+    fun estimateSkew(w: Int, h: Int): Float {
+        fillHistogram(w * h, SAMPLE_STEP)
+        val threshold = otsu()
+        val stride = max(1, max(w, h) / SKEW_SAMPLE_EDGE)
+        val xs = ArrayList<Int>()
+        val ys = ArrayList<Int>()
+        var y = 0
+        while (y < h) {
+            var x = 0
+            while (x < w) {
+                if ((luma[y * w + x].toInt() and 0xFF) <= threshold) {
+                    xs += x
+                    ys += y
+                }
+                x += stride
+            }
+            y += stride
+        }
+        if (xs.size < MIN_INK_SAMPLES) return 0f
+
+        val pad = (w * tan(Math.toRadians(MAX_SKEW_DEGREES.toDouble()))).toInt() + 1
+        val bins = IntArray((h + 2 * pad) / stride + 1)
+        var bestScore = -1L
+        var bestAngle = 0f
+        var angle = -MAX_SKEW_DEGREES
+        while (angle <= MAX_SKEW_DEGREES + 1e-3f) {
+            val slope = tan(Math.toRadians(angle.toDouble()))
+            bins.fill(0)
+            for (i in xs.indices) {
+                val row = ((ys[i] - xs[i] * slope + pad) / stride).toInt()
+                if (row in bins.indices) bins[row]++
+            }
+            var score = 0L
+            for (b in bins) score += b.toLong() * b
+            if (score > bestScore) {
+                bestScore = score
+                bestAngle = angle
+            }
+            angle += SKEW_STEP_DEGREES
+        }
+        return bestAngle
+    }
+
+    // Rotates [luma] by -[degrees] around its centre, filling uncovered corners with white.
+    fun rotate(w: Int, h: Int, degrees: Float) {
+        if (scratch.size < w * h) scratch = ByteArray(w * h)
+        val rad = Math.toRadians(degrees.toDouble())
+        val c = cos(rad)
+        val s = sin(rad)
+        val cx = w / 2.0
+        val cy = h / 2.0
+        for (y in 0 until h) {
+            val dy = y - cy
+            // Source = centre + R(degrees) * (destination - centre).
+            var sx = cx - cx * c - s * dy
+            var sy = cy - cx * s + c * dy
+            val o = y * w
+            for (x in 0 until w) {
+                val ix = sx.toInt()
+                val iy = sy.toInt()
+                scratch[o + x] = if (ix in 0 until w && iy in 0 until h) luma[iy * w + ix] else WHITE
+                sx += c
+                sy += s
+            }
+        }
+        val swap = luma
+        luma = scratch
+        scratch = swap
+    }
+
+    /**
+     * Stretches the 1st..99th luminance percentiles to 0..255. Left alone when the range is already
+     * full or too narrow to be anything but a blank page.
+     */
+    fun stretchContrast(pixels: Int) {
+        fillHistogram(pixels)
+        val cut = pixels / 100
+        var lo = 0
+        var acc = 0
+        while (lo < 255 && acc + histogram[lo] <= cut) acc += histogram[lo++]
+        var hi = 255
+        acc = 0
+        while (hi > lo && acc + histogram[hi] <= cut) acc += histogram[hi--]
+        if (hi - lo < MIN_CONTRAST_RANGE || (lo == 0 && hi == 255)) return
+
+        val lut = contrastLut(lo, hi)
+        for (i in 0 until pixels) luma[i] = lut[luma[i].toInt() and 0xFF]
+    }
+
+    companion object {
+        const val MIN_SKEW_DEGREES = 0.5f
+        const val MAX_SKEW_DEGREES = 5f
+
+        private const val SAMPLE_STEP = 4
+        private const val PAPER_SHARE = 0.5f
+        private const val MAX_CROP_AREA = 0.92f
+        private const val MIN_CROP_AREA = 0.2f
+        private const val SKEW_SAMPLE_EDGE = 800
+        private const val MIN_INK_SAMPLES = 200
+        private const val SKEW_STEP_DEGREES = 0.25f
+        private const val MIN_CONTRAST_RANGE = 32
+        private const val WHITE: Byte = -1
+
+        /** Linear map of [lo]..[hi] onto 0..255, clamped outside. */
+        fun contrastLut(lo: Int, hi: Int): ByteArray = ByteArray(256) { v ->
+            (((v - lo) * 255) / (hi - lo)).coerceIn(0, 255).toByte()
+        }
+    }
+}
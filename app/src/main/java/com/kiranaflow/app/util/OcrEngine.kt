@@ -0,0 +1,256 @@
+package com.kiranaflow.app.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.os.SystemClock
+import android.util.Log
+import com.google.mlkit.vision.common.InputImage
+import com.google.mlkit.vision.text.Text
+import com.google.mlkit.vision.text.TextRecognition
+import com.google.mlkit.vision.text.TextRecognizer
+import com.google.mlkit.vision.text.devanagari.DevanagariTextRecognizerOptions
+import com.google.mlkit.vision.text.latin.TextRecognizerOptions
+import com.kiranaflow.app.data.local.LearningStore
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.tasks.await
+
+enum class OcrScript { LATIN, DEVANAGARI }
+
+data class OcrLine(
+    val text: String,
+    val boundingBox: Rect?,
+    // ML Kit line confidence, 0..1 (0 when the model does not report one).
+    val confidence: Float,
+    val script: OcrScript
+)
+
+data class OcrBlock(
+    val lines: List<OcrLine>,
+    val boundingBox: Rect?,
+    val script: OcrScript
+) {
+    val text: String get() = lines.joinToString("\n") { it.text }
+}
+
+data class OcrTimings(
+    // Filled in by OcrUtils when the page went through BillImagePreprocessor.
+    val preprocessMs: Long = 0,
+    val latinMs: Long,
+    // 0 when the Devanagari pass was skipped.
+    val devanagariMs: Long,
+    val mergeMs: Long,
+    val totalMs: Long
+)
+
+data class OcrResult(
+    // Reading order: top to bottom.
+    val blocks: List<OcrBlock>,
+    val scripts: Set<OcrScript>,
+    val timings: OcrTimings
+) {
+    val text: String get() = blocks.joinToString("\n") { it.text }
+
+    companion object {
+        val EMPTY = OcrResult(emptyList(), emptySet(), OcrTimings(0, 0, 0, 0, 0))
+    }
+}
+
+/**
+ * Bill OCR over long-lived ML Kit recognizers (one Latin, one Devanagari, created on first use and
+ * kept until [release]).
+ *
+ * The Latin pass always runs. Whether the Devanagari one does is decided from what earlier scans
+ * needed ([LearningStore] keeps a running score, device-wide and per vendor GSTIN):
+ * - shops whose bills usually carry Hindi run both passes concurrently from the start;
+ * - otherwise the Latin result is checked first: a known vendor's score, or else a cheap script
+ *   check on it (many low-confidence lines is how Latin reads Devanagari), picks whether the
+ *   Devanagari pass is worth running.
+ * Devanagari lines replace the Latin lines they overlap; Latin text read by the Devanagari model is
+ * dropped as a duplicate.
+ */
+class OcrEngine private constructor(context: Context) {
+
+    private val learning = LearningStore(context.applicationContext)
+    private val lock = Any()
+    private var latinClient: TextRecognizer? = null
+    private var devanagariClient: TextRecognizer? = null
+
+    private fun latin(): TextRecognizer = synchronized(lock) {
+        latinClient ?: TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS).also { latinClient = it }
+    }
+
+    private fun devanagari(): TextRecognizer = synchronized(lock) {
+        devanagariClient ?: TextRecognition.getClient(DevanagariTextRecognizerOptions.Builder().build())
+            .also { devanagariClient = it }
+    }
+
+    suspend fun recognize(bitmap: Bitmap): OcrResult = recognize(InputImage.fromBitmap(bitmap, 0))
+
+    suspend fun recognize(frame: BillImagePreprocessor.Frame): OcrResult = recognize(frame.toInputImage())
+
+    suspend fun recognize(image: InputImage): OcrResult {
+        val start = SystemClock.elapsedRealtime()
+        val deviceScore = learning.devanagariScore(DEVICE_KEY)
+
+        var latinMs = 0L
+        var devMs = 0L
+        val latinText: Text?
+        val devText: Text?
+        if (deviceScore == null || deviceScore >= BOTH_UPFRONT_SCORE) {
+            // Unknown yet or usually needed: don't pay the passes one after the other.
+            val results = coroutineScope {
+                val l = async { timed(latin(), image) }
+                val d = async { timed(devanagari(), image) }
+                l.await() to d.await()
+            }
+            latinText = results.first.first.also { latinMs = results.first.second }
+            devText = results.second.first.also { devMs = results.second.second }
+        } else {
+            val l = timed(latin(), image)
+            latinText = l.first
+            latinMs = l.second
+            devText = if (needsDevanagari(latinText)) {
+                timed(devanagari(), image).also { devMs = it.second }.first
+            } else {
+                null
+            }
+        }
+
+        val mergeStart = SystemClock.elapsedRealtime()
+        val latinBlocks = latinText?.let { blocksOf(it, OcrScript.LATIN) }.orEmpty()
+        val devBlocks = devText?.let { blocksOf(it, OcrScript.DEVANAGARI) }
+            ?.mapNotNull { block ->
+                block.lines.filter { isDevanagari(it.text) }
+                    .takeIf { it.isNotEmpty() }
+                    ?.let { block.copy(lines = it) }
+            }
+        val blocks = merge(latinBlocks, devBlocks.orEmpty())
+        val scripts = blocks.flatMapTo(HashSet()) { b -> b.lines.map { it.script } }
+        val now = SystemClock.elapsedRealtime()
+
+        if (devBlocks != null) {
+            val usedDevanagari = OcrScript.DEVANAGARI in scripts
+            runCatching {
+                learning.recordDevanagariUse(DEVICE_KEY, usedDevanagari)
+                vendorKey(latinText)?.let { learning.recordDevanagariUse(it, usedDevanagari) }
+            }
+        }
+
+        return OcrResult(
+            blocks = blocks,
+            scripts = scripts,
+            timings = OcrTimings(
+                latinMs = latinMs,
+                devanagariMs = devMs,
+                mergeMs = now - mergeStart,
+                totalMs = now - start
+            )
+        ).also {
+            Log.d(TAG, "ocr ${image.width}x${image.height} scripts=${it.scripts} timings=${it.timings}")
+        }
+    }
+
+    /** Closes the recognizers; the next [recognize] creates them again. */
+    fun release() {
+        val clients = synchronized(lock) {
+            listOfNotNull(latinClient, devanagariClient).also {
+                latinClient = null
+                devanagariClient = null
+            }
+        }
+        clients.forEach { runCatching { it.close() } }
+    }
+
+    private suspend fun needsDevanagari(latinText: Text?): Boolean {
+        vendorKey(latinText)?.let { key ->
+            learning.devanagariScore(key)?.let { return it >= VENDOR_SCORE }
+        }
+        val lines = latinText?.textBlocks?.flatMap { it.lines }.orEmpty()
+        // Nothing readable as Latin: the page may well be all Devanagari.
+        if (lines.isEmpty()) return true
+        val doubtful = lines.count { it.confidence > 0f && it.confidence <= LOW_CONFIDENCE }
+        return doubtful.toFloat() / lines.size >= DOUBTFUL_SHARE
+    }
+
+    private suspend fun timed(client: TextRecognizer, image: InputImage): Pair<Text?, Long> {
+        val start = SystemClock.elapsedRealtime()
+        val text = runCatching { client.process(image).await() }
+            .onFailure { Log.w(TAG, "recognizer failed: ${it.message}") }
+            .getOrNull()
+        return text to (SystemClock.elapsedRealtime() - start)
+    }
+
+    companion object {
+        private const val TAG = "OcrEngine"
+        private const val DEVICE_KEY = "*"
+        private const val BOTH_UPFRONT_SCORE = 0.5
+        private const val VENDOR_SCORE = 0.5
+        private const val LOW_CONFIDENCE = 0.5f
+        private const val DOUBTFUL_SHARE = 0.25f
+        private val GSTIN = Regex("\\b\\d{2}[A-Z]{5}\\d{4}[A-Z][A-Z0-9]Z[A-Z0-9]\\b")
+
+        @Volatile
+        private var instance: OcrEngine? = null
+
+        fun get(context: Context): OcrEngine =
+            instance ?: synchronized(this) {
+                instance ?: OcrEngine(context.applicationContext).also { instance = it }
+            }
+
+        /** Releases the recognizers if the engine was ever used. */
+        fun releaseIfCreated() {
+            instance?.release()
+        }
+
+        private fun vendorKey(text: Text?): String? =
+            text?.text?.let { GSTIN.find(it.uppercase()) }?.value?.let { "gstin:$it" }
+
+        private fun isDevanagari(s: String): Boolean = s.any { it in '\u0900'..'\u097F' }
+
+        private fun blocksOf(text: Text, script: OcrScript): List<OcrBlock> =
+            text.textBlocks.map { block ->
+                OcrBlock(
+                    lines = block.lines.map { OcrLine(it.text, it.boundingBox, it.confidence, script) },
+                    boundingBox = block.boundingBox,
+                    script = script
+                )
+            }
+
+        /**
+         * Latin blocks in ML Kit order, minus lines a Devanagari line covers, with the Devanagari
+         * blocks inserted by their top edge.
+         */
+        private fun merge(latin: List<OcrBlock>, devanagari: List<OcrBlock>): List<OcrBlock> {
+            if (devanagari.isEmpty()) return latin
+            val devLines = devanagari.flatMap { it.lines }
+            val kept = latin.mapNotNull { block ->
+                val lines = block.lines.filter { line -> devLines.none { overlaps(it.boundingBox, line.boundingBox) } }
+                when {
+                    lines.isEmpty() -> null
+                    lines.size == block.lines.size -> block
+                    else -> block.copy(lines = lines)
+                }
+            }
+            val out = ArrayList<OcrBlock>(kept.size + devanagari.size)
+            var i = 0
+            for (dev in devanagari.sortedBy { it.boundingBox?.top ?: Int.MAX_VALUE }) {
+                val top = dev.boundingBox?.top ?: Int.MAX_VALUE
+                while (i < kept.size && (kept[i].boundingBox?.top ?: Int.MAX_VALUE) <= top) out += kept[i++]
+                out += dev
+            }
+            while (i < kept.size) out += kept[i++]
+            return out
+        }
+
+        // Same text line: mostly the same rows, and horizontally overlapping.
+        private fun overlaps(a: Rect?, b: Rect?): Boolean {
+            if (a == null || b == null) return false
+            val rows = minOf(a.bottom, b.bottom) - maxOf(a.top, b.top)
+            val cols = minOf(a.right, b.right) - maxOf(a.left, b.left)
+            if (rows <= 0 || cols <= 0) return false
+            return rows >= 0.5f * minOf(a.height(), b.height()) && cols >= 0.5f * minOf(a.width(), b.width())
+        }
+    }
+}
@@ -1,96 +1,93 @@
 package com.kiranaflow.app.util
 
 import android.content.ContentResolver
+import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.ImageDecoder
-import android.graphics.pdf.PdfRenderer
 import android.net.Uri
-import android.os.ParcelFileDescriptor
-import com.google.mlkit.vision.common.InputImage
-import com.google.mlkit.vision.text.TextRecognition
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions
-import com.google.mlkit.vision.text.devanagari.DevanagariTextRecognizerOptions
-import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlin.coroutines.resume
 
 object OcrUtils {
-    suspend fun ocrFromUri(contentResolver: ContentResolver, uri: Uri): String {
-        val bitmap = loadBitmap(contentResolver, uri) ?: return ""
-        return ocrFromBitmap(bitmap)
-    }
-
-    private fun loadBitmap(contentResolver: ContentResolver, uri: Uri): Bitmap? {
-        val type = contentResolver.getType(uri).orEmpty()
-        return when {
-            type.startsWith("image/") -> decodeImage(contentResolver, uri)
-            type == "application/pdf" -> renderFirstPdfPage(contentResolver, uri)
-            else -> decodeImage(contentResolver, uri) ?: renderFirstPdfPage(contentResolver, uri)
+    // Default-config preprocessors, kept for their buffers.
+    private val preprocessors = ArrayDeque<BillImagePreprocessor>()
+    private const val MAX_POOLED_PREPROCESSORS = 2
+
+    suspend fun ocrFromUri(context: Context, uri: Uri, onProgress: (OcrProgress) -> Unit = {}): String =
+        recognizeDocument(context, uri, onProgress = onProgress).text
+
+    /**
+     * A bill photo or a PDF (every page, see [PdfBillOcr]) as OCR blocks with boxes and timings;
+     * see [OcrEngine] and [BillImagePreprocessor].
+     */
+    suspend fun recognizeDocument(
+        context: Context,
+        uri: Uri,
+        config: BillImagePreprocessor.Config = BillImagePreprocessor.Config(),
+        onProgress: (OcrProgress) -> Unit = {}
+    ): OcrDocument {
+        val cr = context.contentResolver
+        val type = cr.getType(uri).orEmpty()
+        if (type == "application/pdf") {
+            return PdfBillOcr.recognize(context, uri, config, onProgress = onProgress) ?: OcrDocument.EMPTY
         }
-    }
-
-    private fun decodeImage(contentResolver: ContentResolver, uri: Uri): Bitmap? {
-        return runCatching {
-            val src = ImageDecoder.createSource(contentResolver, uri)
-            ImageDecoder.decodeBitmap(src) { decoder, _, _ ->
-                decoder.isMutableRequired = true
+        onProgress(OcrProgress(0, 1))
+        val bitmap = decodeImage(cr, uri, config)
+            ?: return if (type.startsWith("image/")) {
+                OcrDocument.EMPTY
+            } else {
+                PdfBillOcr.recognize(context, uri, config, onProgress = onProgress) ?: OcrDocument.EMPTY
             }
-        }.getOrNull()
+        val result = recognizeBitmap(context, bitmap, config)
+        onProgress(OcrProgress(1, 1))
+        return OcrDocument(listOf(result), result.text)
     }
 
-    private fun renderFirstPdfPage(contentResolver: ContentResolver, uri: Uri): Bitmap? {
-        val pfd: ParcelFileDescriptor = runCatching {
-            contentResolver.openFileDescriptor(uri, "r")
-        }.getOrNull() ?: return null
-
-        pfd.use { fd ->
-            val renderer = runCatching { PdfRenderer(fd) }.getOrNull() ?: return null
-            renderer.use { r ->
-                if (r.pageCount <= 0) return null
-                val page = r.openPage(0)
-                page.use { p ->
-                    val width = p.width
-                    val height = p.height
-                    val bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-                    p.render(bmp, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY)
-                    return bmp
+    suspend fun recognizeBitmap(
+        context: Context,
+        bitmap: Bitmap,
+        config: BillImagePreprocessor.Config = BillImagePreprocessor.Config()
+    ): OcrResult {
+        val pooled = config == BillImagePreprocessor.Config()
+        val preprocessor = (if (pooled) synchronized(preprocessors) { preprocessors.removeFirstOrNull() } else null)
+            ?: BillImagePreprocessor(config)
+        try {
+            val frame = preprocessor.process(bitmap)
+            return withPreprocessTimings(OcrEngine.get(context).recognize(frame), frame)
+        } finally {
+            if (pooled) {
+                synchronized(preprocessors) {
+                    if (preprocessors.size < MAX_POOLED_PREPROCESSORS) preprocessors.addLast(preprocessor)
                 }
             }
         }
     }
 
-    private suspend fun ocrFromBitmap(bitmap: Bitmap): String {
-        val image = InputImage.fromBitmap(bitmap, 0)
-        val latin = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS)
-        val dev = TextRecognition.getClient(DevanagariTextRecognizerOptions.Builder().build())
-
-        val latinText = latin.process(image).awaitText()
-        val devText = dev.process(image).awaitText()
-
-        return sequenceOf(latinText, devText)
-            .map { it.trim() }
-            .filter { it.isNotBlank() }
-            .distinct()
-            .joinToString("\n")
+    internal fun withPreprocessTimings(result: OcrResult, frame: BillImagePreprocessor.Frame): OcrResult {
+        val preprocessMs = frame.stepMs.values.sum()
+        return result.copy(
+            timings = result.timings.copy(
+                preprocessMs = preprocessMs,
+                totalMs = result.timings.totalMs + preprocessMs
+            )
+        )
     }
 
-    private suspend fun com.google.android.gms.tasks.Task<com.google.mlkit.vision.text.Text>.awaitText(): String =
-        suspendCancellableCoroutine { cont ->
-            addOnSuccessListener { res -> cont.resume(res.text.orEmpty()) }
-            addOnFailureListener { cont.resume("") }
-        }
+    private fun decodeImage(
+        contentResolver: ContentResolver,
+        uri: Uri,
+        config: BillImagePreprocessor.Config
+    ): Bitmap? {
+        return runCatching {
+            val src = ImageDecoder.createSource(contentResolver, uri)
+            ImageDecoder.decodeBitmap(src) { decoder, info, _ ->
+                decoder.isMutableRequired = true
+                if (config.downscale) {
+                    // Subsample while decoding (never below the target); the preprocessor does the rest.
+                    val scale = config.downscaleFactor(info.size.width, info.size.height)
+                    var sample = 1
+                    while (scale * sample * 2 <= 1f) sample *= 2
+                    if (sample > 1) decoder.setTargetSampleSize(sample)
+                }
+            }
+        }.getOrNull()
+    }
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
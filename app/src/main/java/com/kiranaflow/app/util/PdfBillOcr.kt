@@ -0,0 +1,116 @@
+package com.kiranaflow.app.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.pdf.PdfRenderer
+import android.net.Uri
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicInteger
+
+/** Pages OCR'd so far out of [pageCount]; an image is a one-page document. */
+data class OcrProgress(val pagesDone: Int, val pageCount: Int)
+
+data class OcrDocument(
+    val pages: List<OcrResult>,
+    // Pages stitched into one text (see BillPageStitcher).
+    val text: String
+) {
+    companion object {
+        val EMPTY = OcrDocument(emptyList(), "")
+    }
+}
+
+/**
+ * OCR for multi-page PDF bills (distributor invoices run to several pages).
+ *
+ * Pages are rendered one at a time into a single reused bitmap, at the preprocessor's target DPI,
+ * and copied out to a luminance plane straight away, so the bitmap is free for the next page while
+ * the previous ones are still being recognized. At most [DEFAULT_PARALLELISM] pages are in flight;
+ * each holds one [BillImagePreprocessor] (and its buffers) until its OCR is done.
+ */
+object PdfBillOcr {
+
+    const val DEFAULT_PARALLELISM = 2
+
+    /** Null when [uri] is not a readable PDF. */
+    suspend fun recognize(
+        context: Context,
+        uri: Uri,
+        config: BillImagePreprocessor.Config = BillImagePreprocessor.Config(),
+        parallelism: Int = DEFAULT_PARALLELISM,
+        onProgress: (OcrProgress) -> Unit = {}
+    ): OcrDocument? {
+        val pfd = runCatching { context.contentResolver.openFileDescriptor(uri, "r") }.getOrNull() ?: return null
+        pfd.use { fd ->
+            val renderer = runCatching { PdfRenderer(fd) }.getOrNull() ?: return null
+            renderer.use { r ->
+                val count = r.pageCount
+                if (count <= 0) return null
+                // Without grayscale the frame is the bitmap itself: it can't be reused under a running OCR.
+                val workers = if (config.grayscale) parallelism.coerceIn(1, count) else 1
+                val pool = Channel<BillImagePreprocessor>(workers)
+                repeat(workers) { pool.trySend(BillImagePreprocessor(config)) }
+                val engine = OcrEngine.get(context)
+                val results = arrayOfNulls<OcrResult>(count)
+                val done = AtomicInteger()
+                var canvas: Bitmap? = null
+
+                onProgress(OcrProgress(0, count))
+                try {
+                    coroutineScope {
+                        for (i in 0 until count) {
+                            val preprocessor = pool.receive()
+                            val frame = r.openPage(i).use { page ->
+                                val bitmap = render(page, canvas, config).also { canvas = it }
+                                preprocessor.process(bitmap)
+                            }
+                            launch {
+                                try {
+                                    results[i] = OcrUtils.withPreprocessTimings(engine.recognize(frame), frame)
+                                } finally {
+                                    pool.send(preprocessor)
+                                }
+                                onProgress(OcrProgress(done.incrementAndGet(), count))
+                            }
+                        }
+                    }
+                } finally {
+                    canvas?.recycle()
+                }
+
+                val pages = results.map { it ?: OcrResult.EMPTY }
+                return OcrDocument(pages, BillPageStitcher.stitch(pages.map { it.text }))
+            }
+        }
+    }
+
+    // Renders [page] into [reuse] when it is large enough, else into a new bitmap.
+    private fun render(page: PdfRenderer.Page, reuse: Bitmap?, config: BillImagePreprocessor.Config): Bitmap {
+        // Page size is in points (1/72 in).
+        val scale = if (config.downscale) {
+            val dpiScale = config.targetDpi / 72f
+            dpiScale * config.downscaleFactor(
+                maxOf(1, (page.width * dpiScale).toInt()),
+                maxOf(1, (page.height * dpiScale).toInt())
+            )
+        } else {
+            1f
+        }
+        val width = maxOf(1, (page.width * scale).toInt())
+        val height = maxOf(1, (page.height * scale).toInt())
+        val bitmap = if (reuse != null && reuse.allocationByteCount >= width * height * 4) {
+            reuse.reconfigure(width, height, Bitmap.Config.ARGB_8888)
+            reuse
+        } else {
+            reuse?.recycle()
+            Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        }
+        // Unpainted areas would otherwise read as black once converted to luminance.
+        bitmap.eraseColor(Color.WHITE)
+        page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY)
+        return bitmap
+    }
+}
@@ -1,23 +1,23 @@
 package com.kiranaflow.app.util
 
 import android.content.Context
-import android.net.ConnectivityManager
-import android.net.NetworkCapabilities
+import android.util.Log
 import com.kiranaflow.app.data.local.AppPrefsStore
 import com.kiranaflow.app.data.local.KiranaDatabase
 import com.kiranaflow.app.data.local.OutboxDao
 import com.kiranaflow.app.data.local.OutboxEntity
 import com.kiranaflow.app.sync.HttpRemoteApi
+import com.kiranaflow.app.sync.OutboxCompactor
 import com.kiranaflow.app.sync.OutboxCodec
-import com.kiranaflow.app.sync.OutboxDispatcher
-import com.kiranaflow.app.sync.PendingSyncOp
-import com.kiranaflow.app.sync.RemoteApi
 import com.kiranaflow.app.sync.RemoteRequestPreview
+import com.kiranaflow.app.sync.SyncDependencyGraph
 import com.kiranaflow.app.sync.SyncEnvelope
+import com.kiranaflow.app.sync.SyncScheduler
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
@@ -33,16 +33,22 @@ data class SyncResult(
     val attempted: Int,
     val succeeded: Int,
     val failed: Int,
-    val message: String
+    val message: String,
+    // Set when pending entries were coalesced before dispatch (attempted counts the compacted set).
+    val compaction: OutboxCompactor.Stats? = null,
+    // Left unsent because an earlier op on the same entity failed in this pass.
+    val deferred: Int = 0,
+    // Ops sent per second of the whole drain (reading, sending and status commits).
+    val opsPerSecond: Double? = null
 ) {
-    val isFullySuccess: Boolean get() = failed == 0 && attempted > 0
-    val hasPending: Boolean get() = failed > 0 || (attempted == 0 && message != "Nothing to sync")
+    val isFullySuccess: Boolean get() = failed == 0 && deferred == 0 && attempted > 0
+    val hasPending: Boolean get() = failed > 0 || deferred > 0 || (attempted == 0 && message != "Nothing to sync")
 }
 
 /**
  * Sync engine that ensures data is always synced to Supabase immediately.
- * - Triggers sync immediately after data changes
- * - Auto-retries on connectivity restoration
+ * - Triggers sync immediately after data changes (scheduled by [SyncScheduler])
+ * - Auto-retries on connectivity restoration (network-constrained work with backoff)
  * - Supports manual reconnect via tap on sync indicator
  */
 class StubSyncEngine(
@@ -53,275 +59,263 @@ class StubSyncEngine(
 
     private val outboxDao: OutboxDao = db.outboxDao()
     private val syncScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
-    private val syncMutex = Mutex()
-    
-    // Retry configuration for immediate sync
-    private val maxRetries = 5
-    private val initialRetryDelayMs = 200L  // Faster initial retry
-    private val maxRetryDelayMs = 4000L     // Lower max delay
 
     override suspend fun syncOnce(): SyncResult {
         return syncPendingOnly()
     }
 
     /**
-     * Sync ALL pending items (both PENDING and FAILED), with retry logic.
+     * Sync ALL pending items (both PENDING and FAILED) in one id-ordered pass.
      * This is the aggressive sync mode - ensures nothing remains pending.
      */
-    override suspend fun syncAllPending(): SyncResult = withContext(Dispatchers.IO) {
-        syncMutex.withLock {
-            var totalAttempted = 0
-            var totalSucceeded = 0
-            var totalFailed = 0
-            var lastMessage = "Nothing to sync"
-            
-            // First sync PENDING items
-            val pendingResult = syncPendingOnlyInternal()
-            totalAttempted += pendingResult.attempted
-            totalSucceeded += pendingResult.succeeded
-            totalFailed += pendingResult.failed
-            if (pendingResult.attempted > 0) lastMessage = pendingResult.message
-            
-            // Then retry FAILED items
-            val failedResult = syncFailedOnlyInternal()
-            totalAttempted += failedResult.attempted
-            totalSucceeded += failedResult.succeeded
-            totalFailed += failedResult.failed
-            if (failedResult.attempted > 0) lastMessage = failedResult.message
-            
-            SyncResult(
-                attempted = totalAttempted,
-                succeeded = totalSucceeded,
-                failed = totalFailed,
-                message = lastMessage
-            )
-        }
+    override suspend fun syncAllPending(): SyncResult = exclusive {
+        drain(listOf(STATUS_PENDING, STATUS_FAILED))
     }
 
     /**
-     * Trigger immediate sync in a fire-and-forget manner.
-     * Called after every data operation to ensure data is synced ASAP.
+     * Every pass that sends runs under one process-wide lock: the worker, the settings screen and
+     * the main screen each hold an engine, and two passes over the same rows would send them twice.
      */
-    override fun triggerImmediateSync() {
-        syncScope.launch {
-            syncWithRetry()
-        }
+    private suspend fun <T> exclusive(block: suspend () -> T): T = withContext(Dispatchers.IO) {
+        syncMutex.withLock { block() }
     }
 
     /**
-     * Sync with exponential backoff retry logic.
-     * Keeps retrying until all items are synced or max retries exhausted.
+     * Request a sync through [SyncScheduler] (WorkManager: network constraint, backoff, survives
+     * process death). Without a context the pass runs once in this engine's scope.
      */
-    private suspend fun syncWithRetry(): SyncResult {
-        var delayMs = initialRetryDelayMs
-        var lastResult: SyncResult? = null
-        
-        repeat(maxRetries) { attempt ->
-            // Check connectivity before attempting
-            if (!isNetworkAvailable()) {
-                delay(delayMs)
-                delayMs = (delayMs * 2).coerceAtMost(maxRetryDelayMs)
-                return@repeat
-            }
-            
-            val result = syncAllPending()
-            lastResult = result
-            
-            // If no pending items remain, we're done
-            if (result.failed == 0) {
-                return result
-            }
-            
-            // Wait before retry
-            delay(delayMs)
-            delayMs = (delayMs * 2).coerceAtMost(maxRetryDelayMs)
-        }
-        
-        return lastResult ?: SyncResult(0, 0, 0, "Sync not attempted")
-    }
-
-    private fun isNetworkAvailable(): Boolean {
-        val ctx = context ?: return true // Assume online if no context
-        return try {
-            val cm = ctx.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager
-                ?: return true
-            val network = cm.activeNetwork ?: return false
-            val caps = cm.getNetworkCapabilities(network) ?: return false
-            caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) &&
-                caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
-        } catch (e: Exception) {
-            true // Assume online on error
+    override fun triggerImmediateSync() {
+        val ctx = context
+        if (ctx != null) {
+            SyncScheduler.requestSync(ctx)
+        } else {
+            syncScope.launch { syncAllPending() }
         }
     }
 
-    suspend fun syncFailedOnly(): SyncResult = withContext(Dispatchers.IO) {
-        val entries = outboxDao.getFailed(limit = 100)  // Increased from 50
-        syncEntries(entries)
+    suspend fun syncFailedOnly(): SyncResult = exclusive {
+        drain(listOf(STATUS_FAILED))
     }
 
-    private suspend fun syncFailedOnlyInternal(): SyncResult = withContext(Dispatchers.IO) {
-        val entries = outboxDao.getFailed(limit = 200)  // Increased from 100
-        syncEntries(entries)
+    suspend fun syncPendingOnly(): SyncResult = exclusive {
+        drain(listOf(STATUS_PENDING))
     }
 
-    suspend fun syncPendingOnly(): SyncResult = withContext(Dispatchers.IO) {
-        val entries = outboxDao.getPendingOnly(limit = 100)  // Increased from 50
-        syncEntries(entries)
-    }
-
-    private suspend fun syncPendingOnlyInternal(): SyncResult = withContext(Dispatchers.IO) {
-        val entries = outboxDao.getPendingOnly(limit = 200)  // Increased from 100
-        syncEntries(entries)
+    /**
+     * Coalesce a page of the outbox (see [OutboxCompactor]) and persist the result before anything is sent.
+     * If the write is refused (an entry was picked up meanwhile) the page goes out as read.
+     */
+    private suspend fun compact(entries: List<OutboxEntity>): Pair<List<OutboxEntity>, OutboxCompactor.Stats?> {
+        val plan = OutboxCompactor.plan(entries)
+        if (plan.isNoop) return entries to null
+        return try {
+            outboxDao.applyCompaction(plan.rewritten, plan.retiredIds)
+            Log.i(TAG, "Outbox compacted ${plan.stats.before} -> ${plan.stats.after} (ratio ${"%.2f".format(plan.stats.ratio)})")
+            plan.entries to plan.stats
+        } catch (e: IllegalStateException) {
+            Log.w(TAG, "Outbox compaction skipped: ${e.message}")
+            entries to null
+        }
     }
 
     suspend fun resetFailedToPending(): Unit = withContext(Dispatchers.IO) {
         outboxDao.resetAllFailedToPending()
     }
 
-    suspend fun retryEntry(entryId: Int): SyncResult = withContext(Dispatchers.IO) {
-        val entry = outboxDao.getById(entryId) ?: return@withContext SyncResult(
+    suspend fun retryEntry(entryId: Int): SyncResult = exclusive {
+        val entry = outboxDao.getById(entryId) ?: return@exclusive SyncResult(
             attempted = 0,
             succeeded = 0,
             failed = 0,
             message = "Entry not found"
         )
-        syncEntries(listOf(entry))
+        val httpRemote = remoteOrNull()
+            ?: return@exclusive SyncResult(1, 0, 0, "Supabase backend not configured")
+        val page = sendPage(httpRemote, listOf(entry), appPrefsStore.getOrCreateDeviceId(), HashSet())
+        SyncResult(
+            attempted = page.sent,
+            succeeded = page.succeeded,
+            failed = page.failed,
+            message = if (page.failed == 0) "Synced ${page.succeeded}" else "Synced ${page.succeeded}, failed ${page.failed}"
+        )
     }
 
     suspend fun resetEntryFailedToPending(entryId: Int): Unit = withContext(Dispatchers.IO) {
         outboxDao.resetFailedToPending(entryId)
     }
 
-    private suspend fun syncEntries(entries: List<OutboxEntity>): SyncResult {
-        if (entries.isEmpty()) {
-            return SyncResult(0, 0, 0, "Nothing to sync")
-        }
-
-        val backendConfigured = BackendConfig.backendBaseUrl.isNotBlank()
-
-        // Use singleton HttpRemoteApi for connection pooling
-        val httpRemote: HttpRemoteApi? = if (backendConfigured) {
-            getOrCreateHttpRemote()
-        } else null
+    private data class PageResult(
+        val sent: Int,
+        val succeeded: Int,
+        val failed: Int,
+        val deferred: Int
+    )
 
-        val remote: RemoteApi? = when {
-            httpRemote != null -> httpRemote
-            else -> null
+    /**
+     * Producer/consumer drain of every outbox row in [statuses], in id order, in one pass.
+     *
+     * The producer pages through the outbox by id cursor (rows enqueued meanwhile are picked up too),
+     * compacts each page and hands it over a bounded channel, so reading the next page overlaps
+     * sending the current one. The consumer sends pages in order and commits each page's statuses
+     * in one transaction.
+     *
+     * Order: pages go out one after another, and inside a page ops follow their dependency graph
+     * (see [sendPage]). Once an op fails, later ops on the same entity, or referencing it, are left
+     * unsent for this pass, so they cannot overtake it.
+     */
+    private suspend fun drain(statuses: List<String>): SyncResult {
+        val httpRemote = remoteOrNull()
+        if (httpRemote == null) {
+            // Nothing is marked attempted: that would also keep these rows from being compacted later.
+            val count = outboxDao.countWithStatus(statuses)
+            return if (count == 0) {
+                SyncResult(0, 0, 0, "Nothing to sync")
+            } else {
+                SyncResult(count, 0, 0, "Supabase backend not configured")
+            }
         }
 
         val deviceId = appPrefsStore.getOrCreateDeviceId()
+        val startedAt = System.nanoTime()
+        val blocked = HashSet<String>()
+        var sent = 0
+        var succeeded = 0
+        var failed = 0
+        var deferred = 0
+        var compactedBefore = 0
+        var compactedAfter = 0
 
-        // If no remote is configured, mark attempts and return
-        if (remote == null) {
-            val now = System.currentTimeMillis()
-            entries.forEach { entry ->
-                outboxDao.markAttempt(entry.id, now, null)
+        coroutineScope {
+            val pages = Channel<List<OutboxEntity>>(capacity = PIPELINE_DEPTH)
+            launch {
+                var cursor = 0
+                while (true) {
+                    val page = outboxDao.getUnsyncedPage(statuses, afterId = cursor, limit = PAGE_SIZE)
+                    if (page.isEmpty()) break
+                    cursor = page.last().id
+                    val (entries, stats) = compact(page)
+                    if (stats != null) {
+                        compactedBefore += stats.before
+                        compactedAfter += stats.after
+                    }
+                    pages.send(entries)
+                }
+                pages.close()
             }
-            return SyncResult(entries.size, 0, 0, "Supabase backend not configured")
-        }
-
-        // Prepare all entries for sync
-        val now = System.currentTimeMillis()
-        val validEntries = mutableListOf<Triple<OutboxEntity, SyncEnvelope, RemoteRequestPreview>>()
-        var invalidCount = 0
-
-        for (entry in entries) {
-            outboxDao.markAttempt(entry.id, now, null)
-            
-            val op: PendingSyncOp = try {
-                OutboxCodec.decode(entry)
-            } catch (e: Exception) {
-                outboxDao.markFailed(entry.id, now, "Invalid outbox payload")
-                invalidCount++
-                continue
+            for (page in pages) {
+                val result = sendPage(httpRemote, page, deviceId, blocked)
+                sent += result.sent
+                succeeded += result.succeeded
+                failed += result.failed
+                deferred += result.deferred
             }
-            
-            val preview = OutboxDispatcher.preview(op)
-            val envelope = OutboxCodec.toEnvelope(entry, deviceId, sentAtMillis = now)
-            validEntries.add(Triple(entry, envelope, preview))
         }
 
-        // Use batch sync for HttpRemoteApi (much faster)
-        val (ok, failed) = if (httpRemote != null && validEntries.isNotEmpty()) {
-            syncEntriesBatch(httpRemote, validEntries, now)
-        } else {
-            // Fallback to sequential sync (should rarely happen; kept for safety)
-            syncEntriesSequential(remote, validEntries, now)
-        }
+        // Rows rejected before sending (undecodable payloads) count in failed only; they still need reporting.
+        if (sent == 0 && deferred == 0 && failed == 0) return SyncResult(0, 0, 0, "Nothing to sync")
 
-        val totalFailed = failed + invalidCount
-        val msg = when {
-            totalFailed == 0 -> "Synced $ok"
-            else -> "Synced $ok, failed $totalFailed"
-        }
+        val seconds = (System.nanoTime() - startedAt) / 1e9
+        val opsPerSecond = if (seconds > 0.0) sent / seconds else null
+        val compaction = if (compactedBefore > compactedAfter) OutboxCompactor.Stats(compactedBefore, compactedAfter) else null
+        Log.i(TAG, "Outbox drain: sent $sent ($succeeded ok, $failed failed, $deferred deferred) in ${"%.2f".format(seconds)} s")
 
+        val msg = buildString {
+            append(if (failed == 0) "Synced $succeeded" else "Synced $succeeded, failed $failed")
+            if (deferred > 0) append(", $deferred waiting")
+            if (compaction != null) append(" (${compaction.before} changes merged into ${compaction.after})")
+            if (opsPerSecond != null) append(" • ${"%.0f".format(opsPerSecond)} ops/s")
+        }
         return SyncResult(
-            attempted = entries.size,
-            succeeded = ok,
-            failed = totalFailed,
-            message = msg
+            attempted = sent,
+            succeeded = succeeded,
+            failed = failed,
+            message = msg,
+            compaction = compaction,
+            deferred = deferred,
+            opsPerSecond = opsPerSecond
         )
     }
-    
+
     /**
-     * Batch sync using HttpRemoteApi - sends multiple ops in parallel/batch.
-     * Returns (successCount, failCount)
+     * Send one page and commit its statuses in one transaction.
+     *
+     * The page goes to [HttpRemoteApi.applyBatch] with its [SyncDependencyGraph]: independent chains
+     * are sent in parallel, and each op waits only for the ops it depends on (same entity, or the
+     * party/item/transaction it references). Ops touching a key in [blocked] (an earlier op on it
+     * failed in this pass) are left queued; keys written by ops that are held back, fail or are skipped
+     * are added.
      */
-    private suspend fun syncEntriesBatch(
+    private suspend fun sendPage(
         httpRemote: HttpRemoteApi,
-        validEntries: List<Triple<OutboxEntity, SyncEnvelope, RemoteRequestPreview>>,
-        timestamp: Long
-    ): Pair<Int, Int> {
-        val envelopesWithPreviews = validEntries.map { (_, envelope, preview) ->
-            envelope to preview
+        entries: List<OutboxEntity>,
+        deviceId: String,
+        blocked: MutableSet<String>
+    ): PageResult {
+        val now = System.currentTimeMillis()
+        val done = mutableListOf<Int>()
+        val failed = LinkedHashMap<Int, String>()
+        var deferred = 0
+
+        val prepared = mutableListOf<Triple<OutboxEntity, SyncEnvelope, RemoteRequestPreview>>()
+        for (entry in entries) {
+            // Decoded once per row (cached by opId across retries); the envelope shares the decoded body.
+            val preview: RemoteRequestPreview = try {
+                OutboxCodec.decoded(entry).preview
+            } catch (e: Exception) {
+                failed[entry.id] = "Invalid outbox payload"
+                // Later ops on this entity must not overtake it; the key comes from the row's columns.
+                blocked += SyncDependencyGraph.writtenKeys(entry.entityType, entry.entityId, entry.op, null)
+                continue
+            }
+            prepared += Triple(entry, OutboxCodec.toEnvelope(entry, deviceId, sentAtMillis = now), preview)
         }
-        
-        // Use batch apply - handles batching and parallelization internally
-        val results = httpRemote.applyBatch(envelopesWithPreviews)
-        
-        var ok = 0
-        var failed = 0
-        
-        results.forEachIndexed { index, result ->
-            val entry = validEntries[index].first
-            if (result.ok) {
-                outboxDao.markDone(entry.id, timestamp)
-                ok++
-            } else {
-                outboxDao.markFailed(entry.id, timestamp, result.message.ifBlank { "Sync failed" })
-                failed++
+
+        // In page order: a held-back op blocks what it writes, so later ops on its entity wait behind it.
+        val toSend = prepared.filter { (_, envelope, _) ->
+            val written = SyncDependencyGraph.writtenKeys(envelope.entityType, envelope.entityId, envelope.op, envelope.body)
+            val keys = written + SyncDependencyGraph.referencedKeys(envelope.body)
+            keys.none { it in blocked }.also {
+                if (!it) {
+                    deferred++
+                    blocked += written
+                }
             }
         }
-        
-        return ok to failed
-    }
-    
-    /**
-     * Sequential sync fallback.
-     * Returns (successCount, failCount)
-     */
-    private suspend fun syncEntriesSequential(
-        remote: RemoteApi,
-        validEntries: List<Triple<OutboxEntity, SyncEnvelope, RemoteRequestPreview>>,
-        timestamp: Long
-    ): Pair<Int, Int> {
-        var ok = 0
-        var failed = 0
-        
-        for ((entry, envelope, preview) in validEntries) {
-            val result = remote.apply(envelope, preview)
-            if (result.ok) {
-                outboxDao.markDone(entry.id, timestamp)
-                ok++
-            } else {
-                outboxDao.markFailed(entry.id, timestamp, result.message.ifBlank { "Sync failed" })
-                failed++
+        var sent = 0
+        if (toSend.isNotEmpty()) {
+            outboxDao.markAttemptedAll(toSend.map { it.first.id }, now)
+            val graph = SyncDependencyGraph.build(toSend.map { it.second })
+            val results = httpRemote.applyBatch(toSend.map { (_, envelope, preview) -> envelope to preview }, graph)
+            toSend.forEachIndexed { i, (entry, _, _) ->
+                val result = results[i]
+                when {
+                    result.ok -> done += entry.id
+                    result.skipped -> deferred++
+                    else -> failed[entry.id] = result.message.ifBlank { "Sync failed" }
+                }
+                if (!result.ok) blocked += graph.writesOf(i)
+                if (!result.skipped) sent++
             }
         }
-        
-        return ok to failed
+
+        outboxDao.commitResults(done, failed, now)
+        return PageResult(sent = sent, succeeded = done.size, failed = failed.size, deferred = deferred)
     }
-    
+
+    private fun remoteOrNull(): HttpRemoteApi? =
+        if (BackendConfig.backendBaseUrl.isNotBlank()) getOrCreateHttpRemote() else null
+
+    private companion object {
+        val syncMutex = Mutex()
+
+        const val TAG = "SyncEngine"
+        const val STATUS_PENDING = "PENDING"
+        const val STATUS_FAILED = "FAILED"
+        const val PAGE_SIZE = 200
+        // Pages read ahead of the one being sent.
+        const val PIPELINE_DEPTH = 2
+    }
+
     // Singleton HttpRemoteApi for connection reuse
     private var cachedHttpRemote: HttpRemoteApi? = null
     
@@ -0,0 +1,295 @@
+package com.kiranaflow.app.util
+
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserFactory
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.ZipFile
+
+/**
+ * Streaming XLSX reader with bounded heap use.
+ *
+ * - The workbook is spooled to a temp file and opened as a [ZipFile], so parts can be read in any
+ *   order regardless of how the archive was written.
+ * - Shared strings are spilled to a temp file and memory-mapped; the heap only holds an IntArray
+ *   of offsets (4 bytes per string) instead of one String object per entry.
+ * - [rows] pulls worksheet XML through an XmlPullParser and yields one row at a time.
+ *
+ * Not thread-safe. Close it when done to delete the temp files.
+ */
+class XlsxStreamReader private constructor(
+    private val file: File,
+    private val deleteOnClose: Boolean
+) : Closeable {
+
+    data class Sheet(val name: String, val path: String)
+
+    private val zip = ZipFile(file)
+    private var strings: SharedStringTable? = null
+
+    /** Sheets in workbook order (as listed in xl/workbook.xml). */
+    val sheets: List<Sheet> by lazy { readSheets() }
+
+    /**
+     * Rows of [sheetName] (case-insensitive), or of the first sheet when null. Each row is a list of
+     * cell values indexed by column (gaps filled with ""). Blank rows are skipped.
+     */
+    fun rows(sheetName: String? = null): Sequence<List<String>> {
+        val sheet = if (sheetName == null) {
+            sheets.firstOrNull() ?: return emptySequence()
+        } else {
+            sheets.firstOrNull { it.name.trim().equals(sheetName.trim(), ignoreCase = true) }
+                ?: throw IllegalArgumentException("Sheet not found: $sheetName")
+        }
+        val entry = zip.getEntry(sheet.path) ?: return emptySequence()
+        val shared = sharedStrings()
+        return sequence {
+            zip.getInputStream(entry).use { input ->
+                val parser = newParser(input)
+                val row = ArrayList<String>()
+                var inRow = false
+                var col = 0
+                var type: String? = null
+                var value: StringBuilder? = null
+                // Inline strings keep their text in <is><t>…</t></is> instead of <v>.
+                var inlineText: StringBuilder? = null
+                // Text is captured only inside <v> or an inline <t>: pretty-printed sheets put
+                // whitespace between tags, which must not end up in the cell.
+                var inValue = false
+                var inInlineText = false
+
+                var event = parser.eventType
+                while (event != XmlPullParser.END_DOCUMENT) {
+                    when (event) {
+                        XmlPullParser.START_TAG -> when (parser.name) {
+                            "row" -> {
+                                row.clear()
+                                inRow = true
+                            }
+                            "c" -> {
+                                col = colIndexFromRef(parser.getAttributeValue(null, "r").orEmpty(), fallback = row.size)
+                                type = parser.getAttributeValue(null, "t")
+                                value = null
+                                inlineText = null
+                            }
+                            "v" -> {
+                                value = StringBuilder()
+                                inValue = true
+                            }
+                            "is" -> inlineText = StringBuilder()
+                            "t" -> inInlineText = inlineText != null
+                        }
+                        XmlPullParser.TEXT -> when {
+                            inValue -> value?.append(parser.text)
+                            inInlineText -> inlineText?.append(parser.text)
+                        }
+                        XmlPullParser.END_TAG -> when (parser.name) {
+                            "c" -> if (inRow) {
+                                val raw = value?.toString() ?: inlineText?.toString().orEmpty()
+                                val cell = if (type == "s") {
+                                    raw.trim().toIntOrNull()?.let { shared.get(it) }.orEmpty()
+                                } else raw
+                                while (row.size <= col) row.add("")
+                                row[col] = cell
+                                value = null
+                                inlineText = null
+                            }
+                            "v" -> inValue = false
+                            "t" -> inInlineText = false
+                            "row" -> {
+                                inRow = false
+                                if (row.any { it.isNotBlank() }) yield(row.toList())
+                            }
+                        }
+                    }
+                    event = parser.next()
+                }
+            }
+        }
+    }
+
+    override fun close() {
+        runCatching { strings?.close() }
+        runCatching { zip.close() }
+        if (deleteOnClose) file.delete()
+    }
+
+    private fun sharedStrings(): SharedStringTable {
+        strings?.let { return it }
+        val entry = zip.getEntry("xl/sharedStrings.xml")
+        val table = if (entry == null) SharedStringTable.empty() else zip.getInputStream(entry).use { SharedStringTable.spill(it) }
+        strings = table
+        return table
+    }
+
+    private fun readSheets(): List<Sheet> {
+        // r:id -> part path
+        val targets = HashMap<String, String>()
+        zip.getEntry("xl/_rels/workbook.xml.rels")?.let { relsEntry ->
+            zip.getInputStream(relsEntry).use { input ->
+                val parser = newParser(input)
+                var event = parser.eventType
+                while (event != XmlPullParser.END_DOCUMENT) {
+                    if (event == XmlPullParser.START_TAG && parser.name == "Relationship") {
+                        val id = parser.getAttributeValue(null, "Id")
+                        val target = parser.getAttributeValue(null, "Target")
+                        if (id != null && target != null) {
+                            targets[id] = if (target.startsWith("/")) target.removePrefix("/") else "xl/$target"
+                        }
+                    }
+                    event = parser.next()
+                }
+            }
+        }
+
+        val out = mutableListOf<Sheet>()
+        zip.getEntry("xl/workbook.xml")?.let { wbEntry ->
+            zip.getInputStream(wbEntry).use { input ->
+                val parser = newParser(input)
+                var event = parser.eventType
+                while (event != XmlPullParser.END_DOCUMENT) {
+                    if (event == XmlPullParser.START_TAG && parser.name == "sheet") {
+                        val name = parser.getAttributeValue(null, "name").orEmpty()
+                        // Non-namespace-aware parser: the relationship id attribute is "r:id".
+                        var relId: String? = null
+                        for (i in 0 until parser.attributeCount) {
+                            val attr = parser.getAttributeName(i)
+                            if (attr == "r:id" || attr.endsWith(":id")) relId = parser.getAttributeValue(i)
+                        }
+                        val path = relId?.let { targets[it] }
+                        if (path != null) out += Sheet(name, path)
+                    }
+                    event = parser.next()
+                }
+            }
+        }
+        if (out.isNotEmpty()) return out
+
+        // Workbooks without a readable workbook.xml: fall back to worksheet parts in name order.
+        return zip.entries().asSequence()
+            .map { it.name }
+            .filter { it.startsWith("xl/worksheets/sheet") && it.endsWith(".xml") }
+            .sortedWith(compareBy({ it.length }, { it }))
+            .map { Sheet(it.substringAfterLast('/').removeSuffix(".xml"), it) }
+            .toList()
+    }
+
+    /**
+     * Shared strings spilled to disk: UTF-8 bytes back to back in a memory-mapped temp file, with
+     * `offsets[i]..offsets[i + 1]` delimiting string i.
+     */
+    private class SharedStringTable(
+        private val offsets: IntArray,
+        private val count: Int,
+        private val buffer: MappedByteBuffer?,
+        private val spillFile: File?
+    ) : Closeable {
+
+        fun get(index: Int): String? {
+            if (index < 0 || index >= count) return null
+            val buf = buffer ?: return ""
+            val start = offsets[index]
+            val len = offsets[index + 1] - start
+            if (len == 0) return ""
+            val bytes = ByteArray(len)
+            val view = buf.duplicate()
+            view.position(start)
+            view.get(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+
+        override fun close() {
+            spillFile?.delete()
+        }
+
+        companion object {
+            fun empty() = SharedStringTable(IntArray(1), 0, null, null)
+
+            fun spill(input: InputStream): SharedStringTable {
+                val spillFile = File.createTempFile("kf_sst", ".bin")
+                var offsets = IntArray(1024)
+                var count = 0
+                var written = 0
+                BufferedOutputStream(FileOutputStream(spillFile)).use { out ->
+                    val parser = newParser(input)
+                    // One <si> = one string; rich text splits it into several <r><t> runs.
+                    var current: StringBuilder? = null
+                    var inText = false
+                    // Phonetic hints (<rPh>) are not part of the cell value.
+                    var inPhonetic = false
+                    var event = parser.eventType
+                    while (event != XmlPullParser.END_DOCUMENT) {
+                        when (event) {
+                            XmlPullParser.START_TAG -> when (parser.name) {
+                                "si" -> current = StringBuilder()
+                                "rPh" -> inPhonetic = true
+                                "t" -> inText = !inPhonetic
+                            }
+                            XmlPullParser.TEXT -> if (inText) current?.append(parser.text)
+                            XmlPullParser.END_TAG -> when (parser.name) {
+                                "t" -> inText = false
+                                "rPh" -> inPhonetic = false
+                                "si" -> {
+                                    val bytes = current?.toString().orEmpty().toByteArray(Charsets.UTF_8)
+                                    if (count + 2 > offsets.size) offsets = offsets.copyOf(offsets.size * 2)
+                                    offsets[count] = written
+                                    out.write(bytes)
+                                    written += bytes.size
+                                    count++
+                                    current = null
+                                }
+                            }
+                        }
+                        event = parser.next()
+                    }
+                }
+                if (count + 1 > offsets.size) offsets = offsets.copyOf(count + 1)
+                offsets[count] = written
+
+                val buffer = if (written == 0) null else RandomAccessFile(spillFile, "r").use { raf ->
+                    // The mapping stays valid after the channel is closed.
+                    raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, written.toLong())
+                }
+                return SharedStringTable(offsets, count, buffer, spillFile)
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Spool [input] to a temp file and open it. The temp file is deleted on [close].
+         */
+        fun open(input: InputStream): XlsxStreamReader {
+            val tmp = File.createTempFile("kf_sheet", ".xlsx")
+            try {
+                FileOutputStream(tmp).use { out -> input.copyTo(out) }
+                return XlsxStreamReader(tmp, deleteOnClose = true)
+            } catch (t: Throwable) {
+                tmp.delete()
+                throw t
+            }
+        }
+
+        fun open(file: File): XlsxStreamReader = XlsxStreamReader(file, deleteOnClose = false)
+
+        private fun newParser(input: InputStream): XmlPullParser =
+            XmlPullParserFactory.newInstance().newPullParser().apply { setInput(input, "UTF-8") }
+
+        // "AB12" -> 27; cells without a reference continue after the previous one.
+        private fun colIndexFromRef(cellRef: String, fallback: Int): Int {
+            val letters = cellRef.takeWhile { it.isLetter() }.uppercase()
+            if (letters.isEmpty()) return fallback
+            var result = 0
+            for (ch in letters) {
+                result = result * 26 + (ch - 'A' + 1)
+            }
+            return (result - 1).coerceAtLeast(0)
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.kiranaflow.app.sync
+
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * [HttpRemoteApi.applyBatch] against a local server, checking how [AdaptiveBatchScheduler] reacts
+ * to what the server answers.
+ */
+class HttpRemoteApiTest {
+    private lateinit var server: MockWebServer
+    private val requests = mutableListOf<RecordedRequest>()
+
+    // Answers for batch requests, in order; once used up every batch succeeds.
+    private val batchAnswers = ArrayDeque<(RecordedRequest) -> MockResponse>()
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                synchronized(requests) { requests += request }
+                if (request.path != BATCH_PATH) return MockResponse().setResponseCode(200)
+                val answer = synchronized(batchAnswers) { batchAnswers.removeFirstOrNull() }
+                return answer?.invoke(request) ?: batchOk(request)
+            }
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun api(scheduler: AdaptiveBatchScheduler) =
+        HttpRemoteApi(server.url(SINGLE_PATH).toString(), apiKey = null, scheduler = scheduler)
+
+    private fun ops(count: Int) = List(count) { i ->
+        SyncEnvelope(
+            deviceId = "device-1",
+            opId = "op-$i",
+            sentAtMillis = 1_700_000_000_000L,
+            entityType = SyncEntityType.ITEM.name,
+            entityId = "${i + 1}",
+            op = SyncOpType.UPSERT.name,
+            body = JSONObject().put("name", "Item $i").put("price", 10.0 + i)
+        ) to RemoteRequestPreview("POST", "/items", null)
+    }
+
+    private fun batchOk(request: RecordedRequest): MockResponse {
+        val count = request.getHeader("X-Batch-Count")!!.toInt()
+        val results = JSONArray().apply { repeat(count) { put(JSONObject().put("ok", true)) } }
+        return MockResponse().setBody(JSONObject().put("results", results).toString())
+    }
+
+    private fun batchCounts(): List<Int> =
+        synchronized(requests) { requests.filter { it.path == BATCH_PATH }.map { it.getHeader("X-Batch-Count")!!.toInt() } }
+
+    private fun paths(): List<String?> = synchronized(requests) { requests.map { it.path } }
+
+    @Test
+    fun tooManyRequestsWaitsForRetryAfterAndHalvesTheBatch() = runBlocking {
+        val scheduler = AdaptiveBatchScheduler(initialBatchOps = 4, initialInFlight = 1, maxInFlight = 1)
+        batchAnswers += { MockResponse().setResponseCode(429).setHeader("Retry-After", "1") }
+
+        val startedAt = System.nanoTime()
+        val results = api(scheduler).applyBatch(ops(4))
+        val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)
+
+        assertTrue(results.all { it.ok })
+        assertEquals(listOf(4, 2, 2), batchCounts())
+        assertTrue("resent after ${elapsedMs}ms", elapsedMs >= 1_000)
+    }
+
+    @Test
+    fun serverErrorHalvesTheBatchAndResendsTheSlice() = runBlocking {
+        val scheduler = AdaptiveBatchScheduler(initialBatchOps = 8, initialInFlight = 1, maxInFlight = 1)
+        // Not 503: OkHttp itself retries a 503 that carries Retry-After: 0.
+        batchAnswers += { MockResponse().setResponseCode(502).setHeader("Retry-After", "0") }
+
+        val results = api(scheduler).applyBatch(ops(8))
+
+        assertTrue(results.all { it.ok })
+        assertEquals(listOf(8, 4, 4), batchCounts())
+        // Halved to 4, then two fast responses added ADDITIVE_OPS each.
+        assertEquals(4 + 2 * AdaptiveBatchScheduler.ADDITIVE_OPS, scheduler.snapshot().batchOps)
+    }
+
+    @Test
+    fun serverErrorOnEveryAttemptFailsTheOps() = runBlocking {
+        val scheduler = AdaptiveBatchScheduler(initialBatchOps = 2, initialInFlight = 1, maxInFlight = 1)
+        repeat(3) { batchAnswers += { MockResponse().setResponseCode(500).setHeader("Retry-After", "0") } }
+
+        val results = api(scheduler).applyBatch(ops(1))
+
+        assertEquals(listOf(false), results.map { it.ok })
+        assertEquals(3, batchCounts().size)
+    }
+
+    @Test
+    fun slowResponseShrinksTheBatch() = runBlocking {
+        val scheduler = AdaptiveBatchScheduler(
+            initialBatchOps = 8,
+            initialInFlight = 1,
+            maxInFlight = 1,
+            targetLatencyMs = 200
+        )
+        batchAnswers += { batchOk(it).setHeadersDelay(400, TimeUnit.MILLISECONDS) }
+
+        api(scheduler).applyBatch(ops(2))
+        assertEquals(4, scheduler.snapshot().batchOps)
+
+        api(scheduler).applyBatch(ops(2))
+        assertEquals(4 + AdaptiveBatchScheduler.ADDITIVE_OPS, scheduler.snapshot().batchOps)
+    }
+
+    @Test
+    fun missingBatchEndpointIsRememberedAndReprobedLater() = runBlocking {
+        val now = AtomicLong(0L)
+        val scheduler = AdaptiveBatchScheduler(endpointRecheckMs = 60_000, clock = now::get)
+        val api = api(scheduler)
+        repeat(2) { batchAnswers += { MockResponse().setResponseCode(404) } }
+
+        val first = api.applyBatch(ops(2))
+        assertTrue(first.all { it.ok })
+        assertEquals(listOf(BATCH_PATH, SINGLE_PATH, SINGLE_PATH), paths())
+        assertEquals(AdaptiveBatchScheduler.Endpoint.UNAVAILABLE, scheduler.snapshot().endpoint)
+
+        // Still missing: straight to single-op requests.
+        synchronized(requests) { requests.clear() }
+        api.applyBatch(ops(2))
+        assertEquals(listOf(SINGLE_PATH, SINGLE_PATH), paths())
+
+        // Due for a re-probe.
+        synchronized(requests) { requests.clear() }
+        now.addAndGet(60_000)
+        api.applyBatch(ops(2))
+        assertEquals(listOf(BATCH_PATH, SINGLE_PATH, SINGLE_PATH), paths())
+
+        // Back: batches again.
+        synchronized(requests) { requests.clear() }
+        now.addAndGet(60_000)
+        api.applyBatch(ops(2))
+        assertEquals(listOf(BATCH_PATH), paths())
+        assertEquals(AdaptiveBatchScheduler.Endpoint.AVAILABLE, scheduler.snapshot().endpoint)
+    }
+
+    @Test
+    fun unsupportedMediaTypeFallsBackToJsonForGood() = runBlocking {
+        val scheduler = AdaptiveBatchScheduler(initialInFlight = 1, maxInFlight = 1)
+        val api = api(scheduler)
+        batchAnswers += { MockResponse().setResponseCode(415) }
+
+        assertTrue(api.applyBatch(ops(2)).all { it.ok })
+        api.applyBatch(ops(3))
+
+        val sent = synchronized(requests) { requests.toList() }
+        assertEquals(3, sent.size)
+        assertEquals("gzip", sent[0].getHeader("Content-Encoding"))
+        assertTrue(sent[0].getHeader("Content-Type")!!.startsWith("application/x-ndjson"))
+        sent.drop(1).forEachIndexed { i, request ->
+            assertNull(request.getHeader("Content-Encoding"))
+            assertTrue(request.getHeader("Content-Type")!!.startsWith("application/json"))
+            val body = JSONObject(request.body.readUtf8())
+            assertEquals(if (i == 0) 2 else 3, body.getJSONArray("ops").length())
+        }
+    }
+
+    private companion object {
+        const val SINGLE_PATH = "/sync/apply"
+        const val BATCH_PATH = "/sync/apply-batch"
+    }
+}
@@ -0,0 +1,241 @@
+package com.kiranaflow.app.sync
+
+import com.kiranaflow.app.data.local.OutboxEntity
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class OutboxCompactorTest {
+
+    private var nextId = 1
+
+    private fun entry(
+        entityType: SyncEntityType,
+        entityId: String?,
+        op: SyncOpType,
+        payload: JSONObject? = JSONObject(),
+        attempted: Boolean = false
+    ): OutboxEntity {
+        val id = nextId++
+        return OutboxEntity(
+            id = id,
+            opId = "op-$id",
+            entityType = entityType.name,
+            entityId = entityId,
+            op = op.name,
+            payload = payload?.let(OutboxPayloadFormat::encode),
+            lastAttemptAtMillis = if (attempted) 1_000L else null
+        )
+    }
+
+    private fun item(id: String, name: String) =
+        entry(SyncEntityType.ITEM, id, SyncOpType.UPSERT, JSONObject().put("name", name))
+
+    private fun lines(transactionId: String, vararg itemIds: Int) = entry(
+        SyncEntityType.TRANSACTION_ITEM, transactionId, SyncOpType.UPSERT_MANY,
+        JSONObject().put("items", JSONArray().apply { itemIds.forEach { put(JSONObject().put("itemId", it)) } })
+    )
+
+    private fun OutboxEntity.json(): JSONObject = OutboxPayloadFormat.decode(payload!!)
+
+    @Test
+    fun successiveUpsertsKeepFirstSlotAndTakeLastPayloadAndOpId() {
+        val first = item("1", "Tata Salt")
+        val other = item("2", "Sugar")
+        val last = item("1", "Tata Salt 1kg")
+
+        val plan = OutboxCompactor.plan(listOf(first, other, last))
+
+        assertEquals(listOf(first.id, other.id), plan.entries.map { it.id })
+        val merged = plan.entries[0]
+        assertEquals(last.opId, merged.opId)
+        assertEquals("Tata Salt 1kg", merged.json().getString("name"))
+        assertEquals(listOf(merged), plan.rewritten)
+        assertEquals(listOf(last.id), plan.retiredIds)
+        assertEquals(OutboxCompactor.Stats(before = 3, after = 2), plan.stats)
+    }
+
+    @Test
+    fun mergedItemUpsertsAddUpTheirStockDeltas() {
+        val first = entry(SyncEntityType.ITEM, "1", SyncOpType.UPSERT, JSONObject().put("stock", 30).put("stockDelta", 20))
+        val rename = entry(SyncEntityType.ITEM, "1", SyncOpType.UPSERT, JSONObject().put("stock", 30))
+        val last = entry(SyncEntityType.ITEM, "1", SyncOpType.UPSERT, JSONObject().put("stock", 25).put("stockDelta", -5))
+
+        val plan = OutboxCompactor.plan(listOf(first, rename, last))
+
+        assertEquals(listOf(first.id), plan.entries.map { it.id })
+        val merged = plan.entries[0].json()
+        assertEquals(25, merged.getInt("stock"))
+        assertEquals(15.0, merged.getDouble("stockDelta"), 0.0)
+    }
+
+    @Test
+    fun differentUpsertOpsOnOneKeyStayOrdered() {
+        val customer = entry(SyncEntityType.PARTY, "7", SyncOpType.UPSERT_CUSTOMER)
+        val upsert = entry(SyncEntityType.PARTY, "7", SyncOpType.UPSERT)
+        val customerAgain = entry(SyncEntityType.PARTY, "7", SyncOpType.UPSERT_CUSTOMER)
+
+        val plan = OutboxCompactor.plan(listOf(customer, upsert, customerAgain))
+
+        assertTrue(plan.isNoop)
+        assertEquals(listOf(customer, upsert, customerAgain), plan.entries)
+    }
+
+    @Test
+    fun deleteDropsEarlierUpsertsOfTheSameKey() {
+        val a = item("1", "A")
+        val b = item("1", "B")
+        val keep = item("2", "C")
+        val delete = entry(SyncEntityType.ITEM, "1", SyncOpType.DELETE)
+
+        val plan = OutboxCompactor.plan(listOf(a, b, keep, delete))
+
+        assertEquals(listOf(keep.id, delete.id), plan.entries.map { it.id })
+        assertEquals(setOf(a.id, b.id), plan.retiredIds.toSet())
+        // The merged slot was dropped, so there is nothing left to rewrite.
+        assertTrue(plan.rewritten.isEmpty())
+    }
+
+    @Test
+    fun deleteKeepsTheCreateOfAnItemASaleStillNeeds() {
+        val create = item("1", "A")
+        val sale = entry(
+            SyncEntityType.TRANSACTION, "9", SyncOpType.CREATE_SALE,
+            JSONObject().put("items", JSONArray().put(JSONObject().put("itemId", 1)))
+        )
+        val rename = item("1", "B")
+        val renameAgain = item("1", "C")
+        val delete = entry(SyncEntityType.ITEM, "1", SyncOpType.DELETE)
+
+        val noDelete = OutboxCompactor.plan(listOf(create, sale, rename, renameAgain))
+        // The sale is a barrier: the rename merges after it, not into the create.
+        assertEquals(listOf(create.id, sale.id, rename.id), noDelete.entries.map { it.id })
+        assertEquals(create, noDelete.entries[0])
+
+        val plan = OutboxCompactor.plan(listOf(create, sale, rename, renameAgain, delete))
+        assertEquals(listOf(create, sale, delete), plan.entries)
+        assertEquals(setOf(rename.id, renameAgain.id), plan.retiredIds.toSet())
+    }
+
+    @Test
+    fun partyReferencedByASaleSurvivesItsDelete() {
+        val customer = entry(SyncEntityType.PARTY, "7", SyncOpType.UPSERT_CUSTOMER, JSONObject().put("name", "Asha"))
+        val sale = entry(SyncEntityType.TRANSACTION, "9", SyncOpType.CREATE_SALE, JSONObject().put("customerId", 7))
+        val delete = entry(SyncEntityType.PARTY, "7", SyncOpType.DELETE)
+
+        val plan = OutboxCompactor.plan(listOf(customer, sale, delete))
+
+        assertTrue(plan.isNoop)
+        assertEquals(listOf(customer, sale, delete), plan.entries)
+    }
+
+    @Test
+    fun upsertsAfterDeleteDoNotMergeAcrossIt() {
+        val before = item("1", "A")
+        val delete = entry(SyncEntityType.ITEM, "1", SyncOpType.DELETE)
+        val after = item("1", "B")
+        val again = item("1", "C")
+
+        val plan = OutboxCompactor.plan(listOf(before, delete, after, again))
+
+        assertEquals(listOf(delete.id, after.id), plan.entries.map { it.id })
+        assertEquals(again.opId, plan.entries[1].opId)
+    }
+
+    @Test
+    fun otherOpsAreBarriers() {
+        val upsert = entry(SyncEntityType.TRANSACTION, "5", SyncOpType.UPSERT)
+        val edit = entry(SyncEntityType.TRANSACTION, "5", SyncOpType.EDIT_TRANSACTION)
+        val upsertAgain = entry(SyncEntityType.TRANSACTION, "5", SyncOpType.UPSERT)
+
+        val plan = OutboxCompactor.plan(listOf(upsert, edit, upsertAgain))
+
+        assertTrue(plan.isNoop)
+        assertEquals(listOf(upsert, edit, upsertAgain), plan.entries)
+    }
+
+    @Test
+    fun attemptedEntriesAreLeftUntouchedAndActAsBarriers() {
+        val attempted = item("1", "A").copy(lastAttemptAtMillis = 1_000L)
+        val failed = item("2", "B").copy(status = "FAILED")
+        val next = item("1", "C")
+        val nextOnFailedKey = item("2", "D")
+        val last = item("1", "E")
+
+        val plan = OutboxCompactor.plan(listOf(attempted, failed, next, nextOnFailedKey, last))
+
+        assertEquals(
+            listOf(attempted, failed, next.copy(opId = last.opId, payload = last.payload), nextOnFailedKey),
+            plan.entries
+        )
+        assertEquals(listOf(last.id), plan.retiredIds)
+    }
+
+    @Test
+    fun deleteDoesNotDropAttemptedUpserts() {
+        val attempted = item("1", "A").copy(lastAttemptAtMillis = 1_000L)
+        val delete = entry(SyncEntityType.ITEM, "1", SyncOpType.DELETE)
+
+        val plan = OutboxCompactor.plan(listOf(attempted, delete))
+
+        assertTrue(plan.isNoop)
+        assertEquals(listOf(attempted, delete), plan.entries)
+    }
+
+    @Test
+    fun lineItemsFoldIntoTheirCreateSale() {
+        val sale = entry(
+            SyncEntityType.TRANSACTION, "9", SyncOpType.CREATE_SALE,
+            JSONObject().put("amount", 120.0).put("items", JSONArray().put(JSONObject().put("itemId", 1)))
+        )
+        val saleLines = lines("9", 2, 3)
+        val otherLines = lines("10", 4)
+
+        val plan = OutboxCompactor.plan(listOf(sale, saleLines, otherLines))
+
+        assertEquals(listOf(sale.id, otherLines.id), plan.entries.map { it.id })
+        val folded = plan.entries[0]
+        assertEquals(saleLines.opId, folded.opId)
+        assertEquals(120.0, folded.json().getDouble("amount"), 0.0)
+        val items = folded.json().getJSONArray("items")
+        assertEquals(listOf(1, 2, 3), (0 until items.length()).map { items.getJSONObject(it).getInt("itemId") })
+        assertEquals(listOf(folded), plan.rewritten)
+        assertEquals(listOf(saleLines.id), plan.retiredIds)
+    }
+
+    @Test
+    fun lineItemsAreNotFoldedIntoAnAttemptedSale() {
+        val sale = entry(SyncEntityType.TRANSACTION, "9", SyncOpType.CREATE_SALE, attempted = true)
+        val saleLines = lines("9", 2)
+
+        val plan = OutboxCompactor.plan(listOf(sale, saleLines))
+
+        assertTrue(plan.isNoop)
+        assertEquals(listOf(sale, saleLines), plan.entries)
+    }
+
+    @Test
+    fun lineItemsAreNotFoldedAcrossABarrierOnTheSale() {
+        val sale = entry(SyncEntityType.TRANSACTION, "9", SyncOpType.CREATE_SALE)
+        val void = entry(SyncEntityType.TRANSACTION, "9", SyncOpType.VOID_TRANSACTION)
+        val saleLines = lines("9", 2)
+
+        val plan = OutboxCompactor.plan(listOf(sale, void, saleLines))
+
+        assertTrue(plan.isNoop)
+        assertEquals(listOf(sale, void, saleLines), plan.entries)
+    }
+
+    @Test
+    fun unreadableSalePayloadIsDispatchedAsIs() {
+        val sale = entry(SyncEntityType.TRANSACTION, "9", SyncOpType.CREATE_SALE, payload = null)
+        val saleLines = lines("9", 2)
+
+        val plan = OutboxCompactor.plan(listOf(sale, saleLines))
+
+        assertTrue(plan.isNoop)
+        assertEquals(listOf(sale, saleLines), plan.entries)
+    }
+}
@@ -0,0 +1,150 @@
+package com.kiranaflow.app.sync
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+
+/**
+ * Round trips for [OutboxPayloadFormat]. Rows written by MIGRATION_24_25 and every later enqueue are
+ * stored in this layout, so the byte-level cases pin it down as well.
+ */
+class OutboxPayloadFormatTest {
+
+    private fun roundTrip(payload: JSONObject): JSONObject = OutboxPayloadFormat.decode(OutboxPayloadFormat.encode(payload))
+
+    private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+
+    private fun assertRejected(bytes: ByteArray) {
+        try {
+            OutboxPayloadFormat.decode(bytes)
+            fail("decoded ${bytes.toList()}")
+        } catch (expected: IllegalArgumentException) {
+        }
+    }
+
+    @Test
+    fun layoutOfASmallPayload() {
+        // version 1, object of 1 entry, new key "a" (length 1 << 1), int 1 (zigzag 2)
+        assertArrayEquals(
+            bytes(1, 8, 1, 2, 'a'.code, 3, 2),
+            OutboxPayloadFormat.encode(JSONObject().put("a", 1))
+        )
+    }
+
+    @Test
+    fun varintsCrossByteBoundaries() {
+        // zigzag(64) = 128: the first value that needs two varint bytes.
+        assertArrayEquals(bytes(1, 8, 1, 2, 'a'.code, 3, 0x80, 0x01), OutboxPayloadFormat.encode(JSONObject().put("a", 64)))
+        assertArrayEquals(bytes(1, 8, 1, 2, 'a'.code, 3, 0x7F), OutboxPayloadFormat.encode(JSONObject().put("a", -64)))
+
+        val values = listOf(0L, 63L, 64L, 8_191L, 8_192L, Int.MAX_VALUE.toLong(), Int.MAX_VALUE + 1L, Long.MAX_VALUE)
+        for (v in values) {
+            val decoded = roundTrip(JSONObject().put("v", v)).get("v")
+            assertEquals(v, (decoded as Number).toLong())
+            // Int when it fits, else Long, as org.json parses numbers.
+            assertEquals(if (v <= Int.MAX_VALUE) Integer::class.java else java.lang.Long::class.java, decoded.javaClass)
+        }
+    }
+
+    @Test
+    fun zigzagKeepsNegativesSmallAndExact() {
+        for (v in listOf(-1L, -2L, -64L, -65L, Int.MIN_VALUE.toLong(), Int.MIN_VALUE - 1L, Long.MIN_VALUE)) {
+            assertEquals(v, (roundTrip(JSONObject().put("v", v)).get("v") as Number).toLong())
+        }
+        // -1 zigzags to 1: one byte, not ten.
+        assertEquals(7, OutboxPayloadFormat.encode(JSONObject().put("a", -1)).size)
+    }
+
+    @Test
+    fun wholeDoublesAreVarintsButDecodeAsDoubles() {
+        val encoded = OutboxPayloadFormat.encode(JSONObject().put("price", 40.0))
+        // tag 5 (whole double), zigzag(40) = 80
+        assertArrayEquals(bytes(5, 80), encoded.copyOfRange(encoded.size - 2, encoded.size))
+
+        for (v in listOf(40.0, -3.0, 0.0, 9_007_199_254_740_992.0, -9_007_199_254_740_992.0)) {
+            val decoded = roundTrip(JSONObject().put("v", v)).get("v")
+            assertEquals(java.lang.Double::class.java, decoded.javaClass)
+            assertEquals(v, decoded as Double, 0.0)
+        }
+    }
+
+    @Test
+    fun otherDoublesKeepAllTheirBits() {
+        for (v in listOf(0.25, -12.75, 1.0 / 3.0, 1e300, 9_007_199_254_740_994.0, Double.MIN_VALUE)) {
+            assertEquals(v.toRawBits(), (roundTrip(JSONObject().put("v", v)).get("v") as Double).toRawBits())
+        }
+        // -0.0 is not written as the varint 0, which would lose the sign.
+        val negativeZero = roundTrip(JSONObject().put("v", -0.0)).get("v") as Double
+        assertEquals((-0.0).toRawBits(), negativeZero.toRawBits())
+    }
+
+    @Test
+    fun repeatedKeysAreWrittenOnceAndReferencedAfter() {
+        val items = JSONArray()
+        repeat(3) { items.put(JSONObject().put("itemId", it).put("qty", 1)) }
+        val encoded = OutboxPayloadFormat.encode(JSONObject().put("items", items))
+
+        val text = String(encoded, Charsets.ISO_8859_1)
+        assertEquals(1, Regex("itemId").findAll(text).count())
+        assertEquals(1, Regex("qty").findAll(text).count())
+
+        val decoded = roundTrip(JSONObject().put("items", items)).getJSONArray("items")
+        assertEquals(3, decoded.length())
+        repeat(3) {
+            assertEquals(it, decoded.getJSONObject(it).getInt("itemId"))
+            assertEquals(1, decoded.getJSONObject(it).getInt("qty"))
+        }
+    }
+
+    @Test
+    fun decodesLikeOrgJsonParsesTheText() {
+        val text = """
+            {"type":"SALE","paymentMode":"CASH","customerId":42,"note":null,"paid":true,"credit":false,
+             "amount":1234.5,"total":50.0,"name":"चीनी \"loose\"\n",
+             "items":[{"itemId":1,"qty":0.25,"unit":"KG","price":40},{"itemId":9876543210,"qty":2,"tags":[]}],
+             "meta":{"nested":{"deep":[1,[2,{"x":-7}]]}}}
+        """.trimIndent()
+        val expected = JSONObject(text)
+        val decoded = OutboxPayloadFormat.decode(OutboxPayloadFormat.fromJsonText(text)!!)
+
+        assertTrue(expected.similar(decoded))
+        assertEquals(JSONObject.NULL, decoded.get("note"))
+    }
+
+    @Test
+    fun blankLegacyTextHasNoPayload() {
+        assertNull(OutboxPayloadFormat.fromJsonText(null))
+        assertNull(OutboxPayloadFormat.fromJsonText("  "))
+    }
+
+    @Test
+    fun everyTruncationIsRejected() {
+        val payload = JSONObject()
+            .put("name", "Tata Salt")
+            .put("price", 0.25)
+            .put("qty", 300)
+            .put("items", JSONArray().put(JSONObject().put("name", "x")))
+        val encoded = OutboxPayloadFormat.encode(payload)
+        for (length in 0 until encoded.size) assertRejected(encoded.copyOf(length))
+    }
+
+    @Test
+    fun corruptPayloadsAreRejected() {
+        val valid = OutboxPayloadFormat.encode(JSONObject().put("a", 1))
+        assertRejected(valid + byteArrayOf(0))
+        assertRejected(byteArrayOf(2) + valid.copyOfRange(1, valid.size))
+        // Not an object at the top level.
+        assertRejected(bytes(1, 6, 1, 'a'.code))
+        // Unknown tag.
+        assertRejected(bytes(1, 8, 1, 2, 'a'.code, 42))
+        // Reference to a key that was never written.
+        assertRejected(bytes(1, 8, 1, 3, 0))
+        // String longer than the payload.
+        assertRejected(bytes(1, 8, 1, 2, 'a'.code, 6, 100, 'b'.code))
+    }
+}
@@ -0,0 +1,106 @@
+package com.kiranaflow.app.sync
+
+import okio.Buffer
+import okio.GzipSource
+import okio.buffer
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * [SyncBatchBody] writes ops by hand; each one must read back as the same JSON that
+ * [SyncEnvelope.toJson] builds.
+ */
+class SyncBatchBodyTest {
+
+    private val ops = listOf(
+        SyncEnvelope(
+            deviceId = "device-1",
+            opId = "op-1",
+            sentAtMillis = 1_700_000_000_123L,
+            entityType = SyncEntityType.TRANSACTION.name,
+            entityId = "40",
+            op = SyncOpType.CREATE_SALE.name,
+            body = JSONObject()
+                .put("type", "SALE")
+                .put("customerId", 42)
+                .put("note", JSONObject.NULL)
+                .put("paid", true)
+                .put("amount", 40.0)
+                .put("big", 9_876_543_210L)
+                .put("items", JSONArray().put(JSONObject().put("itemId", 1).put("qty", 0.25).put("name", "चीनी \"loose\"\n")))
+        ) to RemoteRequestPreview("POST", "/v1/transactions/sale", null),
+        // No entityId and no body: both keys are left out, as toJson() does.
+        SyncEnvelope(
+            apiVersion = 2,
+            deviceId = "device-\u0001",
+            opId = "op-2",
+            sentAtMillis = 0L,
+            entityType = SyncEntityType.REMINDER.name,
+            entityId = null,
+            op = SyncOpType.MARK_DONE.name,
+            body = null
+        ) to RemoteRequestPreview("PATCH", "/v1/reminders/done?all=true", null)
+    )
+
+    private fun expected(envelope: SyncEnvelope, preview: RemoteRequestPreview) = JSONObject()
+        .put("envelope", envelope.toJson())
+        .put("preview", JSONObject().put("method", preview.method).put("path", preview.path))
+
+    private fun write(format: SyncBatchBody.Format): Buffer = Buffer().also { SyncBatchBody(ops, format).writeTo(it) }
+
+    private fun assertSameOps(actual: List<JSONObject>) {
+        assertEquals(ops.size, actual.size)
+        ops.forEachIndexed { i, (envelope, preview) ->
+            val want = expected(envelope, preview)
+            assertTrue("op $i: ${actual[i]} vs $want", want.similar(actual[i]))
+            assertEquals(want.getJSONObject("envelope").keySet(), actual[i].getJSONObject("envelope").keySet())
+        }
+    }
+
+    @Test
+    fun gzipNdjsonHasOneEnvelopePerLine() {
+        val body = SyncBatchBody(ops, SyncBatchBody.Format.NDJSON_GZIP)
+        assertEquals("application/x-ndjson; charset=utf-8", body.contentType().toString())
+
+        val text = GzipSource(write(SyncBatchBody.Format.NDJSON_GZIP)).buffer().readUtf8()
+        assertTrue(text.endsWith("\n"))
+        assertSameOps(text.removeSuffix("\n").split("\n").map(::JSONObject))
+    }
+
+    @Test
+    fun jsonIsTheOpsDocument() {
+        val body = SyncBatchBody(ops, SyncBatchBody.Format.JSON)
+        assertEquals("application/json; charset=utf-8", body.contentType().toString())
+
+        val doc = JSONObject(write(SyncBatchBody.Format.JSON).readUtf8())
+        assertEquals(setOf("ops"), doc.keySet())
+        val array = doc.getJSONArray("ops")
+        assertSameOps((0 until array.length()).map { array.getJSONObject(it) })
+    }
+
+    @Test
+    fun encodedSizeIsTheUncompressedOp() {
+        ops.forEach { (envelope, preview) ->
+            val buffer = Buffer()
+            SyncBatchBody.writeOp(buffer, envelope, preview)
+            assertEquals(buffer.size.toInt(), SyncBatchBody.encodedSize(envelope, preview))
+        }
+        val json = write(SyncBatchBody.Format.JSON)
+        val opBytes = ops.sumOf { (envelope, preview) -> SyncBatchBody.encodedSize(envelope, preview) }
+        // {"ops":[ + ops joined by commas + ]}
+        assertEquals(opBytes + "{\"ops\":[".length + (ops.size - 1) + "]}".length, json.size.toInt())
+    }
+
+    @Test
+    fun bodyCanBeWrittenAgain() {
+        for (format in SyncBatchBody.Format.values()) {
+            val body = SyncBatchBody(ops, format)
+            val first = Buffer().also { body.writeTo(it) }.readByteString()
+            val second = Buffer().also { body.writeTo(it) }.readByteString()
+            assertEquals(first, second)
+        }
+    }
+}
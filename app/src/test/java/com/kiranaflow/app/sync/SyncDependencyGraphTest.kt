@@ -0,0 +1,154 @@
+package com.kiranaflow.app.sync
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SyncDependencyGraphTest {
+
+    private fun op(
+        entityType: SyncEntityType,
+        entityId: String?,
+        op: SyncOpType,
+        body: JSONObject? = null
+    ) = SyncEnvelope(
+        deviceId = "device-1",
+        opId = "op-${entityType.name}-$entityId-${op.name}",
+        sentAtMillis = 0L,
+        entityType = entityType.name,
+        entityId = entityId,
+        op = op.name,
+        body = body
+    )
+
+    private fun sale(transactionId: String, customerId: Int?, vararg itemIds: Int) = op(
+        SyncEntityType.TRANSACTION, transactionId, SyncOpType.CREATE_SALE,
+        JSONObject()
+            .put("customerId", customerId ?: JSONObject.NULL)
+            .put("items", JSONArray().apply { itemIds.forEach { put(JSONObject().put("itemId", it)) } })
+    )
+
+    private fun SyncDependencyGraph.prerequisites(index: Int) = prerequisitesOf(index).toList()
+
+    @Test
+    fun independentOpsHaveNoPrerequisites() {
+        val graph = SyncDependencyGraph.build(
+            listOf(
+                op(SyncEntityType.ITEM, "1", SyncOpType.UPSERT),
+                op(SyncEntityType.ITEM, "2", SyncOpType.UPSERT),
+                op(SyncEntityType.PARTY, "1", SyncOpType.UPSERT_CUSTOMER)
+            )
+        )
+
+        assertEquals(3, graph.size)
+        (0 until graph.size).forEach { assertArrayEquals(IntArray(0), graph.prerequisitesOf(it)) }
+    }
+
+    @Test
+    fun writesToOneKeyStayInOrder() {
+        val graph = SyncDependencyGraph.build(
+            listOf(
+                op(SyncEntityType.ITEM, "1", SyncOpType.UPSERT),
+                op(SyncEntityType.ITEM, "2", SyncOpType.UPSERT),
+                op(SyncEntityType.ITEM, "1", SyncOpType.UPSERT)
+            )
+        )
+
+        assertEquals(listOf(0), graph.prerequisites(2))
+    }
+
+    @Test
+    fun saleWaitsForTheItemsAndPartyItReferences() {
+        val graph = SyncDependencyGraph.build(
+            listOf(
+                op(SyncEntityType.PARTY, "7", SyncOpType.UPSERT_CUSTOMER),
+                op(SyncEntityType.ITEM, "1", SyncOpType.UPSERT),
+                op(SyncEntityType.ITEM, "2", SyncOpType.UPSERT),
+                sale("40", customerId = 7, 1, 3)
+            )
+        )
+
+        // Item 3 was written outside the window, so it is assumed to be on the server already.
+        assertEquals(listOf(0, 1), graph.prerequisites(3))
+    }
+
+    @Test
+    fun deleteWaitsForEarlierReadersOfTheRow() {
+        val graph = SyncDependencyGraph.build(
+            listOf(
+                op(SyncEntityType.ITEM, "1", SyncOpType.UPSERT),
+                sale("40", customerId = null, 1),
+                sale("41", customerId = null, 1),
+                op(SyncEntityType.ITEM, "1", SyncOpType.DELETE),
+                sale("42", customerId = null, 1)
+            )
+        )
+
+        assertEquals(listOf(0), graph.prerequisites(1))
+        assertEquals(listOf(0), graph.prerequisites(2))
+        // Write-after-read: the DELETE must not overtake the sales that reference the item.
+        assertEquals(listOf(0, 1, 2), graph.prerequisites(3))
+        // Readers before the DELETE are not carried past it.
+        assertEquals(listOf(3), graph.prerequisites(4))
+    }
+
+    @Test
+    fun bulkItemUpsertWritesEveryItemInItsBody() {
+        val bulk = op(
+            SyncEntityType.ITEM, null, SyncOpType.UPSERT_MANY,
+            JSONObject().put(
+                "items",
+                JSONArray()
+                    .put(JSONObject().put("id", 1))
+                    .put(JSONObject().put("id", "2"))
+                    .put(JSONObject().put("name", "no id"))
+            )
+        )
+        val graph = SyncDependencyGraph.build(
+            listOf(
+                op(SyncEntityType.ITEM, "2", SyncOpType.UPSERT),
+                bulk,
+                sale("40", customerId = null, 1),
+                op(SyncEntityType.ITEM, "3", SyncOpType.UPSERT)
+            )
+        )
+
+        assertEquals(setOf("ITEM:1", "ITEM:2"), graph.writesOf(1))
+        assertEquals(listOf(0), graph.prerequisites(1))
+        assertEquals(listOf(1), graph.prerequisites(2))
+        assertEquals(emptyList<Int>(), graph.prerequisites(3))
+    }
+
+    @Test
+    fun lineItemsWriteTheirTransactionKey() {
+        val graph = SyncDependencyGraph.build(
+            listOf(
+                op(SyncEntityType.ITEM, "1", SyncOpType.UPSERT),
+                sale("40", customerId = null),
+                op(
+                    SyncEntityType.TRANSACTION_ITEM, "40", SyncOpType.UPSERT_MANY,
+                    JSONObject().put("items", JSONArray().put(JSONObject().put("itemId", 1)))
+                ),
+                op(SyncEntityType.TRANSACTION, "40", SyncOpType.FINALIZE_TRANSACTION)
+            )
+        )
+
+        assertEquals(setOf("TRANSACTION:40"), graph.writesOf(2))
+        assertEquals(listOf(0, 1), graph.prerequisites(2))
+        assertEquals(listOf(2), graph.prerequisites(3))
+    }
+
+    @Test
+    fun opsWithoutAnIdWriteNothing() {
+        assertEquals(
+            emptySet<String>(),
+            SyncDependencyGraph.writtenKeys(SyncEntityType.ITEM.name, " ", SyncOpType.UPSERT.name, null)
+        )
+        assertEquals(
+            setOf("PARTY:5", "PARTY:6"),
+            SyncDependencyGraph.referencedKeys(JSONObject().put("vendorId", 5L).put("partyId", " 6 ").put("customerId", ""))
+        )
+    }
+}
@@ -0,0 +1,183 @@
+package com.kiranaflow.app.sync
+
+import android.app.Application
+import android.content.Context
+import android.os.Looper
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.work.Configuration
+import androidx.work.ListenableWorker
+import androidx.work.WorkInfo
+import androidx.work.WorkManager
+import androidx.work.WorkerFactory
+import androidx.work.WorkerParameters
+import androidx.work.testing.SynchronousExecutor
+import androidx.work.testing.TestListenableWorkerBuilder
+import androidx.work.testing.WorkManagerTestInitHelper
+import com.kiranaflow.app.util.SyncResult
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+
+/**
+ * [SyncScheduler] and [SyncWorker] on WorkManager's test driver. The drain itself is replaced by a
+ * fake pass; constraints are met by hand.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class)
+class SyncSchedulerTest {
+
+    private lateinit var context: Context
+
+    // What the next scheduled run's drain reports.
+    @Volatile
+    private var nextPass: SyncWorker.Pass? = SyncWorker.Pass(ok(1), left = 0)
+
+    private val factory = object : WorkerFactory() {
+        override fun createWorker(appContext: Context, workerClassName: String, workerParameters: WorkerParameters) =
+            SyncWorker(appContext, workerParameters) { nextPass }
+    }
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        WorkManagerTestInitHelper.initializeTestWorkManager(
+            context,
+            Configuration.Builder()
+                .setMinimumLoggingLevel(Log.DEBUG)
+                .setExecutor(SynchronousExecutor())
+                .setTaskExecutor(SynchronousExecutor())
+                .setWorkerFactory(factory)
+                .build()
+        )
+        // The coalescing flag is process-wide; start every test with no run queued.
+        SyncScheduler.onRunStarted()
+    }
+
+    private fun ok(succeeded: Int) = SyncResult(succeeded, succeeded, 0, "Synced $succeeded")
+
+    private fun failed(count: Int) = SyncResult(count, 0, count, "Synced 0, failed $count")
+
+    private fun work(name: String): List<WorkInfo> = WorkManager.getInstance(context).getWorkInfosForUniqueWork(name).get()
+
+    // CoroutineWorker finishes on its own dispatcher, so wait for the run to settle.
+    private fun runWithNetwork(info: WorkInfo) {
+        WorkManagerTestInitHelper.getTestDriver(context)!!.setAllConstraintsMet(info.id)
+        val deadline = System.currentTimeMillis() + 5_000
+        while (System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle()
+            if (WorkManager.getInstance(context).getWorkInfoById(info.id).get()!!.state.isFinished) return
+            Thread.sleep(10)
+        }
+        throw AssertionError("run ${info.id} did not finish")
+    }
+
+    @Test
+    fun requestsCoalesceWhileARunIsQueued() {
+        repeat(3) { SyncScheduler.requestSync(context) }
+
+        val queued = work(SyncScheduler.WORK_ONE_TIME)
+        assertEquals(1, queued.size)
+        assertEquals(WorkInfo.State.ENQUEUED, queued.single().state)
+        assertTrue(work(SyncScheduler.WORK_EXPEDITED).isEmpty())
+    }
+
+    @Test
+    fun aRequestAfterTheRunStartedGetsItsOwnRun() {
+        SyncScheduler.requestSync(context)
+        runWithNetwork(work(SyncScheduler.WORK_ONE_TIME).single())
+        assertEquals(WorkInfo.State.SUCCEEDED, work(SyncScheduler.WORK_ONE_TIME).single().state)
+
+        SyncScheduler.requestSync(context)
+        SyncScheduler.requestSync(context)
+
+        val states = work(SyncScheduler.WORK_ONE_TIME).map { it.state }
+        assertEquals(1, states.count { it == WorkInfo.State.ENQUEUED })
+    }
+
+    @Test
+    fun checkoutAddsAnExpeditedRunNextToTheQueuedOne() {
+        SyncScheduler.requestSync(context)
+        SyncScheduler.requestSync(context, expedited = true)
+        SyncScheduler.requestSync(context, expedited = true)
+
+        // Still one ordinary run, plus one expedited run (KEEP: a second checkout reuses it).
+        assertEquals(1, work(SyncScheduler.WORK_ONE_TIME).size)
+        val expedited = work(SyncScheduler.WORK_EXPEDITED)
+        assertEquals(1, expedited.size)
+        assertEquals(WorkInfo.State.ENQUEUED, expedited.single().state)
+
+        runWithNetwork(expedited.single())
+        assertEquals(WorkInfo.State.SUCCEEDED, work(SyncScheduler.WORK_EXPEDITED).single().state)
+        // The ordinary run is not held up by, nor merged into, the expedited one.
+        assertEquals(WorkInfo.State.ENQUEUED, work(SyncScheduler.WORK_ONE_TIME).single().state)
+    }
+
+    @Test
+    fun runThatLeavesRowsBehindAfterProgressRequestsAFreshRun() {
+        nextPass = SyncWorker.Pass(ok(5), left = 3)
+        SyncScheduler.requestSync(context)
+        runWithNetwork(work(SyncScheduler.WORK_ONE_TIME).single())
+
+        val states = work(SyncScheduler.WORK_ONE_TIME).map { it.state }
+        assertEquals(1, states.count { it == WorkInfo.State.SUCCEEDED })
+        assertEquals(1, states.count { it == WorkInfo.State.ENQUEUED })
+    }
+
+    private fun doWork(pass: suspend () -> SyncWorker.Pass?, attempt: Int = 0): ListenableWorker.Result =
+        runBlocking {
+            TestListenableWorkerBuilder<SyncWorker>(context)
+                .setRunAttemptCount(attempt)
+                .setWorkerFactory(object : WorkerFactory() {
+                    override fun createWorker(appContext: Context, workerClassName: String, workerParameters: WorkerParameters) =
+                        SyncWorker(appContext, workerParameters, pass)
+                })
+                .build()
+                .doWork()
+        }
+
+    @Test
+    fun emptyOutboxSucceeds() {
+        assertEquals(ListenableWorker.Result.success(), doWork({ SyncWorker.Pass(ok(4), left = 0) }))
+    }
+
+    @Test
+    fun noBackendSucceedsWithoutRetrying() {
+        assertEquals(ListenableWorker.Result.success(), doWork({ null }))
+    }
+
+    @Test
+    fun rowsThatArrivedAfterTheReadDoNotCountAsFailure() {
+        // Nothing failed or waited: the rows left were enqueued after the pass read the outbox.
+        assertEquals(ListenableWorker.Result.success(), doWork({ SyncWorker.Pass(ok(0), left = 2) }))
+        assertEquals(1, work(SyncScheduler.WORK_ONE_TIME).count { it.state == WorkInfo.State.ENQUEUED })
+    }
+
+    @Test
+    fun noProgressRetriesWithBackoff() {
+        assertEquals(ListenableWorker.Result.retry(), doWork({ SyncWorker.Pass(failed(3), left = 3) }))
+        val deferredOnly = SyncResult(0, 0, 0, "Synced 0, 2 waiting", deferred = 2)
+        assertEquals(ListenableWorker.Result.retry(), doWork({ SyncWorker.Pass(deferredOnly, left = 2) }))
+        assertTrue(work(SyncScheduler.WORK_ONE_TIME).isEmpty())
+    }
+
+    @Test
+    fun exceptionRetries() {
+        assertEquals(ListenableWorker.Result.retry(), doWork({ throw java.io.IOException("timeout") }))
+    }
+
+    @Test
+    fun givesUpAfterTheLastAttempt() {
+        val lastAttempt = SyncWorker.MAX_ATTEMPTS - 1
+        assertEquals(ListenableWorker.Result.retry(), doWork({ SyncWorker.Pass(failed(1), left = 1) }, attempt = lastAttempt - 1))
+        // Left to the periodic catch-up.
+        assertEquals(ListenableWorker.Result.success(), doWork({ SyncWorker.Pass(failed(1), left = 1) }, attempt = lastAttempt))
+        assertEquals(ListenableWorker.Result.success(), doWork({ throw IllegalStateException("db") }, attempt = lastAttempt))
+    }
+}
@@ -0,0 +1,77 @@
+package com.kiranaflow.app.util
+
+import kotlin.random.Random
+
+/**
+ * Bill texts for the parser tests and benchmark: fixed OCR-style texts in the layouts real bills
+ * come back in (`src/test/resources/bill_corpus/`, listed in [RECORDED]; add new layouts there) and
+ * synthetic wholesale bills.
+ */
+internal object BillCorpus {
+
+    private val RECORDED = listOf(
+        "wholesale_grocery.txt",
+        "thermal_receipt.txt",
+        "hindi_mixed.txt",
+        "gst_invoice_noisy.txt"
+    )
+
+    /** name -> text of each recorded bill. */
+    fun recorded(): List<Pair<String, String>> = RECORDED.map { name ->
+        val stream = BillCorpus::class.java.getResourceAsStream("/bill_corpus/$name")
+            ?: error("missing test resource bill_corpus/$name")
+        name to stream.bufferedReader(Charsets.UTF_8).use { it.readText() }
+    }
+
+    private val vendors = listOf(
+        "M/S Shree Ganesh Traders", "Agarwal Wholesale Mart", "Jai Mata Di Distributors Pvt Ltd",
+        "Balaji Enterprises", "New Gupta Kirana Agency"
+    )
+    private val products = listOf(
+        "Tata Salt", "Aashirvaad Atta", "Fortune Sunflower Oil", "Parle-G Biscuit", "Maggi Noodles",
+        "Surf Excel", "Red Label Tea", "Toor Dal", "Basmati Rice", "Sugar", "Amul Butter",
+        "Dettol Soap", "Colgate Paste", "Haldiram Bhujia", "Everest Masala", "चीनी", "चावल"
+    )
+
+    /** A bill in the line shapes seen on real OCR output, including the noise the parser must skip. */
+    fun synthetic(random: Random, items: Int): String = buildString {
+        appendLine(vendors.random(random))
+        appendLine("Shop No. ${random.nextInt(1, 99)}, Main Bazar, Jaipur")
+        appendLine("GSTIN: 08ABCDE${random.nextInt(1000, 9999)}F1Z${random.nextInt(1, 9)}")
+        appendLine("Ph: 98${random.nextInt(10_000_000, 99_999_999)}")
+        appendLine("Invoice No: INV-${random.nextInt(1000, 99999)}   Date: ${random.nextInt(1, 28)}/${random.nextInt(1, 12)}/2026")
+        appendLine("Item  Description      Qty   Rate   Amount")
+        var sum = 0.0
+        repeat(items) { i ->
+            val name = products.random(random) + if (random.nextBoolean()) " ${random.nextInt(1, 5)}kg" else ""
+            val qty = random.nextInt(1, 50)
+            val rate = random.nextInt(5, 900) + random.nextInt(0, 4) * 0.25
+            val total = qty * rate
+            sum += total
+            val line = when (random.nextInt(8)) {
+                0 -> "$name   $qty   %.2f   %.2f".format(rate, total)
+                1 -> "$name x$qty @${rate.toInt()}"
+                2 -> "$name $qty x ${rate.toInt()}"
+                3 -> "$name $qty pcs ${rate.toInt()}"
+                4 -> "$name ${qty}kg ${rate.toInt()}"
+                5 -> "$name ₹%.2f ₹%,.2f".format(rate, total)
+                6 -> "${i + 1}. $name\t$qty  ${rate.toInt()}  ${total.toInt()}"
+                else -> "- $name -  ${rate.toInt()} ${total.toInt()}"
+            }
+            appendLine(line)
+            // OCR noise: stray fragments and repeated lines.
+            when (random.nextInt(20)) {
+                0 -> appendLine("${random.nextInt(100, 99999)}")
+                1 -> appendLine(line)
+                2 -> appendLine("|| ..")
+            }
+        }
+        appendLine("Sub Total %.2f".format(sum))
+        appendLine("CGST 2.5%% %.2f".format(sum * 0.025))
+        appendLine("SGST 2.5%% %.2f".format(sum * 0.025))
+        appendLine("Total Tax %.2f".format(sum * 0.05))
+        appendLine("Round Off 0.40")
+        appendLine("Grand Total ₹%,.2f".format(sum * 1.05))
+        appendLine("Thank you, visit again")
+    }
+}
@@ -0,0 +1,160 @@
+package com.kiranaflow.app.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.abs
+import kotlin.math.roundToInt
+import kotlin.math.tan
+
+/**
+ * The pure parts of [BillImagePreprocessor]: the luminance steps ([LumaPlane]) on synthetic pages,
+ * and how [BillImagePreprocessor.Config] sizes images.
+ */
+class BillImagePreprocessorTest {
+
+    private fun plane(w: Int, h: Int, pixel: (x: Int, y: Int) -> Int): LumaPlane =
+        LumaPlane().also { p ->
+            p.ensureCapacity(w * h)
+            for (y in 0 until h) for (x in 0 until w) p.luma[y * w + x] = pixel(x, y).toByte()
+        }
+
+    private fun LumaPlane.at(w: Int, x: Int, y: Int): Int = luma[y * w + x].toInt() and 0xFF
+
+    // Text lines every 24 px, falling by [degrees] to the right, broken into words.
+    private fun textPage(w: Int, h: Int, degrees: Double): (Int, Int) -> Int {
+        val slope = tan(Math.toRadians(degrees))
+        return { x, y ->
+            val baseline = y - x * slope
+            val inLine = baseline > 30 && baseline < h - 30 && baseline.toInt().mod(24) < 3
+            val inWord = x in 40 until w - 40 && x.mod(50) < 38
+            if (inLine && inWord) 20 else 235
+        }
+    }
+
+    @Test
+    fun cropFindsThePaperOnADarkerBackground() {
+        val w = 400
+        val h = 300
+        val page = plane(w, h) { x, y ->
+            when {
+                x !in 100 until 300 || y !in 60 until 260 -> 45
+                (y - 60) % 20 < 2 && x in 120 until 280 -> 30
+                else -> 220
+            }
+        }
+
+        val box = page.documentBounds(w, h)
+        assertNotNull(box)
+        box!!
+        // Sampled every 4 px, then widened by a 1% margin.
+        val slack = 4 + w / 100
+        assertTrue("$box", abs(box.left - 100) <= slack && abs(box.right - 300) <= slack)
+        assertTrue("$box", abs(box.top - 60) <= slack && abs(box.bottom - 260) <= slack)
+
+        page.compact(w, box)
+        assertEquals(220, page.at(box.width, 100 - box.left + 5, 200 - box.top))
+    }
+
+    @Test
+    fun noCropWhenThePaperFillsTheFrame() {
+        val w = 400
+        val h = 300
+        val page = plane(w, h, textPage(w, h, 0.0))
+        assertNull(page.documentBounds(w, h))
+    }
+
+    @Test
+    fun skewOfAShearedPage() {
+        val w = 600
+        val h = 400
+        for (degrees in listOf(2.0, -3.0, 0.0)) {
+            val skew = plane(w, h, textPage(w, h, degrees)).estimateSkew(w, h)
+            assertEquals("page at $degrees°", degrees, skew.toDouble(), 0.25)
+        }
+    }
+
+    @Test
+    fun rotatingByTheEstimateLevelsTheLines() {
+        val w = 600
+        val h = 400
+        val page = plane(w, h, textPage(w, h, 2.5))
+        val skew = page.estimateSkew(w, h)
+        assertEquals(2.5, skew.toDouble(), 0.25)
+        page.rotate(w, h, skew)
+        assertTrue(abs(page.estimateSkew(w, h)) < LumaPlane.MIN_SKEW_DEGREES)
+    }
+
+    @Test
+    fun blankPageHasNoSkew() {
+        assertEquals(0f, plane(200, 200) { _, _ -> 240 }.estimateSkew(200, 200))
+    }
+
+    @Test
+    fun contrastLutMapsTheRangeOntoFullScale() {
+        val lut = LumaPlane.contrastLut(50, 200)
+        val values = lut.map { it.toInt() and 0xFF }
+        assertEquals(0, values[0])
+        assertEquals(0, values[50])
+        assertEquals(127, values[125])
+        assertEquals(255, values[200])
+        assertEquals(255, values[255])
+        assertTrue(values.zipWithNext().all { (a, b) -> a <= b })
+    }
+
+    @Test
+    fun contrastStretchesAFlatPhoto() {
+        val w = 121
+        val h = 10
+        val page = plane(w, h) { x, _ -> 60 + x }
+        page.stretchContrast(w * h)
+        assertEquals(0, page.at(w, 1, 0))
+        assertEquals(255, page.at(w, w - 2, 0))
+        // 60 + 60 sits half way between the percentiles (61 and 179).
+        assertEquals(127, page.at(w, 60, 0))
+    }
+
+    @Test
+    fun contrastLeavesFullRangeAndBlankPagesAlone() {
+        val full = plane(256, 4) { x, _ -> if (x < 128) 0 else 255 }
+        val before = full.luma.copyOf(256 * 4)
+        full.stretchContrast(256 * 4)
+        assertArrayEquals(before, full.luma.copyOf(256 * 4))
+
+        val blank = plane(64, 4) { x, _ -> 200 + x % 16 }
+        val blankBefore = blank.luma.copyOf(64 * 4)
+        blank.stretchContrast(64 * 4)
+        assertArrayEquals(blankBefore, blank.luma.copyOf(64 * 4))
+    }
+
+    @Test
+    fun a4PhotoIsSizedToTargetDpi() {
+        val config = BillImagePreprocessor.Config()
+        // A4 at 300 DPI.
+        val scale = config.downscaleFactor(2480, 3508)
+        assertEquals(1654, (2480 * scale).roundToInt())
+        assertEquals(2339.0, (3508 * scale).toDouble(), 2.0)
+    }
+
+    @Test
+    fun longReceiptKeepsItsWidth() {
+        val config = BillImagePreprocessor.Config()
+        // An 80 mm (3.15 in) receipt photographed at ~380 DPI, five times as long as wide.
+        val scale = config.downscaleFactor(1200, 6000)
+        assertEquals(1f, scale)
+        assertTrue(1200 * scale / 3.15f >= config.targetDpi)
+        // Already below target: left alone.
+        assertEquals(1f, config.downscaleFactor(600, 800))
+    }
+
+    @Test
+    fun extremeAspectIsCappedByPixelCount() {
+        val config = BillImagePreprocessor.Config()
+        val scale = config.downscaleFactor(2000, 20_000)
+        assertTrue(scale < 1f)
+        assertTrue((2000 * scale).toLong() * (20_000 * scale).toLong() <= config.maxPixels)
+    }
+}
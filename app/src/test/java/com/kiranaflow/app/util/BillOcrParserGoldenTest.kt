@@ -0,0 +1,44 @@
+package com.kiranaflow.app.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * [BillOcrParser] must parse every bill exactly as the regex-per-pass parser it replaced
+ * ([BillOcrParserLegacy]) did: vendor, items and totals, field for field.
+ */
+class BillOcrParserGoldenTest {
+
+    private fun assertSameAsLegacy(label: String, text: String): BillOcrParser.ParsedBill {
+        val parsed = BillOcrParser.parse(text)
+        assertEquals(label, BillOcrParserLegacy.parse(text), parsed)
+        return parsed
+    }
+
+    @Test
+    fun recordedLayouts() {
+        for ((name, text) in BillCorpus.recorded()) {
+            val parsed = assertSameAsLegacy(name, text)
+            assertTrue("$name parsed no items", parsed.items.isNotEmpty())
+            // Normalization is part of the OCR path; the parsers must agree after it too.
+            assertSameAsLegacy("$name (normalized)", BillTextNormalizer.normalize(text))
+        }
+    }
+
+    @Test
+    fun syntheticBills() {
+        val random = Random(7)
+        for (items in listOf(1, 5, 20, 100)) {
+            repeat(25) { i -> assertSameAsLegacy("synthetic $items #$i", BillCorpus.synthetic(random, items)) }
+        }
+    }
+
+    @Test
+    fun degenerateInputs() {
+        for (text in listOf("", "\n\n", "   ", "Grand Total 0", "|| ..\n12345\n", "Item Qty Rate\n")) {
+            assertSameAsLegacy("'$text'", text)
+        }
+    }
+}
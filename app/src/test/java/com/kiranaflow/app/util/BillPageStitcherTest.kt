@@ -0,0 +1,82 @@
+package com.kiranaflow.app.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Stitching of a multi-page distributor bill: the letterhead, column header and footer printed on
+ * every page go, while item lines stay even when the same item appears at the same spot on two pages.
+ */
+class BillPageStitcherTest {
+
+    private val letterhead = listOf(
+        "SHREE GANESH TRADERS",
+        "Station Road, Pune",
+        "GSTIN 27AAAPL1234C1Z5 Ph 9876543210",
+        "Invoice No INV-2231 Date 12/03/2024",
+        "Item Qty Rate Amount"
+    )
+
+    private fun page(vararg body: String, footer: List<String> = listOf("Subject to Pune jurisdiction")) =
+        (letterhead + body + footer).joinToString("\n")
+
+    @Test
+    fun repeatedLetterheadColumnHeaderAndFooterAreDropped() {
+        val text = BillPageStitcher.stitch(
+            listOf(
+                page("Toor Dal 1kg 2 120.00 240.00", "Page 1 of 2"),
+                page("Sugar 5kg 1 210.00 210.00", "Grand Total 450.00", footer = listOf("Subject to Pune jurisdiction", "Page 2 of 2"))
+            )
+        )
+
+        assertEquals(
+            (letterhead + listOf("Toor Dal 1kg 2 120.00 240.00", "Sugar 5kg 1 210.00 210.00", "Grand Total 450.00",
+                "Subject to Pune jurisdiction")).joinToString("\n"),
+            text
+        )
+    }
+
+    @Test
+    fun itemRepeatedAtTheTopOfTheNextPageIsKept() {
+        val item = "Parle G 10 5.00 50.00"
+        val text = BillPageStitcher.stitch(
+            listOf(
+                page(item, "Tata Salt 1kg 4 28.00 112.00"),
+                // The same item bought again, first line after the letterhead.
+                page(item, "Grand Total 212.00")
+            )
+        )
+
+        assertEquals(2, text.lines().count { it == item })
+    }
+
+    @Test
+    fun itemRepeatedInTheFooterZoneIsKept() {
+        val item = "Surf Excel 500g 2 65.00 130.00"
+        val text = BillPageStitcher.stitch(
+            listOf(
+                page("Vim Bar 3 10.00 30.00", item, footer = emptyList()),
+                page("Maggi 12 14.00 168.00", item, footer = emptyList()),
+                page("Grand Total 458.00", footer = emptyList())
+            )
+        )
+
+        assertEquals(2, text.lines().count { it == item })
+    }
+
+    @Test
+    fun itemSplitByThePageBreakIsRejoined() {
+        val text = BillPageStitcher.stitch(
+            listOf(
+                page("Toor Dal 1kg 2 120.00 240.00", "Fortune Sunflower Oil", footer = emptyList()),
+                page("1 L 3 155.00 465.00", "Grand Total 705.00", footer = emptyList())
+            )
+        )
+
+        assertEquals(
+            (letterhead + listOf("Toor Dal 1kg 2 120.00 240.00", "Fortune Sunflower Oil 1 L 3 155.00 465.00",
+                "Grand Total 705.00")).joinToString("\n"),
+            text
+        )
+    }
+}
@@ -0,0 +1,84 @@
+package com.kiranaflow.app.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.StringReader
+
+/**
+ * RFC 4180 quoting, delimiter sniffing and BOM handling of [CsvStreamReader].
+ */
+class CsvStreamReaderTest {
+
+    private fun rows(text: String, bufferSize: Int = CsvStreamReader.DEFAULT_BUFFER_SIZE) =
+        CsvStreamReader(StringReader(text), bufferSize = bufferSize).use { it.rows().toList() }
+
+    @Test
+    fun quotedFieldsKeepDelimitersQuotesAndLineBreaks() {
+        val csv = "name,qty,note\r\n" +
+            "\"Dal, Toor\",2,\"says \"\"fresh\"\"\"\r\n" +
+            "Sugar,1,\"line one\nline two\"\n"
+
+        assertEquals(
+            listOf(
+                listOf("name", "qty", "note"),
+                listOf("Dal, Toor", "2", "says \"fresh\""),
+                listOf("Sugar", "1", "line one\nline two")
+            ),
+            rows(csv)
+        )
+    }
+
+    @Test
+    fun bareCrEndsRecordsAndLastRecordNeedsNoNewline() {
+        assertEquals(listOf(listOf("a", "b"), listOf("c", "")), rows("a,b\rc,"))
+    }
+
+    @Test
+    fun blankRecordsAreSkipped() {
+        assertEquals(listOf(listOf("a"), listOf("b")), rows("a\n\n , \nb\n"))
+    }
+
+    @Test
+    fun quotedRecordLongerThanTheBuffer() {
+        val long = "x".repeat(5_000)
+        assertEquals(listOf(listOf(long, "1")), rows("\"$long\",1\n", bufferSize = 1024))
+    }
+
+    @Test
+    fun sniffsSemicolonAndTab() {
+        CsvStreamReader(StringReader("Item;Rate;Qty\nDal;120,50;2\n")).use { reader ->
+            assertEquals(';', reader.delimiter)
+            assertEquals(listOf(listOf("Item", "Rate", "Qty"), listOf("Dal", "120,50", "2")), reader.rows().toList())
+        }
+        CsvStreamReader(StringReader("Item\tRate\tQty\n\"Dal, Toor\"\t120\t2\n")).use { reader ->
+            assertEquals('\t', reader.delimiter)
+            assertEquals(listOf("Dal, Toor", "120", "2"), reader.rows().toList()[1])
+        }
+    }
+
+    @Test
+    fun delimitersInsideQuotesDoNotCountWhenSniffing() {
+        CsvStreamReader(StringReader("\"a;b;c\",d\n")).use { reader ->
+            assertEquals(',', reader.delimiter)
+            assertEquals(listOf(listOf("a;b;c", "d")), reader.rows().toList())
+        }
+    }
+
+    @Test
+    fun utf16BomPicksCharsetAndIsDropped() {
+        val text = "Item,Qty\nदाल,2\n"
+        val le = byteArrayOf(0xFF.toByte(), 0xFE.toByte()) + text.toByteArray(Charsets.UTF_16LE)
+        val be = byteArrayOf(0xFE.toByte(), 0xFF.toByte()) + text.toByteArray(Charsets.UTF_16BE)
+        for (bytes in listOf(le, be)) {
+            val parsed = CsvStreamReader.open(ByteArrayInputStream(bytes)).use { it.rows().toList() }
+            assertEquals(listOf(listOf("Item", "Qty"), listOf("दाल", "2")), parsed)
+        }
+    }
+
+    @Test
+    fun utf8BomIsDropped() {
+        val bytes = byteArrayOf(0xEF.toByte(), 0xBB.toByte(), 0xBF.toByte()) + "Item,Qty\n".toByteArray()
+        assertEquals(listOf(listOf("Item", "Qty")), CsvStreamReader.open(ByteArrayInputStream(bytes)).use { it.rows().toList() })
+    }
+}
@@ -0,0 +1,144 @@
+package com.kiranaflow.app.util
+
+import android.app.Application
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * [XlsxStreamReader] over a hand-built, pretty-printed workbook. Robolectric supplies the platform
+ * XmlPullParser.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class)
+class XlsxStreamReaderTest {
+
+    private val workbook = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <workbook xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main"
+                  xmlns:r="http://schemas.openxmlformats.org/officeDocument/2006/relationships">
+          <sheets>
+            <sheet name="Summary" sheetId="1" r:id="rId1"/>
+            <sheet name="Stock" sheetId="2" r:id="rId2"/>
+          </sheets>
+        </workbook>
+    """.trimIndent()
+
+    private val rels = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+          <Relationship Id="rId1" Type="worksheet" Target="worksheets/sheet1.xml"/>
+          <Relationship Id="rId2" Type="worksheet" Target="/xl/worksheets/sheet2.xml"/>
+        </Relationships>
+    """.trimIndent()
+
+    private val sharedStrings = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <sst xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main" count="4" uniqueCount="4">
+          <si><t>Item</t></si>
+          <si><t>Qty</t></si>
+          <si>
+            <r><t>Toor </t></r>
+            <r><t>Dal</t></r>
+            <rPh sb="0" eb="1"><t>トール</t></rPh>
+          </si>
+          <si><t>चीनी</t></si>
+        </sst>
+    """.trimIndent()
+
+    // Whitespace after </v> and </is> must not leak into cells (e.g. a shared index read as "2\n  ").
+    private val stockSheet = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <worksheet xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main">
+          <sheetData>
+            <row r="1">
+              <c r="A1" t="s">
+                <v>0</v>
+              </c>
+              <c r="B1" t="s">
+                <v>1</v>
+              </c>
+            </row>
+            <row r="2">
+              <c r="A2" t="s">
+                <v>2</v>
+              </c>
+              <c r="C2">
+                <v>12.5</v>
+              </c>
+            </row>
+            <row r="3"></row>
+            <row r="4">
+              <c r="A4" t="inlineStr">
+                <is>
+                  <t>Loose Rice</t>
+                </is>
+              </c>
+              <c r="B4">
+                <v>3</v>
+              </c>
+            </row>
+            <row r="5">
+              <c r="A5" t="s"><v>3</v></c>
+              <c r="B5" t="str"><v>SUM(B2:B4)</v></c>
+            </row>
+          </sheetData>
+        </worksheet>
+    """.trimIndent()
+
+    private val summarySheet = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <worksheet xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main">
+          <sheetData><row r="1"><c r="A1" t="inlineStr"><is><t>Summary</t></is></c></row></sheetData>
+        </worksheet>
+    """.trimIndent()
+
+    private fun xlsx(): ByteArray {
+        val out = ByteArrayOutputStream()
+        ZipOutputStream(out).use { zip ->
+            // Worksheets before the workbook: the reader must not depend on archive order.
+            for ((name, body) in listOf(
+                "xl/worksheets/sheet2.xml" to stockSheet,
+                "xl/worksheets/sheet1.xml" to summarySheet,
+                "xl/sharedStrings.xml" to sharedStrings,
+                "xl/_rels/workbook.xml.rels" to rels,
+                "xl/workbook.xml" to workbook
+            )) {
+                zip.putNextEntry(ZipEntry(name))
+                zip.write(body.toByteArray(Charsets.UTF_8))
+                zip.closeEntry()
+            }
+        }
+        return out.toByteArray()
+    }
+
+    @Test
+    fun readsSharedInlineAndNumericCellsWithoutWhitespace() {
+        val rows = XlsxStreamReader.open(ByteArrayInputStream(xlsx())).use { it.rows("stock").toList() }
+
+        assertEquals(
+            listOf(
+                listOf("Item", "Qty"),
+                // Rich-text runs are joined, phonetic hints dropped; the gap at B2 is filled with "".
+                listOf("Toor Dal", "", "12.5"),
+                listOf("Loose Rice", "3"),
+                listOf("चीनी", "SUM(B2:B4)")
+            ),
+            rows
+        )
+    }
+
+    @Test
+    fun listsSheetsInWorkbookOrderAndDefaultsToTheFirst() {
+        XlsxStreamReader.open(ByteArrayInputStream(xlsx())).use { reader ->
+            assertEquals(listOf("Summary", "Stock"), reader.sheets.map { it.name })
+            assertEquals(listOf(listOf("Summary")), reader.rows().toList())
+        }
+    }
+}
@@ -0,0 +1,3 @@
+-- pgbench script: the same batch applied one kf_apply_sync_envelope at a time. See setup.sql.
+\set dev random(1, 2000000000)
+select public.kf_bench_apply_per_op(public.kf_bench_batch('bench-' || :client_id || '-' || :dev, :size));
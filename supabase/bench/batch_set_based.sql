@@ -0,0 +1,3 @@
+-- pgbench script: one batch through kf_apply_sync_batch (009). See setup.sql.
+\set dev random(1, 2000000000)
+select public.kf_apply_sync_batch(public.kf_bench_batch('bench-' || :client_id || '-' || :dev, :size));
@@ -0,0 +1,94 @@
+-- KiranaFlow: load test for kf_apply_sync_batch against a local Postgres (13+, no Supabase needed).
+--
+--   createdb kf_bench
+--   psql -d kf_bench -f supabase/bench/setup.sql
+--   pgbench -n -d kf_bench -c 8 -j 4 -T 60 -f supabase/bench/batch_set_based.sql -D size=200
+--   pgbench -n -d kf_bench -c 8 -j 4 -T 60 -f supabase/bench/batch_per_op.sql   -D size=200
+--
+-- Each pgbench transaction applies one generated batch of :size ops for a fresh device id, like one
+-- sync-apply-batch request. batch_per_op.sql is the previous path (one kf_apply_sync_envelope per op,
+-- as 004 looped) for comparison; latency average / tps are the numbers to compare.
+-- Quick correctness check after a run:
+--   select count(*) from kf_sync_ops; select count(*) from kf_transaction_items;
+
+\set ON_ERROR_STOP on
+\ir ../sql/001_kf_sync_ops.sql
+\ir ../sql/002_kf_core_tables_and_apply.sql
+\ir ../sql/003_kf_transaction_items_and_stricter_apply.sql
+\ir ../sql/004_kf_batch_apply.sql
+\ir ../sql/005_kf_transaction_edits.sql
+\ir ../sql/006_kf_item_upsert_many.sql
+\ir ../sql/007_kf_pull_watermarks.sql
+\ir ../sql/008_kf_reconcile.sql
+\ir ../sql/009_kf_set_based_batch_apply.sql
+\ir ../sql/010_kf_shop_pull.sql
+\ir ../sql/011_kf_reconcile_digests.sql
+\ir ../sql/012_kf_stock_movements_pull.sql
+
+-- A batch shaped like what the app queues: a few customers, items (single and UPSERT_MANY), and
+-- sales referencing them, in that order. About 10% parties, 30% items, 60% sales.
+create or replace function public.kf_bench_batch(p_device text, p_size int)
+returns jsonb
+language sql
+as $$
+  with params as (
+    select greatest(1, p_size / 10) as parties,
+           greatest(1, p_size * 3 / 10) as items,
+           greatest(1, p_size - p_size / 10 - p_size * 3 / 10) as sales
+  ),
+  ops as (
+    select g as ord, jsonb_build_object(
+      'apiVersion', 1, 'deviceId', p_device, 'opId', gen_random_uuid()::text,
+      'entityType', 'PARTY', 'entityId', 'p' || g, 'op', 'UPSERT_CUSTOMER',
+      'body', jsonb_build_object('id', 'p' || g, 'type', 'CUSTOMER', 'name', 'Customer ' || g,
+                                 'phone', '98' || lpad(g::text, 8, '0'), 'balance', 0)
+    ) as e
+    from params, generate_series(1, parties) g
+    union all
+    select 100000 + g, case when g % 5 = 0 then
+      jsonb_build_object(
+        'apiVersion', 1, 'deviceId', p_device, 'opId', gen_random_uuid()::text,
+        'entityType', 'ITEM', 'op', 'UPSERT_MANY',
+        'body', jsonb_build_object('items', jsonb_build_array(
+          jsonb_build_object('id', 'i' || g, 'name', 'Item ' || g, 'price', 10 + g % 90, 'costPrice', 8 + g % 80, 'stock', 100),
+          jsonb_build_object('id', 'i' || g || 'b', 'name', 'Item ' || g || 'b', 'price', 12, 'costPrice', 9, 'stock', 50))))
+    else
+      jsonb_build_object(
+        'apiVersion', 1, 'deviceId', p_device, 'opId', gen_random_uuid()::text,
+        'entityType', 'ITEM', 'entityId', 'i' || g, 'op', 'UPSERT',
+        'body', jsonb_build_object('id', 'i' || g, 'name', 'Item ' || g, 'category', 'General',
+                                   'price', 10 + g % 90, 'costPrice', 8 + g % 80, 'stock', 100,
+                                   'gstPercentage', 5, 'reorderPoint', 10))
+    end
+    from params, generate_series(1, items) g
+    union all
+    select 200000 + g, jsonb_build_object(
+      'apiVersion', 1, 'deviceId', p_device, 'opId', gen_random_uuid()::text,
+      'entityType', 'TRANSACTION', 'entityId', 't' || g, 'op', 'CREATE_SALE',
+      'body', jsonb_build_object(
+        'localId', 't' || g, 'type', 'SALE', 'paymentMode', 'CASH', 'amount', 3 * (10 + g % 90),
+        'customerId', 'p' || (1 + g % parties),
+        'updatedAt', (extract(epoch from now()) * 1000)::bigint,
+        'items', jsonb_build_array(
+          jsonb_build_object('itemId', 'i' || (1 + g % items), 'name', 'Item', 'qty', 2, 'price', 10 + g % 90),
+          jsonb_build_object('itemId', 'i' || (1 + (g + 1) % items), 'name', 'Item', 'qty', 1, 'price', 10 + g % 90))))
+    from params, generate_series(1, sales) g
+  )
+  select jsonb_agg(e order by ord) from ops;
+$$;
+
+-- The pre-009 path: one kf_apply_sync_envelope per op, in input order.
+create or replace function public.kf_bench_apply_per_op(envelopes jsonb)
+returns jsonb
+language plpgsql
+as $$
+declare
+  v_env jsonb;
+  v_results jsonb := '[]'::jsonb;
+begin
+  for v_env in select value from jsonb_array_elements(envelopes) loop
+    v_results := v_results || jsonb_build_array(public.kf_apply_sync_envelope(v_env));
+  end loop;
+  return jsonb_build_object('ok', true, 'processed', jsonb_array_length(envelopes), 'results', v_results);
+end;
+$$;
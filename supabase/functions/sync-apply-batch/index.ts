@@ -1,13 +1,17 @@
 // KiranaFlow sync-apply-batch Edge Function
 // Handles batch sync ops via POST to /sync-apply-batch
-// Expects JSON body: { ops: Array<{ envelope: SyncEnvelope, preview?: { method, path } }> }
+// Expects either
+//   - NDJSON (Content-Type: application/x-ndjson), one { envelope, preview? } per line,
+//     optionally gzip-compressed (Content-Encoding: gzip) - what the app streams by default
+//   - JSON body: { ops: Array<{ envelope: SyncEnvelope, preview?: { method, path } }> }
+// Unsupported content types/encodings get 415 (the app then falls back to plain JSON).
 // Returns: { results: Array<{ ok: boolean, message?: string, opId?: string }> }
 
 import { createClient } from "https://esm.sh/@supabase/supabase-js@2.39.0";
 
 const corsHeaders = {
   "Access-Control-Allow-Origin": "*",
-  "Access-Control-Allow-Headers": "authorization, x-client-info, apikey, content-type, x-batch-count",
+  "Access-Control-Allow-Headers": "authorization, x-client-info, apikey, content-type, content-encoding, x-batch-count",
   "Access-Control-Allow-Methods": "POST, OPTIONS",
 };
 
@@ -31,6 +35,45 @@ interface BatchRequest {
   ops: BatchOp[];
 }
 
+class UnsupportedMediaError extends Error {}
+
+// Parse the request body into ops, streaming NDJSON line by line (through gunzip when compressed).
+async function readOps(req: Request): Promise<BatchOp[] | null> {
+  const encoding = (req.headers.get("content-encoding") ?? "identity").trim().toLowerCase();
+  const contentType = (req.headers.get("content-type") ?? "application/json").toLowerCase();
+
+  if (!req.body) return null;
+  let stream: ReadableStream<Uint8Array> = req.body;
+  if (encoding === "gzip") {
+    stream = stream.pipeThrough(new DecompressionStream("gzip"));
+  } else if (encoding !== "identity") {
+    throw new UnsupportedMediaError(`Unsupported Content-Encoding: ${encoding}`);
+  }
+
+  if (contentType.startsWith("application/x-ndjson")) {
+    const ops: BatchOp[] = [];
+    let pending = "";
+    for await (const chunk of stream.pipeThrough(new TextDecoderStream())) {
+      pending += chunk;
+      let newline: number;
+      while ((newline = pending.indexOf("\n")) >= 0) {
+        const line = pending.slice(0, newline).trim();
+        pending = pending.slice(newline + 1);
+        if (line) ops.push(JSON.parse(line) as BatchOp);
+      }
+    }
+    if (pending.trim()) ops.push(JSON.parse(pending) as BatchOp);
+    return ops;
+  }
+
+  if (contentType.startsWith("application/json")) {
+    const batchRequest = JSON.parse(await new Response(stream).text()) as BatchRequest;
+    return Array.isArray(batchRequest?.ops) ? batchRequest.ops : null;
+  }
+
+  throw new UnsupportedMediaError(`Unsupported Content-Type: ${contentType}`);
+}
+
 interface SyncResult {
   ok: boolean;
   message?: string;
@@ -57,55 +100,66 @@ Deno.serve(async (req) => {
     
     const supabase = createClient(supabaseUrl, supabaseServiceKey);
 
-    const batchRequest: BatchRequest = await req.json();
+    let ops: BatchOp[] | null;
+    try {
+      ops = await readOps(req);
+    } catch (err) {
+      const status = err instanceof UnsupportedMediaError ? 415 : 400;
+      return new Response(
+        JSON.stringify({ ok: false, message: err instanceof Error ? err.message : "Invalid body" }),
+        { status, headers: { ...corsHeaders, "Content-Type": "application/json" } }
+      );
+    }
 
-    if (!batchRequest.ops || !Array.isArray(batchRequest.ops)) {
+    if (!ops) {
       return new Response(
         JSON.stringify({ ok: false, message: "Missing or invalid 'ops' array" }),
         { status: 400, headers: { ...corsHeaders, "Content-Type": "application/json" } }
       );
     }
 
-    // Process all ops in parallel for speed
-    const results = await Promise.all(
-      batchRequest.ops.map(async (op): Promise<SyncResult> => {
-        const envelope = op.envelope;
-
-        // Validate required fields
-        if (!envelope.opId || !envelope.deviceId || !envelope.entityType || !envelope.op) {
-          return {
-            ok: false,
-            message: "Missing required fields (opId, deviceId, entityType, op)",
-            opId: envelope.opId,
-          };
-        }
+    // Validate required fields; only complete envelopes go to Postgres.
+    const results: SyncResult[] = new Array(ops.length);
+    const valid: number[] = [];
+    ops.forEach((op, i) => {
+      const envelope = op.envelope;
+      if (!envelope?.opId || !envelope.deviceId || !envelope.entityType || !envelope.op) {
+        results[i] = {
+          ok: false,
+          message: "Missing required fields (opId, deviceId, entityType, op)",
+          opId: envelope?.opId,
+        };
+      } else {
+        valid.push(i);
+      }
+    });
 
-        try {
-          // Call the idempotent apply function
-          const { data, error } = await supabase.rpc("kf_apply_sync_envelope", {
-            envelope: envelope,
-          });
-
-          if (error) {
-            console.error(`RPC error for opId ${envelope.opId}:`, error);
-            return {
-              ok: false,
-              message: error.message,
-              opId: envelope.opId,
-            };
-          }
-
-          return data as SyncResult;
-        } catch (err) {
-          console.error(`Error processing opId ${envelope.opId}:`, err);
-          return {
-            ok: false,
-            message: err instanceof Error ? err.message : "Unknown error",
-            opId: envelope.opId,
-          };
+    // One call for the whole batch: kf_apply_sync_batch (supabase/sql/009) dedupes and applies
+    // set-based, and returns per-op results in input order.
+    if (valid.length > 0) {
+      const { data, error } = await supabase.rpc("kf_apply_sync_batch", {
+        envelopes: valid.map((i) => ops![i].envelope),
+      });
+      const applied = (data as { results?: Array<Record<string, unknown>> } | null)?.results;
+
+      if (error || !Array.isArray(applied) || applied.length !== valid.length) {
+        const message = error?.message ?? "Unexpected kf_apply_sync_batch result";
+        console.error("Batch RPC error:", error ?? data);
+        for (const i of valid) {
+          results[i] = { ok: false, message, opId: ops[i].envelope.opId };
         }
-      })
-    );
+      } else {
+        valid.forEach((i, k) => {
+          const r = applied[k];
+          results[i] = {
+            ok: r.ok === true,
+            message: (r.message ?? r.error) as string | undefined,
+            replay: r.replay as boolean | undefined,
+            opId: (r.opId as string | undefined) ?? ops![i].envelope.opId,
+          };
+        });
+      }
+    }
 
     // Return batch results
     return new Response(
@@ -0,0 +1,117 @@
+-- KiranaFlow: ITEM/UPSERT_MANY (bulk inventory import)
+-- Run after:
+--   001_kf_sync_ops.sql
+--   002_kf_core_tables_and_apply.sql
+--   003_kf_transaction_items_and_stricter_apply.sql
+--   004_kf_batch_apply.sql
+--   005_kf_transaction_edits.sql
+--
+-- The client sends one UPSERT_MANY envelope per import chunk:
+--   body = { items: [ { id, name, category, price, costPrice, stock, ... }, ... ] }
+-- Rather than copying the whole apply function again, the 005 version is kept as
+-- kf_apply_sync_envelope_v5 and the new kf_apply_sync_envelope handles UPSERT_MANY and delegates
+-- everything else to it.
+
+-- 1) Keep the 005 implementation under a stable name (idempotent: only renames once).
+do $$
+begin
+  if not exists (
+    select 1 from pg_proc p join pg_namespace n on n.oid = p.pronamespace
+    where n.nspname = 'public' and p.proname = 'kf_apply_sync_envelope_v5'
+  ) then
+    alter function public.kf_apply_sync_envelope(jsonb) rename to kf_apply_sync_envelope_v5;
+  end if;
+end;
+$$;
+
+-- 2) Entry point: ITEM/UPSERT_MANY in one set-based statement, everything else unchanged.
+create or replace function public.kf_apply_sync_envelope(envelope jsonb)
+returns jsonb
+language plpgsql
+security definer
+as $$
+declare
+  v_op_id text;
+  v_device_id text;
+  v_items jsonb;
+  v_row_count integer := 0;
+begin
+  if coalesce(envelope->>'entityType', '') <> 'ITEM' or coalesce(envelope->>'op', '') <> 'UPSERT_MANY' then
+    return public.kf_apply_sync_envelope_v5(envelope);
+  end if;
+
+  v_op_id := envelope->>'opId';
+  v_device_id := envelope->>'deviceId';
+  v_items := envelope->'body'->'items';
+
+  if v_op_id is null or length(v_op_id) = 0 then
+    return jsonb_build_object('ok', false, 'error', 'Missing opId');
+  end if;
+  if v_device_id is null or length(v_device_id) = 0 then
+    return jsonb_build_object('ok', false, 'error', 'Missing deviceId');
+  end if;
+  if v_items is null or jsonb_typeof(v_items) <> 'array' then
+    return jsonb_build_object('ok', false, 'error', 'Missing items for UPSERT_MANY', 'opId', v_op_id);
+  end if;
+
+  -- Idempotent log insert. If already present, treat as replay and return ok.
+  insert into public.kf_sync_ops(op_id, device_id, entity_type, entity_id, op, api_version, sent_at_millis, body, raw)
+  values (
+    v_op_id,
+    v_device_id,
+    'ITEM',
+    envelope->>'entityId',
+    'UPSERT_MANY',
+    coalesce((envelope->>'apiVersion')::int, 1),
+    coalesce((envelope->>'sentAtMillis')::bigint, (extract(epoch from now())*1000)::bigint),
+    envelope->'body',
+    envelope
+  )
+  on conflict (op_id) do nothing;
+  get diagnostics v_row_count = row_count;
+  if v_row_count = 0 then
+    return jsonb_build_object('ok', true, 'replay', true, 'opId', v_op_id);
+  end if;
+
+  insert into public.kf_items(
+    device_id, local_id, name, category, price, cost_price, stock,
+    gst_percentage, reorder_point, vendor_local_id, rack_location, barcode,
+    image_uri, expiry_date_millis, updated_at
+  )
+  select
+    v_device_id,
+    e->>'id',
+    coalesce(e->>'name', ''),
+    e->>'category',
+    nullif(e->>'price', '')::numeric,
+    nullif(e->>'costPrice', '')::numeric,
+    nullif(e->>'stock', '')::int,
+    nullif(e->>'gstPercentage', '')::numeric,
+    nullif(e->>'reorderPoint', '')::int,
+    e->>'vendorId',
+    e->>'rackLocation',
+    e->>'barcode',
+    e->>'imageUri',
+    nullif(e->>'expiryDateMillis', '')::bigint,
+    now()
+  from jsonb_array_elements(v_items) as e
+  where coalesce(e->>'id', '') <> ''
+  on conflict (device_id, local_id) do update set
+    name = excluded.name,
+    category = excluded.category,
+    price = excluded.price,
+    cost_price = excluded.cost_price,
+    stock = excluded.stock,
+    gst_percentage = excluded.gst_percentage,
+    reorder_point = excluded.reorder_point,
+    vendor_local_id = excluded.vendor_local_id,
+    rack_location = excluded.rack_location,
+    barcode = excluded.barcode,
+    image_uri = excluded.image_uri,
+    expiry_date_millis = excluded.expiry_date_millis,
+    updated_at = now();
+  get diagnostics v_row_count = row_count;
+
+  return jsonb_build_object('ok', true, 'opId', v_op_id, 'applied', v_row_count);
+end;
+$$;
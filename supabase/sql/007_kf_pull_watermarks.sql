@@ -0,0 +1,55 @@
+-- KiranaFlow: incremental pull (per-table watermarks on the client)
+-- Run after:
+--   001_kf_sync_ops.sql
+--   002_kf_core_tables_and_apply.sql
+--   003_kf_transaction_items_and_stricter_apply.sql
+--   004_kf_batch_apply.sql
+--   005_kf_transaction_edits.sql
+--   006_kf_item_upsert_many.sql
+--
+-- Devices sharing a namespace read each other's changes with keyset pages:
+--   GET /rest/v1/kf_items?device_id=eq.<id>&order=changed_at.asc,local_id.asc
+--       &or=(changed_at.gt."<ts>",and(changed_at.eq."<ts>",local_id.gt."<id>"))
+--   Range: 0-499
+-- updated_at cannot be the key: since 005, kf_transactions takes it from the client's clock, so a
+-- late-synced sale would land behind another device's watermark. changed_at is always the server's
+-- now() on insert and update, stamped by a trigger so no apply function has to remember it.
+
+-- 1) Column (existing rows start at the migration time; a first pull reads them all anyway).
+alter table public.kf_items add column if not exists changed_at timestamptz not null default now();
+alter table public.kf_parties add column if not exists changed_at timestamptz not null default now();
+alter table public.kf_transactions add column if not exists changed_at timestamptz not null default now();
+alter table public.kf_reminders add column if not exists changed_at timestamptz not null default now();
+
+-- 2) Stamp on every write.
+create or replace function public.kf_touch_changed_at()
+returns trigger
+language plpgsql
+as $$
+begin
+  new.changed_at := now();
+  return new;
+end;
+$$;
+
+drop trigger if exists kf_items_changed_at on public.kf_items;
+create trigger kf_items_changed_at before insert or update on public.kf_items
+  for each row execute function public.kf_touch_changed_at();
+
+drop trigger if exists kf_parties_changed_at on public.kf_parties;
+create trigger kf_parties_changed_at before insert or update on public.kf_parties
+  for each row execute function public.kf_touch_changed_at();
+
+drop trigger if exists kf_transactions_changed_at on public.kf_transactions;
+create trigger kf_transactions_changed_at before insert or update on public.kf_transactions
+  for each row execute function public.kf_touch_changed_at();
+
+drop trigger if exists kf_reminders_changed_at on public.kf_reminders;
+create trigger kf_reminders_changed_at before insert or update on public.kf_reminders
+  for each row execute function public.kf_touch_changed_at();
+
+-- 3) One index range read per page, however far the watermark is into the table.
+create index if not exists kf_items_device_changed_idx on public.kf_items (device_id, changed_at, local_id);
+create index if not exists kf_parties_device_changed_idx on public.kf_parties (device_id, changed_at, local_id);
+create index if not exists kf_transactions_device_changed_idx on public.kf_transactions (device_id, changed_at, local_id);
+create index if not exists kf_reminders_device_changed_idx on public.kf_reminders (device_id, changed_at, local_id);
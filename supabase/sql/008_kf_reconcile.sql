@@ -0,0 +1,108 @@
+-- KiranaFlow: Merkle-style reconciliation (is the cloud copy the same as the phone's?)
+-- Run after:
+--   001_kf_sync_ops.sql
+--   002_kf_core_tables_and_apply.sql
+--   003_kf_transaction_items_and_stricter_apply.sql
+--   004_kf_batch_apply.sql
+--   005_kf_transaction_edits.sql
+--   006_kf_item_upsert_many.sql
+--   007_kf_pull_watermarks.sql
+--
+-- Each row gets a 64-bit digest: the first 16 hex digits of md5 over a canonical text that the
+-- app builds identically from Room (sync/reconcile/RowDigest.kt):
+--   kf_items             local_id|name|category|price cents|cost_price cents|barcode
+--   kf_parties           local_id|type|name|phone
+--   kf_transactions      local_id|type|amount cents|customer_local_id|vendor_local_id
+--   kf_transaction_items transaction_local_id|line count|sum of price cents   (one row per transaction)
+-- nulls are '', cents are round(x * 100) (half away from zero). Stock and balances are left out:
+-- the cloud does not track them per sale, so they differ by design.
+--
+-- A bucket holds the rows with local_id / width = bucket; its summary is (row count, xor of
+-- digests), so it is order-free and cheap to aggregate. The app walks the tree top-down (widths
+-- grow 16x per level), asking only for the children of buckets that differ, then for the row
+-- digests of differing leaves:
+--   POST /rest/v1/rpc/kf_reconcile_buckets   {p_device_id, p_table, p_width, p_parent_width, p_parents}
+--   POST /rest/v1/rpc/kf_reconcile_leaf_rows {p_device_id, p_table, p_width, p_buckets}
+-- Rows whose local_id is not an integer are not covered.
+
+create or replace function public.kf_row_digest(p_text text)
+returns bigint
+language sql
+immutable
+as $$
+  select ('x' || substr(md5(p_text), 1, 16))::bit(64)::bigint;
+$$;
+
+create or replace function public.kf_reconcile_rows(p_device_id text, p_table text)
+returns table(id bigint, digest bigint)
+language sql
+stable
+as $$
+  select i.local_id::bigint,
+         public.kf_row_digest(concat_ws('|',
+           i.local_id, i.name, coalesce(i.category, ''),
+           round(coalesce(i.price, 0) * 100)::bigint,
+           round(coalesce(i.cost_price, 0) * 100)::bigint,
+           coalesce(i.barcode, '')))
+  from public.kf_items i
+  where p_table = 'kf_items' and i.device_id = p_device_id and i.local_id ~ '^[0-9]{1,18}$'
+  union all
+  select p.local_id::bigint,
+         public.kf_row_digest(concat_ws('|', p.local_id, p.type, p.name, coalesce(p.phone, '')))
+  from public.kf_parties p
+  where p_table = 'kf_parties' and p.device_id = p_device_id and p.local_id ~ '^[0-9]{1,18}$'
+  union all
+  select t.local_id::bigint,
+         public.kf_row_digest(concat_ws('|',
+           t.local_id, t.type,
+           round(coalesce(t.amount, 0) * 100)::bigint,
+           coalesce(t.customer_local_id, ''), coalesce(t.vendor_local_id, '')))
+  from public.kf_transactions t
+  where p_table = 'kf_transactions' and t.device_id = p_device_id and t.local_id ~ '^[0-9]{1,18}$'
+  union all
+  select l.transaction_local_id::bigint,
+         public.kf_row_digest(concat_ws('|',
+           l.transaction_local_id, count(*), sum(round(l.price * 100)::bigint)))
+  from public.kf_transaction_items l
+  where p_table = 'kf_transaction_items' and l.device_id = p_device_id and l.transaction_local_id ~ '^[0-9]{1,18}$'
+  group by l.transaction_local_id;
+$$;
+
+-- Bucket summaries at one level. p_parents null = every bucket (the top level); otherwise only the
+-- buckets under those parents (local_id / p_parent_width).
+create or replace function public.kf_reconcile_buckets(
+  p_device_id text,
+  p_table text,
+  p_width bigint,
+  p_parent_width bigint default null,
+  p_parents bigint[] default null
+)
+returns table(bucket bigint, row_count bigint, digest bigint)
+language sql
+stable
+security definer
+as $$
+  select r.id / p_width, count(*), bit_xor(r.digest)
+  from public.kf_reconcile_rows(p_device_id, p_table) r
+  where p_parents is null or (r.id / p_parent_width) = any(p_parents)
+  group by 1
+  order by 1;
+$$;
+
+-- Row digests of the given leaf buckets.
+create or replace function public.kf_reconcile_leaf_rows(
+  p_device_id text,
+  p_table text,
+  p_width bigint,
+  p_buckets bigint[]
+)
+returns table(id bigint, digest bigint)
+language sql
+stable
+security definer
+as $$
+  select r.id, r.digest
+  from public.kf_reconcile_rows(p_device_id, p_table) r
+  where (r.id / p_width) = any(p_buckets)
+  order by r.id;
+$$;
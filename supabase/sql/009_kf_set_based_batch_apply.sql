@@ -0,0 +1,414 @@
+-- KiranaFlow: set-based batch apply (one RPC per sync-apply-batch request)
+-- Run after:
+--   001_kf_sync_ops.sql
+--   002_kf_core_tables_and_apply.sql
+--   003_kf_transaction_items_and_stricter_apply.sql
+--   004_kf_batch_apply.sql
+--   005_kf_transaction_edits.sql
+--   006_kf_item_upsert_many.sql
+--   007_kf_pull_watermarks.sql
+--   008_kf_reconcile.sql
+--
+-- Replaces the 004 loop over kf_apply_sync_envelope. Same call and result shape:
+--   select public.kf_apply_sync_batch('[<envelope>, ...]'::jsonb);
+--   -> { ok, processed, results: [ { ok, replay?, opId?, error? }, ... ] }   (results in input order)
+--
+-- Ops are split in two:
+-- - set-based: PARTY upserts/deletes, ITEM UPSERT/UPSERT_MANY/DELETE, TRANSACTION creates/UPSERT/
+--   DELETE, when no other op in the batch touches the same row. These are logged in kf_sync_ops
+--   in one statement (the ones already there are replays) and applied with one statement per entity
+--   type and op, in dependency order: parties, items, transactions (+ lines), then party/item deletes.
+-- - sequential: everything else (reminders, TRANSACTION_ITEM, edits/adjustments, rows touched by
+--   more than one op), through kf_apply_sync_envelope in input order, each in its own
+--   subtransaction so one failing op does not fail the batch.
+-- If any set-based statement raises (e.g. a malformed number), that whole phase is rolled back and
+-- its ops go the sequential way too, so the bad op fails alone.
+--
+-- Semantics match kf_apply_sync_envelope op by op, except that transaction dependency checks see the
+-- parties/items of the whole batch (the app sends them first anyway) and party/item deletes run
+-- after the transactions of the batch.
+
+create or replace function public.kf_apply_sync_batch(envelopes jsonb)
+returns jsonb
+language plpgsql
+security definer
+as $$
+declare
+  v_seq record;
+  v_result jsonb;
+  v_results jsonb;
+  v_count int;
+begin
+  if jsonb_typeof(envelopes) is distinct from 'array' then
+    return jsonb_build_object('ok', false, 'error', 'Input must be an array of envelopes');
+  end if;
+
+  create temp table if not exists kf_batch_ops (
+    ord int primary key,
+    envelope jsonb not null,
+    op_id text,
+    device_id text,
+    entity_type text,
+    entity_id text,
+    op text,
+    body jsonb,
+    mode text, -- SET | SEQ
+    result jsonb
+  ) on commit drop;
+  create temp table if not exists kf_batch_keys (
+    ord int not null,
+    entity_type text not null,
+    device_id text not null,
+    local_id text
+  ) on commit drop;
+  truncate kf_batch_ops, kf_batch_keys;
+
+  insert into kf_batch_ops(ord, envelope, op_id, device_id, entity_type, entity_id, op, body)
+  select
+    x.ord,
+    x.e,
+    nullif(x.e->>'opId', ''),
+    nullif(x.e->>'deviceId', ''),
+    nullif(x.e->>'entityType', ''),
+    x.e->>'entityId',
+    nullif(x.e->>'op', ''),
+    x.e->'body'
+  from jsonb_array_elements(envelopes) with ordinality as x(e, ord);
+  get diagnostics v_count = row_count;
+
+  -- 1) Validation and in-batch duplicates (a repeated opId is a replay of its first occurrence).
+  update kf_batch_ops set result = case
+      when op_id is null then jsonb_build_object('ok', false, 'error', 'Missing opId')
+      when device_id is null then jsonb_build_object('ok', false, 'error', 'Missing deviceId')
+      when entity_type is null then jsonb_build_object('ok', false, 'error', 'Missing entityType')
+      else jsonb_build_object('ok', false, 'error', 'Missing op')
+    end
+  where op_id is null or device_id is null or entity_type is null or op is null;
+
+  update kf_batch_ops o set result = jsonb_build_object('ok', true, 'replay', true, 'opId', o.op_id)
+  where o.result is null
+    and exists (select 1 from kf_batch_ops p where p.op_id = o.op_id and p.ord < o.ord);
+
+  -- 2) Rows each op writes. Every op that writes a row is listed, so that an op sharing a row with
+  --    another op of the batch stays sequential and keeps its input order.
+  insert into kf_batch_keys(ord, entity_type, device_id, local_id)
+  select o.ord, o.entity_type, o.device_id, coalesce(o.entity_id, o.body->>'id')
+  from kf_batch_ops o
+  where o.result is null and o.entity_type in ('PARTY', 'ITEM') and o.op <> 'UPSERT_MANY'
+  union all
+  select o.ord, 'ITEM', o.device_id, nullif(e->>'id', '')
+  from kf_batch_ops o
+  cross join lateral jsonb_array_elements(o.body->'items') as e
+  where o.result is null and o.entity_type = 'ITEM' and o.op = 'UPSERT_MANY'
+    and jsonb_typeof(o.body->'items') = 'array'
+  union all
+  select o.ord, 'TRANSACTION', o.device_id,
+         case when o.op = 'DELETE' then coalesce(o.entity_id, o.body->>'id')
+              else coalesce(o.entity_id, o.body->>'localId', o.body->>'id') end
+  from kf_batch_ops o
+  where o.result is null and o.entity_type = 'TRANSACTION'
+  union all
+  select o.ord, 'TRANSACTION', o.device_id, coalesce(o.entity_id, o.body->>'transactionLocalId')
+  from kf_batch_ops o
+  where o.result is null and o.entity_type = 'TRANSACTION_ITEM';
+
+  -- UPSERT_MANY rows without an id are skipped by the apply, as in 006.
+  delete from kf_batch_keys k
+  using kf_batch_ops o
+  where k.ord = o.ord and o.op = 'UPSERT_MANY' and k.local_id is null;
+
+  update kf_batch_ops o set mode = case
+      when ((o.entity_type = 'PARTY' and o.op in ('UPSERT', 'UPSERT_CUSTOMER', 'UPSERT_VENDOR', 'DELETE'))
+         or (o.entity_type = 'ITEM' and o.op in ('UPSERT', 'UPSERT_MANY', 'DELETE'))
+         or (o.entity_type = 'TRANSACTION'
+             and o.op in ('UPSERT', 'CREATE_SALE', 'CREATE_PAYMENT', 'CREATE_VENDOR_PURCHASE', 'CREATE_EXPENSE', 'DELETE')))
+       and exists (select 1 from kf_batch_keys k where k.ord = o.ord)
+       and not exists (select 1 from kf_batch_keys k where k.ord = o.ord and k.local_id is null)
+       and not exists (
+         select 1
+         from kf_batch_keys k
+         join kf_batch_keys other
+           on other.entity_type = k.entity_type
+          and other.device_id = k.device_id
+          and other.local_id = k.local_id
+          and other.ord <> k.ord
+         where k.ord = o.ord
+       )
+      then 'SET'
+      else 'SEQ'
+    end
+  where o.result is null;
+
+  -- 3) Set-based phase.
+  begin
+    -- Dedupe against kf_sync_ops and log, in one statement.
+    with logged as (
+      insert into public.kf_sync_ops(op_id, device_id, entity_type, entity_id, op, api_version, sent_at_millis, body, raw)
+      select
+        o.op_id, o.device_id, o.entity_type, o.entity_id, o.op,
+        coalesce((o.envelope->>'apiVersion')::int, 1),
+        coalesce((o.envelope->>'sentAtMillis')::bigint, (extract(epoch from now())*1000)::bigint),
+        o.body,
+        o.envelope
+      from kf_batch_ops o
+      where o.mode = 'SET' and o.result is null
+      order by o.ord
+      on conflict (op_id) do nothing
+      returning op_id
+    )
+    update kf_batch_ops o set result = jsonb_build_object('ok', true, 'replay', true, 'opId', o.op_id)
+    where o.mode = 'SET' and o.result is null
+      and not exists (select 1 from logged l where l.op_id = o.op_id);
+
+    -- Parties.
+    insert into public.kf_parties(device_id, local_id, type, name, phone, gst_number, balance, updated_at)
+    select r._device_id, r._local_id, coalesce(r.type, ''), coalesce(r.name, ''), r.phone, r."gstNumber",
+           nullif(r.balance, '')::numeric, now()
+    from jsonb_to_recordset((
+      select coalesce(jsonb_agg(coalesce(o.body, '{}'::jsonb) || jsonb_build_object('_device_id', k.device_id, '_local_id', k.local_id)), '[]')
+      from kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+      where o.mode = 'SET' and o.result is null and o.entity_type = 'PARTY' and o.op <> 'DELETE'
+    )) as r(_device_id text, _local_id text, type text, name text, phone text, "gstNumber" text, balance text)
+    on conflict (device_id, local_id) do update set
+      type = excluded.type,
+      name = excluded.name,
+      phone = excluded.phone,
+      gst_number = excluded.gst_number,
+      balance = excluded.balance,
+      updated_at = now();
+
+    -- Items (UPSERT bodies and UPSERT_MANY elements alike).
+    insert into public.kf_items(
+      device_id, local_id, name, category, price, cost_price, stock,
+      gst_percentage, reorder_point, vendor_local_id, rack_location, barcode,
+      image_uri, expiry_date_millis, updated_at
+    )
+    select
+      r._device_id, r._local_id, coalesce(r.name, ''), r.category,
+      nullif(r.price, '')::numeric,
+      nullif(r."costPrice", '')::numeric,
+      nullif(r.stock, '')::int,
+      nullif(r."gstPercentage", '')::numeric,
+      nullif(r."reorderPoint", '')::int,
+      r."vendorId", r."rackLocation", r.barcode, r."imageUri",
+      nullif(r."expiryDateMillis", '')::bigint,
+      now()
+    from jsonb_to_recordset((
+      select coalesce(jsonb_agg(src.row_body || jsonb_build_object('_device_id', src.device_id, '_local_id', src.local_id)), '[]')
+      from (
+        select coalesce(o.body, '{}'::jsonb) as row_body, k.device_id, k.local_id
+        from kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+        where o.mode = 'SET' and o.result is null and o.entity_type = 'ITEM' and o.op = 'UPSERT'
+        union all
+        select e, o.device_id, e->>'id'
+        from kf_batch_ops o
+        cross join lateral jsonb_array_elements(o.body->'items') as e
+        where o.mode = 'SET' and o.result is null and o.entity_type = 'ITEM' and o.op = 'UPSERT_MANY'
+          and coalesce(e->>'id', '') <> ''
+      ) src
+    )) as r(
+      _device_id text, _local_id text, name text, category text, price text, "costPrice" text, stock text,
+      "gstPercentage" text, "reorderPoint" text, "vendorId" text, "rackLocation" text, barcode text,
+      "imageUri" text, "expiryDateMillis" text
+    )
+    on conflict (device_id, local_id) do update set
+      name = excluded.name,
+      category = excluded.category,
+      price = excluded.price,
+      cost_price = excluded.cost_price,
+      stock = excluded.stock,
+      gst_percentage = excluded.gst_percentage,
+      reorder_point = excluded.reorder_point,
+      vendor_local_id = excluded.vendor_local_id,
+      rack_location = excluded.rack_location,
+      barcode = excluded.barcode,
+      image_uri = excluded.image_uri,
+      expiry_date_millis = excluded.expiry_date_millis,
+      updated_at = now();
+  exception when others then
+    -- Nothing of this block was kept, kf_sync_ops rows and kf_batch_ops results included: hand all
+    -- set-based ops to the sequential path.
+    raise notice 'kf_apply_sync_batch: parties/items phase fell back to per-op apply: %', sqlerrm;
+    update kf_batch_ops set mode = 'SEQ' where mode = 'SET';
+  end;
+
+  -- Sequential parties/items, before the transactions that may reference them.
+  for v_seq in
+    select ord, envelope, op_id from kf_batch_ops
+    where mode = 'SEQ' and result is null and entity_type in ('PARTY', 'ITEM')
+    order by ord
+  loop
+    begin
+      v_result := public.kf_apply_sync_envelope(v_seq.envelope);
+    exception when others then
+      v_result := jsonb_build_object('ok', false, 'error', sqlerrm, 'opId', v_seq.op_id);
+    end;
+    update kf_batch_ops set result = v_result where ord = v_seq.ord;
+  end loop;
+
+  begin
+    -- Transactions: dependency checks against what this batch already applied.
+    update kf_batch_ops o set result = jsonb_build_object(
+        'ok', false,
+        'opId', o.op_id,
+        'error', case
+          when nullif(o.body->>'customerId', '') is not null and not exists (
+            select 1 from public.kf_parties p
+            where p.device_id = o.device_id and p.local_id = nullif(o.body->>'customerId', '')
+          ) then 'Missing dependency: PARTY(customerId=' || (o.body->>'customerId') || ')'
+          when nullif(o.body->>'vendorId', '') is not null and not exists (
+            select 1 from public.kf_parties p
+            where p.device_id = o.device_id and p.local_id = nullif(o.body->>'vendorId', '')
+          ) then 'Missing dependency: PARTY(vendorId=' || (o.body->>'vendorId') || ')'
+          else 'Missing dependency: ITEM referenced in transaction.items'
+        end)
+    where o.mode = 'SET' and o.result is null and o.entity_type = 'TRANSACTION' and o.op <> 'DELETE'
+      and (
+        (nullif(o.body->>'customerId', '') is not null and not exists (
+          select 1 from public.kf_parties p
+          where p.device_id = o.device_id and p.local_id = nullif(o.body->>'customerId', '')))
+        or (nullif(o.body->>'vendorId', '') is not null and not exists (
+          select 1 from public.kf_parties p
+          where p.device_id = o.device_id and p.local_id = nullif(o.body->>'vendorId', '')))
+        or (jsonb_typeof(o.body->'items') = 'array' and exists (
+          select 1 from jsonb_array_elements(o.body->'items') as e
+          where (e->>'itemId') is not null
+            and not exists (
+              select 1 from public.kf_items i
+              where i.device_id = o.device_id and i.local_id = (e->>'itemId'))))
+      );
+
+    -- Deletes (lines first).
+    delete from public.kf_transaction_items t
+    using kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+    where o.mode = 'SET' and o.result is null and o.entity_type = 'TRANSACTION' and o.op = 'DELETE'
+      and t.device_id = k.device_id and t.transaction_local_id = k.local_id;
+    delete from public.kf_transactions t
+    using kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+    where o.mode = 'SET' and o.result is null and o.entity_type = 'TRANSACTION' and o.op = 'DELETE'
+      and t.device_id = k.device_id and t.local_id = k.local_id;
+
+    -- Upserts.
+    insert into public.kf_transactions(
+      device_id, local_id, type, payment_mode, customer_local_id, vendor_local_id,
+      amount, items, note, status, gst_filed_period, updated_at
+    )
+    select
+      r._device_id, r._local_id, coalesce(r.type, ''), r."paymentMode",
+      nullif(r."customerId", ''), nullif(r."vendorId", ''),
+      nullif(r.amount, '')::numeric,
+      r.items,
+      r.note,
+      coalesce(nullif(r.status, ''), 'POSTED'),
+      nullif(r."gstFiledPeriod", ''),
+      case when r."updatedAt" ~ '^-?[0-9]{1,15}$' then to_timestamp(r."updatedAt"::bigint / 1000.0) else now() end
+    from jsonb_to_recordset((
+      select coalesce(jsonb_agg(coalesce(o.body, '{}'::jsonb) || jsonb_build_object('_device_id', k.device_id, '_local_id', k.local_id)), '[]')
+      from kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+      where o.mode = 'SET' and o.result is null and o.entity_type = 'TRANSACTION' and o.op <> 'DELETE'
+    )) as r(
+      _device_id text, _local_id text, type text, "paymentMode" text, "customerId" text, "vendorId" text,
+      amount text, items jsonb, note text, status text, "gstFiledPeriod" text, "updatedAt" text
+    )
+    on conflict (device_id, local_id) do update set
+      type = excluded.type,
+      payment_mode = excluded.payment_mode,
+      customer_local_id = excluded.customer_local_id,
+      vendor_local_id = excluded.vendor_local_id,
+      amount = excluded.amount,
+      items = coalesce(excluded.items, public.kf_transactions.items),
+      note = excluded.note,
+      status = excluded.status,
+      gst_filed_period = excluded.gst_filed_period,
+      updated_at = excluded.updated_at;
+
+    -- Lines of the upserted transactions that carry items.
+    delete from public.kf_transaction_items t
+    using kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+    where o.mode = 'SET' and o.result is null and o.entity_type = 'TRANSACTION' and o.op <> 'DELETE'
+      and o.body->'items' is not null and jsonb_typeof(o.body->'items') <> 'null'
+      and t.device_id = k.device_id and t.transaction_local_id = k.local_id;
+    insert into public.kf_transaction_items(device_id, transaction_local_id, line_no, item_local_id, name, qty, price)
+    select
+      k.device_id,
+      k.local_id,
+      x.ordinality::int,
+      nullif(x.value->>'itemId', ''),
+      nullif(coalesce(x.value->>'name', x.value->>'itemNameSnapshot'), ''),
+      coalesce(nullif(x.value->>'qty', '')::int, 1),
+      coalesce(nullif(x.value->>'price', '')::numeric, 0)
+    from kf_batch_ops o
+    join kf_batch_keys k on k.ord = o.ord
+    cross join lateral jsonb_array_elements(o.body->'items') with ordinality as x(value, ordinality)
+    where o.mode = 'SET' and o.result is null and o.entity_type = 'TRANSACTION' and o.op <> 'DELETE'
+      and jsonb_typeof(o.body->'items') = 'array';
+
+    update kf_batch_ops set result = jsonb_build_object('ok', true, 'replay', false, 'opId', op_id)
+    where mode = 'SET' and result is null and entity_type = 'TRANSACTION';
+  exception when others then
+    raise notice 'kf_apply_sync_batch: transactions phase fell back to per-op apply: %', sqlerrm;
+    -- Their kf_sync_ops rows were written by the earlier block; drop them so the per-op apply is not
+    -- taken for a replay.
+    delete from public.kf_sync_ops s
+    using kf_batch_ops o
+    where o.mode = 'SET' and o.entity_type = 'TRANSACTION' and o.result is null and s.op_id = o.op_id;
+    update kf_batch_ops set mode = 'SEQ'
+    where mode = 'SET' and result is null and entity_type = 'TRANSACTION';
+  end;
+
+  -- Everything else, in input order.
+  for v_seq in
+    select ord, envelope, op_id from kf_batch_ops
+    where mode = 'SEQ' and result is null
+    order by ord
+  loop
+    begin
+      v_result := public.kf_apply_sync_envelope(v_seq.envelope);
+    exception when others then
+      v_result := jsonb_build_object('ok', false, 'error', sqlerrm, 'opId', v_seq.op_id);
+    end;
+    update kf_batch_ops set result = v_result where ord = v_seq.ord;
+  end loop;
+
+  -- Party/item deletes last, after the transactions that may still have referenced them.
+  begin
+    delete from public.kf_items i
+    using kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+    where o.mode = 'SET' and o.result is null and o.entity_type = 'ITEM' and o.op = 'DELETE'
+      and i.device_id = k.device_id and i.local_id = k.local_id;
+    delete from public.kf_parties p
+    using kf_batch_ops o join kf_batch_keys k on k.ord = o.ord
+    where o.mode = 'SET' and o.result is null and o.entity_type = 'PARTY' and o.op = 'DELETE'
+      and p.device_id = k.device_id and p.local_id = k.local_id;
+  exception when others then
+    raise notice 'kf_apply_sync_batch: deletes fell back to per-op apply: %', sqlerrm;
+    delete from public.kf_sync_ops s
+    using kf_batch_ops o
+    where o.mode = 'SET' and o.result is null and o.op = 'DELETE' and o.entity_type in ('PARTY', 'ITEM')
+      and s.op_id = o.op_id;
+    for v_seq in
+      select ord, envelope, op_id from kf_batch_ops
+      where mode = 'SET' and result is null and op = 'DELETE' and entity_type in ('PARTY', 'ITEM')
+      order by ord
+    loop
+      begin
+        v_result := public.kf_apply_sync_envelope(v_seq.envelope);
+      exception when others then
+        v_result := jsonb_build_object('ok', false, 'error', sqlerrm, 'opId', v_seq.op_id);
+      end;
+      update kf_batch_ops set result = v_result where ord = v_seq.ord;
+    end loop;
+  end;
+
+  update kf_batch_ops set result = jsonb_build_object('ok', true, 'replay', false, 'opId', op_id)
+  where mode = 'SET' and result is null;
+
+  select coalesce(jsonb_agg(result order by ord), '[]'::jsonb) into v_results from kf_batch_ops;
+
+  return jsonb_build_object(
+    'ok', true,
+    'processed', v_count,
+    'results', v_results
+  );
+end;
+$$;
@@ -0,0 +1,150 @@
+-- KiranaFlow: shop-wide pull (several phones, one shop)
+-- Run after:
+--   001_kf_sync_ops.sql
+--   002_kf_core_tables_and_apply.sql
+--   003_kf_transaction_items_and_stricter_apply.sql
+--   004_kf_batch_apply.sql
+--   005_kf_transaction_edits.sql
+--   006_kf_item_upsert_many.sql
+--   007_kf_pull_watermarks.sql
+--   008_kf_reconcile.sql
+--   009_kf_set_based_batch_apply.sql
+--
+-- Pushes stay per device (device_id, local_id): local ids are per-phone autoincrements, so two
+-- phones' "item 12" are different rows. A shop groups devices, and a phone pulls every row of its
+-- shop that another device wrote:
+--   GET /rest/v1/kf_items?shop_id=eq.<shop>&device_id=neq.<me>
+--       &order=changed_at.asc,device_id.asc,local_id.asc
+--       &or=(changed_at.gt."<ts>",and(changed_at.eq."<ts>",device_id.gt."<dev>"),
+--            and(changed_at.eq."<ts>",device_id.eq."<dev>",local_id.gt."<id>"))
+--   Range: 0-499
+-- The pulling phone gives each new row its own local id. When it later edits that copy, the push
+-- lands under its own (device_id, local_id); kf_id_links (uploaded by the phone when it made the
+-- copy) tells the other phones that row is the original they already have.
+--
+-- kf_transactions.updated_at moves with every edit; occurred_at keeps the recording phone's clock
+-- at insert (the create ops carry it as updatedAt), which is the date other phones book it under.
+
+-- 1) Device -> shop. A device that never joined is a shop of its own (shop_id = device_id).
+create table if not exists public.kf_device_shops (
+  device_id text primary key,
+  shop_id text not null,
+  joined_at timestamptz not null default now()
+);
+
+create or replace function public.kf_shop_of(p_device_id text)
+returns text
+language sql
+stable
+as $$
+  select coalesce(
+    (select s.shop_id from public.kf_device_shops s where s.device_id = p_device_id),
+    p_device_id
+  );
+$$;
+
+-- 2) Which device copies are the same row.
+create table if not exists public.kf_id_links (
+  device_id text not null,
+  entity_type text not null, -- ITEM | PARTY | TRANSACTION
+  local_id text not null,
+  origin_device_id text not null,
+  origin_local_id text not null,
+  shop_id text null,
+  changed_at timestamptz not null default now(),
+  primary key (device_id, entity_type, local_id)
+);
+
+-- 3) shop_id on the pulled tables, stamped on insert (apply functions do not know about shops).
+alter table public.kf_items add column if not exists shop_id text;
+alter table public.kf_parties add column if not exists shop_id text;
+alter table public.kf_transactions add column if not exists shop_id text;
+
+update public.kf_items set shop_id = public.kf_shop_of(device_id) where shop_id is null;
+update public.kf_parties set shop_id = public.kf_shop_of(device_id) where shop_id is null;
+update public.kf_transactions set shop_id = public.kf_shop_of(device_id) where shop_id is null;
+update public.kf_id_links set shop_id = public.kf_shop_of(device_id) where shop_id is null;
+
+create or replace function public.kf_stamp_shop_id()
+returns trigger
+language plpgsql
+as $$
+begin
+  new.shop_id := coalesce(new.shop_id, public.kf_shop_of(new.device_id));
+  return new;
+end;
+$$;
+
+drop trigger if exists kf_items_shop_id on public.kf_items;
+create trigger kf_items_shop_id before insert on public.kf_items
+  for each row execute function public.kf_stamp_shop_id();
+
+drop trigger if exists kf_parties_shop_id on public.kf_parties;
+create trigger kf_parties_shop_id before insert on public.kf_parties
+  for each row execute function public.kf_stamp_shop_id();
+
+drop trigger if exists kf_transactions_shop_id on public.kf_transactions;
+create trigger kf_transactions_shop_id before insert on public.kf_transactions
+  for each row execute function public.kf_stamp_shop_id();
+
+drop trigger if exists kf_id_links_shop_id on public.kf_id_links;
+create trigger kf_id_links_shop_id before insert on public.kf_id_links
+  for each row execute function public.kf_stamp_shop_id();
+
+drop trigger if exists kf_id_links_changed_at on public.kf_id_links;
+create trigger kf_id_links_changed_at before insert or update on public.kf_id_links
+  for each row execute function public.kf_touch_changed_at();
+
+-- 4) When the transaction happened, kept across edits.
+alter table public.kf_transactions add column if not exists occurred_at timestamptz;
+update public.kf_transactions set occurred_at = updated_at where occurred_at is null;
+
+create or replace function public.kf_keep_occurred_at()
+returns trigger
+language plpgsql
+as $$
+begin
+  if tg_op = 'INSERT' then
+    new.occurred_at := coalesce(new.occurred_at, new.updated_at, now());
+  else
+    new.occurred_at := coalesce(old.occurred_at, new.occurred_at, new.updated_at);
+  end if;
+  return new;
+end;
+$$;
+
+drop trigger if exists kf_transactions_occurred_at on public.kf_transactions;
+create trigger kf_transactions_occurred_at before insert or update on public.kf_transactions
+  for each row execute function public.kf_keep_occurred_at();
+
+-- 5) Joining a shop moves the device's rows along (their changed_at moves too, so the new
+--    shop-mates pull them). Called by the app on its first poll after the shop code changes:
+--   POST /rest/v1/rpc/kf_join_shop {p_device_id, p_shop_id}
+create or replace function public.kf_join_shop(p_device_id text, p_shop_id text)
+returns text
+language plpgsql
+security definer
+as $$
+begin
+  if coalesce(p_device_id, '') = '' or coalesce(p_shop_id, '') = '' then
+    raise exception 'device and shop are required';
+  end if;
+
+  insert into public.kf_device_shops(device_id, shop_id)
+  values (p_device_id, p_shop_id)
+  on conflict (device_id) do update set shop_id = excluded.shop_id, joined_at = now()
+  where public.kf_device_shops.shop_id is distinct from excluded.shop_id;
+
+  update public.kf_items set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  update public.kf_parties set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  update public.kf_transactions set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  update public.kf_id_links set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  return p_shop_id;
+end;
+$$;
+
+-- 6) One index range read per page, however far the watermark is into the shop.
+create index if not exists kf_items_shop_changed_idx on public.kf_items (shop_id, changed_at, device_id, local_id);
+create index if not exists kf_parties_shop_changed_idx on public.kf_parties (shop_id, changed_at, device_id, local_id);
+create index if not exists kf_transactions_shop_changed_idx on public.kf_transactions (shop_id, changed_at, device_id, local_id);
+create index if not exists kf_id_links_shop_changed_idx on public.kf_id_links (shop_id, entity_type, changed_at, device_id, local_id);
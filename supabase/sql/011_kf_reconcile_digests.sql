@@ -0,0 +1,210 @@
+-- KiranaFlow: stored row digests for reconciliation
+-- Run after:
+--   001_kf_sync_ops.sql
+--   002_kf_core_tables_and_apply.sql
+--   003_kf_transaction_items_and_stricter_apply.sql
+--   004_kf_batch_apply.sql
+--   005_kf_transaction_edits.sql
+--   006_kf_item_upsert_many.sql
+--   007_kf_pull_watermarks.sql
+--   008_kf_reconcile.sql
+--   009_kf_set_based_batch_apply.sql
+--   010_kf_shop_pull.sql
+--
+-- 008 hashed every row of the device on each kf_reconcile_buckets / kf_reconcile_leaf_rows call, so
+-- one reconciliation walk cost (round trips x rows) md5s. The digest (same canonical text as 008,
+-- see sync/reconcile/RowDigest.kt) is now computed once per write and stored next to the numeric id:
+--   kf_items, kf_parties, kf_transactions   reconcile_id, row_digest, set by a before-write trigger
+--   kf_transaction_line_digests             one row per transaction, kept up to date by a trigger
+--                                           on kf_transaction_items (count and cents are additive)
+-- and the RPCs read them through (device_id, reconcile_id) indexes that carry the digest, so a call
+-- is an index-only range read. reconcile_id is null when local_id is not an integer (not covered,
+-- as before). TRUNCATE of kf_transaction_items bypasses the trigger; truncate the digests with it.
+
+-- 1) Items, parties, transactions: the digest lives on the row.
+alter table public.kf_items add column if not exists reconcile_id bigint;
+alter table public.kf_items add column if not exists row_digest bigint;
+alter table public.kf_parties add column if not exists reconcile_id bigint;
+alter table public.kf_parties add column if not exists row_digest bigint;
+alter table public.kf_transactions add column if not exists reconcile_id bigint;
+alter table public.kf_transactions add column if not exists row_digest bigint;
+
+create or replace function public.kf_reconcile_id(p_local_id text)
+returns bigint
+language sql
+immutable
+as $$
+  select case when p_local_id ~ '^[0-9]{1,18}$' then p_local_id::bigint end;
+$$;
+
+create or replace function public.kf_items_digest()
+returns trigger
+language plpgsql
+as $$
+begin
+  new.reconcile_id := public.kf_reconcile_id(new.local_id);
+  new.row_digest := public.kf_row_digest(concat_ws('|',
+    new.local_id, new.name, coalesce(new.category, ''),
+    round(coalesce(new.price, 0) * 100)::bigint,
+    round(coalesce(new.cost_price, 0) * 100)::bigint,
+    coalesce(new.barcode, '')));
+  return new;
+end;
+$$;
+
+create or replace function public.kf_parties_digest()
+returns trigger
+language plpgsql
+as $$
+begin
+  new.reconcile_id := public.kf_reconcile_id(new.local_id);
+  new.row_digest := public.kf_row_digest(concat_ws('|', new.local_id, new.type, new.name, coalesce(new.phone, '')));
+  return new;
+end;
+$$;
+
+create or replace function public.kf_transactions_digest()
+returns trigger
+language plpgsql
+as $$
+begin
+  new.reconcile_id := public.kf_reconcile_id(new.local_id);
+  new.row_digest := public.kf_row_digest(concat_ws('|',
+    new.local_id, new.type,
+    round(coalesce(new.amount, 0) * 100)::bigint,
+    coalesce(new.customer_local_id, ''), coalesce(new.vendor_local_id, '')));
+  return new;
+end;
+$$;
+
+drop trigger if exists kf_items_digest on public.kf_items;
+create trigger kf_items_digest before insert or update on public.kf_items
+  for each row execute function public.kf_items_digest();
+
+drop trigger if exists kf_parties_digest on public.kf_parties;
+create trigger kf_parties_digest before insert or update on public.kf_parties
+  for each row execute function public.kf_parties_digest();
+
+drop trigger if exists kf_transactions_digest on public.kf_transactions;
+create trigger kf_transactions_digest before insert or update on public.kf_transactions
+  for each row execute function public.kf_transactions_digest();
+
+-- Backfill through the digest triggers. The rows' content is unchanged, so changed_at stays put
+-- (pulling phones would otherwise re-read every row).
+alter table public.kf_items disable trigger kf_items_changed_at;
+alter table public.kf_parties disable trigger kf_parties_changed_at;
+alter table public.kf_transactions disable trigger kf_transactions_changed_at;
+
+update public.kf_items set reconcile_id = public.kf_reconcile_id(local_id) where row_digest is null;
+update public.kf_parties set reconcile_id = public.kf_reconcile_id(local_id) where row_digest is null;
+update public.kf_transactions set reconcile_id = public.kf_reconcile_id(local_id) where row_digest is null;
+
+alter table public.kf_items enable trigger kf_items_changed_at;
+alter table public.kf_parties enable trigger kf_parties_changed_at;
+alter table public.kf_transactions enable trigger kf_transactions_changed_at;
+
+-- 2) Line items, folded per transaction.
+create table if not exists public.kf_transaction_line_digests (
+  device_id text not null,
+  transaction_local_id text not null,
+  reconcile_id bigint null,
+  line_count bigint not null,
+  price_cents bigint not null,
+  row_digest bigint not null,
+  primary key (device_id, transaction_local_id)
+);
+
+-- Adds (p_lines, p_cents) to one transaction's fold; drops it when no lines are left.
+create or replace function public.kf_fold_transaction_lines(
+  p_device_id text,
+  p_transaction_local_id text,
+  p_lines bigint,
+  p_cents bigint
+)
+returns void
+language plpgsql
+as $$
+declare
+  v_count bigint;
+  v_cents bigint;
+begin
+  insert into public.kf_transaction_line_digests as d
+    (device_id, transaction_local_id, reconcile_id, line_count, price_cents, row_digest)
+  values (p_device_id, p_transaction_local_id, public.kf_reconcile_id(p_transaction_local_id), p_lines, p_cents, 0)
+  on conflict (device_id, transaction_local_id) do update
+    set line_count = d.line_count + excluded.line_count,
+        price_cents = d.price_cents + excluded.price_cents
+  returning line_count, price_cents into v_count, v_cents;
+
+  if v_count <= 0 then
+    delete from public.kf_transaction_line_digests
+    where device_id = p_device_id and transaction_local_id = p_transaction_local_id;
+  else
+    update public.kf_transaction_line_digests
+    set row_digest = public.kf_row_digest(concat_ws('|', p_transaction_local_id, v_count, v_cents))
+    where device_id = p_device_id and transaction_local_id = p_transaction_local_id;
+  end if;
+end;
+$$;
+
+create or replace function public.kf_transaction_items_digest()
+returns trigger
+language plpgsql
+as $$
+begin
+  if tg_op in ('UPDATE', 'DELETE') then
+    perform public.kf_fold_transaction_lines(old.device_id, old.transaction_local_id, -1, -round(old.price * 100)::bigint);
+  end if;
+  if tg_op in ('INSERT', 'UPDATE') then
+    perform public.kf_fold_transaction_lines(new.device_id, new.transaction_local_id, 1, round(new.price * 100)::bigint);
+  end if;
+  return null;
+end;
+$$;
+
+drop trigger if exists kf_transaction_items_digest on public.kf_transaction_items;
+create trigger kf_transaction_items_digest after insert or update or delete on public.kf_transaction_items
+  for each row execute function public.kf_transaction_items_digest();
+
+insert into public.kf_transaction_line_digests
+  (device_id, transaction_local_id, reconcile_id, line_count, price_cents, row_digest)
+select l.device_id, l.transaction_local_id, public.kf_reconcile_id(l.transaction_local_id),
+       count(*), sum(round(l.price * 100)::bigint),
+       public.kf_row_digest(concat_ws('|', l.transaction_local_id, count(*), sum(round(l.price * 100)::bigint)))
+from public.kf_transaction_items l
+group by l.device_id, l.transaction_local_id
+on conflict (device_id, transaction_local_id) do nothing;
+
+-- 3) Index-only reads per device and id range.
+create index if not exists kf_items_reconcile_idx
+  on public.kf_items (device_id, reconcile_id) include (row_digest);
+create index if not exists kf_parties_reconcile_idx
+  on public.kf_parties (device_id, reconcile_id) include (row_digest);
+create index if not exists kf_transactions_reconcile_idx
+  on public.kf_transactions (device_id, reconcile_id) include (row_digest);
+create index if not exists kf_transaction_line_digests_reconcile_idx
+  on public.kf_transaction_line_digests (device_id, reconcile_id) include (row_digest);
+
+-- 4) Same rows as 008, read from the stored digests. kf_reconcile_buckets / kf_reconcile_leaf_rows
+--    call this and keep their signatures.
+create or replace function public.kf_reconcile_rows(p_device_id text, p_table text)
+returns table(id bigint, digest bigint)
+language sql
+stable
+as $$
+  select i.reconcile_id, i.row_digest
+  from public.kf_items i
+  where p_table = 'kf_items' and i.device_id = p_device_id and i.reconcile_id is not null
+  union all
+  select p.reconcile_id, p.row_digest
+  from public.kf_parties p
+  where p_table = 'kf_parties' and p.device_id = p_device_id and p.reconcile_id is not null
+  union all
+  select t.reconcile_id, t.row_digest
+  from public.kf_transactions t
+  where p_table = 'kf_transactions' and t.device_id = p_device_id and t.reconcile_id is not null
+  union all
+  select d.reconcile_id, d.row_digest
+  from public.kf_transaction_line_digests d
+  where p_table = 'kf_transaction_items' and d.device_id = p_device_id and d.reconcile_id is not null;
+$$;
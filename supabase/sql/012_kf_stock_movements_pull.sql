@@ -0,0 +1,99 @@
+-- KiranaFlow: restocks for the shop-wide pull
+-- Run after:
+--   001_kf_sync_ops.sql
+--   002_kf_core_tables_and_apply.sql
+--   003_kf_transaction_items_and_stricter_apply.sql
+--   004_kf_batch_apply.sql
+--   005_kf_transaction_edits.sql
+--   006_kf_item_upsert_many.sql
+--   007_kf_pull_watermarks.sql
+--   008_kf_reconcile.sql
+--   009_kf_set_based_batch_apply.sql
+--   010_kf_shop_pull.sql
+--   011_kf_reconcile_digests.sql
+--
+-- kf_items.stock is whatever the last pushing phone had, so it cannot be pulled: every phone also
+-- deducts the sales it pulls, and an absolute value would count those twice or drop them. Item
+-- pushes now carry the stock change they made (stockDelta, in the item's unit; UPSERT_MANY per item),
+-- and each logged op with a non-zero one becomes a kf_stock_movements row, pulled like the others:
+--   GET /rest/v1/kf_stock_movements?shop_id=eq.<shop>&device_id=neq.<me>&order=changed_at.asc,...
+-- local_id is the op id (":<item id>" appended for UPSERT_MANY), so a replayed or re-logged op
+-- (009 re-logs ops it falls back on) adds no second movement. Sales are not movements here: the
+-- pulling phone deducts them from the pulled transaction lines.
+
+-- 1) shop_id / changed_at, as on the other pulled tables (010).
+alter table public.kf_stock_movements add column if not exists shop_id text;
+alter table public.kf_stock_movements add column if not exists changed_at timestamptz not null default now();
+
+update public.kf_stock_movements set shop_id = public.kf_shop_of(device_id) where shop_id is null;
+
+drop trigger if exists kf_stock_movements_shop_id on public.kf_stock_movements;
+create trigger kf_stock_movements_shop_id before insert on public.kf_stock_movements
+  for each row execute function public.kf_stamp_shop_id();
+
+drop trigger if exists kf_stock_movements_changed_at on public.kf_stock_movements;
+create trigger kf_stock_movements_changed_at before insert or update on public.kf_stock_movements
+  for each row execute function public.kf_touch_changed_at();
+
+create index if not exists kf_stock_movements_shop_changed_idx
+  on public.kf_stock_movements (shop_id, changed_at, device_id, local_id);
+
+-- 2) Item ops -> movements. A non-numeric stockDelta is ignored rather than failing the op.
+create or replace function public.kf_item_op_stock_movements()
+returns trigger
+language plpgsql
+as $$
+begin
+  if new.entity_type <> 'ITEM' or new.body is null then
+    return null;
+  end if;
+
+  if new.op = 'UPSERT' then
+    insert into public.kf_stock_movements(device_id, local_id, item_local_id, delta, source)
+    select new.device_id, new.op_id, m.item_local_id, (new.body->>'stockDelta')::numeric, 'EDIT'
+    from (select coalesce(new.entity_id, new.body->>'id') as item_local_id) m
+    where m.item_local_id is not null
+      and jsonb_typeof(new.body->'stockDelta') = 'number'
+      and (new.body->>'stockDelta')::numeric <> 0
+    on conflict (device_id, local_id) do nothing;
+  elsif new.op = 'UPSERT_MANY' and jsonb_typeof(new.body->'items') = 'array' then
+    insert into public.kf_stock_movements(device_id, local_id, item_local_id, delta, source)
+    select new.device_id, new.op_id || ':' || (e->>'id'), e->>'id', (e->>'stockDelta')::numeric, 'EDIT'
+    from jsonb_array_elements(new.body->'items') as e
+    where e->>'id' is not null
+      and jsonb_typeof(e->'stockDelta') = 'number'
+      and (e->>'stockDelta')::numeric <> 0
+    on conflict (device_id, local_id) do nothing;
+  end if;
+  return null;
+end;
+$$;
+
+drop trigger if exists kf_sync_ops_stock_movements on public.kf_sync_ops;
+create trigger kf_sync_ops_stock_movements after insert on public.kf_sync_ops
+  for each row execute function public.kf_item_op_stock_movements();
+
+-- 3) 010's kf_join_shop, moving the device's movements along too.
+create or replace function public.kf_join_shop(p_device_id text, p_shop_id text)
+returns text
+language plpgsql
+security definer
+as $$
+begin
+  if coalesce(p_device_id, '') = '' or coalesce(p_shop_id, '') = '' then
+    raise exception 'device and shop are required';
+  end if;
+
+  insert into public.kf_device_shops(device_id, shop_id)
+  values (p_device_id, p_shop_id)
+  on conflict (device_id) do update set shop_id = excluded.shop_id, joined_at = now()
+  where public.kf_device_shops.shop_id is distinct from excluded.shop_id;
+
+  update public.kf_items set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  update public.kf_parties set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  update public.kf_transactions set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  update public.kf_id_links set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  update public.kf_stock_movements set shop_id = p_shop_id where device_id = p_device_id and shop_id is distinct from p_shop_id;
+  return p_shop_id;
+end;
+$$;